@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Host version of android.os.Debug for the benchmarks.
+ *
+ * @author kacz
+ *
+ */
+public final class Debug {
+
+	private Debug() {
+	}
+
+	public static long threadCpuTimeNanos() {
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+}
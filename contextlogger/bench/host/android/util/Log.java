@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package android.util;
+
+/**
+ * Host version of android.util.Log for the benchmarks, the one of
+ * android.jar throws. Prints warnings and errors only.
+ *
+ * @author kacz
+ *
+ */
+public final class Log {
+
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		System.err.println("W/" + tag + ": " + msg);
+		return 0;
+	}
+
+	public static int e(String tag, String msg) {
+		System.err.println("E/" + tag + ": " + msg);
+		return 0;
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		System.err.println("E/" + tag + ": " + msg);
+		tr.printStackTrace();
+		return 0;
+	}
+}
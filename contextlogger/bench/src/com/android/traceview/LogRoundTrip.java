@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.android.traceview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import cz.cuni.kacz.contextlogger.FileDataTarget;
+import cz.cuni.kacz.contextlogger.LogType;
+import cz.cuni.kacz.contextlogger.SyntheticSession;
+import cz.cuni.kacz.contextlogger.TimeSource;
+
+/**
+ * Writes a SyntheticSession with FileDataTarget in each layout of the log
+ * format, reads it back with ContextLogReader and compares every value with
+ * a second session generated with the same seed. Prints the size, the write
+ * and decode time and the number of mismatching values of each layout, and
+ * exits with 1 if any value does not match.
+ * <p>
+ * Arguments: accelerometer noise in m/s^2, minutes, directory of the logs,
+ * "extra" to add the LONG and STRING channels. Defaults: 0.005 60
+ * /tmp/roundtrip.
+ *
+ * @author kacz
+ *
+ */
+public class LogRoundTrip {
+
+	private static final long SEED = 7;
+
+	/** Segment size of the rotated layouts. */
+	private static final long SEGMENT_BYTES = 512 * 1024;
+
+	private static final String[] LAYOUTS = { "row", "xor", "columnar",
+			"segments", "compressed" };
+
+	public static void main(String[] args) throws Exception {
+		double noise = args.length > 0 ? Double.parseDouble(args[0]) : 0.005;
+		long durationMs = (args.length > 1 ? Long.parseLong(args[1]) : 60) * 60 * 1000;
+		File dir = new File(args.length > 2 ? args[2] : "/tmp/roundtrip");
+		boolean extra = args.length > 3 && args[3].equals("extra");
+		dir.mkdirs();
+
+		long mismatches = 0;
+		for (String layout : LAYOUTS) {
+			mismatches += run(layout, dir, noise, durationMs, extra);
+		}
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+
+	private static long run(String layout, File dir, double noise,
+			long durationMs, boolean extra) throws IOException,
+			InterruptedException {
+		deleteLog(dir, layout);
+		String base = new File(dir, layout).getPath();
+		FileDataTarget target = new FileDataTarget(base) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean checkPermissions() {
+				return true;
+			}
+		};
+		target.setXorCompression(!layout.equals("row"));
+		target.setColumnar(layout.equals("columnar"));
+		if (layout.equals("segments") || layout.equals("compressed")) {
+			target.setRotation(SEGMENT_BYTES, 0);
+		}
+		if (layout.equals("compressed")) {
+			target.setSegmentCompression(6);
+		}
+
+		long startTime = TimeSource.getTimeOfDay();
+		long writeStart = System.nanoTime();
+		target.open();
+		int records = new SyntheticSession(SEED, noise, startTime,
+				durationMs, extra).write(target);
+		target.close();
+		long writeNanos = System.nanoTime() - writeStart;
+		if (layout.equals("compressed")) {
+			// the compressor finishes the last segments in the background
+			waitForCompression(dir, layout);
+		}
+
+		long readStart = System.nanoTime();
+		ContextLogReader reader = new ContextLogReader(base + ".clog");
+		Map<String, ContextLogData> rows = reader.getLogMapByName();
+		for (ContextLogData row : rows.values()) {
+			getValues(row);
+		}
+		long readNanos = System.nanoTime() - readStart;
+
+		long mismatches = compare(reader, new SyntheticSession(SEED, noise,
+				startTime, durationMs, extra));
+		long bytes = getLogBytes(dir, layout);
+		System.out.printf("%-10s records=%d size=%d (%.2f B/rec)"
+				+ " write %.0f ms, decode %.0f ms, mismatches=%d%n", layout,
+				records, bytes, bytes / (double) records, writeNanos / 1e6,
+				readNanos / 1e6, mismatches);
+		return mismatches;
+	}
+
+	/**
+	 * Compares the rows of the reader with the records of the session.
+	 *
+	 * @return Number of missing, extra or different values.
+	 */
+	private static long compare(ContextLogReader reader,
+			SyntheticSession session) {
+		Map<String, ContextLogData> byName = reader.getLogMapByName();
+		int channels = session.getChannelCount();
+		ContextLogData[][] rows = new ContextLogData[channels][];
+		long expected = 0;
+		long mismatches = 0;
+		for (int c = 0; c < channels; ++c) {
+			String[] names = SyntheticSession.NAMES[c].split(Pattern
+					.quote(LogType.VECTOR_LABEL_SEPARATOR));
+			rows[c] = new ContextLogData[names.length];
+			for (int i = 0; i < names.length; ++i) {
+				rows[c][i] = byName.get(names[i]);
+				if (rows[c][i] == null) {
+					System.out.println("missing row " + names[i]);
+					return 1;
+				}
+			}
+		}
+
+		long startTime = reader.getStartTime();
+		while (session.nextRecord()) {
+			ContextLogData[] channel = rows[session.getId()];
+			long key = session.getTime() - startTime;
+			for (int i = 0; i < channel.length; ++i) {
+				Object value = getValues(channel[i]).get(key);
+				Object wanted = getExpected(session, channel[i], i);
+				++expected;
+				if (!wanted.equals(value)) {
+					if (mismatches < 10) {
+						System.out.println(channel[i].getName() + " at "
+								+ key + ": " + value + ", expected "
+								+ wanted);
+					}
+					++mismatches;
+				}
+			}
+		}
+
+		long read = 0;
+		for (ContextLogData[] channel : rows) {
+			for (ContextLogData row : channel) {
+				read += getValues(row).size();
+			}
+		}
+		// the values read in addition to the expected ones
+		return mismatches + Math.max(0, read - expected);
+	}
+
+	private static Object getExpected(SyntheticSession session,
+			ContextLogData row, int component) {
+		switch (session.getId()) {
+		case SyntheticSession.ACCELERATION:
+			return session.getVectorValue(component);
+		case SyntheticSession.LIGHT:
+			return session.getFloatValue();
+		case SyntheticSession.LATITUDE:
+			return session.getDoubleValue();
+		case SyntheticSession.BATTERY:
+			return session.getIntValue();
+		case SyntheticSession.RECEIVED_BYTES:
+			return session.getLongValue();
+		default:
+			// strings are compared through the dictionary of the row
+			return row.getStringDictionary().getCode(
+					session.getStringValue());
+		}
+	}
+
+	private static Map<Long, ?> getValues(ContextLogData row) {
+		switch (row.getType()) {
+		case INT:
+			return row.getIntDataMap();
+		case LONG:
+			return row.getLongDataMap();
+		case FLOAT:
+			return row.getFloatDataMap();
+		case DOUBLE:
+			return row.getDoubleDataMap();
+		default:
+			return row.getStringCodeMap();
+		}
+	}
+
+	private static boolean isLogFile(File file, String layout) {
+		return Pattern.matches(Pattern.quote(layout)
+				+ "(\\.\\d+)?\\.clog(\\.z)?", file.getName());
+	}
+
+	private static void deleteLog(File dir, String layout) {
+		for (File file : dir.listFiles()) {
+			if (isLogFile(file, layout)) {
+				file.delete();
+			}
+		}
+	}
+
+	private static long getLogBytes(File dir, String layout) {
+		long bytes = 0;
+		for (File file : dir.listFiles()) {
+			if (isLogFile(file, layout)) {
+				bytes += file.length();
+			}
+		}
+		return bytes;
+	}
+
+	private static void waitForCompression(File dir, String layout)
+			throws InterruptedException {
+		Pattern segment = Pattern.compile(Pattern.quote(layout)
+				+ "\\.\\d+\\.clog");
+		for (int i = 0; i < 300; ++i) {
+			boolean done = true;
+			for (File file : dir.listFiles()) {
+				if (segment.matcher(file.getName()).matches()) {
+					done = false;
+				}
+			}
+			if (done) {
+				return;
+			}
+			Thread.sleep(100);
+		}
+		System.out.println("segments of " + layout + " not compressed");
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Compares TextFileDataTarget with the compact and the wide form of
+ * CsvDataTarget on a one hour synthetic session: two 50 Hz vectors, a 5 Hz
+ * light sensor, a battery level, a Wi-Fi state and received bytes. Times
+ * insertBatch() and close(), and counts the bytes allocated by the writing
+ * thread and the bytes written. Then writes random FLOAT, DOUBLE and LONG
+ * values into a compact CSV file, parses it back and prints the largest
+ * relative error of each type; exits with 1 if a value is off by more than
+ * the formatting precision.
+ * <p>
+ * Arguments: rounds, directory of the files. Defaults: 3 /tmp/csvbench.
+ *
+ * @author kacz
+ *
+ */
+public class CsvBench {
+
+	private static final int[] TYPES = { DataManager.FLOAT3,
+			DataManager.FLOAT3, DataManager.FLOAT, DataManager.INT,
+			DataManager.STRING, DataManager.LONG };
+
+	private static final String[] NAMES = { "X acc|Y acc|Z acc",
+			"X gyro|Y gyro|Z gyro", "Light", "Battery", "Wifi state",
+			"Rx bytes" };
+
+	/** Periods of the channels in microseconds. */
+	private static final long[] PERIODS = { 20000, 20000, 200000, 60000000,
+			30000000, 1000000 };
+
+	private static final String[] WIFI_STATES = { "CONNECTED",
+			"DISCONNECTED", "SCANNING" };
+
+	private static final long DURATION_MICROS = 3600L * 1000 * 1000;
+
+	/** Values of the round-trip check of each type. */
+	private static final int CHECK_VALUES = 200000;
+
+	private static class CheckTarget extends CsvDataTarget {
+		private static final long serialVersionUID = 1L;
+
+		CheckTarget(String fileName, long bucketMs) {
+			super(fileName, bucketMs);
+		}
+
+		@Override
+		public boolean checkPermissions() {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		File dir = new File(args.length > 1 ? args[1] : "/tmp/csvbench");
+		dir.mkdirs();
+
+		String[] kinds = { "text", "compact", "wide" };
+		long[] best = new long[kinds.length];
+		for (int round = 0; round < rounds; ++round) {
+			for (int k = 0; k < kinds.length; ++k) {
+				long nanos = run(kinds[k], new File(dir, kinds[k]).getPath(),
+						round == rounds - 1);
+				if (round == 0 || nanos < best[k]) {
+					best[k] = nanos;
+				}
+			}
+		}
+		for (int k = 0; k < kinds.length; ++k) {
+			System.out.printf("%-8s best %.0f ms%n", kinds[k], best[k] / 1e6);
+		}
+
+		boolean ok = check(new File(dir, "check").getPath());
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Writes the session into a target.
+	 *
+	 * @return Time spent in insertBatch() and close().
+	 */
+	private static long run(String kind, String fileName, boolean print) {
+		BatchDataTarget target;
+		if (kind.equals("text")) {
+			target = new TextFileDataTarget(fileName);
+		} else {
+			target = new CheckTarget(fileName, kind.equals("wide") ? 100 : 0);
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		target.open();
+		for (int i = 0; i < TYPES.length; ++i) {
+			target.registerListener(i, TYPES[i], NAMES[i]);
+		}
+		long origin = TimeSource.getTimeOfDay();
+		Random random = new Random(5);
+		LogBatch batch = new LogBatch(DataManager.DEFAULT_BATCH_SIZE);
+		long[] times = new long[TYPES.length];
+		long rxBytes = 0;
+		int records = 0;
+		long nanos = 0;
+		long allocated = 0;
+		boolean more = true;
+		while (more) {
+			batch.clear();
+			while (batch.size() < batch.capacity()) {
+				int id = 0;
+				long due = Long.MAX_VALUE;
+				for (int c = 0; c < TYPES.length; ++c) {
+					if (times[c] + PERIODS[c] < due) {
+						due = times[c] + PERIODS[c];
+						id = c;
+					}
+				}
+				if (due > DURATION_MICROS) {
+					more = false;
+					break;
+				}
+				times[id] = due;
+				long bits = 0;
+				long bits2 = 0;
+				String string = null;
+				switch (id) {
+				case 0:
+				case 1:
+					bits = DataManager.packFloats((float) random.nextGaussian(),
+							(float) random.nextGaussian());
+					bits2 = DataManager.packFloats(9.81f + (float) random
+							.nextGaussian(), Float.NaN);
+					break;
+				case 2:
+					bits = Float.floatToRawIntBits(200 + random.nextInt(50));
+					break;
+				case 3:
+					bits = 100 - (int) (due / 60000000);
+					break;
+				case 4:
+					string = WIFI_STATES[random.nextInt(WIFI_STATES.length)];
+					break;
+				case 5:
+					rxBytes += random.nextInt(5000);
+					bits = rxBytes;
+					break;
+				}
+				batch.add(id, origin + due, bits, bits2, string, 0);
+			}
+			batch.resolveTypes(TYPES, TYPES.length);
+			records += batch.size();
+			long start = System.nanoTime();
+			long allocatedStart = getAllocatedBytes(threads, thread);
+			target.insertBatch(batch);
+			nanos += System.nanoTime() - start;
+			allocated += getAllocatedBytes(threads, thread) - allocatedStart;
+		}
+		long start = System.nanoTime();
+		target.close();
+		nanos += System.nanoTime() - start;
+
+		if (print) {
+			System.out.printf("%-8s records=%d %.0f ms (%.2f us/rec),"
+					+ " %.0f B allocated/rec, %.1f MB written%n", kind,
+					records, nanos / 1e6, nanos / 1e3 / records, allocated
+							/ (double) records,
+					target.getBytesWritten() / 1e6);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Returns the bytes allocated by the thread, 0 if the JVM does not count
+	 * them.
+	 */
+	private static long getAllocatedBytes(ThreadMXBean threads, long thread) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(thread);
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes random values of each numeric type, including the extremes of
+	 * LONG, into a compact CSV file and compares the parsed values.
+	 *
+	 * @return True if the values match within the formatting precision.
+	 */
+	private static boolean check(String fileName) throws IOException {
+		CsvDataTarget target = new CheckTarget(fileName, 0);
+		target.open();
+		target.registerListener(0, DataManager.FLOAT, "float");
+		target.registerListener(1, DataManager.DOUBLE, "double");
+		target.registerListener(2, DataManager.LONG, "long");
+		Random random = new Random(1);
+		float[] floats = new float[CHECK_VALUES];
+		double[] doubles = new double[CHECK_VALUES];
+		long[] longs = new long[CHECK_VALUES];
+		for (int i = 0; i < CHECK_VALUES; ++i) {
+			floats[i] = (float) (random.nextGaussian() * Math.pow(10, random
+					.nextInt(24) - 8));
+			doubles[i] = random.nextGaussian()
+					* Math.pow(10, random.nextInt(30) - 10);
+			longs[i] = i == 0 ? Long.MIN_VALUE : i == 1 ? Long.MAX_VALUE
+					: random.nextLong();
+			target.insertLog(0, i, floats[i]);
+			target.insertLog(1, i, doubles[i]);
+			target.insertLog(2, i, longs[i]);
+		}
+		target.close();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName + ".csv"), "UTF-8"));
+		double floatError = 0;
+		double doubleError = 0;
+		int badLongs = 0;
+		try {
+			in.readLine(); // header
+			for (int i = 0; i < CHECK_VALUES; ++i) {
+				floatError = Math.max(floatError, relativeError(
+						Double.parseDouble(lastField(in.readLine())),
+						floats[i]));
+				doubleError = Math.max(doubleError, relativeError(Double
+						.parseDouble(lastField(in.readLine())), doubles[i]));
+				if (Long.parseLong(lastField(in.readLine())) != longs[i]) {
+					++badLongs;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		System.out.printf("round trip of %d values: largest relative error"
+				+ " FLOAT %.1e, DOUBLE %.1e, wrong LONG values %d%n",
+				CHECK_VALUES, floatError, doubleError, badLongs);
+		// 7 and 15 significant digits
+		return floatError <= 1e-6 && doubleError <= 1e-14 && badLongs == 0;
+	}
+
+	private static String lastField(String line) {
+		return line.substring(line.lastIndexOf(',') + 1);
+	}
+
+	private static double relativeError(double parsed, double value) {
+		if (value == 0) {
+			return parsed == 0 ? 0 : Double.POSITIVE_INFINITY;
+		}
+		return Math.abs(parsed - value) / Math.abs(value);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package cz.cuni.kacz.contextlogger;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Compares the throughput and latency of the record queues of DataManager,
+ * QUEUE_LINKED (LinkedBlockingQueue) and QUEUE_RING (LogRingBuffer). The
+ * producer threads insert FLOAT records as fast as they can into a lane of a
+ * target that only counts them; the latency is the time from the insert to
+ * the target. Also counts the garbage collections during the run.
+ * <p>
+ * Arguments: number of producers, records per producer, rounds. Defaults: 1
+ * 2000000 3.
+ *
+ * @author kacz
+ *
+ */
+public class QueueBench {
+
+	/** Target recording the latency of each record. */
+	private static class LatencyTarget extends DefaultDataTarget {
+		private static final long serialVersionUID = 1L;
+
+		private final long[] mLatencies;
+		private volatile int mCount = 0;
+
+		LatencyTarget(int expected) {
+			mLatencies = new long[expected];
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, float value) {
+			// the time of the records is System.nanoTime() of the insert
+			if (mCount < mLatencies.length) {
+				mLatencies[mCount] = System.nanoTime() - time;
+			}
+			mCount++;
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, int value) {
+			return;
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, long value) {
+			return;
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, double value) {
+			return;
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, String value) {
+			return;
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, float[] values) {
+			return;
+		}
+
+		@Override
+		public void registerListener(int listenerId, int type,
+				String listenerName) {
+			return;
+		}
+
+		@Override
+		public void open() {
+			return;
+		}
+
+		@Override
+		public void close() {
+			return;
+		}
+
+		@Override
+		public boolean checkPermissions() {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int producers = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		for (int round = 0; round < rounds; ++round) {
+			run(DataManager.QUEUE_LINKED, producers, records);
+			run(DataManager.QUEUE_RING, producers, records);
+		}
+	}
+
+	private static void run(int queueType, int producers, final int records)
+			throws InterruptedException {
+		final DataManager manager = new DataManager(queueType,
+				DataManager.DEFAULT_RING_CAPACITY,
+				DataManager.DEFAULT_BATCH_SIZE,
+				DataManager.DEFAULT_BATCH_LATENCY_MS);
+		manager.setOverflowPolicy(DataManager.OVERFLOW_BLOCK, 1);
+		long total = (long) producers * records;
+		LatencyTarget target = new LatencyTarget((int) Math.min(total,
+				4000000));
+		manager.addDataTarget(target);
+		final int[] ids = new int[producers];
+		for (int p = 0; p < producers; ++p) {
+			ids[p] = manager.registerListener("channel " + p,
+					DataManager.FLOAT);
+		}
+
+		System.gc();
+		long collections = getCollectionCount();
+		long start = System.nanoTime();
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; ++p) {
+			final int id = ids[p];
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < records; ++i) {
+						manager.insertLog(id, System.nanoTime(), (float) i);
+					}
+				}
+			});
+			threads[p].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		TargetLane lane = manager.getLanes()[0];
+		while (lane.getDelivered() + lane.getDropped() < total) {
+			Thread.sleep(1);
+		}
+		long elapsed = System.nanoTime() - start;
+		collections = getCollectionCount() - collections;
+		manager.finish();
+
+		long[] latencies = Arrays.copyOf(target.mLatencies, Math.min(
+				target.mCount, target.mLatencies.length));
+		Arrays.sort(latencies);
+		System.out.printf("%s producers=%d records=%d: %.2f Mrec/s,"
+				+ " latency p50=%dus p99=%dus p99.9=%dus, GCs=%d%n",
+				queueType == DataManager.QUEUE_RING ? "ring  " : "linked",
+				producers, total, total * 1000.0 / elapsed,
+				percentile(latencies, 0.5) / 1000,
+				percentile(latencies, 0.99) / 1000,
+				percentile(latencies, 0.999) / 1000, collections);
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[(int) (fraction * (sorted.length - 1))];
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+}
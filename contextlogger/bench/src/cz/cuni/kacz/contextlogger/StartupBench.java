@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.cuni.kacz.contextlogger.listeners.*;
+
+/**
+ * Time from ContextLogger.startLogging() to the first record delivered to a
+ * data target, for the listeners passed to the service as Java serialized
+ * objects and as ListenerDescriptors. Runs the part of the path a desktop JVM
+ * can run: encoding the listeners of the demo application, decoding them,
+ * setting up the DataManager, a target and the listeners as
+ * SessionManager.initListeners() does, and inserting the first record of the
+ * first listener, which waits for the target to receive it. The Messenger
+ * call, the permission checks, which need the application context, and
+ * starting the Android sensors are not included.
+ * <p>
+ * Only the first start in a JVM is cold, so each run measures one start;
+ * run it several times in fresh JVMs.
+ * <p>
+ * Arguments: serialized or descriptors.
+ *
+ * @author kacz
+ *
+ */
+public class StartupBench {
+
+	/** Target recording the time of the first record. */
+	private static class FirstRecordTarget extends DefaultDataTarget {
+		private static final long serialVersionUID = 1L;
+
+		private volatile long mFirstRecord = 0;
+
+		private void received() {
+			if (mFirstRecord == 0) {
+				mFirstRecord = System.nanoTime();
+			}
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, float value) {
+			received();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, int value) {
+			received();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, long value) {
+			received();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, double value) {
+			received();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, String value) {
+			received();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, float[] values) {
+			received();
+		}
+
+		@Override
+		public void registerListener(int listenerId, int type,
+				String listenerName) {
+			return;
+		}
+
+		@Override
+		public void open() {
+			return;
+		}
+
+		@Override
+		public void close() {
+			return;
+		}
+
+		@Override
+		public boolean checkPermissions() {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean descriptors = args.length > 0
+				&& args[0].equals("descriptors");
+		List<ContextListener> listeners = getListeners();
+
+		long start = System.nanoTime();
+		// application process
+		byte[] message;
+		ArrayList<ContextListener> serialized = new ArrayList<ContextListener>();
+		if (descriptors) {
+			message = ListenerDescriptors.encode(listeners, serialized);
+		} else {
+			message = serialize(new ArrayList<ContextListener>(listeners));
+		}
+
+		// background process
+		List<ContextListener> received;
+		if (descriptors) {
+			received = ListenerDescriptors.decode(message, serialized);
+		} else {
+			received = deserialize(message);
+		}
+		DataManager manager = new DataManager();
+		FirstRecordTarget target = new FirstRecordTarget();
+		manager.addDataTarget(target);
+		for (ContextListener l : received) {
+			l.init(manager);
+		}
+		long transferred = System.nanoTime();
+		// the first callback of the first listener
+		manager.insertLog(0, TimeSource.getTimeOfDay(), 1f);
+		while (target.mFirstRecord == 0) {
+			Thread.yield();
+		}
+		manager.finish();
+
+		System.out.printf("%s: %d listeners, %d bytes, listeners ready"
+				+ " after %.1f ms, first record after %.1f ms%n",
+				descriptors ? "descriptors" : "serialized", received.size(),
+				message.length, (transferred - start) / 1e6,
+				(target.mFirstRecord - start) / 1e6);
+	}
+
+	/**
+	 * Returns the listeners of the demo application.
+	 */
+	private static List<ContextListener> getListeners() {
+		List<ContextListener> l = new ArrayList<ContextListener>();
+		l.add(new AcceleraionListener());
+		l.add(new AmbientTemperatureListener());
+		l.add(new BarometerListener());
+		l.add(new BatteryListener());
+		l.add(new CpuListener());
+		l.add(new GpsLocationListener());
+		l.add(new GpsStatusListener());
+		l.add(new GyroscopeListener());
+		l.add(new LightListener());
+		l.add(new LinearAcceleraionListener());
+		l.add(new MagnetoListener());
+		l.add(new PassiveLocationListener());
+		l.add(new ProximityListener());
+		l.add(new RamListener(1234));
+		l.add(new RotationListener());
+		l.add(new ScreenBrightnessListener());
+		l.add(new ScreenOrientationListener());
+		l.add(new ScreenStateListener());
+		l.add(new TelephonyListener());
+		l.add(new TrafficListener());
+		l.add(new TrafficSpeedListener());
+		l.add(new WifiListener());
+		l.add(new WifiStateListener());
+		l.add(new WifiRSSIListener());
+		return l;
+	}
+
+	private static byte[] serialize(ArrayList<ContextListener> listeners)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(listeners);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<ContextListener> deserialize(byte[] message)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				message));
+		try {
+			return (List<ContextListener>) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
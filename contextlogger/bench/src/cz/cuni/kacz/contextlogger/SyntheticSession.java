@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic logging session for the benchmarks of the log
+ * format: a 50 Hz accelerometer (FLOAT3 with jittered timestamps, quantised
+ * to the resolution of a typical sensor), a light sensor (FLOAT, 5 Hz), a
+ * latitude (DOUBLE, 1 Hz) and a battery level (INT, 1 Hz). The extra
+ * channels add received bytes (LONG, 1 Hz) and a screen state (STRING,
+ * changing about once a minute).
+ * <p>
+ * Two sessions created with the same arguments produce the same records, so
+ * a reader of the written log can be checked against a second session.
+ *
+ * @author kacz
+ *
+ */
+public class SyntheticSession {
+
+	public static final int ACCELERATION = 0;
+	public static final int LIGHT = 1;
+	public static final int LATITUDE = 2;
+	public static final int BATTERY = 3;
+	public static final int RECEIVED_BYTES = 4;
+	public static final int SCREEN = 5;
+
+	/** Names of the channels, the components of a vector separated. */
+	public static final String[] NAMES = {
+			"X acceleration" + LogType.VECTOR_LABEL_SEPARATOR
+					+ "Y acceleration" + LogType.VECTOR_LABEL_SEPARATOR
+					+ "Z acceleration", "Light", "Latitude",
+			"Battery level", "Received bytes", "Screen state" };
+
+	/** Types of the channels. */
+	public static final int[] TYPES = { DataManager.FLOAT3,
+			DataManager.FLOAT, DataManager.DOUBLE, DataManager.INT,
+			DataManager.LONG, DataManager.STRING };
+
+	/** Periods of the channels in microseconds. */
+	private static final long[] PERIODS = { 20000, 200000, 1000000, 1000000,
+			1000000, 1000000 };
+
+	/** Resolution of the accelerometer in m/s^2. */
+	private static final float RESOLUTION = 0.0095768f;
+
+	private static final String[] SCREEN_STATES = { "on", "off", "locked" };
+
+	private final Random mRandom;
+	private final Random mExtraRandom;
+	private final double mNoise;
+	private final long mStartTime;
+	private final long mEndTime;
+	private final int mChannels;
+	private final long[] mTimes;
+
+	private float mGravityX = 0;
+	private float mGravityY = 0;
+	private float mLux = 250;
+	private double mLatitude = 50.0755;
+	private long mReceivedBytes = 0;
+	private int mScreen = 0;
+
+	private int mId;
+	private long mTime;
+	private long mBits;
+	private long mBits2;
+	private String mString;
+
+	/**
+	 * @param seed
+	 *            Seed of the random values.
+	 * @param noise
+	 *            Standard deviation of the accelerometer noise in m/s^2.
+	 * @param startTime
+	 *            Time of day of the start of the session in microseconds.
+	 * @param durationMs
+	 *            Duration of the session.
+	 * @param extra
+	 *            True to add the LONG and STRING channels.
+	 */
+	public SyntheticSession(long seed, double noise, long startTime,
+			long durationMs, boolean extra) {
+		mRandom = new Random(seed);
+		// the extra channels do not change the values of the others
+		mExtraRandom = new Random(seed + 1);
+		mNoise = noise;
+		mStartTime = startTime;
+		mEndTime = durationMs * 1000;
+		mChannels = extra ? TYPES.length : RECEIVED_BYTES;
+		mTimes = new long[mChannels];
+	}
+
+	/**
+	 * Returns the number of channels of the session.
+	 */
+	public int getChannelCount() {
+		return mChannels;
+	}
+
+	/**
+	 * Moves to the next record, the one of the channel due first.
+	 *
+	 * @return False at the end of the session.
+	 */
+	public boolean nextRecord() {
+		int id = 0;
+		long due = Long.MAX_VALUE;
+		for (int c = 0; c < mChannels; ++c) {
+			if (mTimes[c] + PERIODS[c] < due) {
+				due = mTimes[c] + PERIODS[c];
+				id = c;
+			}
+		}
+		if (due > mEndTime) {
+			return false;
+		}
+		if (id == ACCELERATION) {
+			due += mRandom.nextInt(400) - 200;
+		}
+		mTimes[id] = due;
+		mId = id;
+		mTime = mStartTime + due;
+		mBits2 = 0;
+		mString = null;
+		switch (id) {
+		case ACCELERATION:
+			mGravityX += mRandom.nextGaussian() * 0.02;
+			mGravityY += mRandom.nextGaussian() * 0.02;
+			mGravityX *= 0.99f;
+			mGravityY *= 0.99f;
+			mBits = DataManager.packFloats(quantise(mGravityX),
+					quantise(mGravityY));
+			mBits2 = DataManager.packFloats(quantise(9.81f), Float.NaN);
+			break;
+		case LIGHT:
+			if (mRandom.nextInt(10) == 0) {
+				mLux = Math.round(mLux + mRandom.nextGaussian() * 10);
+			}
+			mBits = Float.floatToRawIntBits(mLux);
+			break;
+		case LATITUDE:
+			mLatitude += mRandom.nextGaussian() * 1e-6;
+			mBits = Double.doubleToRawLongBits(mLatitude);
+			break;
+		case BATTERY:
+			mBits = 80 - (int) (due / 60000000);
+			break;
+		case RECEIVED_BYTES:
+			mReceivedBytes += mExtraRandom.nextInt(100000);
+			mBits = mReceivedBytes;
+			break;
+		case SCREEN:
+			if (mExtraRandom.nextInt(60) == 0) {
+				mScreen = mExtraRandom.nextInt(SCREEN_STATES.length);
+			}
+			mString = SCREEN_STATES[mScreen];
+			break;
+		}
+		return true;
+	}
+
+	private float quantise(float value) {
+		return Math.round((value + mRandom.nextGaussian() * mNoise)
+				/ RESOLUTION)
+				* RESOLUTION;
+	}
+
+	public int getId() {
+		return mId;
+	}
+
+	public long getTime() {
+		return mTime;
+	}
+
+	public int getIntValue() {
+		return (int) mBits;
+	}
+
+	public long getLongValue() {
+		return mBits;
+	}
+
+	public float getFloatValue() {
+		return Float.intBitsToFloat((int) mBits);
+	}
+
+	public double getDoubleValue() {
+		return Double.longBitsToDouble(mBits);
+	}
+
+	public String getStringValue() {
+		return mString;
+	}
+
+	/**
+	 * Returns a component of the vector value of the record.
+	 */
+	public float getVectorValue(int component) {
+		long bits = component < 2 ? mBits : mBits2;
+		if (component % 2 == 0) {
+			bits >>>= 32;
+		}
+		return Float.intBitsToFloat((int) bits);
+	}
+
+	/**
+	 * Registers the channels and writes the rest of the session into the
+	 * target in batches, as the consumer thread of DataManager does.
+	 *
+	 * @return Number of records written.
+	 */
+	public int write(BatchDataTarget target) {
+		for (int c = 0; c < mChannels; ++c) {
+			target.registerListener(c, TYPES[c], NAMES[c]);
+		}
+		LogBatch batch = new LogBatch(DataManager.DEFAULT_BATCH_SIZE);
+		int records = 0;
+		boolean more = true;
+		while (more) {
+			batch.clear();
+			while (batch.size() < batch.capacity()
+					&& (more = nextRecord())) {
+				batch.add(mId, mTime, mBits, mBits2, mString, 0);
+			}
+			batch.resolveTypes(TYPES, mChannels);
+			records += batch.size();
+			target.insertBatch(batch);
+		}
+		return records;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares the writer of FileDataTarget, ChannelWriter, with the
+ * DataOutputStream over an 8 KB BufferedOutputStream it replaced. Both write
+ * the same records, an id, a time and a value of a mix of INT, LONG, FLOAT,
+ * DOUBLE and FLOAT3 records with 5% STRING records, in batches of 256, and
+ * ChannelWriter checks its flush interval after each batch as
+ * FileDataTarget does. Prints records and megabytes per second and the
+ * garbage collections of each round and checks that the two files are
+ * identical.
+ * <p>
+ * Arguments: records, rounds, directory of the files. Defaults: 4000000 3
+ * /tmp/writerbench.
+ *
+ * @author kacz
+ *
+ */
+public class WriterBench {
+
+	private static final int BATCH_SIZE = 256;
+
+	/** Records generated once and written over and over. */
+	private static final int PATTERN_SIZE = 64 * 1024;
+
+	private static final String STRING_VALUE = "screen on";
+
+	private static int[] sTypes = new int[PATTERN_SIZE];
+	private static long[] sLongs = new long[PATTERN_SIZE];
+	private static double[] sDoubles = new double[PATTERN_SIZE];
+	/** Three FLOAT3 components per record, the first one also the FLOAT. */
+	private static float[] sFloats = new float[3 * PATTERN_SIZE];
+
+	public static void main(String[] args) throws IOException {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		File dir = new File(args.length > 2 ? args[2] : "/tmp/writerbench");
+		dir.mkdirs();
+		File streamFile = new File(dir, "stream.cdata");
+		File channelFile = new File(dir, "channel.cdata");
+
+		int[] mix = { DataManager.INT, DataManager.LONG, DataManager.FLOAT,
+				DataManager.DOUBLE, DataManager.FLOAT3 };
+		Random random = new Random(9);
+		for (int i = 0; i < PATTERN_SIZE; ++i) {
+			int type = random.nextInt(20) == 0 ? DataManager.STRING
+					: mix[random.nextInt(mix.length)];
+			sTypes[i] = type;
+			sLongs[i] = random.nextLong();
+			sDoubles[i] = random.nextGaussian();
+			for (int c = 0; c < 3; ++c) {
+				sFloats[3 * i + c] = (float) random.nextGaussian();
+			}
+		}
+
+		for (int round = 0; round < rounds; ++round) {
+			long collections = getCollections();
+			long start = System.nanoTime();
+			long bytes = writeStream(streamFile, records);
+			print("DataOutputStream", records, bytes, System.nanoTime()
+					- start, getCollections() - collections);
+
+			collections = getCollections();
+			start = System.nanoTime();
+			bytes = writeChannel(channelFile, records);
+			print("ChannelWriter", records, bytes, System.nanoTime() - start,
+					getCollections() - collections);
+		}
+
+		boolean same = sameContent(streamFile, channelFile);
+		System.out.println(same ? "files are identical"
+				: "files differ");
+		System.exit(same ? 0 : 1);
+	}
+
+	private static long writeStream(File file, int records)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 8192));
+		try {
+			for (int i = 0; i < records; ++i) {
+				int p = i % PATTERN_SIZE;
+				out.writeInt(p & 63);
+				out.writeLong(1000L * i);
+				switch (sTypes[p]) {
+				case DataManager.INT:
+					out.writeInt((int) sLongs[p]);
+					break;
+				case DataManager.LONG:
+					out.writeLong(sLongs[p]);
+					break;
+				case DataManager.FLOAT:
+					out.writeFloat(sFloats[3 * p]);
+					break;
+				case DataManager.DOUBLE:
+					out.writeDouble(sDoubles[p]);
+					break;
+				case DataManager.FLOAT3:
+					out.writeFloat(sFloats[3 * p]);
+					out.writeFloat(sFloats[3 * p + 1]);
+					out.writeFloat(sFloats[3 * p + 2]);
+					break;
+				case DataManager.STRING:
+					out.writeUTF(STRING_VALUE);
+					break;
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return file.length();
+	}
+
+	private static long writeChannel(File file, int records)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		ChannelWriter out = new ChannelWriter(raf.getChannel(),
+				FileDataTarget.DEFAULT_BUFFER_SIZE,
+				FileDataTarget.DEFAULT_FLUSH_INTERVAL_MS);
+		try {
+			for (int i = 0; i < records; ++i) {
+				int p = i % PATTERN_SIZE;
+				out.writeInt(p & 63);
+				out.writeLong(1000L * i);
+				switch (sTypes[p]) {
+				case DataManager.INT:
+					out.writeInt((int) sLongs[p]);
+					break;
+				case DataManager.LONG:
+					out.writeLong(sLongs[p]);
+					break;
+				case DataManager.FLOAT:
+					out.writeFloat(sFloats[3 * p]);
+					break;
+				case DataManager.DOUBLE:
+					out.writeDouble(sDoubles[p]);
+					break;
+				case DataManager.FLOAT3:
+					out.writeFloat(sFloats[3 * p]);
+					out.writeFloat(sFloats[3 * p + 1]);
+					out.writeFloat(sFloats[3 * p + 2]);
+					break;
+				case DataManager.STRING:
+					out.writeUTF(STRING_VALUE);
+					break;
+				}
+				if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+					out.flushIfDue();
+				}
+			}
+		} finally {
+			out.close();
+			raf.close();
+		}
+		return file.length();
+	}
+
+	private static void print(String writer, int records, long bytes,
+			long nanos, long collections) {
+		System.out.printf("%-16s %5.1f Mrec/s %6.1f MB/s, %.1f MB,"
+				+ " %d GCs%n", writer, records * 1e3 / nanos, bytes * 1e3
+				/ nanos, bytes / 1e6, collections);
+	}
+
+	private static long getCollections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static boolean sameContent(File a, File b) throws IOException {
+		if (a.length() != b.length()) {
+			return false;
+		}
+		InputStream inA = new FileInputStream(a);
+		InputStream inB = new FileInputStream(b);
+		try {
+			byte[] bufferA = new byte[64 * 1024];
+			byte[] bufferB = new byte[64 * 1024];
+			int read;
+			while ((read = inA.read(bufferA)) > 0) {
+				int offset = 0;
+				while (offset < read) {
+					int n = inB.read(bufferB, offset, read - offset);
+					if (n < 0) {
+						return false;
+					}
+					offset += n;
+				}
+				for (int i = 0; i < read; ++i) {
+					if (bufferA[i] != bufferB[i]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} finally {
+			inA.close();
+			inB.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz 
+ * 
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package cz.cuni.kacz.contextlogger;
+
+/**
+ * Optional extension of the DataTarget interface for targets taking vector
+ * records, batches of records and idle calls. DefaultDataTarget implements
+ * it, so its subclasses get all the methods. A target implementing only
+ * DataTarget keeps working: its lane passes it the records one by one and
+ * vector records as STRING records, see
+ * DefaultDataTarget.insertLog(int, long, float[]).
+ * 
+ * @author kacz
+ * 
+ */
+public interface BatchDataTarget extends DataTarget {
+
+	/**
+	 * Saves a FLOAT3 or FLOAT4 type log record in the target.
+	 * 
+	 * @param listenerId
+	 *            ID of the piece of context.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param values
+	 *            Components of the value, the array is reused by the caller.
+	 */
+	public void insertLog(int listenerId, long time, float[] values);
+
+	/**
+	 * Saves a batch of log records in the target. The batch is reused by the
+	 * caller, the target must not keep a reference to it.
+	 * DefaultDataTarget implements this method by calling the insertLog method
+	 * of the matching type for each record.
+	 * 
+	 * @param batch
+	 *            Records to save, in the order they were logged.
+	 */
+	public void insertBatch(LogBatch batch);
+
+	/**
+	 * Returns the number of bytes written so far, 0 if the target does not
+	 * write bytes. Called from the thread calling the insert methods.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * Returns the time in nanoseconds without new records after which the
+	 * target wants onIdle() to be called, 0 if it does not need it. Called
+	 * from the thread calling the insert methods.
+	 * 
+	 * @return Time in nanoseconds.
+	 */
+	public long getIdleIntervalNanos();
+
+	/**
+	 * Called once when no records arrived for getIdleIntervalNanos() after the
+	 * last batch, e.g. to write out the buffered records. Called from the
+	 * thread calling the insert methods.
+	 */
+	public void onIdle();
+}
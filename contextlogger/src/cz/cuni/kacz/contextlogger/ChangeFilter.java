@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Arrays;
+
+/**
+ * Suppresses records of change-only pieces of context whose value did not
+ * change since the last passed record. The state is kept in primitive tables
+ * indexed by the ID of the piece of context.
+ * <p>
+ * When the value changes, the last suppressed record is passed before the new
+ * one, so a reader interpolating between the records sees when the old value
+ * ended. A heartbeat passes an unchanged value once the given time elapsed
+ * since the last passed record.
+ *
+ * @author kacz
+ *
+ */
+class ChangeFilter {
+
+	private final DataManager mManager;
+
+	/**
+	 * Change-only flags. Replaced by a larger copy under the lock, read
+	 * without locking on every inserted record.
+	 */
+	private volatile boolean[] mEnabled = new boolean[0];
+
+	private double[] mDeadBand = new double[0];
+	private long[] mHeartbeat = new long[0];
+
+	/** Last record passed to the lanes. */
+	private boolean[] mHasLast = new boolean[0];
+	private long[] mLastTime = new long[0];
+	private long[] mLastBits = new long[0];
+	private long[] mLastBits2 = new long[0];
+	private String[] mLastString = new String[0];
+
+	/** Last suppressed record. */
+	private boolean[] mHasPending = new boolean[0];
+	private long[] mPendingTime = new long[0];
+	private long[] mPendingBits = new long[0];
+	private long[] mPendingBits2 = new long[0];
+	private String[] mPendingString = new String[0];
+
+	/** Number of suppressed records. */
+	private long mSuppressed = 0;
+
+	ChangeFilter(DataManager manager) {
+		mManager = manager;
+	}
+
+	/**
+	 * Returns true if the piece of context is in the change-only mode.
+	 */
+	boolean isEnabled(int id) {
+		boolean[] enabled = mEnabled;
+		return id < enabled.length && enabled[id];
+	}
+
+	/**
+	 * Switches a piece of context to the change-only mode.
+	 *
+	 * @param id
+	 *            ID of the piece of context.
+	 * @param deadBand
+	 *            Changes of FLOAT, DOUBLE, FLOAT3 and FLOAT4 values smaller
+	 *            or equal to this are ignored. Ignored by the other types.
+	 * @param heartbeat
+	 *            Time after which an unchanged value is passed anyway, in the
+	 *            units of the timestamps. 0 for no heartbeat.
+	 */
+	synchronized void enable(int id, double deadBand, long heartbeat) {
+		if (id >= mDeadBand.length) {
+			grow(id + 1);
+		}
+		mDeadBand[id] = deadBand;
+		mHeartbeat[id] = heartbeat;
+		mHasLast[id] = false;
+		mHasPending[id] = false;
+		boolean[] enabled = mEnabled;
+		enabled[id] = true;
+		// publishes the settings to the producers
+		mEnabled = enabled;
+	}
+
+	private void grow(int length) {
+		length = Math.max(length, mDeadBand.length * 2);
+		mDeadBand = Arrays.copyOf(mDeadBand, length);
+		mHeartbeat = Arrays.copyOf(mHeartbeat, length);
+		mHasLast = Arrays.copyOf(mHasLast, length);
+		mLastTime = Arrays.copyOf(mLastTime, length);
+		mLastBits = Arrays.copyOf(mLastBits, length);
+		mLastBits2 = Arrays.copyOf(mLastBits2, length);
+		mLastString = Arrays.copyOf(mLastString, length);
+		mHasPending = Arrays.copyOf(mHasPending, length);
+		mPendingTime = Arrays.copyOf(mPendingTime, length);
+		mPendingBits = Arrays.copyOf(mPendingBits, length);
+		mPendingBits2 = Arrays.copyOf(mPendingBits2, length);
+		mPendingString = Arrays.copyOf(mPendingString, length);
+		mEnabled = Arrays.copyOf(mEnabled, length);
+	}
+
+	/**
+	 * Passes the record to the lanes unless it repeats the last passed value.
+	 * The records are published after the lock is released, so a full lane
+	 * blocking the publisher does not block the other pieces of context.
+	 *
+	 * @param type
+	 *            Type of the piece of context.
+	 * @see DataManager#publish(int, long, long, long, String)
+	 */
+	void offer(int id, int type, long time, long bits, long bits2,
+			String string) {
+		boolean hasPending;
+		long pendingTime = 0;
+		long pendingBits = 0;
+		long pendingBits2 = 0;
+		String pendingString = null;
+		synchronized (this) {
+			boolean changed = !mHasLast[id]
+					|| changed(id, type, bits, bits2, string);
+			if (!changed) {
+				long heartbeat = mHeartbeat[id];
+				if (heartbeat <= 0 || time - mLastTime[id] < heartbeat) {
+					mHasPending[id] = true;
+					mPendingTime[id] = time;
+					mPendingBits[id] = bits;
+					mPendingBits2[id] = bits2;
+					mPendingString[id] = string;
+					++mSuppressed;
+					return;
+				}
+			}
+			// the heartbeat passes the same value as the suppressed record
+			hasPending = changed && mHasPending[id];
+			if (hasPending) {
+				pendingTime = mPendingTime[id];
+				pendingBits = mPendingBits[id];
+				pendingBits2 = mPendingBits2[id];
+				pendingString = mPendingString[id];
+			}
+			mHasPending[id] = false;
+			mPendingString[id] = null;
+			mHasLast[id] = true;
+			mLastTime[id] = time;
+			mLastBits[id] = bits;
+			mLastBits2[id] = bits2;
+			mLastString[id] = string;
+		}
+		if (hasPending) {
+			mManager.publish(id, pendingTime, pendingBits, pendingBits2,
+					pendingString);
+		}
+		mManager.publish(id, time, bits, bits2, string);
+	}
+
+	private boolean changed(int id, int type, long bits, long bits2,
+			String string) {
+		long lastBits = mLastBits[id];
+		long lastBits2 = mLastBits2[id];
+		double deadBand = mDeadBand[id];
+		switch (type) {
+		case DataManager.STRING:
+			return string == null ? mLastString[id] != null : !string
+					.equals(mLastString[id]);
+		case DataManager.FLOAT:
+			return bits != lastBits
+					&& !(Math.abs(Float.intBitsToFloat((int) bits)
+							- Float.intBitsToFloat((int) lastBits)) <= deadBand);
+		case DataManager.DOUBLE:
+			return bits != lastBits
+					&& !(Math.abs(Double.longBitsToDouble(bits)
+							- Double.longBitsToDouble(lastBits)) <= deadBand);
+		case DataManager.FLOAT3:
+		case DataManager.FLOAT4:
+			if (bits == lastBits && bits2 == lastBits2) {
+				return false;
+			}
+			return floatChanged(bits >>> 32, lastBits >>> 32, deadBand)
+					|| floatChanged(bits, lastBits, deadBand)
+					|| floatChanged(bits2 >>> 32, lastBits2 >>> 32, deadBand)
+					|| floatChanged(bits2, lastBits2, deadBand);
+		default:
+			return bits != lastBits;
+		}
+	}
+
+	/** Compares two floats given by the raw bits in the low half of a long. */
+	private static boolean floatChanged(long bits, long lastBits,
+			double deadBand) {
+		return (int) bits != (int) lastBits
+				&& !(Math.abs(Float.intBitsToFloat((int) bits)
+						- Float.intBitsToFloat((int) lastBits)) <= deadBand);
+	}
+
+	/**
+	 * Passes the suppressed records that were not followed by a change, so the
+	 * readers know the value lasted until the end of the session.
+	 */
+	void flush() {
+		boolean[] hasPending;
+		long[] times;
+		long[] bits;
+		long[] bits2;
+		String[] strings;
+		synchronized (this) {
+			hasPending = mHasPending.clone();
+			times = mPendingTime.clone();
+			bits = mPendingBits.clone();
+			bits2 = mPendingBits2.clone();
+			strings = mPendingString.clone();
+			Arrays.fill(mHasPending, false);
+			Arrays.fill(mPendingString, null);
+		}
+		for (int id = 0; id < hasPending.length; ++id) {
+			if (hasPending[id]) {
+				mManager.publish(id, times[id], bits[id], bits2[id],
+						strings[id]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of suppressed records.
+	 */
+	synchronized long getSuppressed() {
+		return mSuppressed;
+	}
+}
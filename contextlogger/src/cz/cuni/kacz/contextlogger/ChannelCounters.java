@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe counters indexed by the ID of a piece of context. The counters
+ * are allocated in chunks; a new chunk is added when a counter beyond the
+ * current ones is incremented, the existing chunks are never copied, so no
+ * increment is lost.
+ *
+ * @author kacz
+ *
+ */
+class ChannelCounters {
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private volatile AtomicLongArray[] mChunks = new AtomicLongArray[0];
+
+	/**
+	 * Increments the counter of the piece of context.
+	 *
+	 * @return The new value of the counter.
+	 */
+	long incrementAndGet(int id) {
+		int chunk = id >>> CHUNK_BITS;
+		AtomicLongArray[] chunks = mChunks;
+		if (chunk >= chunks.length) {
+			chunks = grow(chunk);
+		}
+		return chunks[chunk].incrementAndGet(id & CHUNK_MASK);
+	}
+
+	/**
+	 * Returns the counter of the piece of context.
+	 */
+	long get(int id) {
+		int chunk = id >>> CHUNK_BITS;
+		AtomicLongArray[] chunks = mChunks;
+		if (chunk >= chunks.length) {
+			return 0;
+		}
+		return chunks[chunk].get(id & CHUNK_MASK);
+	}
+
+	/**
+	 * Returns the number of counters allocated so far. Counters of higher IDs
+	 * are zero.
+	 */
+	int length() {
+		return mChunks.length << CHUNK_BITS;
+	}
+
+	private synchronized AtomicLongArray[] grow(int chunk) {
+		AtomicLongArray[] chunks = mChunks;
+		if (chunk >= chunks.length) {
+			int old = chunks.length;
+			chunks = Arrays.copyOf(chunks, chunk + 1);
+			for (int i = old; i < chunks.length; ++i) {
+				chunks[i] = new AtomicLongArray(CHUNK_SIZE);
+			}
+			mChunks = chunks;
+		}
+		return chunks;
+	}
+}
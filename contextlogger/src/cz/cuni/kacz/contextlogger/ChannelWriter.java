@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes big-endian primitive values into a reusable direct buffer and the
+ * buffer into a file channel. The encoding matches DataOutputStream, so the
+ * readers of the files do not change. Writing a value does not allocate.
+ * <p>
+ * The buffer is written to the channel when it cannot hold the next value,
+ * and by flushIfDue() once the flush interval elapsed since the last write,
+ * which bounds the data lost when the process dies.
+ *
+ * @author kacz
+ *
+ */
+class ChannelWriter {
+
+	/** Largest length of a string in the modified UTF-8 encoding. */
+	private static final int MAX_UTF_LENGTH = 65535;
+
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+	private final long mFlushIntervalNanos;
+	private long mLastFlush;
+	private long mBytesWritten = 0;
+
+	/**
+	 * @param channel
+	 *            Channel to write to, at the position to write at.
+	 * @param bufferSize
+	 *            Size of the buffer in bytes, at least 64 KB.
+	 * @param flushIntervalMs
+	 *            Maximal time a value waits in the buffer, checked by
+	 *            flushIfDue().
+	 */
+	ChannelWriter(FileChannel channel, int bufferSize, long flushIntervalMs) {
+		mChannel = channel;
+		// a string record needs up to 3 * 65535 + 2 bytes
+		mBuffer = ByteBuffer.allocateDirect(Math.max(bufferSize,
+				3 * MAX_UTF_LENGTH + 16));
+		mFlushIntervalNanos = flushIntervalMs * 1000 * 1000;
+		mLastFlush = System.nanoTime();
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the buffer.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (mBuffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	void writeByte(int value) throws IOException {
+		ensure(1);
+		mBuffer.put((byte) value);
+	}
+
+	void writeInt(int value) throws IOException {
+		ensure(4);
+		mBuffer.putInt(value);
+	}
+
+	void writeLong(long value) throws IOException {
+		ensure(8);
+		mBuffer.putLong(value);
+	}
+
+	void writeFloat(float value) throws IOException {
+		ensure(4);
+		mBuffer.putFloat(value);
+	}
+
+	void writeDouble(double value) throws IOException {
+		ensure(8);
+		mBuffer.putDouble(value);
+	}
+
+	/**
+	 * Writes an unsigned variable length integer: 7 bits per byte, least
+	 * significant group first, the high bit set on all but the last byte.
+	 */
+	void writeVarLong(long value) throws IOException {
+		ensure(10);
+		ByteBuffer buffer = mBuffer;
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Writes a signed variable length integer, zig-zag encoded so that values
+	 * close to zero take few bytes.
+	 */
+	void writeZigZag(long value) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Writes a string like DataOutputStream.writeUTF(). A string longer than
+	 * 65535 bytes in the encoding is cut, instead of failing the record.
+	 */
+	void writeUTF(String value) throws IOException {
+		int chars = value.length();
+		int length = 0;
+		int end = 0;
+		while (end < chars) {
+			char c = value.charAt(end);
+			int bytes = (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff ? 2
+					: 3);
+			if (length + bytes > MAX_UTF_LENGTH) {
+				break;
+			}
+			length += bytes;
+			++end;
+		}
+		ensure(2 + length);
+		ByteBuffer buffer = mBuffer;
+		buffer.putShort((short) length);
+		for (int i = 0; i < end; ++i) {
+			char c = value.charAt(i);
+			if (c >= 0x0001 && c <= 0x007f) {
+				buffer.put((byte) c);
+			} else if (c <= 0x07ff) {
+				buffer.put((byte) (0xc0 | ((c >> 6) & 0x1f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else {
+				buffer.put((byte) (0xe0 | ((c >> 12) & 0x0f)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	/**
+	 * Writes raw bytes.
+	 */
+	void write(byte[] bytes) throws IOException {
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a part of a byte array.
+	 */
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		int end = offset + length;
+		while (offset < end) {
+			if (!mBuffer.hasRemaining()) {
+				flush();
+			}
+			int chunk = Math.min(end - offset, mBuffer.remaining());
+			mBuffer.put(bytes, offset, chunk);
+			offset += chunk;
+		}
+	}
+
+	/**
+	 * Returns the position of the next written byte, counted from the
+	 * position the channel had when the writer was created.
+	 */
+	long position() {
+		return mBytesWritten + mBuffer.position();
+	}
+
+	/**
+	 * Writes the buffer to the channel if the flush interval elapsed since
+	 * the last write.
+	 */
+	void flushIfDue() throws IOException {
+		if (System.nanoTime() - mLastFlush >= mFlushIntervalNanos) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel.
+	 */
+	void flush() throws IOException {
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mBytesWritten += mChannel.write(mBuffer);
+		}
+		mBuffer.clear();
+		mLastFlush = System.nanoTime();
+	}
+
+	/**
+	 * Writes the buffer to the channel and forces the file content to the
+	 * storage.
+	 */
+	void sync() throws IOException {
+		flush();
+		mChannel.force(false);
+	}
+
+	/**
+	 * Returns the number of bytes written to the channel so far.
+	 */
+	long getBytesWritten() {
+		return mBytesWritten;
+	}
+
+	/**
+	 * Writes the buffer and closes the channel.
+	 */
+	void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mChannel.close();
+		}
+	}
+}
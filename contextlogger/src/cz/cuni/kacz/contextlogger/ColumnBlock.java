@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Block of the records of a single piece of context, used by the columnar
+ * mode of FileDataTarget. The block keeps the time range and the minimum and
+ * maximum of each component of the values, so a reader can skip the block or
+ * summarize the piece of context without decoding the values.
+ * <p>
+ * The values are encoded like the records of the row format without the IDs:
+ * the first time is in the header, the following are zig-zag varints of the
+ * delta of deltas within the block, so every block can be decoded on its own.
+ * STRING values are dictionary codes, 2 + index of the entry, or 1 followed
+ * by the string if the dictionary is full.
+ *
+ * @author kacz
+ *
+ */
+class ColumnBlock {
+
+	/** Maximal number of records in a block. */
+	static final int MAX_VALUES = 1024;
+
+	/** Maximal time span of a block in microseconds. */
+	static final long MAX_SPAN = 10 * 1000 * 1000;
+
+	private final int mType;
+	private final int mArity;
+
+	private int mCount = 0;
+	private long mFirstTime;
+	private long mLastTime;
+	private long mLastDelta;
+
+	/** Minimum and maximum of each component, NaN values are skipped. */
+	private final double[] mMin;
+	private final double[] mMax;
+
+	private final Payload mBytes = new Payload();
+	private final DataOutputStream mOut = new DataOutputStream(mBytes);
+
+	/**
+	 * @param type
+	 *            Type of the piece of context, one of the DataManager types.
+	 */
+	ColumnBlock(int type) {
+		mType = type;
+		switch (type) {
+		case DataManager.STRING:
+			mArity = 0;
+			break;
+		case DataManager.FLOAT3:
+			mArity = 3;
+			break;
+		case DataManager.FLOAT4:
+			mArity = 4;
+			break;
+		default:
+			mArity = 1;
+		}
+		mMin = new double[mArity];
+		mMax = new double[mArity];
+	}
+
+	boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	/**
+	 * Returns true if the block should be written before a record with the
+	 * given time is added.
+	 */
+	boolean isFull(long time) {
+		return mCount == MAX_VALUES
+				|| (mCount > 0 && time - mFirstTime >= MAX_SPAN);
+	}
+
+	/**
+	 * Adds a record to the block.
+	 *
+	 * @param time
+	 *            Time relative to the start of the log.
+	 * @param bits
+	 *            Raw bits as stored by LogBatch, the dictionary code for
+	 *            STRING.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector.
+	 * @param literal
+	 *            String written after the code 1.
+	 */
+	void add(long time, long bits, long bits2, String literal)
+			throws IOException {
+		if (mCount == 0) {
+			mFirstTime = time;
+			mLastDelta = 0;
+			for (int c = 0; c < mArity; ++c) {
+				mMin[c] = Double.POSITIVE_INFINITY;
+				mMax[c] = Double.NEGATIVE_INFINITY;
+			}
+		} else {
+			long delta = time - mLastTime;
+			writeVarLong(zigZag(delta - mLastDelta));
+			mLastDelta = delta;
+		}
+		mLastTime = time;
+		++mCount;
+
+		switch (mType) {
+		case DataManager.INT:
+		case DataManager.LONG:
+			writeVarLong(zigZag(bits));
+			summarize(0, mType == DataManager.INT ? (int) bits : bits);
+			break;
+		case DataManager.FLOAT: {
+			float value = Float.intBitsToFloat((int) bits);
+			mOut.writeFloat(value);
+			summarize(0, value);
+			break;
+		}
+		case DataManager.DOUBLE: {
+			double value = Double.longBitsToDouble(bits);
+			mOut.writeDouble(value);
+			summarize(0, value);
+			break;
+		}
+		case DataManager.FLOAT3:
+		case DataManager.FLOAT4:
+			for (int c = 0; c < mArity; ++c) {
+				long word = c < 2 ? bits : bits2;
+				float value = Float.intBitsToFloat((int) ((c & 1) == 0 ? word >>> 32
+						: word));
+				mOut.writeFloat(value);
+				summarize(c, value);
+			}
+			break;
+		default:
+			writeVarLong(bits);
+			if (bits == 1) {
+				mOut.writeUTF(literal);
+			}
+			break;
+		}
+	}
+
+	private void summarize(int c, double value) {
+		if (value < mMin[c]) {
+			mMin[c] = value;
+		}
+		if (value > mMax[c]) {
+			mMax[c] = value;
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private void writeVarLong(long value) {
+		while ((value & ~0x7fL) != 0) {
+			mBytes.write((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		mBytes.write((int) value);
+	}
+
+	/**
+	 * Writes the block as a record and its entry of the block index, then
+	 * empties the block.
+	 * <p>
+	 * Record: varint of (ID << 2) | 2, varint number of records, zig-zag
+	 * varint first time, varint time span, minimum and maximum of each
+	 * component as doubles, varint length of the values and the values.
+	 * <p>
+	 * Index entry: int ID, long offset of the record, long offset of the
+	 * values, int length of the values, int number of records, long first
+	 * time, long last time, minimum and maximum of each component as doubles.
+	 */
+	void writeTo(ChannelWriter writer, int listenerId, DataOutputStream index)
+			throws IOException {
+		long offset = writer.position();
+		writer.writeVarLong(((long) listenerId << 2) | 2);
+		writer.writeVarLong(mCount);
+		writer.writeZigZag(mFirstTime);
+		writer.writeVarLong(mLastTime - mFirstTime);
+		for (int c = 0; c < mArity; ++c) {
+			writer.writeDouble(mMin[c]);
+			writer.writeDouble(mMax[c]);
+		}
+		writer.writeVarLong(mBytes.size());
+		long valuesOffset = writer.position();
+		writer.write(mBytes.array(), 0, mBytes.size());
+
+		index.writeInt(listenerId);
+		index.writeLong(offset);
+		index.writeLong(valuesOffset);
+		index.writeInt(mBytes.size());
+		index.writeInt(mCount);
+		index.writeLong(mFirstTime);
+		index.writeLong(mLastTime);
+		for (int c = 0; c < mArity; ++c) {
+			index.writeDouble(mMin[c]);
+			index.writeDouble(mMax[c]);
+		}
+
+		mBytes.reset();
+		mCount = 0;
+	}
+
+	/**
+	 * Byte array stream giving access to its array, so writing it does not
+	 * copy.
+	 */
+	private static class Payload extends ByteArrayOutputStream {
+		Payload() {
+			super(4 * 1024);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -31,13 +31,18 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Debug;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
 import android.util.Log;
 import android.widget.Toast;
 import cz.cuni.kacz.contextlogger.listeners.ContextListener;
+import cz.cuni.kacz.contextlogger.listeners.ListenerDescriptors;
 
 /**
  * ContextLogger proxy class.
@@ -88,6 +93,31 @@ public class ContextLogger {
 		this.mUseIntentDataTarget = use;
 	}
 
+	private int mIntentBatchSize = 0;
+	private long mIntentBatchIntervalMs = 0;
+	private int mIntentMaxRate = 0;
+
+	/**
+	 * Makes IntentDataTarget send the records in batches, see
+	 * IntentDataTarget.setBatching(). Takes effect in the next logging
+	 * session.
+	 * 
+	 * @param maxRecords
+	 *            Largest number of records of a broadcast, 0 to send each
+	 *            record in its own broadcast.
+	 * @param intervalMs
+	 *            Time between two broadcasts of the records collected so far.
+	 * @param maxRateHz
+	 *            Largest number of records per second sent of each piece of
+	 *            context, 0 for no limit.
+	 */
+	public void setIntentBatching(int maxRecords, long intervalMs,
+			int maxRateHz) {
+		this.mIntentBatchSize = maxRecords;
+		this.mIntentBatchIntervalMs = intervalMs;
+		this.mIntentMaxRate = maxRateHz;
+	}
+
 	private boolean mUseTextFileDataTarget;
 
 	/**
@@ -100,6 +130,224 @@ public class ContextLogger {
 		this.mUseTextFileDataTarget = use;
 	}
 
+	private boolean mUseCsvDataTarget;
+	private long mCsvBucketMs;
+
+	/**
+	 * Enables or disables CsvDataTarget.
+	 * 
+	 * @param use
+	 *            True for enable, false for disable.
+	 * @param bucketMs
+	 *            Time span of a line of the wide CSV form in milliseconds, 0
+	 *            for the compact channel,time,value form.
+	 */
+	public void useCsvTarget(boolean use, long bucketMs) {
+		this.mUseCsvDataTarget = use;
+		this.mCsvBucketMs = bucketMs;
+	}
+
+	private int mQueueCapacity = DataManager.DEFAULT_RING_CAPACITY;
+
+	/**
+	 * Sets the maximal number of records waiting for each data target. Takes
+	 * effect in the next logging session.
+	 * 
+	 * @param capacity
+	 *            Number of records.
+	 */
+	public void setQueueCapacity(int capacity) {
+		this.mQueueCapacity = capacity;
+	}
+
+	private int mOverflowPolicy = DataManager.OVERFLOW_DROP_NEWEST;
+	private int mOverflowSampleRate = DataManager.DEFAULT_OVERFLOW_SAMPLE_RATE;
+
+	/**
+	 * Sets what happens to the records when a data target cannot keep up.
+	 * Takes effect in the next logging session.
+	 * 
+	 * @param policy
+	 *            One of the DataManager.OVERFLOW_ constants.
+	 * @param sampleRate
+	 *            N of DataManager.OVERFLOW_SAMPLE, every N-th record of each
+	 *            piece of context is kept.
+	 */
+	public void setOverflowPolicy(int policy, int sampleRate) {
+		this.mOverflowPolicy = policy;
+		this.mOverflowSampleRate = sampleRate;
+	}
+
+	private long mSelfMonitorPeriod = 0;
+
+	/**
+	 * Enables logging of the logger's own metrics (insert rate, backlog,
+	 * latency, write time, bytes written and CPU time of each data target)
+	 * as pieces of context labeled with DataManager.SELF_MONITOR_PREFIX. Takes
+	 * effect in the next logging session.
+	 * 
+	 * @param periodMs
+	 *            Sampling period in milliseconds, 0 to disable.
+	 */
+	public void setSelfMonitorPeriod(long periodMs) {
+		this.mSelfMonitorPeriod = periodMs;
+	}
+
+	private boolean mChangeOnlyLogging = false;
+
+	/**
+	 * Lets the listeners of the library log their slowly changing pieces of
+	 * context (battery, telephony signal, low memory flags) only when the
+	 * value changes, and at least once a minute. Takes effect in the next
+	 * logging session.
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void useChangeOnlyLogging(boolean enable) {
+		this.mChangeOnlyLogging = enable;
+	}
+
+	private boolean mXorCompression = false;
+
+	/**
+	 * Enables XOR compression of FLOAT, DOUBLE, FLOAT3 and FLOAT4 values in the
+	 * binary log file. Smaller files for sensor data at the cost of some CPU
+	 * time and of losing up to 10 s of such values if the service dies. Takes
+	 * effect in the next logging session.
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void useXorCompression(boolean enable) {
+		this.mXorCompression = enable;
+	}
+
+	private boolean mColumnar = false;
+
+	/**
+	 * Writes the binary log file in column blocks with per-block summaries
+	 * and a block index, so the viewer can load only the pieces of context
+	 * and time ranges it shows. Takes precedence over useXorCompression().
+	 * Takes effect in the next logging session.
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void useColumnarFormat(boolean enable) {
+		this.mColumnar = enable;
+	}
+
+	private long mSegmentBytes = 0;
+	private long mSegmentMs = 0;
+
+	/**
+	 * Splits the binary log file into segments, so a long session is not lost
+	 * with a single damaged file. The log name then refers to a manifest
+	 * listing the segments, which the viewer opens as one log. Takes effect in
+	 * the next logging session.
+	 * 
+	 * @param maxSegmentBytes
+	 *            Size of a segment in bytes, 0 for no limit.
+	 * @param maxSegmentMs
+	 *            Time span of a segment in milliseconds, 0 for no limit.
+	 */
+	public void setLogRotation(long maxSegmentBytes, long maxSegmentMs) {
+		this.mSegmentBytes = maxSegmentBytes;
+		this.mSegmentMs = maxSegmentMs;
+	}
+
+	private int mSegmentCompression = 0;
+
+	/**
+	 * Compresses the closed segments of a rotated log by DEFLATE in the
+	 * background, see setLogRotation(). Takes effect in the next logging
+	 * session.
+	 * 
+	 * @param level
+	 *            Compression level from 1 (fastest) to 9 (smallest), 0 for no
+	 *            compression.
+	 */
+	public void setSegmentCompression(int level) {
+		this.mSegmentCompression = level;
+	}
+
+	private long mCheckpointInterval = FileDataTarget.DEFAULT_CHECKPOINT_INTERVAL_MS;
+
+	/**
+	 * Sets how often the binary log file is synced to the storage with the
+	 * records collected in blocks, see FileDataTarget.setCheckpointInterval().
+	 * The log of a session that did not end is readable up to the last
+	 * checkpoint, or further if the data reached the file. Takes effect in
+	 * the next logging session.
+	 * 
+	 * @param intervalMs
+	 *            Time between two checkpoints in milliseconds, 0 for none.
+	 */
+	public void setCheckpointInterval(long intervalMs) {
+		this.mCheckpointInterval = intervalMs;
+	}
+
+	/**
+	 * Receives the statistics requested by requestStats().
+	 */
+	public interface StatsCallback {
+		/**
+		 * Called on the main thread with the statistics of the logger.
+		 * 
+		 * @param stats
+		 *            Bundle with the keys described in LoggerStats.
+		 */
+		public void onStats(Bundle stats);
+	}
+
+	/**
+	 * Requests the current statistics of the logging pipeline from the
+	 * background process.
+	 * 
+	 * @param callback
+	 *            Receives the statistics.
+	 * @return False if the background process is not connected.
+	 */
+	public boolean requestStats(final StatsCallback callback) {
+		if (mEmbedded) {
+			final Handler mainHandler = new Handler(Looper.getMainLooper());
+			mEmbeddedHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					final Bundle stats = mSessionManager.collectStats();
+					mainHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							callback.onStats(stats);
+						}
+					});
+				}
+			});
+			return true;
+		}
+		if (!mBound) {
+			return false;
+		}
+		Message msg = Message.obtain(null, ContextLoggerService.MSG_GET_STATS,
+				0, 0);
+		msg.replyTo = new Messenger(new Handler(Looper.getMainLooper()) {
+			@Override
+			public void handleMessage(Message reply) {
+				if (reply.what == ContextLoggerService.MSG_STATS) {
+					callback.onStats(reply.getData());
+				}
+			}
+		});
+		try {
+			mService.send(msg);
+		} catch (RemoteException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Enables or disables method tracing.
 	 * 
@@ -127,12 +375,25 @@ public class ContextLogger {
 	/** Flag indicating whether we have called bind on the service. */
 	boolean mBound;
 
+	/** Flag indicating the embedded mode, see initEmbedded(). */
+	private boolean mEmbedded = false;
+
+	/** Thread running the sessions in the embedded mode. */
+	private HandlerThread mEmbeddedThread = null;
+	private Handler mEmbeddedHandler = null;
+
+	/** Runs the sessions in the embedded mode. */
+	private SessionManager mSessionManager = null;
+
 	/** Default size of the trace file. */
 	private final int TRACE_BUFF_SUZE = 128 * 1024 * 1024;// 128M
 
 	/** List of ContextListeners to use. */
 	private final ArrayList<ContextListener> mListeners = new ArrayList<ContextListener>();
 
+	/** Data targets of the application, added in the embedded mode only. */
+	private final ArrayList<DataTarget> mDataTargets = new ArrayList<DataTarget>();
+
 	/**
 	 * Returns reference to the singleton instance.
 	 * 
@@ -181,9 +442,48 @@ public class ContextLogger {
 	}
 
 	/**
-	 * Stops the background service.
+	 * Initializes the library in the embedded mode. The DataManager, the data
+	 * targets and the listeners run in the process of the application on
+	 * background priority threads instead of the separate ContextLoggerService
+	 * process, so a session can start right away without waiting for the
+	 * service to bind. The listeners are used directly, not serialized copies
+	 * of them.
+	 * 
+	 * @param context
+	 * @return False if the library was already initialized.
+	 */
+	public boolean initEmbedded(Context context) {
+		if (mInitialized) {
+			return false;
+		}
+		mCallerContext = context;
+		mSessionManager = new SessionManager(context.getApplicationContext());
+		mSessionManager.getDataManager().setLanePriority(
+				Process.THREAD_PRIORITY_BACKGROUND);
+		mEmbeddedThread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		mEmbeddedThread.start();
+		mEmbeddedHandler = new Handler(mEmbeddedThread.getLooper());
+		mEmbedded = true;
+		mInitialized = true;
+		Log.i(TAG, "embedded mode initialized");
+		return true;
+	}
+
+	/**
+	 * Stops the background service, or the session thread in the embedded
+	 * mode once the pending requests are done.
 	 */
 	public void stopService() {
+		if (mEmbedded) {
+			mEmbeddedHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					Looper.myLooper().quit();
+				}
+			});
+			return;
+		}
 		mCallerContext.unbindService(mConnection);
 	}
 
@@ -224,7 +524,7 @@ public class ContextLogger {
 		Log.d(TAG, "startLogging");
 
 		// background process not connected
-		if (!mBound) {
+		if (!mBound && !mEmbedded) {
 			return;
 		}
 
@@ -239,13 +539,22 @@ public class ContextLogger {
 		initListeners();
 
 		// start logging
-		Message msg = Message.obtain(null,
-				ContextLoggerService.MSG_START_LOGGING, 0, 0);
-		try {
-			mService.send(msg);
-		} catch (RemoteException e) {
-			Log.d(TAG, "startLogging - START_MSG sending error");
-			e.printStackTrace();
+		if (mEmbedded) {
+			mEmbeddedHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mSessionManager.startLogging();
+				}
+			});
+		} else {
+			Message msg = Message.obtain(null,
+					ContextLoggerService.MSG_START_LOGGING, 0, 0);
+			try {
+				mService.send(msg);
+			} catch (RemoteException e) {
+				Log.d(TAG, "startLogging - START_MSG sending error");
+				e.printStackTrace();
+			}
 		}
 
 		// start tracing if needed
@@ -257,13 +566,14 @@ public class ContextLogger {
 	};
 
 	/**
-	 * Initializes the listeners. Serializes and sends the list of listeners to
-	 * the background process. They will be then registered and become ready to
-	 * start listening.
+	 * Initializes the listeners. Sends the list of listeners to the background
+	 * process, see ListenerDescriptors, or passes it to the session thread in the
+	 * embedded mode. They will be then registered and become ready to start
+	 * listening.
 	 */
 	private void initListeners() {
 		Log.d(TAG, "initListeners");
-		if (!mBound) {
+		if (!mBound && !mEmbedded) {
 			return;
 		}
 
@@ -274,16 +584,54 @@ public class ContextLogger {
 				Environment.DIRECTORY_DOWNLOADS).getAbsolutePath()
 				+ "/" + mTraceName + dateString;
 
-		// send the listeners to the service
-		Message msg = Message.obtain(null,
-				ContextLoggerService.MSG_INIT_LISTENERS, 0, 0);
-		Bundle data = new Bundle();
-		data.putSerializable("listeners", mListeners);
-
+		final Bundle data = new Bundle();
 		data.putString("fileName", mTracePath);
 		data.putBoolean("useTextFileDataTarget", mUseTextFileDataTarget);
+		data.putBoolean("useCsvDataTarget", mUseCsvDataTarget);
+		data.putLong("csvBucketMs", mCsvBucketMs);
 		data.putBoolean("useIntentDataTarget", mUseIntentDataTarget);
+		data.putInt("intentBatchSize", mIntentBatchSize);
+		data.putLong("intentBatchInterval", mIntentBatchIntervalMs);
+		data.putInt("intentMaxRate", mIntentMaxRate);
+		data.putInt("queueCapacity", mQueueCapacity);
+		data.putInt("overflowPolicy", mOverflowPolicy);
+		data.putInt("overflowSampleRate", mOverflowSampleRate);
+		data.putLong("selfMonitorPeriod", mSelfMonitorPeriod);
+		data.putBoolean("changeOnlyLogging", mChangeOnlyLogging);
+		data.putBoolean("xorCompression", mXorCompression);
+		data.putBoolean("columnarFormat", mColumnar);
+		data.putLong("segmentBytes", mSegmentBytes);
+		data.putLong("segmentMs", mSegmentMs);
+		data.putInt("segmentCompression", mSegmentCompression);
+		data.putLong("checkpointInterval", mCheckpointInterval);
 		Log.d(TAG, "intent setting set:" + mUseIntentDataTarget);
+
+		if (mEmbedded) {
+			final ArrayList<ContextListener> listeners = new ArrayList<ContextListener>(
+					mListeners);
+			final ArrayList<DataTarget> targets = new ArrayList<DataTarget>(
+					mDataTargets);
+			mEmbeddedHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mSessionManager.initTargets(data);
+					mSessionManager.addDataTargets(targets);
+					mSessionManager.initListeners(listeners);
+				}
+			});
+			return;
+		}
+
+		// send the listeners to the service, as descriptors if the service
+		// knows them
+		Message msg = Message.obtain(null,
+				ContextLoggerService.MSG_INIT_LISTENERS, 0, 0);
+		ArrayList<ContextListener> serialized = new ArrayList<ContextListener>();
+		data.putByteArray("listenerDescriptors", ListenerDescriptors.encode(
+				mListeners, serialized));
+		if (!serialized.isEmpty()) {
+			data.putSerializable("listeners", serialized);
+		}
 		msg.setData(data);
 
 		try {
@@ -305,7 +653,14 @@ public class ContextLogger {
 		}
 		mIsRunning = false;
 
-		if (mBound) {
+		if (mEmbedded) {
+			mEmbeddedHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mSessionManager.stopLogging();
+				}
+			});
+		} else if (mBound) {
 			// Create and send a message to the service, using a supported
 			// 'what'
 			// value
@@ -349,6 +704,38 @@ public class ContextLogger {
 		mListeners.add(listener);
 	};
 
+	/**
+	 * Adds a data target of the application, e.g. a LiveDataTarget to
+	 * subscribe to the records as they are logged. The target is used in each
+	 * following logging session, next to the targets enabled by the settings.
+	 * Available in the embedded mode only, as the background process cannot
+	 * pass the records back to the objects of the application.
+	 * 
+	 * @param target
+	 *            DataTarget to add.
+	 * @return False if the library is not in the embedded mode or the logging
+	 *         is in progress.
+	 */
+	public boolean addDataTarget(DataTarget target) {
+		if (!mEmbedded) {
+			Log.e(TAG, "Data targets can be added in the embedded mode only.");
+			return false;
+		}
+		if (mIsRunning == true) {
+			Log.e(TAG, "Logging already in progress.");
+			return false;
+		}
+		mDataTargets.add(target);
+		return true;
+	}
+
+	/**
+	 * Removes the data targets added by addDataTarget().
+	 */
+	public void clearDataTargets() {
+		mDataTargets.clear();
+	}
+
 
 	/**
 	 * Big-red-button signal.
@@ -20,10 +20,7 @@
 
 package cz.cuni.kacz.contextlogger;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 
 import android.app.Service;
 import android.content.Context;
@@ -33,9 +30,10 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.RemoteException;
 import android.util.Log;
-import android.widget.Toast;
 import cz.cuni.kacz.contextlogger.listeners.ContextListener;
+import cz.cuni.kacz.contextlogger.listeners.ListenerDescriptors;
 
 /**
  * Main class of the background process of the ContextLogger library. It is
@@ -52,8 +50,13 @@ public class ContextLoggerService extends Service {
 	static final int MSG_INIT_LISTENERS = 1;
 	static final int MSG_START_LOGGING = 2;
 	static final int MSG_STOP_LOGGING = 3;
+	static final int MSG_GET_STATS = 4;
+	static final int MSG_STATS = 5;
 
-	/** Reference to the ApplicationContext the service is bond to. */
+	/**
+	 * Reference to the ApplicationContext the service is bond to, or of the
+	 * application in the embedded mode.
+	 */
 	public static Context mAppContext = null;
 
 	/** Intent action used in the IntentDataTarget. */
@@ -64,21 +67,13 @@ public class ContextLoggerService extends Service {
 	 */
 	final Messenger mMessenger = new Messenger(new IncomingHandler());
 
-	/** List of ContextListeners we will use in the next logging session. */
-	private List<ContextListener> mListeners = null;
-
-	static {
-		System.loadLibrary("timesource");
-	}
-
-	/** DataManager instance responsible for storing the context logs. */
-	DataManager mDataManager = null;
+	/** Runs the logging sessions requested by the application. */
+	SessionManager mSessionManager = null;
 
 	@Override
 	public void onCreate() {
 		Log.i(TAG, "onCreate");
-		mAppContext = getApplicationContext();
-		mDataManager = new DataManager();
+		mSessionManager = new SessionManager(getApplicationContext());
 		Log.i(TAG, "onCreate ready");
 	}
 
@@ -103,17 +98,23 @@ public class ContextLoggerService extends Service {
 			switch (msg.what) {
 			case MSG_INIT_LISTENERS:
 				Log.i(TAG, "initListeners MSG rcvd");
-				initTargets(msg.getData());
-				initListeners((ArrayList<ContextListener>) msg.getData()
-						.getSerializable("listeners"));
+				mSessionManager.initTargets(msg.getData());
+				Bundle data = msg.getData();
+				mSessionManager.initListeners(ListenerDescriptors.decode(data
+						.getByteArray("listenerDescriptors"),
+						(ArrayList<ContextListener>) data
+								.getSerializable("listeners")));
 				break;
 			case MSG_START_LOGGING:
 				Log.i(TAG, "start MSG rcvd");
-				startLogging();
+				mSessionManager.startLogging();
 				break;
 			case MSG_STOP_LOGGING:
 				Log.i(TAG, "stop MSG rcvd");
-				stopLogging();
+				mSessionManager.stopLogging();
+				break;
+			case MSG_GET_STATS:
+				sendStats(msg.replyTo);
 				break;
 			default:
 				super.handleMessage(msg);
@@ -122,16 +123,21 @@ public class ContextLoggerService extends Service {
 	}
 
 	/**
-	 * Starts the logging session.
+	 * Sends the statistics of the DataManager to the foreground application.
+	 * 
+	 * @param replyTo
+	 *            Messenger of the requesting application.
 	 */
-	private void startLogging() {
-		Log.d(TAG, "startlogging");
-
-		// timerTest();
-
-		// start the listeners
-		for (ContextListener l : mListeners) {
-			l.startListening();
+	private void sendStats(Messenger replyTo) {
+		if (replyTo == null) {
+			return;
+		}
+		Message msg = Message.obtain(null, MSG_STATS, 0, 0);
+		msg.setData(mSessionManager.collectStats());
+		try {
+			replyTo.send(msg);
+		} catch (RemoteException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -237,84 +243,6 @@ public class ContextLoggerService extends Service {
 		Log.d(TAG, "min:" + min + " max:" + max + " avg:" + avg);
 	}
 
-	/**
-	 * Initializes the data targets used in this session. FileDataTarget is
-	 * always initialized. Other data targets are created if the foreground
-	 * application requested them. Filename for the data target comes from the
-	 * message.
-	 * 
-	 * @param msg
-	 *            Bundle message containing filename and flags for additional
-	 *            data targets.
-	 */
-	private void initTargets(Bundle msg) {
-		Log.d(TAG, "initTargets");
-
-		String fileName = msg.getString("fileName");
-		if (fileName == null) {
-			fileName = "default-"
-					+ new SimpleDateFormat("-yyMMdd-hhmmss").format(new Date());
-		}
-		// add the file target
-		DataTarget dt = new FileDataTarget(fileName);
-		dt.initCtx(getApplicationContext());
-		mDataManager.addDataTarget(dt);
-
-		if (msg.getBoolean("useTextFileDataTarget")) {
-			dt = new TextFileDataTarget(fileName);
-			dt.initCtx(getApplicationContext());
-			mDataManager.addDataTarget(dt);
-		}
-		if (msg.getBoolean("useIntentDataTarget")) {
-			Log.d(TAG, "intent setting received");
-			dt = new IntentDataTarget();
-			dt.initCtx(getApplicationContext());
-			mDataManager.addDataTarget(dt);
-		}
-
-	}
-
-	/**
-	 * Initializes the ContextListeners. Each listener from the list is checked
-	 * for permissions. If the permissions are satisfied, listener is added to
-	 * the list of initialized listeners.
-	 * 
-	 * @param listeners
-	 *            List of listeners comeing from the foreground application.
-	 */
-	private void initListeners(List<ContextListener> listeners) {
-		Log.d(TAG, "initListeners");
-
-		// register the listeners
-		mListeners = new ArrayList<ContextListener>(listeners.size());
-
-		for (ContextListener l : listeners) {
-			if (l.checkPermissions()) {
-				l.init(mDataManager);
-				mListeners.add(l);
-			} else {
-				String toastMessage = "Permission error in listener: "
-						+ l.getTag();
-				Toast toast = Toast.makeText(mAppContext, toastMessage,
-						Toast.LENGTH_SHORT);
-				toast.show();
-			}
-		}
-	}
-
-	/**
-	 * Stops the logging session.
-	 */
-	private void stopLogging() {
-		mDataManager.finish();
-		Log.d(TAG, "stoplogging");
-		for (ContextListener l : mListeners) {
-			l.stopListening();
-		}
-
-		// mListeners.clear();
-	}
-
 	@Override
 	public void onDestroy() {
 		// Tell the user we stopped.
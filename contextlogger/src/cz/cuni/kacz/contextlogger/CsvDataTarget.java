@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+/**
+ * DataTarget for saving context logs into a CSV file, fileName.csv, in one
+ * of two forms:
+ * <ul>
+ * <li>compact: a "channel,time,value" line per record, one line per
+ * component of a vector, the channel being the name of the piece of context
+ * or of the component,
+ * <li>wide: a line per time bucket with the time of the bucket and a column
+ * per piece of context or component, holding the last value logged in the
+ * bucket or nothing. A header line names the columns; it is repeated with
+ * the new columns at the end when pieces of context are registered later.
+ * </ul>
+ * Times are in microseconds since the start of the log. FLOAT values are
+ * written with 7 and DOUBLE values with 15 significant digits, strings are
+ * quoted if needed.
+ * <p>
+ * The text is formatted into a reusable byte buffer by hand, without
+ * creating strings, and the buffer is written to the file when it is full.
+ *
+ * @author kacz
+ *
+ */
+public class CsvDataTarget extends DefaultDataTarget {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final String TAG = "CsvDataTarget";
+
+	/** Significant digits of the FLOAT and DOUBLE values. */
+	private static final int FLOAT_DIGITS = 7;
+	private static final int DOUBLE_DIGITS = 15;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE)
+			.getBytes();
+
+	/**
+	 * Registered piece of context.
+	 */
+	private static class Channel {
+		final int mType;
+		/** First column of the piece of context in the wide form. */
+		final int mColumn;
+		/** Encoded names of the components, quoted if needed. */
+		final byte[][] mNames;
+
+		Channel(int type, int column, byte[][] names) {
+			mType = type;
+			mColumn = column;
+			mNames = names;
+		}
+	}
+
+	private final String mFileName;
+	private final long mBucketMicros;
+	private long mStartTime;
+
+	private FileOutputStream mOut;
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	private int mPosition = 0;
+	private long mBytesWritten = 0;
+
+	/** Pieces of context by ID, replaced by registerListener(). */
+	private volatile Channel[] mChannels = new Channel[0];
+
+	/** Number of columns of the registered pieces of context. */
+	private int mColumns = 0;
+
+	/** Columns of the last header line of the wide form. */
+	private int mHeaderColumns = 0;
+
+	/** Bucket of the open line of the wide form, -1 if there is none. */
+	private long mBucket = -1;
+
+	/** Cells of the open line of the wide form. */
+	private long[] mCellBits = new long[16];
+	private int[] mCellTypes = new int[16];
+	private String[] mCellStrings = new String[16];
+	private boolean[] mCellSet = new boolean[16];
+
+	/**
+	 * DataTarget saving the logs into a CSV file in the compact form.
+	 *
+	 * @param fileName
+	 *            Name of the file without the .csv extension.
+	 */
+	public CsvDataTarget(String fileName) {
+		this(fileName, 0);
+	}
+
+	/**
+	 * DataTarget saving the logs into a CSV file.
+	 *
+	 * @param fileName
+	 *            Name of the file without the .csv extension.
+	 * @param bucketMs
+	 *            Time span of a line of the wide form in milliseconds, 0 for
+	 *            the compact form.
+	 */
+	public CsvDataTarget(String fileName, long bucketMs) {
+		mFileName = fileName;
+		mBucketMicros = bucketMs * 1000;
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the buffer.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (mBuffer.length - mPosition < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		mOut.write(mBuffer, 0, mPosition);
+		mBytesWritten += mPosition;
+		mPosition = 0;
+	}
+
+	private void writeByte(int value) throws IOException {
+		ensure(1);
+		mBuffer[mPosition++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (bytes.length > mBuffer.length) {
+			flush();
+			mOut.write(bytes);
+			mBytesWritten += bytes.length;
+			return;
+		}
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, mBuffer, mPosition, bytes.length);
+		mPosition += bytes.length;
+	}
+
+	/**
+	 * Writes an integer in decimal.
+	 */
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			writeBytes(MIN_LONG);
+			return;
+		}
+		ensure(20);
+		if (value < 0) {
+			mBuffer[mPosition++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+			++digits;
+		}
+		writeDigits(value, digits);
+	}
+
+	/**
+	 * Writes the lowest given number of decimal digits of a non-negative
+	 * value, with leading zeros. The buffer must have room for them.
+	 */
+	private void writeDigits(long value, int digits) {
+		int end = mPosition + digits;
+		for (int i = end - 1; i >= mPosition; --i) {
+			mBuffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		mPosition = end;
+	}
+
+	/**
+	 * Writes a floating point value rounded to the given number of
+	 * significant digits, without an exponent and trailing zeros. Values
+	 * that need an exponent are written by Double.toString().
+	 */
+	private void writeDecimal(double value, int digits) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			writeBytes(Double.toString(value).getBytes());
+			return;
+		}
+		ensure(1);
+		if (value < 0) {
+			mBuffer[mPosition++] = '-';
+			value = -value;
+		}
+		if (value == 0) {
+			writeByte('0');
+			return;
+		}
+		if (value >= 1e15 || value < 1e-4) {
+			writeBytes((digits == FLOAT_DIGITS ? Float.toString((float) value)
+					: Double.toString(value)).getBytes());
+			return;
+		}
+		// decimal exponent of the first significant digit
+		int exponent = 0;
+		if (value >= 1) {
+			while (exponent < 15 && value >= POWERS_OF_TEN[exponent + 1]) {
+				++exponent;
+			}
+		} else {
+			while (value * POWERS_OF_TEN[-exponent] < 1) {
+				--exponent;
+			}
+		}
+		int fraction = Math.max(0, digits - 1 - exponent);
+		long scaled = Math.round(value * POWERS_OF_TEN[fraction]);
+		long integer = scaled / POWERS_OF_TEN[fraction];
+		long decimals = scaled % POWERS_OF_TEN[fraction];
+		writeLong(integer);
+		if (decimals == 0) {
+			return;
+		}
+		while (decimals % 10 == 0) {
+			decimals /= 10;
+			--fraction;
+		}
+		ensure(1 + fraction);
+		mBuffer[mPosition++] = '.';
+		writeDigits(decimals, fraction);
+	}
+
+	/**
+	 * Writes a string as a CSV field in UTF-8, quoted if it contains a comma,
+	 * a quote or a line break.
+	 */
+	private void writeField(String value) throws IOException {
+		int length = value.length();
+		boolean quote = false;
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+				quote = true;
+				break;
+			}
+		}
+		if (quote) {
+			writeByte('"');
+		}
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(i);
+			ensure(4);
+			byte[] buffer = mBuffer;
+			if (c < 0x80) {
+				if (c == '"') {
+					buffer[mPosition++] = '"';
+				}
+				buffer[mPosition++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[mPosition++] = (byte) (0xc0 | (c >> 6));
+				buffer[mPosition++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int code = Character.toCodePoint(c, value.charAt(++i));
+				buffer[mPosition++] = (byte) (0xf0 | (code >> 18));
+				buffer[mPosition++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+				buffer[mPosition++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+				buffer[mPosition++] = (byte) (0x80 | (code & 0x3f));
+			} else {
+				buffer[mPosition++] = (byte) (0xe0 | (c >> 12));
+				buffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[mPosition++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		if (quote) {
+			writeByte('"');
+		}
+	}
+
+	/**
+	 * Writes a value given by its raw bits as stored by LogBatch.
+	 */
+	private void writeValue(int type, long bits, String value)
+			throws IOException {
+		switch (type) {
+		case DataManager.INT:
+			writeLong((int) bits);
+			break;
+		case DataManager.LONG:
+			writeLong(bits);
+			break;
+		case DataManager.FLOAT:
+			writeDecimal(Float.intBitsToFloat((int) bits), FLOAT_DIGITS);
+			break;
+		case DataManager.DOUBLE:
+			writeDecimal(Double.longBitsToDouble(bits), DOUBLE_DIGITS);
+			break;
+		default:
+			writeField(value);
+			break;
+		}
+	}
+
+	/**
+	 * Returns the raw bits of a component of a vector.
+	 */
+	private static long getComponentBits(int c, long bits, long bits2) {
+		long word = c < 2 ? bits : bits2;
+		return (int) ((c & 1) == 0 ? word >>> 32 : word);
+	}
+
+	/**
+	 * Writes a record in the compact form or puts it into the open line of
+	 * the wide form.
+	 *
+	 * @param bits
+	 *            Raw bits as stored by LogBatch.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector.
+	 */
+	private void append(int listenerId, long time, long bits, long bits2,
+			String value) throws IOException {
+		Channel[] channels = mChannels;
+		if (listenerId >= channels.length || channels[listenerId] == null) {
+			return;
+		}
+		Channel channel = channels[listenerId];
+		int arity = channel.mNames.length;
+		boolean vector = channel.mType == DataManager.FLOAT3
+				|| channel.mType == DataManager.FLOAT4;
+		if (mBucketMicros > 0) {
+			startLine(time);
+			ensureCells(channel.mColumn + arity);
+			for (int c = 0; c < arity; ++c) {
+				int column = channel.mColumn + c;
+				if (vector) {
+					mCellBits[column] = getComponentBits(c, bits, bits2);
+					mCellTypes[column] = DataManager.FLOAT;
+				} else {
+					mCellBits[column] = bits;
+					mCellTypes[column] = channel.mType;
+					mCellStrings[column] = value;
+				}
+				mCellSet[column] = true;
+			}
+			return;
+		}
+		for (int c = 0; c < arity; ++c) {
+			writeBytes(channel.mNames[c]);
+			writeByte(',');
+			writeLong(time - mStartTime);
+			writeByte(',');
+			if (vector) {
+				writeValue(DataManager.FLOAT, getComponentBits(c, bits, bits2),
+						null);
+			} else {
+				writeValue(channel.mType, bits, value);
+			}
+			writeByte('\n');
+		}
+	}
+
+	/**
+	 * Makes room for the given number of cells in the open line.
+	 */
+	private void ensureCells(int columns) {
+		if (columns > mCellSet.length) {
+			int length = Math.max(columns, mCellSet.length * 2);
+			mCellBits = Arrays.copyOf(mCellBits, length);
+			mCellTypes = Arrays.copyOf(mCellTypes, length);
+			mCellStrings = Arrays.copyOf(mCellStrings, length);
+			mCellSet = Arrays.copyOf(mCellSet, length);
+		}
+	}
+
+	/**
+	 * Writes the open line of the wide form if the time is in a later bucket.
+	 * Records older than the open line are put into it.
+	 */
+	private void startLine(long time) throws IOException {
+		long bucket = (time - mStartTime) / mBucketMicros;
+		if (bucket <= mBucket) {
+			return;
+		}
+		if (mBucket >= 0) {
+			writeLine();
+		}
+		mBucket = bucket;
+	}
+
+	/**
+	 * Writes the open line of the wide form, preceded by a header line if
+	 * pieces of context were registered since the last one.
+	 */
+	private void writeLine() throws IOException {
+		Channel[] channels = mChannels;
+		int columns = 0;
+		for (Channel channel : channels) {
+			if (channel != null) {
+				columns = Math.max(columns, channel.mColumn
+						+ channel.mNames.length);
+			}
+		}
+		if (columns > mHeaderColumns) {
+			writeHeader(channels, columns);
+			ensureCells(columns);
+		}
+		writeLong(mBucket * mBucketMicros);
+		for (int column = 0; column < mHeaderColumns; ++column) {
+			writeByte(',');
+			if (mCellSet[column]) {
+				writeValue(mCellTypes[column], mCellBits[column],
+						mCellStrings[column]);
+				mCellSet[column] = false;
+				mCellStrings[column] = null;
+			}
+		}
+		writeByte('\n');
+	}
+
+	private void writeHeader(Channel[] channels, int columns)
+			throws IOException {
+		byte[][] names = new byte[columns][];
+		for (Channel channel : channels) {
+			if (channel != null) {
+				for (int c = 0; c < channel.mNames.length; ++c) {
+					names[channel.mColumn + c] = channel.mNames[c];
+				}
+			}
+		}
+		writeBytes("time".getBytes());
+		for (byte[] name : names) {
+			writeByte(',');
+			if (name != null) {
+				writeBytes(name);
+			}
+		}
+		writeByte('\n');
+		mHeaderColumns = columns;
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, int value) {
+		try {
+			append(listenerId, time, value, 0, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, long value) {
+		try {
+			append(listenerId, time, value, 0, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, float value) {
+		try {
+			append(listenerId, time, Float.floatToRawIntBits(value), 0, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, String value) {
+		try {
+			append(listenerId, time, 0, 0, value);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, double value) {
+		try {
+			append(listenerId, time, Double.doubleToRawLongBits(value), 0,
+					null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, float[] values) {
+		try {
+			int n = values.length;
+			append(listenerId, time, DataManager.packFloats(
+					n > 0 ? values[0] : Float.NaN, n > 1 ? values[1]
+							: Float.NaN), DataManager.packFloats(
+					n > 2 ? values[2] : Float.NaN, n > 3 ? values[3]
+							: Float.NaN), null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		try {
+			for (int i = 0; i < size; ++i) {
+				append(batch.getId(i), batch.getTime(i), batch.getBits(i),
+						batch.getBits2(i),
+						batch.getType(i) == DataManager.STRING ? batch
+								.getStringValue(i) : null);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds a channel, or a column for each component of a vector. Called from
+	 * the registering thread, the consumer sees the new array of channels.
+	 */
+	@Override
+	public synchronized void registerListener(int listenerId, int type,
+			String listenerName) {
+		String[] names;
+		if (type == DataManager.FLOAT3 || type == DataManager.FLOAT4) {
+			names = listenerName.split(Pattern
+					.quote(LogType.VECTOR_LABEL_SEPARATOR));
+		} else {
+			names = new String[] { listenerName };
+		}
+		byte[][] encoded = new byte[names.length][];
+		for (int c = 0; c < names.length; ++c) {
+			encoded[c] = encodeField(names[c]);
+		}
+		Channel[] channels = mChannels;
+		if (listenerId >= channels.length) {
+			channels = Arrays.copyOf(channels, Math.max(listenerId + 1,
+					channels.length * 2));
+		} else {
+			channels = channels.clone();
+		}
+		channels[listenerId] = new Channel(type, mColumns, encoded);
+		mColumns += names.length;
+		mChannels = channels;
+	}
+
+	/**
+	 * Returns a name as a CSV field in UTF-8.
+	 */
+	private static byte[] encodeField(String value) {
+		String field = value;
+		if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+				|| value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+			field = '"' + value.replace("\"", "\"\"") + '"';
+		}
+		try {
+			return field.getBytes("UTF-8");
+		} catch (IOException e) {
+			return field.getBytes();
+		}
+	}
+
+	@Override
+	public void open() {
+		try {
+			Log.d(TAG, "opening...");
+			mOut = new FileOutputStream(new File(mFileName + ".csv"));
+			mStartTime = TimeSource.getTimeOfDay();
+			Log.d(TAG, "start time: " + mStartTime);
+			if (mBucketMicros <= 0) {
+				writeBytes("channel,time,value\n".getBytes());
+			}
+		} catch (FileNotFoundException e) {
+			Log.d(TAG, "filenotfound");
+			e.printStackTrace();
+		} catch (IOException e) {
+			Log.d(TAG, "ioe");
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			Log.d(TAG, "closing...");
+			if (mBucket >= 0) {
+				writeLine();
+			}
+			flush();
+			mOut.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return mBytesWritten + mPosition;
+	}
+
+	@Override
+	public boolean checkPermissions() {
+		if (ContextLoggerService.mAppContext
+				.checkCallingOrSelfPermission("android.permission.WRITE_EXTERNAL_STORAGE") != PackageManager.PERMISSION_GRANTED) {
+			return false;
+		}
+		return true;
+	}
+
+}
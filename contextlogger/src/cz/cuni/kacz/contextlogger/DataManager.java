@@ -20,141 +20,239 @@
 
 package cz.cuni.kacz.contextlogger;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import android.os.Process;
 import android.util.Log;
 
 /**
  * Component responsible for passing the context log records to all the data
- * targets. Contains a blocking queue of log records. Runs a worker thread for
- * consuming the records from the queue.
+ * targets. Every data target gets its own lane: a bounded queue of records,
+ * either a blocking queue or a preallocated ring buffer, and a consumer thread
+ * passing the records to the target in batches. Inserting a record puts it
+ * into the queues of all the lanes, so a slow target only delays itself.
  * 
  * @author kacz
  * 
  */
-/**
- * @author kacz
- * 
- */
 public class DataManager {
 
 	private final String TAG = "DataManager";
 
-	boolean stop;
-
-	/** Queue of data targets. */
-	private final ConcurrentLinkedQueue<DataTarget> mDataTargets;
-
 	/**
-	 * Log name - log ID map.
+	 * Log name - log ID map. Used only by the String label compatibility
+	 * methods.
 	 */
 	private Map<String, Integer> mListenerIDs = null;
 
 	/**
-	 * List containing types of each log.
+	 * Types of each log indexed by the log ID. Replaced by a larger copy when
+	 * full, written only under the DataManager lock.
 	 */
-	private List<Integer> mValueTypes = null;
+	private volatile int[] mValueTypes = new int[32];
 
 	/**
-	 * Consuming thread of context log records.
+	 * Time of the first record of each log in this session, 0 if none yet.
+	 * Grown with mValueTypes; a time written to the old array while it is
+	 * copied is lost and taken from the next record.
 	 */
-	Thread mWorker = null;
+	private volatile long[] mFirstTimes = new long[32];
+
+	/** Number of registered logs, the next ID to hand out. */
+	private volatile int mListenerCount = 0;
+
+	/** Last values of the change-only logs. */
+	private volatile ChangeFilter mChangeFilter = new ChangeFilter(this);
+
+	/** The listeners switch their slow pieces of context to change-only. */
+	private volatile boolean mListenerChangeOnly = false;
 
 	/**
-	 * Queue containing log recirds.
+	 * Lanes of the data targets. Replaced by a new array when a target is
+	 * added or removed, so inserting a record needs no locking.
 	 */
-	private BlockingQueue<LogEntry> mLogs = null;
+	private volatile TargetLane[] mLanes = new TargetLane[0];
+
+	/** Number of records put into the lanes in this session. */
+	private final AtomicLong mEnqueued = new AtomicLong(0);
+
+	/** System.nanoTime() at the start of the session. */
+	private volatile long mSessionStart = System.nanoTime();
+
+	/** Logs the metrics of the lanes, null if not started. */
+	private SelfMonitor mSelfMonitor = null;
 
 	public static final int INT = 1;
 	public static final int LONG = 2;
 	public static final int FLOAT = 3;
 	public static final int DOUBLE = 4;
 	public static final int STRING = 5;
+	/** Vector of three floats, e.g. the X, Y and Z axis of a sensor. */
+	public static final int FLOAT3 = 6;
+	/** Vector of four floats. */
+	public static final int FLOAT4 = 7;
+
+	/** Records are passed through a bounded LinkedBlockingQueue. */
+	public static final int QUEUE_LINKED = 1;
+	/** Records are passed through a bounded preallocated ring buffer. */
+	public static final int QUEUE_RING = 2;
+
+	/** Default number of records waiting in the queue of a lane. */
+	public static final int DEFAULT_RING_CAPACITY = 16 * 1024;
+
+	/** Default maximal number of records passed to the targets at once. */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/** Default maximal time a lane waits to fill a batch. */
+	public static final long DEFAULT_BATCH_LATENCY_MS = 50;
+
+	/** A producer waits until the full lane frees a slot. */
+	public static final int OVERFLOW_BLOCK = 1;
+	/** The record inserted into a full lane is dropped. */
+	public static final int OVERFLOW_DROP_NEWEST = 2;
+	/** The oldest record of a full lane is dropped to make room. */
+	public static final int OVERFLOW_DROP_OLDEST = 3;
+	/**
+	 * Every N-th record of each piece of context inserted into a full lane
+	 * waits for a free slot, the others are dropped.
+	 */
+	public static final int OVERFLOW_SAMPLE = 4;
+
+	/** Default N of the OVERFLOW_SAMPLE policy. */
+	public static final int DEFAULT_OVERFLOW_SAMPLE_RATE = 10;
+
+	/**
+	 * Label of the STRING piece of context written to the targets at the end
+	 * of a session in which records were dropped. The value lists the number
+	 * of dropped records per piece of context.
+	 */
+	public static final String DROPPED_RECORDS_LABEL = "Dropped records";
+
+	/**
+	 * Label of the STRING piece of context with the start-up latency of each
+	 * listener, logged when the listener started: "tag latency", e.g.
+	 * "GpsLocationListener 35210us".
+	 */
+	public static final String LISTENER_START_LABEL = "Listener start";
+
+	/**
+	 * Label of the STRING piece of context with the time from the start of
+	 * the session to the first record of each listener, logged at the end of
+	 * the session: "tag time" or "tag none".
+	 */
+	public static final String LISTENER_FIRST_RECORD_LABEL = "Listener first record";
 
 	/**
-	 * Package private constructor for the DataManager class. Starts the worker
-	 * thread responsible for passing the records to the data targets.
+	 * Prefix of the labels of the pieces of context logged by the self
+	 * monitor, see startSelfMonitor.
+	 */
+	public static final String SELF_MONITOR_PREFIX = "CL ";
+
+	/** Time finish() waits for each lane to deliver its records. */
+	private static final long FINISH_TIMEOUT_MS = 5000;
+
+	/** QUEUE_LINKED or QUEUE_RING. */
+	private final int mQueueType;
+
+	/** Maximal number of records waiting in the queue of a lane. */
+	private volatile int mCapacity;
+
+	/** Overflow policy of the lanes, one of the OVERFLOW_ constants. */
+	private volatile int mOverflowPolicy = OVERFLOW_DROP_NEWEST;
+
+	/** N of the OVERFLOW_SAMPLE policy. */
+	private volatile int mSampleRate = DEFAULT_OVERFLOW_SAMPLE_RATE;
+
+	/** Android priority of the consumer threads of the lanes. */
+	private volatile int mLanePriority = Process.THREAD_PRIORITY_DEFAULT;
+
+	/** Maximal number of records passed to the targets at once. */
+	private final int mBatchSize;
+
+	/** Maximal time a lane waits to fill a batch. */
+	private final long mBatchLatencyNanos;
+
+	/**
+	 * Package private constructor for the DataManager class. Uses the ring
+	 * buffer with the default capacity.
 	 */
 	DataManager() {
-		mDataTargets = new ConcurrentLinkedQueue<DataTarget>();
-		
-		mLogs = new LinkedBlockingQueue<LogEntry>();
-
-		mListenerIDs = Collections
-				.synchronizedMap(new HashMap<String, Integer>());
-		mValueTypes = Collections.synchronizedList(new ArrayList<Integer>());
-
-		mWorker = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				stop = false;
-				try {
-					while (true) {
-						LogEntry entry = mLogs.take();
-						if (stop) {
-							continue;
-						}
-						Log.d(TAG, entry.label);
-						int listenerId = mListenerIDs.get(entry.label);
-						int type = mValueTypes.get(listenerId);
-						Log.d(TAG, "id: " + listenerId + " int: "
-								+ entry.intValue + " long: " + entry.longValue
-								+ " float: " + entry.floatValue + " string: "
-								+ entry.stringValue + " type: " + type);
-						switch (type) {
-						case INT:
-							for (DataTarget dt : mDataTargets) {
-								dt.insertLog(listenerId, entry.time,
-										entry.intValue);
-							}
-							break;
-						case LONG:
-							for (DataTarget dt : mDataTargets) {
-								dt.insertLog(listenerId, entry.time,
-										entry.longValue);
-							}
-							break;
-						case FLOAT:
-							for (DataTarget dt : mDataTargets) {
-								dt.insertLog(listenerId, entry.time,
-										entry.floatValue);
-							}
-							break;
-						case DOUBLE:
-							for (DataTarget dt : mDataTargets) {
-								dt.insertLog(listenerId, entry.time,
-										entry.doubleValue);
-							}
-							break;
-						case STRING:
-							if (entry.stringValue == null) {
-								entry.stringValue = "null";
-							}
-							for (DataTarget dt : mDataTargets) {
-								dt.insertLog(listenerId, entry.time,
-										entry.stringValue);
-							}
-							break;
-						}
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+		this(QUEUE_RING, DEFAULT_RING_CAPACITY, DEFAULT_BATCH_SIZE,
+				DEFAULT_BATCH_LATENCY_MS);
+	}
 
-			}
-		});
-		mWorker.start();
+	/**
+	 * Package private constructor for the DataManager class.
+	 * 
+	 * @param queueType
+	 *            QUEUE_LINKED or QUEUE_RING.
+	 * @param capacity
+	 *            Maximal number of records waiting in the queue of a lane.
+	 * @param batchSize
+	 *            Maximal number of records passed to the targets at once.
+	 * @param batchLatencyMs
+	 *            Maximal time in milliseconds a lane waits for more records
+	 *            before it passes an incomplete batch to its target.
+	 */
+	DataManager(int queueType, int capacity, int batchSize,
+			long batchLatencyMs) {
+		mQueueType = queueType;
+		mCapacity = capacity;
+		mBatchSize = batchSize;
+		mBatchLatencyNanos = TimeUnit.MILLISECONDS.toNanos(batchLatencyMs);
+		mListenerIDs = new ConcurrentHashMap<String, Integer>();
+	}
+
+	/**
+	 * Sets the maximal number of records waiting in the queue of a lane.
+	 * Applies to the data targets added afterwards.
+	 * 
+	 * @param capacity
+	 *            Number of records, rounded up to a power of two for
+	 *            QUEUE_RING.
+	 */
+	public void setQueueCapacity(int capacity) {
+		if (capacity > 0) {
+			mCapacity = capacity;
+		}
 	}
 
 	/**
-	 * Add data target to the list of targets.
+	 * Sets what happens to a record inserted into a full lane. Applies to the
+	 * data targets added afterwards. Dropped records are counted per piece of
+	 * context and written to the targets at the end of the session under
+	 * DROPPED_RECORDS_LABEL.
+	 * 
+	 * @param policy
+	 *            OVERFLOW_BLOCK, OVERFLOW_DROP_NEWEST, OVERFLOW_DROP_OLDEST or
+	 *            OVERFLOW_SAMPLE.
+	 * @param sampleRate
+	 *            N of the OVERFLOW_SAMPLE policy, ignored by the others.
+	 */
+	public void setOverflowPolicy(int policy, int sampleRate) {
+		mOverflowPolicy = policy;
+		mSampleRate = sampleRate > 0 ? sampleRate : 1;
+	}
+
+	/**
+	 * Sets the priority of the consumer threads of the lanes, e.g.
+	 * android.os.Process.THREAD_PRIORITY_BACKGROUND when the targets run in
+	 * the process of the application. Applies to the data targets added
+	 * afterwards.
+	 * 
+	 * @param priority
+	 *            Priority for android.os.Process.setThreadPriority().
+	 */
+	public void setLanePriority(int priority) {
+		mLanePriority = priority;
+	}
+
+	/**
+	 * Add data target to the list of targets. Starts the lane of the target.
 	 * 
 	 * @param t
 	 *            DataTarget to add.
@@ -162,28 +260,322 @@ public class DataManager {
 	public void addDataTarget(DataTarget t) {
 		if (t.checkPermissions()) {
 			t.open();
-			mDataTargets.add(t);
-			stop = false;
+			LogQueue queue;
+			if (mQueueType == QUEUE_RING) {
+				queue = new LogRingBuffer(mCapacity);
+			} else {
+				queue = new LinkedLogQueue(mCapacity);
+			}
+			TargetLane lane = new TargetLane(this, t, queue, mBatchSize,
+					mBatchLatencyNanos, mOverflowPolicy, mSampleRate,
+					mLanePriority);
+			synchronized (this) {
+				TargetLane[] lanes = Arrays.copyOf(mLanes, mLanes.length + 1);
+				lanes[lanes.length - 1] = lane;
+				mLanes = lanes;
+			}
+			lane.start();
 		}
 	}
 
 	/**
-	 * Stop the work of data targets. They will not accept more log records and
-	 * close their opened files if any.
+	 * Returns the lanes of the data targets, e.g. to read their backlog and
+	 * lag metrics.
+	 */
+	public TargetLane[] getLanes() {
+		return mLanes.clone();
+	}
+
+	/**
+	 * Returns the number of records put into the lanes in this session.
+	 * Records suppressed by the change-only mode are not counted.
+	 */
+	public long getEnqueued() {
+		return mEnqueued.get();
+	}
+
+	/**
+	 * Returns the number of records suppressed by the change-only mode in
+	 * this session.
+	 */
+	public long getSuppressed() {
+		return mChangeFilter.getSuppressed();
+	}
+
+	/**
+	 * Returns the time in nanoseconds elapsed since the start of the session.
+	 */
+	public long getSessionNanos() {
+		return System.nanoTime() - mSessionStart;
+	}
+
+	/**
+	 * Returns the timestamp of the first record of a piece of context in this
+	 * session.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @return The timestamp, 0 if no record was inserted yet.
+	 */
+	public long getFirstRecordTime(int listenerId) {
+		long[] firstTimes = mFirstTimes;
+		if (listenerId < 0 || listenerId >= firstTimes.length) {
+			return 0;
+		}
+		return firstTimes[listenerId];
+	}
+
+	/**
+	 * Returns the number of registered pieces of context, the ID the next one
+	 * gets.
+	 */
+	int getListenerCount() {
+		return mListenerCount;
+	}
+
+	/**
+	 * Starts logging the metrics of the DataManager and the lanes as pieces of
+	 * context labeled with SELF_MONITOR_PREFIX: rate of inserted records and,
+	 * for each data target, backlog, 99th percentile of the time from
+	 * inserting to writing a record, write time, bytes written and CPU time of
+	 * the lane. Must be called after the data targets were added; stopped by
+	 * finish().
+	 * 
+	 * @param periodMs
+	 *            Sampling period in milliseconds.
+	 */
+	public synchronized void startSelfMonitor(long periodMs) {
+		if (mSelfMonitor != null || periodMs <= 0) {
+			return;
+		}
+		mSelfMonitor = new SelfMonitor(this);
+		mSelfMonitor.start(periodMs);
+	}
+
+	/**
+	 * Stop the work of data targets. The lanes deliver the records already
+	 * inserted and the dropped records summary, then the targets close their
+	 * opened files if any.
 	 */
 	public void finish() {
-		stop = true;
-		Log.d(TAG, "stop true");
-		for (DataTarget dt : mDataTargets) {
-			dt.close();
+		TargetLane[] lanes;
+		int summaryId = -1;
+		String[] labels;
+		SelfMonitor monitor;
+		synchronized (this) {
+			monitor = mSelfMonitor;
+			mSelfMonitor = null;
+		}
+		if (monitor != null) {
+			monitor.stop();
+		}
+		mChangeFilter.flush();
+		Log.d(TAG, "change-only records suppressed: "
+				+ mChangeFilter.getSuppressed());
+		synchronized (this) {
+			for (TargetLane lane : mLanes) {
+				if (lane.getDropped() > 0) {
+					summaryId = registerListener(DROPPED_RECORDS_LABEL, STRING);
+					break;
+				}
+			}
+			labels = new String[mListenerCount];
+			for (Map.Entry<String, Integer> e : mListenerIDs.entrySet()) {
+				labels[e.getValue()] = e.getKey();
+			}
+			lanes = mLanes;
+			mLanes = new TargetLane[0];
+			mChangeFilter = new ChangeFilter(this);
+		}
+		for (TargetLane lane : lanes) {
+			lane.finish(summaryId, labels);
+		}
+		for (TargetLane lane : lanes) {
+			try {
+				lane.join(FINISH_TIMEOUT_MS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			Log.d(TAG, lane.getName() + ": delivered=" + lane.getDelivered() + " dropped="
+					+ lane.getDropped() + " maxLagMs="
+					+ TimeUnit.NANOSECONDS.toMillis(lane.getMaxLagNanos()));
+		}
+		synchronized (this) {
+			mListenerIDs.clear();
+			mListenerCount = 0;
+			mFirstTimes = new long[mValueTypes.length];
+			mEnqueued.set(0);
+			mSessionStart = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Resolves the types of the records in the batch, records of unknown
+	 * pieces of context are removed. Called by the lanes.
+	 * 
+	 * @param batch
+	 *            Batch to resolve.
+	 */
+	void resolveTypes(LogBatch batch) {
+		// the count is published after the type, read it first
+		int count = mListenerCount;
+		batch.resolveTypes(mValueTypes, count);
+	}
+
+	/**
+	 * Puts a record into the queues of all the lanes, or into the change
+	 * filter if the piece of context is in the change-only mode.
+	 * 
+	 * @param listenerId
+	 *            ID of the piece of context.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param bits
+	 *            Raw bits of a numeric value.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector value.
+	 * @param string
+	 *            Value of a STRING record, null otherwise.
+	 */
+	private void enqueue(int listenerId, long time, long bits, long bits2,
+			String string) {
+		long[] firstTimes = mFirstTimes;
+		if (listenerId >= 0 && listenerId < firstTimes.length
+				&& firstTimes[listenerId] == 0) {
+			firstTimes[listenerId] = time;
+		}
+		ChangeFilter filter = mChangeFilter;
+		if (listenerId >= 0 && filter.isEnabled(listenerId)) {
+			filter.offer(listenerId, mValueTypes[listenerId], time, bits,
+					bits2, string);
+			return;
+		}
+		publish(listenerId, time, bits, bits2, string);
+	}
+
+	/**
+	 * Puts a record into the queues of all the lanes.
+	 * 
+	 * @see #enqueue(int, long, long, long, String)
+	 */
+	void publish(int listenerId, long time, long bits, long bits2,
+			String string) {
+		TargetLane[] lanes = mLanes;
+		if (lanes.length == 0 || listenerId < 0) {
+			return;
+		}
+		mEnqueued.incrementAndGet();
+		long now = System.nanoTime();
+		for (TargetLane lane : lanes) {
+			lane.offer(listenerId, time, bits, bits2, string, now);
 		}
-		mDataTargets.clear();
-		mValueTypes.clear();
 	}
 
 	/**
 	 * Passes a LONG type log to the data targets.
 	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param value
+	 *            Value of the record.
+	 */
+	public void insertLog(int listenerId, long time, long value) {
+		enqueue(listenerId, time, value, 0, null);
+	}
+
+	/**
+	 * Passes a FLOAT type log to the data targets.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param value
+	 *            Value of the record.
+	 */
+	public void insertLog(int listenerId, long time, float value) {
+		enqueue(listenerId, time, Float.floatToRawIntBits(value), 0, null);
+	}
+
+	/**
+	 * Passes a INT type log to the data targets.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param value
+	 *            Value of the record.
+	 */
+	public void insertLog(int listenerId, long time, int value) {
+		enqueue(listenerId, time, value, 0, null);
+	}
+
+	/**
+	 * Passes a DOUBLE type log to the data targets.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param value
+	 *            Value of the record.
+	 */
+	public void insertLog(int listenerId, long time, double value) {
+		enqueue(listenerId, time, Double.doubleToRawLongBits(value), 0,
+				null);
+	}
+
+	/**
+	 * Passes a STING type log to the data targets.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param value
+	 *            Value of the record.
+	 */
+	public void insertLog(int listenerId, long time, String value) {
+		enqueue(listenerId, time, 0, 0, value);
+	}
+
+	/**
+	 * Passes a FLOAT3 or FLOAT4 type log to the data targets. Components
+	 * missing in the array are logged as NaN, components beyond the arity of
+	 * the piece of context are ignored.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param values
+	 *            Components of the value, e.g. SensorEvent.values.
+	 */
+	public void insertLog(int listenerId, long time, float[] values) {
+		int n = values.length;
+		enqueue(listenerId, time,
+				packFloats(n > 0 ? values[0] : Float.NaN,
+						n > 1 ? values[1] : Float.NaN),
+				packFloats(n > 2 ? values[2] : Float.NaN,
+						n > 3 ? values[3] : Float.NaN), null);
+	}
+
+	/**
+	 * Packs the raw bits of two floats into a long, the first one in the high
+	 * half.
+	 */
+	static long packFloats(float high, float low) {
+		return ((long) Float.floatToRawIntBits(high) << 32)
+				| (Float.floatToRawIntBits(low) & 0xffffffffL);
+	}
+
+	/**
+	 * Passes a LONG type log to the data targets. Compatibility method, looks
+	 * up the handle by the name on every call.
+	 * 
 	 * @param listenerName
 	 *            Name of the piece of context represented by the record.
 	 * @param time
@@ -192,12 +584,15 @@ public class DataManager {
 	 *            Value of the record.
 	 */
 	public void insertLog(String listenerName, long time, long value) {
-		mLogs.add(new LogEntry(time, listenerName, value));
-		Log.d(TAG, "insertLog: " + String.valueOf(value) + " long");
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, value);
+		}
 	}
 
 	/**
-	 * Passes a FLOAT type log to the data targets.
+	 * Passes a FLOAT type log to the data targets. Compatibility method, looks
+	 * up the handle by the name on every call.
 	 * 
 	 * @param listenerName
 	 *            Name of the piece of context represented by the record.
@@ -207,12 +602,15 @@ public class DataManager {
 	 *            Value of the record.
 	 */
 	public void insertLog(String listenerName, long time, float value) {
-		mLogs.add(new LogEntry(time, listenerName, value));
-		Log.d(TAG, "insertLog: " + String.valueOf(value) + " float");
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, value);
+		}
 	}
 
 	/**
-	 * Passes a INT type log to the data targets.
+	 * Passes a INT type log to the data targets. Compatibility method, looks up
+	 * the handle by the name on every call.
 	 * 
 	 * @param listenerName
 	 *            Name of the piece of context represented by the record.
@@ -222,12 +620,15 @@ public class DataManager {
 	 *            Value of the record.
 	 */
 	public void insertLog(String listenerName, long time, int value) {
-		mLogs.add(new LogEntry(time, listenerName, value));
-		Log.d(TAG, "insertLog: " + String.valueOf(value) + " int");
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, value);
+		}
 	}
 
 	/**
-	 * Passes a DOUBLE type log to the data targets.
+	 * Passes a DOUBLE type log to the data targets. Compatibility method, looks
+	 * up the handle by the name on every call.
 	 * 
 	 * @param listenerName
 	 *            Name of the piece of context represented by the record.
@@ -237,12 +638,15 @@ public class DataManager {
 	 *            Value of the record.
 	 */
 	public void insertLog(String listenerName, long time, double value) {
-		mLogs.add(new LogEntry(time, listenerName, value));
-		Log.d(TAG, "insertLog: " + String.valueOf(value) + " double");
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, value);
+		}
 	}
 
 	/**
-	 * Passes a STING type log to the data targets.
+	 * Passes a STING type log to the data targets. Compatibility method, looks
+	 * up the handle by the name on every call.
 	 * 
 	 * @param listenerName
 	 *            Name of the piece of context represented by the record.
@@ -252,8 +656,28 @@ public class DataManager {
 	 *            Value of the record.
 	 */
 	public void insertLog(String listenerName, long time, String value) {
-		mLogs.add(new LogEntry(time, listenerName, value));
-		Log.d(TAG, "insertLog: " + value + " string");
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, value);
+		}
+	}
+
+	/**
+	 * Passes a FLOAT3 or FLOAT4 type log to the data targets. Compatibility
+	 * method, looks up the handle by the name on every call.
+	 * 
+	 * @param listenerName
+	 *            Name of the piece of context represented by the record.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param values
+	 *            Components of the value.
+	 */
+	public void insertLog(String listenerName, long time, float[] values) {
+		Integer id = mListenerIDs.get(listenerName);
+		if (id != null) {
+			insertLog(id.intValue(), time, values);
+		}
 	}
 
 	/**
@@ -263,15 +687,108 @@ public class DataManager {
 	 *            Name of the piece of context
 	 * @param type
 	 *            Type of the piece of context.
+	 * @return Handle of the piece of context. It stays valid until the end of
+	 *         the logging session and should be passed to the insertLog
+	 *         methods.
 	 */
-	public void registerListener(String label, int type) {
-		int id = mValueTypes.size();
+	public synchronized int registerListener(String label, int type) {
+		int id = mListenerCount;
+		int[] types = mValueTypes;
+		if (id == types.length) {
+			types = Arrays.copyOf(types, types.length * 2);
+			mFirstTimes = Arrays.copyOf(mFirstTimes, types.length);
+		}
+		types[id] = type;
+		mValueTypes = types;
 		mListenerIDs.put(label, id);
-		mValueTypes.add(type);
+		// publishes the type to the lanes
+		mListenerCount = id + 1;
 		Log.d(TAG, "listener registered: id=" + id + " type=" + type);
-		for (DataTarget dt : mDataTargets) {
-			dt.registerListener(id, type, label);
+		for (TargetLane lane : mLanes) {
+			lane.getTarget().registerListener(id, type, label);
+		}
+		return id;
+	}
+
+	/**
+	 * Switches a registered piece of context to the change-only mode. A
+	 * record repeating the last logged value is not passed to the data
+	 * targets; when the value changes, the last suppressed record is passed
+	 * before the new one. The heartbeat passes an unchanged value once the
+	 * given time elapsed since the last passed record, so the readers know the
+	 * value still holds.
+	 * 
+	 * @param listenerId
+	 *            Handle of the piece of context returned by registerListener.
+	 * @param deadBand
+	 *            Changes of a FLOAT, DOUBLE, FLOAT3 or FLOAT4 value smaller or
+	 *            equal to this are not considered a change. Use 0 for exact
+	 *            comparison; ignored by the other types.
+	 * @param heartbeatInterval
+	 *            Maximal time between two passed records in the units of the
+	 *            timestamps (microseconds for TimeSource.getTimeOfDay()), 0
+	 *            for no heartbeat.
+	 */
+	public synchronized void setChangeOnly(int listenerId, double deadBand,
+			long heartbeatInterval) {
+		if (listenerId < 0 || listenerId >= mListenerCount) {
+			return;
+		}
+		mChangeFilter.enable(listenerId, deadBand, heartbeatInterval);
+	}
+
+	/**
+	 * Lets the listeners of the library switch their slowly changing pieces
+	 * of context (battery, telephony signal, low memory flags) to the
+	 * change-only mode with a one minute heartbeat, see setChangeOnly. Off by
+	 * default, so every reading is logged. Must be called before the
+	 * listeners are initialized.
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void setListenerChangeOnly(boolean enable) {
+		mListenerChangeOnly = enable;
+	}
+
+	/**
+	 * Returns true if the listeners may switch their pieces of context to the
+	 * change-only mode, see setListenerChangeOnly.
+	 */
+	public boolean isListenerChangeOnly() {
+		return mListenerChangeOnly;
+	}
+
+	/**
+	 * Registers a FLOAT3 or FLOAT4 piece of context. The components are logged
+	 * together in a single record; readers show them as separate FLOAT pieces
+	 * of context with the given names.
+	 * 
+	 * @param componentLabels
+	 *            Names of the three or four components.
+	 * @return Handle of the piece of context, see registerListener. -1 for a
+	 *         wrong number of components, records logged with it are
+	 *         ignored.
+	 */
+	public int registerVector(String... componentLabels) {
+		int type;
+		if (componentLabels.length == 3) {
+			type = FLOAT3;
+		} else if (componentLabels.length == 4) {
+			type = FLOAT4;
+		} else {
+			Log.e(TAG, "vector needs 3 or 4 components, got "
+					+ componentLabels.length);
+			return -1;
+		}
+		StringBuilder label = new StringBuilder();
+		for (String component : componentLabels) {
+			if (label.length() > 0) {
+				label.append(LogType.VECTOR_LABEL_SEPARATOR);
+			}
+			label.append(component);
 		}
+		return registerListener(label.toString(), type);
 	}
 
 }
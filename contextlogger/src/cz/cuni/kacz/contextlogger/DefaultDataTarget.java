@@ -5,13 +5,16 @@ import java.io.Serializable;
 import android.content.Context;
 
 /**
- * Default implementation of the DataTarget interface. Defines a final method
- * for saving a reference to the application context.
+ * Default implementation of the BatchDataTarget interface. Defines a final
+ * method for saving a reference to the application context, a batch insert
+ * falling back to the per-record insertLog methods and a vector insert
+ * falling back to a STRING record.
  * 
  * @author kacz
  * 
  */
-public abstract class DefaultDataTarget implements DataTarget, Serializable {
+public abstract class DefaultDataTarget implements BatchDataTarget,
+		Serializable {
 
 	/**
 	 * 
@@ -20,8 +23,84 @@ public abstract class DefaultDataTarget implements DataTarget, Serializable {
 
 	Context mContext;
 
+	/** Components of the vector records passed by insertBatch(). */
+	private transient float[] mVector3;
+	private transient float[] mVector4;
+
 	@Override
 	public final void initCtx(Context ctx) {
 		mContext = ctx;
 	}
+
+	/**
+	 * Saves a FLOAT3 or FLOAT4 type log record as a STRING record with the
+	 * components separated by '|', as the labels of the components are. For
+	 * targets written before the vector records; the others override it.
+	 */
+	@Override
+	public void insertLog(int listenerId, long time, float[] values) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0) {
+				sb.append('|');
+			}
+			sb.append(values[i]);
+		}
+		insertLog(listenerId, time, sb.toString());
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return 0;
+	}
+
+	@Override
+	public long getIdleIntervalNanos() {
+		return 0;
+	}
+
+	@Override
+	public void onIdle() {
+		return;
+	}
+
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		for (int i = 0; i < size; ++i) {
+			int id = batch.getId(i);
+			long time = batch.getTime(i);
+			switch (batch.getType(i)) {
+			case DataManager.INT:
+				insertLog(id, time, batch.getIntValue(i));
+				break;
+			case DataManager.LONG:
+				insertLog(id, time, batch.getLongValue(i));
+				break;
+			case DataManager.FLOAT:
+				insertLog(id, time, batch.getFloatValue(i));
+				break;
+			case DataManager.DOUBLE:
+				insertLog(id, time, batch.getDoubleValue(i));
+				break;
+			case DataManager.STRING:
+				insertLog(id, time, batch.getStringValue(i));
+				break;
+			case DataManager.FLOAT3:
+				if (mVector3 == null) {
+					mVector3 = new float[3];
+				}
+				batch.getVectorValue(i, mVector3);
+				insertLog(id, time, mVector3);
+				break;
+			case DataManager.FLOAT4:
+				if (mVector4 == null) {
+					mVector4 = new float[4];
+				}
+				batch.getVectorValue(i, mVector4);
+				insertLog(id, time, mVector4);
+				break;
+			}
+		}
+	}
 }
@@ -20,22 +20,81 @@
 
 package cz.cuni.kacz.contextlogger;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import android.content.pm.PackageManager;
 import android.util.Log;
 
 /**
  * DataTarget for saving context logs into a binary file. The structure of the
- * file is described in the thesis.
+ * file is described in the thesis; since version 2 the file is written in a
+ * single pass:
+ * <ul>
+ * <li>data header: DATA_MAGIC, version byte, start time,
+ * <li>records, written in place as they come,
+ * <li>key section: the text lines of the version 1 header ("*version",
+ * "*logs", "id type name" lines, "*end"),
+ * <li>footer: long offset of the key section, int FOOTER_MAGIC.
+ * </ul>
+ * Version 1 files started with the key section and had the data appended to
+ * it by close().
+ * <p>
+ * Since version 3 a record starts with the ID of the piece of context as an
+ * unsigned varint and the time as a zig-zag varint of the delta of deltas of
+ * the times of the piece of context (0 for a steady sampling rate). INT and
+ * LONG values are zig-zag varints, the other values keep their fixed size
+ * encoding. Version 2 records had a 4 byte ID and an 8 byte time relative to
+ * the start time.
+ * <p>
+ * Since version 4 the varint holds the ID shifted left by one. If the lowest
+ * bit is set, the record is a block of XOR compressed values of a FLOAT,
+ * DOUBLE, FLOAT3 or FLOAT4 piece of context, see XorBlock. Blocks are used
+ * for all such pieces of context if enabled by setXorCompression().
+ * <p>
+ * Since version 5 a STRING value is a varint code: 0 for a new dictionary
+ * entry followed by the string, 1 for a string not added to the dictionary
+ * followed by the string, or 2 + the index of a dictionary entry. The entries
+ * are numbered in the order they appear in the file, the dictionary is shared
+ * by all the pieces of context and holds up to MAX_DICTIONARY_SIZE strings.
+ * <p>
+ * Since version 6 the ID is shifted left by two and the lowest two bits give
+ * the kind of the record: 0 for a single record, 1 for an XOR block and 2 for
+ * a column block.
+ * <p>
+ * Since version 7 the kind 3 marks a state record with ID 0: varint length
+ * and the UTF-8 "id type name" lines of the pieces of context registered
+ * since the last state record, varint index of the first and varint number
+ * of the dictionary strings of the columnar mode written since the last
+ * state record, the strings, and int STATE_MAGIC. A state record precedes
+ * the first record of each piece of context and every column block using a
+ * new string, so a file of a session that did not end, without the key
+ * section and the footer, can be read up to its last complete record.
+ * Checkpoints, see setCheckpointInterval(), write the open blocks and sync
+ * the file to the storage.
+ * <p>
+ * In the columnar mode, enabled by setColumnar(), the records of each piece
+ * of context are collected in column blocks, see ColumnBlock. Between the
+ * data and the key section there is then an index section: int number of
+ * dictionary strings, the strings, int number of blocks and an index entry
+ * for each block. The "index=" option of the key section holds its offset.
+ * The dictionary strings are not written in the column blocks, so the blocks
+ * can be decoded in any order.
+ * <p>
+ * If rotation is enabled by setRotation(), the log is split into segments,
+ * complete log files named fileName.N.clog starting with N = 1, each with
+ * the keys of all the pieces of context registered so far. fileName.clog is
+ * then a text manifest, rewritten whenever a segment is opened or closed:
+ * "*manifest", the manifest version, a "name first last" line for each
+ * segment with the times of its first and last record (-1 for the segment
+ * that is still open) and "*end".
  * 
  * @author kacz
  * 
@@ -54,11 +113,108 @@ public class FileDataTarget extends DefaultDataTarget {
 	private long mStartTime;
 
 	private static final int DATA_MAGIC = 0x574f4c53;
-	private static final byte VERSION = 1;
+	private static final int FOOTER_MAGIC = 0x434c4f47;
+	/** Size of the footer: long offset of the key section, int FOOTER_MAGIC. */
+	static final int FOOTER_SIZE = 12;
+	private static final int STATE_MAGIC = 0x53544154;
+	private static final byte VERSION = 7;
 
-	// private DataOutputStream mHeaderStream;
-	private DataOutputStream mDataStream;
-	private BufferedWriter mHeaderWriter;
+	/** Tag of a state record, kind 3 with ID 0. */
+	private static final int STATE_RECORD = 3;
+
+	/** Default size of the data buffer. */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	/** Default maximal time the records wait in the data buffer. */
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+	/** Default time between two checkpoints. */
+	public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 10 * 1000;
+
+	private final int mBufferSize;
+	private final long mFlushIntervalMs;
+
+	private ChannelWriter mWriter;
+
+	/** Time and time delta of the last record of each piece of context. */
+	private long[] mLastTimes = new long[32];
+	private long[] mLastDeltas = new long[32];
+
+	/** Blocks of XOR compressed values are used for floating point values. */
+	private boolean mXorCompression = false;
+
+	/** Open blocks indexed by the ID, used by the consumer thread only. */
+	private XorBlock[] mBlocks = new XorBlock[32];
+
+	/** Largest number of strings in the dictionary of a file. */
+	public static final int MAX_DICTIONARY_SIZE = 4096;
+
+	/** Codes of the strings written so far, used by the consumer thread only. */
+	private final HashMap<String, Integer> mDictionary = new HashMap<String, Integer>();
+
+	/** Records are collected in column blocks. */
+	private boolean mColumnar = false;
+
+	/** Open column blocks indexed by the ID, used by the consumer thread only. */
+	private ColumnBlock[] mColumns = new ColumnBlock[32];
+
+	/** Dictionary strings in the order of the codes, in the columnar mode. */
+	private final ArrayList<String> mDictionaryStrings = new ArrayList<String>();
+
+	/** Entries of the block index. */
+	private final ByteArrayOutputStream mIndexBytes = new ByteArrayOutputStream();
+	private final DataOutputStream mIndex = new DataOutputStream(mIndexBytes);
+	private int mIndexEntries = 0;
+
+	/** Lines of the key section, written by close(). */
+	private final StringBuilder mKeys = new StringBuilder();
+
+	/** Length of mKeys, updated by the registering threads. */
+	private volatile int mKeysLength = 0;
+
+	/**
+	 * Types of the pieces of context indexed by the ID. Replaced by a larger
+	 * copy under the mKeys lock, read by the consumer thread.
+	 */
+	private volatile int[] mTypes = new int[0];
+
+	/**
+	 * Length of mKeys and number of dictionary strings written in the state
+	 * records of the open segment.
+	 */
+	private int mKeysWritten = 0;
+	private int mStringsWritten = 0;
+
+	/** Time between two checkpoints, 0 for none. */
+	private long mCheckpointIntervalNanos = DEFAULT_CHECKPOINT_INTERVAL_MS * 1000 * 1000;
+	private long mLastCheckpoint;
+
+	/** Size and time span limits of a segment, 0 for no limit. */
+	private long mMaxSegmentBytes = 0;
+	private long mMaxSegmentMicros = 0;
+
+	/** Number of the open segment, 0 if the log is not rotated. */
+	private int mSegment = 0;
+
+	/** Times of the first and last record of the open segment. */
+	private long mSegmentFirstTime;
+	private long mSegmentLastTime;
+
+	/**
+	 * Name, time of the first and of the last record of the closed segments,
+	 * guarded by itself, as the compressor renames the segments.
+	 */
+	private final ArrayList<String[]> mManifest = new ArrayList<String[]>();
+
+	/** Manifest line of the open segment, null if there is none. */
+	private String mOpenSegmentLine = null;
+
+	/** DEFLATE level of the closed segments, 0 to keep them uncompressed. */
+	private int mCompressionLevel = 0;
+	private SegmentCompressor mCompressor = null;
+
+	/** Bytes written into the closed segments. */
+	private long mClosedBytes = 0;
 
 	/**
 	 * DataTarget saving the logs into a binary file.
@@ -67,177 +223,768 @@ public class FileDataTarget extends DefaultDataTarget {
 	 *            Name of the binary file to save into.
 	 */
 	public FileDataTarget(String fileName) {
+		this(fileName, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+	}
+
+	/**
+	 * DataTarget saving the logs into a binary file.
+	 * 
+	 * @param fileName
+	 *            Name of the binary file to save into.
+	 * @param bufferSize
+	 *            Size of the buffer collecting the records before they are
+	 *            written to the file.
+	 * @param flushIntervalMs
+	 *            Maximal time the records wait in the buffer, bounds the data
+	 *            lost if the process dies.
+	 */
+	public FileDataTarget(String fileName, int bufferSize,
+			long flushIntervalMs) {
 		mFileName = fileName;
+		mBufferSize = bufferSize;
+		mFlushIntervalMs = flushIntervalMs;
+	}
+
+	/**
+	 * Enables the XOR compression of FLOAT, DOUBLE, FLOAT3 and FLOAT4 values.
+	 * The values are collected in blocks of up to XorBlock.MAX_VALUES values
+	 * spanning at most 10 s, so up to one block of each such piece of context
+	 * is lost if the process dies. Must be called before open().
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void setXorCompression(boolean enable) {
+		mXorCompression = enable;
+	}
+
+	/**
+	 * Writes the records of each piece of context in column blocks of up to
+	 * ColumnBlock.MAX_VALUES records spanning at most 10 s, with a summary of
+	 * the block and an index of the blocks at the end of the file. Readers
+	 * can then decode only the pieces of context and the time ranges they
+	 * need. Up to one block of each piece of context is lost if the process
+	 * dies. Overrides setXorCompression(). Must be called before open().
+	 * 
+	 * @param enable
+	 *            True for enable, false for disable.
+	 */
+	public void setColumnar(boolean enable) {
+		mColumnar = enable;
+	}
+
+	/**
+	 * Splits the log into segments, so a long session is not kept in a
+	 * single file. A new segment is started when the open one reaches the
+	 * size, or when its records span the time, checked after each batch of
+	 * records. Must be called before open().
+	 * 
+	 * @param maxSegmentBytes
+	 *            Size of a segment in bytes, 0 for no limit.
+	 * @param maxSegmentMs
+	 *            Time span of the records of a segment in milliseconds, 0
+	 *            for no limit.
+	 */
+	public void setRotation(long maxSegmentBytes, long maxSegmentMs) {
+		mMaxSegmentBytes = maxSegmentBytes;
+		mMaxSegmentMicros = maxSegmentMs * 1000;
+	}
+
+	/**
+	 * Compresses each closed segment of a rotated log on a background thread
+	 * into a .clog.z container, see SegmentCompressor, and deletes the
+	 * segment. Must be called before open().
+	 * 
+	 * @param level
+	 *            Level of java.util.zip.Deflater from 1 (fastest) to 9
+	 *            (smallest), 0 to keep the segments uncompressed.
+	 */
+	public void setSegmentCompression(int level) {
+		mCompressionLevel = level;
+	}
+
+	/**
+	 * Sets the time between two checkpoints. A checkpoint writes the open XOR
+	 * and column blocks and the buffer, and syncs the file to the storage, so
+	 * the records before it survive the death of the process or a power loss.
+	 * Must be called before open().
+	 * 
+	 * @param intervalMs
+	 *            Time between two checkpoints in milliseconds, 0 to write the
+	 *            blocks only when they are full and never sync the file.
+	 */
+	public void setCheckpointInterval(long intervalMs) {
+		mCheckpointIntervalNanos = intervalMs * 1000 * 1000;
+	}
+
+	/**
+	 * Returns true if the log is split into segments.
+	 */
+	private boolean isRotated() {
+		return mMaxSegmentBytes > 0 || mMaxSegmentMicros > 0;
+	}
+
+	/**
+	 * Remembers the time range of the records of the open segment.
+	 */
+	private void trackTime(long time) {
+		if (time < mSegmentFirstTime) {
+			mSegmentFirstTime = time;
+		}
+		if (time > mSegmentLastTime) {
+			mSegmentLastTime = time;
+		}
+	}
+
+	/**
+	 * Starts a new segment if the open one reached its limits.
+	 */
+	private void rotateIfDue() throws IOException {
+		if ((mMaxSegmentBytes > 0 && mWriter.position() >= mMaxSegmentBytes)
+				|| (mMaxSegmentMicros > 0 && mSegmentLastTime
+						- mSegmentFirstTime >= mMaxSegmentMicros)) {
+			closeSegment();
+			mClosedBytes += mWriter.getBytesWritten();
+			openSegment();
+		}
+	}
+
+	/**
+	 * Writes a state record with the pieces of context registered and the
+	 * dictionary strings of the columnar mode added since the last one, if
+	 * there are any.
+	 */
+	private void writeStateIfChanged() throws IOException {
+		if (mKeysLength == mKeysWritten
+				&& mStringsWritten == mDictionaryStrings.size()) {
+			return;
+		}
+		String keys;
+		synchronized (mKeys) {
+			keys = mKeys.substring(mKeysWritten);
+			mKeysWritten = mKeys.length();
+		}
+		byte[] bytes = keys.getBytes("UTF-8");
+		mWriter.writeVarLong(STATE_RECORD);
+		mWriter.writeVarLong(bytes.length);
+		mWriter.write(bytes);
+		mWriter.writeVarLong(mStringsWritten);
+		mWriter.writeVarLong(mDictionaryStrings.size() - mStringsWritten);
+		for (int i = mStringsWritten; i < mDictionaryStrings.size(); ++i) {
+			mWriter.writeUTF(mDictionaryStrings.get(i));
+		}
+		mStringsWritten = mDictionaryStrings.size();
+		mWriter.writeInt(STATE_MAGIC);
+	}
+
+	/**
+	 * Writes the open XOR and column blocks.
+	 */
+	private void writeOpenBlocks() throws IOException {
+		for (int id = 0; id < mBlocks.length; ++id) {
+			if (mBlocks[id] != null && !mBlocks[id].isEmpty()) {
+				mBlocks[id].writeTo(mWriter, id);
+			}
+		}
+		if (mColumnar) {
+			// the strings of the blocks come first
+			writeStateIfChanged();
+			for (int id = 0; id < mColumns.length; ++id) {
+				if (mColumns[id] != null && !mColumns[id].isEmpty()) {
+					mColumns[id].writeTo(mWriter, id, mIndex);
+					++mIndexEntries;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a checkpoint if the checkpoint interval elapsed since the last
+	 * one: the open blocks, then the buffer, and syncs the file.
+	 */
+	private void checkpointIfDue() throws IOException {
+		if (mCheckpointIntervalNanos <= 0
+				|| System.nanoTime() - mLastCheckpoint < mCheckpointIntervalNanos) {
+			return;
+		}
+		checkpoint();
+	}
+
+	/**
+	 * Writes the open blocks, then the buffer, and syncs the file.
+	 */
+	private void checkpoint() throws IOException {
+		writeOpenBlocks();
+		mWriter.sync();
+		mLastCheckpoint = System.nanoTime();
+	}
+
+	/**
+	 * Returns the delta of deltas of the time of the next record of the piece
+	 * of context and remembers the time.
+	 */
+	private long nextTimeDelta(int listenerId, long time) {
+		if (listenerId >= mLastTimes.length) {
+			int length = Math.max(listenerId + 1, mLastTimes.length * 2);
+			mLastTimes = Arrays.copyOf(mLastTimes, length);
+			mLastDeltas = Arrays.copyOf(mLastDeltas, length);
+		}
+		// the first record of a piece of context is relative to the start
+		long relative = time - mStartTime;
+		long delta = relative - mLastTimes[listenerId];
+		long deltaOfDelta = delta - mLastDeltas[listenerId];
+		mLastTimes[listenerId] = relative;
+		mLastDeltas[listenerId] = delta;
+		return deltaOfDelta;
+	}
+
+	/**
+	 * Writes the ID and the time of a record.
+	 */
+	private void writeRecordHeader(int listenerId, long time)
+			throws IOException {
+		mWriter.writeVarLong((long) listenerId << 2);
+		mWriter.writeZigZag(nextTimeDelta(listenerId, time));
+	}
+
+	/**
+	 * Writes the dictionary code of a string, followed by the string if it was
+	 * not written before.
+	 */
+	private void writeString(String value) throws IOException {
+		Integer code = mDictionary.get(value);
+		if (code != null) {
+			mWriter.writeVarLong(code);
+			return;
+		}
+		if (mDictionary.size() < MAX_DICTIONARY_SIZE) {
+			mDictionary.put(value, mDictionary.size() + 2);
+			mWriter.writeVarLong(0);
+		} else {
+			mWriter.writeVarLong(1);
+		}
+		mWriter.writeUTF(value);
+	}
+
+	/**
+	 * Returns the dictionary code of a string in the columnar mode, 1 if the
+	 * dictionary is full.
+	 */
+	private int getStringCode(String value) {
+		Integer code = mDictionary.get(value);
+		if (code != null) {
+			return code;
+		}
+		if (mDictionary.size() >= MAX_DICTIONARY_SIZE) {
+			return 1;
+		}
+		mDictionary.put(value, mDictionary.size() + 2);
+		mDictionaryStrings.add(value);
+		return mDictionary.size() + 1;
+	}
+
+	/**
+	 * Adds a record to the column block of the piece of context, writing the
+	 * block first if it is full.
+	 */
+	private void appendToColumn(int listenerId, int type, long time,
+			long bits, long bits2, String value) throws IOException {
+		if (listenerId >= mColumns.length) {
+			mColumns = Arrays.copyOf(mColumns, Math.max(listenerId + 1,
+					mColumns.length * 2));
+		}
+		ColumnBlock column = mColumns[listenerId];
+		if (column == null) {
+			column = new ColumnBlock(type);
+			mColumns[listenerId] = column;
+		}
+		long relative = time - mStartTime;
+		if (column.isFull(relative)) {
+			writeStateIfChanged();
+			column.writeTo(mWriter, listenerId, mIndex);
+			++mIndexEntries;
+		}
+		if (type == DataManager.STRING) {
+			bits = getStringCode(value);
+		}
+		column.add(relative, bits, bits2, value);
+	}
+
+	/**
+	 * Adds the value to the XOR block of the piece of context, writing the
+	 * block first if it is full.
+	 * 
+	 * @return False if the value is not XOR compressed and must be written
+	 *         as a record.
+	 */
+	private boolean appendToBlock(int listenerId, int type, long time,
+			long bits, long bits2) throws IOException {
+		if (!mXorCompression || !XorBlock.supports(type)) {
+			return false;
+		}
+		if (listenerId >= mBlocks.length) {
+			mBlocks = Arrays.copyOf(mBlocks, Math.max(listenerId + 1,
+					mBlocks.length * 2));
+		}
+		XorBlock block = mBlocks[listenerId];
+		if (block == null) {
+			block = new XorBlock(type);
+			mBlocks[listenerId] = block;
+		}
+		long relative = time - mStartTime;
+		if (block.isFull(relative)) {
+			block.writeTo(mWriter, listenerId);
+		}
+		block.add(relative, nextTimeDelta(listenerId, time), bits, bits2);
+		return true;
 	}
 
 	@Override
 	public void insertLog(int listenerId, long time, int value) {
-		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: int");
 		try {
-			mDataStream.writeInt(listenerId);
-			mDataStream.writeLong(time - mStartTime);
-			Log.d(TAG, String.valueOf(time - mStartTime));
-			mDataStream.writeInt(value);
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, DataManager.INT, time, value, 0, null);
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			mWriter.writeZigZag(value);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
 	@Override
 	public void insertLog(int listenerId, long time, long value) {
-		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: long");
 		try {
-			mDataStream.writeInt(listenerId);
-			mDataStream.writeLong(time - mStartTime);
-			Log.d(TAG, String.valueOf(time - mStartTime));
-			mDataStream.writeLong(value);
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, DataManager.LONG, time, value, 0, null);
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			mWriter.writeZigZag(value);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
 	@Override
 	public void insertLog(int listenerId, long time, float value) {
-		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: float");
 		try {
-			mDataStream.writeInt(listenerId);
-			mDataStream.writeLong(time - mStartTime);
-			Log.d(TAG, String.valueOf(time - mStartTime));
-			mDataStream.writeFloat(value);
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, DataManager.FLOAT, time,
+						Float.floatToRawIntBits(value), 0, null);
+				return;
+			}
+			if (appendToBlock(listenerId, DataManager.FLOAT, time,
+					Float.floatToRawIntBits(value), 0)) {
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			mWriter.writeFloat(value);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
 	@Override
 	public void insertLog(int listenerId, long time, String value) {
-		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: string");
 		try {
-			mDataStream.writeInt(listenerId);
-			mDataStream.writeLong(time - mStartTime);
-			Log.d(TAG, String.valueOf(time - mStartTime));
-			mDataStream.writeUTF(value);
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, DataManager.STRING, time, 0, 0, value);
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			writeString(value);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
 	@Override
 	public void insertLog(int listenerId, long time, double value) {
-		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: double");
 		try {
-			mDataStream.writeInt(listenerId);
-			mDataStream.writeLong(time - mStartTime);
-			Log.d(TAG, String.valueOf(time - mStartTime));
-			mDataStream.writeDouble(value);
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, DataManager.DOUBLE, time,
+						Double.doubleToRawLongBits(value), 0, null);
+				return;
+			}
+			if (appendToBlock(listenerId, DataManager.DOUBLE, time,
+					Double.doubleToRawLongBits(value), 0)) {
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			mWriter.writeDouble(value);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Writes as many components as the registered type has, missing ones as
+	 * NaN. Records of pieces of context that are not FLOAT3 or FLOAT4 are
+	 * dropped, the readers could not decode them.
+	 */
 	@Override
-	public void registerListener(int listenerId, int type, String listenerName) {
+	public void insertLog(int listenerId, long time, float[] values) {
+		int[] types = mTypes;
+		int type = listenerId >= 0 && listenerId < types.length ? types[listenerId]
+				: -1;
+		if (type != DataManager.FLOAT3 && type != DataManager.FLOAT4) {
+			Log.w(TAG, "vector record of a piece of context of type " + type);
+			return;
+		}
+		int arity = type == DataManager.FLOAT3 ? 3 : 4;
+		long bits = DataManager.packFloats(component(values, 0, arity),
+				component(values, 1, arity));
+		long bits2 = DataManager.packFloats(component(values, 2, arity),
+				component(values, 3, arity));
+		try {
+			writeStateIfChanged();
+			trackTime(time);
+			if (mColumnar) {
+				appendToColumn(listenerId, type, time, bits, bits2, null);
+				return;
+			}
+			if (appendToBlock(listenerId, type, time, bits, bits2)) {
+				return;
+			}
+			writeRecordHeader(listenerId, time);
+			for (int c = 0; c < arity; ++c) {
+				mWriter.writeFloat(component(values, c, arity));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns a component of a vector value, NaN if it is missing or beyond
+	 * the arity.
+	 */
+	private static float component(float[] values, int c, int arity) {
+		return c < arity && c < values.length ? values[c] : Float.NaN;
+	}
+
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		ChannelWriter writer = mWriter;
+		try {
+			// the pieces of context registered before the batch
+			writeStateIfChanged();
+			for (int i = 0; i < size; ++i) {
+				int id = batch.getId(i);
+				int type = batch.getType(i);
+				trackTime(batch.getTime(i));
+				if (mColumnar) {
+					appendToColumn(id, type, batch.getTime(i), batch.getBits(i),
+							batch.getBits2(i), type == DataManager.STRING ? batch
+									.getStringValue(i) : null);
+					continue;
+				}
+				if (mXorCompression
+						&& appendToBlock(id, type, batch.getTime(i),
+								batch.getBits(i), batch.getBits2(i))) {
+					continue;
+				}
+				writeRecordHeader(id, batch.getTime(i));
+				switch (type) {
+				case DataManager.INT:
+					writer.writeZigZag(batch.getIntValue(i));
+					break;
+				case DataManager.LONG:
+					writer.writeZigZag(batch.getLongValue(i));
+					break;
+				case DataManager.FLOAT:
+					writer.writeFloat(batch.getFloatValue(i));
+					break;
+				case DataManager.DOUBLE:
+					writer.writeDouble(batch.getDoubleValue(i));
+					break;
+				case DataManager.STRING:
+					writeString(batch.getStringValue(i));
+					break;
+				case DataManager.FLOAT3:
+				case DataManager.FLOAT4:
+					int arity = batch.getArity(i);
+					for (int c = 0; c < arity; ++c) {
+						writer.writeFloat(batch.getVectorValue(i, c));
+					}
+					break;
+				}
+			}
+			writer.flushIfDue();
+			checkpointIfDue();
+			if (mSegment > 0) {
+				rotateIfDue();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the checkpoint interval, or the flush interval if there are no
+	 * checkpoints, so the records of a burst are written even when no more
+	 * records come.
+	 */
+	@Override
+	public long getIdleIntervalNanos() {
+		if (mCheckpointIntervalNanos > 0) {
+			return mCheckpointIntervalNanos;
+		}
+		return mFlushIntervalMs * 1000 * 1000;
+	}
+
+	/**
+	 * Writes a checkpoint, or only the buffer if there are no checkpoints.
+	 */
+	@Override
+	public void onIdle() {
+		if (mWriter == null) {
+			return;
+		}
 		try {
-			mHeaderWriter.write(String.valueOf(listenerId) + " "
-					+ String.valueOf(type) + " " + listenerName);
-			mHeaderWriter.newLine();
+			if (mCheckpointIntervalNanos > 0) {
+				checkpoint();
+			} else {
+				mWriter.flush();
+			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	@Override
+	public void registerListener(int listenerId, int type, String listenerName) {
+		// called from the registering thread, the consumer reads the keys
+		synchronized (mKeys) {
+			mKeys.append(listenerId).append(' ').append(type).append(' ')
+					.append(listenerName).append('\n');
+			int[] types = mTypes;
+			if (listenerId >= types.length) {
+				types = Arrays.copyOf(types, Math.max(listenerId + 1,
+						types.length * 2));
+				Arrays.fill(types, mTypes.length, types.length, -1);
+			}
+			types[listenerId] = type;
+			// publishes the type to the consumer thread
+			mTypes = types;
+			mKeysLength = mKeys.length();
+		}
+	}
+
 	@Override
 	public void open() {
 		try {
 			Log.d(TAG, "opening...");
-			// File path = Environment
-			// .getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-
-			mHeaderWriter = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(new File(mFileName + ".clog"))));
-			mDataStream = new DataOutputStream(new BufferedOutputStream(
-					new FileOutputStream(new File(mFileName + ".cdata"))));
-			Log.d(TAG, "streams open");
-			Log.d(TAG, "fileName: " + mFileName + ".clog");
-			Log.d(TAG, "fileName: " + mFileName + ".cdata");
-			mStartTime = TimeSource.getTimeOfDay();
-
-			// write the beggining of head and data files
-			// header
-			mHeaderWriter.write("*version");
-			mHeaderWriter.newLine();
-			mHeaderWriter.write("1");
-			mHeaderWriter.newLine();
-			// options come here
-
-			// end of options, log types come
-			mHeaderWriter.write("*logs");
-			mHeaderWriter.newLine();
-
-			// data
-			mDataStream.writeInt(DATA_MAGIC);
-			mDataStream.writeByte(VERSION);
-			mDataStream.writeLong(mStartTime);
-			Log.d(TAG, "cucc writen.");
+			if (isRotated()) {
+				mSegment = 1;
+				if (mCompressionLevel > 0) {
+					mCompressor = new SegmentCompressor(mCompressionLevel,
+							new SegmentCompressor.Callback() {
+								@Override
+								public void onCompressed(int segment,
+										File compressed) {
+									onSegmentCompressed(segment, compressed);
+								}
+							});
+				}
+			}
+			openSegment();
 		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
 			Log.d(TAG, "filenotfound");
 			e.printStackTrace();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			Log.d(TAG, "ioe");
 			e.printStackTrace();
 		}
-		;
+	}
 
+	/**
+	 * Returns the name of the file of a segment, or of the log if it is not
+	 * rotated.
+	 */
+	private String getSegmentFileName(int segment) {
+		if (segment == 0) {
+			return mFileName + ".clog";
+		}
+		return mFileName + "." + segment + ".clog";
 	}
 
+	/**
+	 * Opens the file of the current segment and writes the data header.
+	 */
+	private void openSegment() throws IOException {
+		String fileName = getSegmentFileName(mSegment);
+		mWriter = new ChannelWriter(new FileOutputStream(new File(fileName))
+				.getChannel(), mBufferSize, mFlushIntervalMs);
+		Log.d(TAG, "fileName: " + fileName);
+		mStartTime = TimeSource.getTimeOfDay();
+		mSegmentFirstTime = Long.MAX_VALUE;
+		mSegmentLastTime = Long.MIN_VALUE;
+
+		// the segment is a complete log, the coding state starts over
+		Arrays.fill(mLastTimes, 0);
+		Arrays.fill(mLastDeltas, 0);
+		mDictionary.clear();
+		mDictionaryStrings.clear();
+		mIndexBytes.reset();
+		mIndexEntries = 0;
+		mKeysWritten = 0;
+		mStringsWritten = 0;
+		mLastCheckpoint = System.nanoTime();
+
+		mWriter.writeInt(DATA_MAGIC);
+		mWriter.writeByte(VERSION);
+		mWriter.writeLong(mStartTime);
+		if (mSegment > 0) {
+			synchronized (mManifest) {
+				mOpenSegmentLine = new File(fileName).getName() + " "
+						+ mStartTime + " -1";
+				writeManifest();
+			}
+		}
+	}
+
+	/**
+	 * Appends the key section and the footer pointing to it after the data.
+	 */
 	@Override
 	public void close() {
 		try {
 			Log.d(TAG, "closing...");
-			// write the end of files
-			mHeaderWriter.write("*end");
-			mHeaderWriter.newLine();
-			mHeaderWriter.flush();
-			mDataStream.flush();
-
-			mHeaderWriter.close();
-			mDataStream.close();
-
-			// concat files
-			FileOutputStream out = new FileOutputStream(mFileName + ".clog",
-					true /* append */);
-			FileInputStream in = new FileInputStream(mFileName + ".cdata");
-			byte[] fileBytes;
-			int bytesRead = 0;
-			int COPY_BUFFER_SIZE = 1000;
-			fileBytes = new byte[COPY_BUFFER_SIZE];
-			bytesRead = in.read(fileBytes, 0, COPY_BUFFER_SIZE);
-			while (bytesRead != -1) {
-				out.write(fileBytes, 0, bytesRead);
-				bytesRead = in.read(fileBytes, 0, COPY_BUFFER_SIZE);
-			}
-			out.flush();
-			fileBytes = null;
-
-			File file = new File(mFileName + ".cdata");
-			file.delete();
-
-			in.close();
-			out.close();
+			closeSegment();
+			if (mCompressor != null) {
+				// the last segments are compressed after the session
+				mCompressor.shutdown();
+			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Writes the open blocks, the key section and the footer of the current
+	 * segment and closes its file.
+	 */
+	private void closeSegment() throws IOException {
+		writeOpenBlocks();
+		long indexOffset = -1;
+		if (mColumnar) {
+			indexOffset = mWriter.position();
+			mWriter.writeInt(mDictionaryStrings.size());
+			for (String value : mDictionaryStrings) {
+				mWriter.writeUTF(value);
+			}
+			mWriter.writeInt(mIndexEntries);
+			mWriter.write(mIndexBytes.toByteArray());
+		}
+		long keysOffset = mWriter.position();
+		StringBuilder keys = new StringBuilder();
+		keys.append("*version\n").append(VERSION).append('\n');
+		if (indexOffset >= 0) {
+			keys.append("index=").append(indexOffset).append('\n');
+		}
+		keys.append("*logs\n");
+		synchronized (mKeys) {
+			keys.append(mKeys);
+		}
+		keys.append("*end\n");
+		mWriter.write(keys.toString().getBytes("UTF-8"));
+		mWriter.writeLong(keysOffset);
+		mWriter.writeInt(FOOTER_MAGIC);
+		mWriter.close();
+
+		if (mSegment > 0) {
+			if (mSegmentFirstTime > mSegmentLastTime) {
+				// no records, the start time keeps the segments ordered
+				mSegmentFirstTime = mStartTime;
+				mSegmentLastTime = mStartTime;
+			}
+			File file = new File(getSegmentFileName(mSegment));
+			synchronized (mManifest) {
+				mManifest.add(new String[] { file.getName(),
+						Long.toString(mSegmentFirstTime),
+						Long.toString(mSegmentLastTime) });
+				mOpenSegmentLine = null;
+				writeManifest();
+			}
+			if (mCompressor != null) {
+				mCompressor.submit(mManifest.size() - 1, file,
+						indexOffset >= 0 ? indexOffset : keysOffset, keysOffset);
+			}
+			++mSegment;
+		}
+	}
+
+	/**
+	 * Replaces the closed segment by its compressed container in the
+	 * manifest. Called on the compressing thread.
+	 */
+	private void onSegmentCompressed(int segment, File compressed) {
+		synchronized (mManifest) {
+			mManifest.get(segment)[0] = compressed.getName();
+			try {
+				writeManifest();
+			} catch (IOException e) {
+				// the reader falls back to the container
+				e.printStackTrace();
+			}
+		}
+		Log.i(TAG, "segments compressed " + mCompressor.getBytesIn() + " -> "
+				+ mCompressor.getBytesOut() + " bytes, CPU time "
+				+ mCompressor.getCpuNanos() / 1000000 + " ms");
+	}
+
+	/**
+	 * Replaces the manifest by one listing the closed segments and the open
+	 * one. Must be called with the lock of mManifest.
+	 */
+	private void writeManifest() throws IOException {
+		StringBuilder manifest = new StringBuilder();
+		manifest.append("*manifest\n1\n");
+		for (String[] segment : mManifest) {
+			manifest.append(segment[0]).append(' ').append(segment[1])
+					.append(' ').append(segment[2]).append('\n');
+		}
+		if (mOpenSegmentLine != null) {
+			manifest.append(mOpenSegmentLine).append('\n');
+		}
+		manifest.append("*end\n");
+		// write a new file and rename it, so the manifest is never partial
+		File file = new File(getSegmentFileName(0));
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(manifest.toString().getBytes("UTF-8"));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	@Override
+	public long getBytesWritten() {
+		if (mWriter == null) {
+			return 0;
+		}
+		return mClosedBytes + mWriter.getBytesWritten();
+	}
+
 	@Override
 	public boolean checkPermissions() {
 		if (ContextLoggerService.mAppContext
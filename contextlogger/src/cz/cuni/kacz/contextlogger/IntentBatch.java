@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Arrays;
+
+import android.content.Intent;
+
+/**
+ * Records collected by IntentDataTarget for a single broadcast, in parallel
+ * primitive arrays per type. The arrays are reused between the broadcasts,
+ * the intent gets copies trimmed to the number of records.
+ *
+ * @author kacz
+ *
+ */
+class IntentBatch {
+
+	/** Components per record in the vectorValues extra. */
+	static final int VECTOR_STRIDE = 4;
+
+	/** Records of one of the types: IDs, times and the count. */
+	private static class Column {
+		int[] mIds = new int[16];
+		long[] mTimes = new long[16];
+		int mCount = 0;
+
+		/**
+		 * Adds the ID and the time of a record and returns its index, the
+		 * caller makes room for its value.
+		 */
+		int add(int listenerId, long time) {
+			if (mCount == mIds.length) {
+				mIds = Arrays.copyOf(mIds, mCount * 2);
+				mTimes = Arrays.copyOf(mTimes, mCount * 2);
+			}
+			mIds[mCount] = listenerId;
+			mTimes[mCount] = time;
+			return mCount++;
+		}
+
+		void putExtras(Intent intent, String prefix) {
+			intent.putExtra(prefix + "Ids", Arrays.copyOf(mIds, mCount));
+			intent.putExtra(prefix + "Times", Arrays.copyOf(mTimes, mCount));
+		}
+	}
+
+	private final Column mInts = new Column();
+	private int[] mIntValues = new int[16];
+	private final Column mLongs = new Column();
+	private long[] mLongValues = new long[16];
+	private final Column mFloats = new Column();
+	private float[] mFloatValues = new float[16];
+	private final Column mDoubles = new Column();
+	private double[] mDoubleValues = new double[16];
+	private final Column mStrings = new Column();
+	private String[] mStringValues = new String[16];
+	private final Column mVectors = new Column();
+	private float[] mVectorValues = new float[16 * VECTOR_STRIDE];
+
+	private int mSize = 0;
+
+	int size() {
+		return mSize;
+	}
+
+	void addInt(int listenerId, long time, int value) {
+		int i = mInts.add(listenerId, time);
+		if (i == mIntValues.length) {
+			mIntValues = Arrays.copyOf(mIntValues, i * 2);
+		}
+		mIntValues[i] = value;
+		++mSize;
+	}
+
+	void addLong(int listenerId, long time, long value) {
+		int i = mLongs.add(listenerId, time);
+		if (i == mLongValues.length) {
+			mLongValues = Arrays.copyOf(mLongValues, i * 2);
+		}
+		mLongValues[i] = value;
+		++mSize;
+	}
+
+	void addFloat(int listenerId, long time, float value) {
+		int i = mFloats.add(listenerId, time);
+		if (i == mFloatValues.length) {
+			mFloatValues = Arrays.copyOf(mFloatValues, i * 2);
+		}
+		mFloatValues[i] = value;
+		++mSize;
+	}
+
+	void addDouble(int listenerId, long time, double value) {
+		int i = mDoubles.add(listenerId, time);
+		if (i == mDoubleValues.length) {
+			mDoubleValues = Arrays.copyOf(mDoubleValues, i * 2);
+		}
+		mDoubleValues[i] = value;
+		++mSize;
+	}
+
+	void addString(int listenerId, long time, String value) {
+		int i = mStrings.add(listenerId, time);
+		if (i == mStringValues.length) {
+			mStringValues = Arrays.copyOf(mStringValues, i * 2);
+		}
+		mStringValues[i] = value;
+		++mSize;
+	}
+
+	/**
+	 * Adds a vector record, missing components are NaN.
+	 */
+	void addVector(int listenerId, long time, float x, float y, float z,
+			float w) {
+		int i = mVectors.add(listenerId, time) * VECTOR_STRIDE;
+		if (i == mVectorValues.length) {
+			mVectorValues = Arrays.copyOf(mVectorValues, i * 2);
+		}
+		mVectorValues[i] = x;
+		mVectorValues[i + 1] = y;
+		mVectorValues[i + 2] = z;
+		mVectorValues[i + 3] = w;
+		++mSize;
+	}
+
+	/**
+	 * Returns a broadcast with the records and empties the batch. The extras
+	 * are "count" and, for each type with records, "<type>Ids",
+	 * "<type>Times" and "<type>Values" for the types int, long, float,
+	 * double, string and vector. The vectorValues hold VECTOR_STRIDE floats
+	 * per record.
+	 */
+	Intent toIntent(String action) {
+		Intent intent = new Intent(action);
+		intent.putExtra("count", mSize);
+		if (mInts.mCount > 0) {
+			mInts.putExtras(intent, "int");
+			intent.putExtra("intValues", Arrays.copyOf(mIntValues,
+					mInts.mCount));
+		}
+		if (mLongs.mCount > 0) {
+			mLongs.putExtras(intent, "long");
+			intent.putExtra("longValues", Arrays.copyOf(mLongValues,
+					mLongs.mCount));
+		}
+		if (mFloats.mCount > 0) {
+			mFloats.putExtras(intent, "float");
+			intent.putExtra("floatValues", Arrays.copyOf(mFloatValues,
+					mFloats.mCount));
+		}
+		if (mDoubles.mCount > 0) {
+			mDoubles.putExtras(intent, "double");
+			intent.putExtra("doubleValues", Arrays.copyOf(mDoubleValues,
+					mDoubles.mCount));
+		}
+		if (mStrings.mCount > 0) {
+			mStrings.putExtras(intent, "string");
+			intent.putExtra("stringValues", Arrays.copyOf(mStringValues,
+					mStrings.mCount));
+			Arrays.fill(mStringValues, 0, mStrings.mCount, null);
+		}
+		if (mVectors.mCount > 0) {
+			mVectors.putExtras(intent, "vector");
+			intent.putExtra("vectorValues", Arrays.copyOf(mVectorValues,
+					mVectors.mCount * VECTOR_STRIDE));
+		}
+		mInts.mCount = 0;
+		mLongs.mCount = 0;
+		mFloats.mCount = 0;
+		mDoubles.mCount = 0;
+		mStrings.mCount = 0;
+		mVectors.mCount = 0;
+		mSize = 0;
+		return intent;
+	}
+}
@@ -20,11 +20,21 @@
 
 package cz.cuni.kacz.contextlogger;
 
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
 import android.content.Intent;
 import android.util.Log;
 
 /**
  * DataTarget for broadcasting context logs back to the system.
+ * <p>
+ * By default every record is sent as an ACTION_CONTEXT_CHANGED broadcast.
+ * With setBatching() the records are collected and sent as a single
+ * ACTION_CONTEXT_BATCH broadcast with parallel arrays per type, see
+ * IntentBatch.toIntent(), once the batch is full or the batching interval
+ * elapsed. Each piece of context can also be downsampled to a maximal rate.
  * 
  * @author kacz
  * 
@@ -39,9 +49,205 @@ public class IntentDataTarget extends DefaultDataTarget {
 	private static final String TAG = "IntentDataTarget";
 	public static final String ACTION_CONTEXT_CHANGED = "cz.cuni.kacz.contextLogger.ACTION_CONTEXT_CHANGED";
 	public static final String ACTION_LISTENER_ADDED = "cz.cuni.kacz.contextLogger.ACTION_LISTENER_ADDED";
+	public static final String ACTION_CONTEXT_BATCH = "cz.cuni.kacz.contextLogger.ACTION_CONTEXT_BATCH";
+
+	/** Largest number of records of a broadcast, 0 if batching is off. */
+	private int mMaxBatchSize = 0;
+	private long mBatchIntervalMs = 0;
+
+	/** Minimal time between two records of a piece of context, 0 for any. */
+	private long mMinIntervalMicros = 0;
+
+	/**
+	 * Time of the last record sent of each piece of context. Guarded by
+	 * mBatch, as the rest of the rate limit state.
+	 */
+	private long[] mLastTimes = new long[32];
+	private boolean[] mSent = new boolean[32];
+
+	/**
+	 * Latest record of each piece of context skipped by the rate limit, sent
+	 * when its slot comes, see sendPending(). The type is -1 if there is none.
+	 */
+	private int[] mPendingTypes = newPendingTypes(32);
+	private long[] mPendingTimes = new long[32];
+	private long[] mPendingBits = new long[32];
+	private long[] mPendingBits2 = new long[32];
+	private String[] mPendingStrings = new String[32];
+	private int mPendingCount = 0;
+
+	/** Records waiting for the broadcast, guarded by itself. */
+	private IntentBatch mBatch;
+	private Timer mTimer;
+
+	/**
+	 * Collects the records into ACTION_CONTEXT_BATCH broadcasts. Must be
+	 * called before open().
+	 * 
+	 * @param maxRecords
+	 *            Largest number of records of a broadcast, 0 to send each
+	 *            record in its own ACTION_CONTEXT_CHANGED broadcast.
+	 * @param intervalMs
+	 *            Time between two broadcasts of the records collected so far.
+	 * @param maxRateHz
+	 *            Largest number of records per second sent of each piece of
+	 *            context, 0 for no limit. Of the records skipped in between,
+	 *            the latest one is sent once its next slot comes, so the
+	 *            receivers get the last value.
+	 */
+	public void setBatching(int maxRecords, long intervalMs, int maxRateHz) {
+		mMaxBatchSize = maxRecords;
+		mBatchIntervalMs = intervalMs;
+		mMinIntervalMicros = maxRateHz > 0 ? 1000 * 1000 / maxRateHz : 0;
+	}
+
+	private static int[] newPendingTypes(int length) {
+		int[] types = new int[length];
+		Arrays.fill(types, -1);
+		return types;
+	}
+
+	/**
+	 * Adds a record to the broadcast batch if it passes the rate limit of its
+	 * piece of context, otherwise keeps it as the pending record of the piece
+	 * of context. Must be called with the lock of mBatch.
+	 */
+	private void offer(int listenerId, long time, int type, long bits,
+			long bits2, String string) {
+		if (mMinIntervalMicros > 0) {
+			if (listenerId >= mLastTimes.length) {
+				growRateLimit(listenerId + 1);
+			}
+			if (mSent[listenerId]
+					&& time - mLastTimes[listenerId] < mMinIntervalMicros) {
+				if (mPendingTypes[listenerId] < 0) {
+					++mPendingCount;
+				}
+				mPendingTypes[listenerId] = type;
+				mPendingTimes[listenerId] = time;
+				mPendingBits[listenerId] = bits;
+				mPendingBits2[listenerId] = bits2;
+				mPendingStrings[listenerId] = string;
+				return;
+			}
+			// a newer record replaces the pending one
+			if (mPendingTypes[listenerId] >= 0) {
+				mPendingTypes[listenerId] = -1;
+				mPendingStrings[listenerId] = null;
+				--mPendingCount;
+			}
+			mSent[listenerId] = true;
+			mLastTimes[listenerId] = time;
+		}
+		add(listenerId, time, type, bits, bits2, string);
+		sendIfFull();
+	}
+
+	private void growRateLimit(int minLength) {
+		int length = Math.max(minLength, mLastTimes.length * 2);
+		int oldLength = mPendingTypes.length;
+		mLastTimes = Arrays.copyOf(mLastTimes, length);
+		mSent = Arrays.copyOf(mSent, length);
+		mPendingTypes = Arrays.copyOf(mPendingTypes, length);
+		Arrays.fill(mPendingTypes, oldLength, length, -1);
+		mPendingTimes = Arrays.copyOf(mPendingTimes, length);
+		mPendingBits = Arrays.copyOf(mPendingBits, length);
+		mPendingBits2 = Arrays.copyOf(mPendingBits2, length);
+		mPendingStrings = Arrays.copyOf(mPendingStrings, length);
+	}
+
+	/**
+	 * Adds the pending records whose next slot came by the given time to the
+	 * broadcast batch, or all of them. Must be called with the lock of
+	 * mBatch.
+	 * 
+	 * @param now
+	 *            Current time, see TimeSource.getTimeOfDay().
+	 * @param all
+	 *            True to add all the pending records, e.g. at the end of the
+	 *            session.
+	 */
+	private void sendPending(long now, boolean all) {
+		for (int id = 0; mPendingCount > 0 && id < mPendingTypes.length; ++id) {
+			if (mPendingTypes[id] < 0
+					|| (!all && now - mLastTimes[id] < mMinIntervalMicros)) {
+				continue;
+			}
+			add(id, mPendingTimes[id], mPendingTypes[id], mPendingBits[id],
+					mPendingBits2[id], mPendingStrings[id]);
+			mLastTimes[id] = Math.max(now, mPendingTimes[id]);
+			mPendingTypes[id] = -1;
+			mPendingStrings[id] = null;
+			--mPendingCount;
+			sendIfFull();
+		}
+	}
+
+	/**
+	 * Adds a record in the raw form of LogBatch to the broadcast batch. Must
+	 * be called with the lock of mBatch.
+	 */
+	private void add(int id, long time, int type, long bits, long bits2,
+			String string) {
+		switch (type) {
+		case DataManager.INT:
+			mBatch.addInt(id, time, (int) bits);
+			break;
+		case DataManager.LONG:
+			mBatch.addLong(id, time, bits);
+			break;
+		case DataManager.FLOAT:
+			mBatch.addFloat(id, time, Float.intBitsToFloat((int) bits));
+			break;
+		case DataManager.DOUBLE:
+			mBatch.addDouble(id, time, Double.longBitsToDouble(bits));
+			break;
+		case DataManager.STRING:
+			mBatch.addString(id, time, string);
+			break;
+		case DataManager.FLOAT3:
+		case DataManager.FLOAT4:
+			mBatch.addVector(id, time, Float.intBitsToFloat((int) (bits >>> 32)),
+					Float.intBitsToFloat((int) bits), Float
+							.intBitsToFloat((int) (bits2 >>> 32)), Float
+							.intBitsToFloat((int) bits2));
+			break;
+		}
+	}
+
+	/**
+	 * Sends the collected records if the batch is full. Must be called with
+	 * the lock of mBatch.
+	 */
+	private void sendIfFull() {
+		if (mBatch.size() >= mMaxBatchSize) {
+			mContext.sendBroadcast(mBatch.toIntent(ACTION_CONTEXT_BATCH));
+		}
+	}
+
+	/**
+	 * Sends the collected records, if there are any, with the pending records
+	 * whose slot came or all of them.
+	 */
+	private void sendBatch(boolean allPending) {
+		synchronized (mBatch) {
+			if (mPendingCount > 0) {
+				sendPending(TimeSource.getTimeOfDay(), allPending);
+			}
+			if (mBatch.size() > 0) {
+				mContext.sendBroadcast(mBatch.toIntent(ACTION_CONTEXT_BATCH));
+			}
+		}
+	}
 
 	@Override
 	public void insertLog(int listenerId, long time, int value) {
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				offer(listenerId, time, DataManager.INT, value, 0, null);
+			}
+			return;
+		}
 		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: int");
 		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
 		intent.putExtra("id", listenerId);
@@ -52,6 +258,12 @@ public class IntentDataTarget extends DefaultDataTarget {
 
 	@Override
 	public void insertLog(int listenerId, long time, long value) {
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				offer(listenerId, time, DataManager.LONG, value, 0, null);
+			}
+			return;
+		}
 		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: long");
 		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
 		intent.putExtra("id", listenerId);
@@ -62,6 +274,12 @@ public class IntentDataTarget extends DefaultDataTarget {
 
 	@Override
 	public void insertLog(int listenerId, long time, float value) {
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				offer(listenerId, time, DataManager.FLOAT, Float.floatToRawIntBits(value), 0, null);
+			}
+			return;
+		}
 		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: float");
 		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
 		intent.putExtra("id", listenerId);
@@ -72,6 +290,12 @@ public class IntentDataTarget extends DefaultDataTarget {
 
 	@Override
 	public void insertLog(int listenerId, long time, String value) {
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				offer(listenerId, time, DataManager.STRING, 0, 0, value);
+			}
+			return;
+		}
 		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: string");
 		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
 		intent.putExtra("id", listenerId);
@@ -82,6 +306,12 @@ public class IntentDataTarget extends DefaultDataTarget {
 
 	@Override
 	public void insertLog(int listenerId, long time, double value) {
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				offer(listenerId, time, DataManager.DOUBLE, Double.doubleToRawLongBits(value), 0, null);
+			}
+			return;
+		}
 		Log.d(TAG, "id: " + listenerId + " value: " + value + " type: double");
 		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
 		intent.putExtra("id", listenerId);
@@ -90,6 +320,103 @@ public class IntentDataTarget extends DefaultDataTarget {
 		mContext.sendBroadcast(intent);
 	}
 
+	@Override
+	public void insertLog(int listenerId, long time, float[] values) {
+		if (mBatch != null) {
+			int n = values.length;
+			synchronized (mBatch) {
+				offer(listenerId, time, n > 3 ? DataManager.FLOAT4
+						: DataManager.FLOAT3, DataManager.packFloats(
+						n > 0 ? values[0] : Float.NaN, n > 1 ? values[1]
+								: Float.NaN), DataManager.packFloats(
+						n > 2 ? values[2] : Float.NaN, n > 3 ? values[3]
+								: Float.NaN), null);
+			}
+			return;
+		}
+		Log.d(TAG, "id: " + listenerId + " values: " + values.length
+				+ " type: vector");
+		Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
+		intent.putExtra("id", listenerId);
+		intent.putExtra("time", time);
+		// the caller reuses the array
+		intent.putExtra("floatValues", values.clone());
+		mContext.sendBroadcast(intent);
+	}
+
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		if (mBatch != null) {
+			synchronized (mBatch) {
+				for (int i = 0; i < size; ++i) {
+					int type = batch.getType(i);
+					offer(batch.getId(i), batch.getTime(i), type, batch
+							.getBits(i), batch.getBits2(i),
+							type == DataManager.STRING ? batch
+									.getStringValue(i) : null);
+				}
+				if (mPendingCount > 0 && size > 0) {
+					sendPending(batch.getTime(size - 1), false);
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < size; ++i) {
+			Intent intent = new Intent(ACTION_CONTEXT_CHANGED);
+			intent.putExtra("id", batch.getId(i));
+			intent.putExtra("time", batch.getTime(i));
+			switch (batch.getType(i)) {
+			case DataManager.INT:
+				intent.putExtra("intValue", batch.getIntValue(i));
+				break;
+			case DataManager.LONG:
+				intent.putExtra("longValue", batch.getLongValue(i));
+				break;
+			case DataManager.FLOAT:
+				intent.putExtra("floatValue", batch.getFloatValue(i));
+				break;
+			case DataManager.DOUBLE:
+				intent.putExtra("doubleValue", batch.getDoubleValue(i));
+				break;
+			case DataManager.STRING:
+				intent.putExtra("stringValue", batch.getStringValue(i));
+				break;
+			case DataManager.FLOAT3:
+			case DataManager.FLOAT4:
+				float[] values = new float[batch.getArity(i)];
+				batch.getVectorValue(i, values);
+				intent.putExtra("floatValues", values);
+				break;
+			}
+			mContext.sendBroadcast(intent);
+		}
+	}
+
+	/**
+	 * Returns the rate limit interval, so the pending records get their slot
+	 * when no more records come.
+	 */
+	@Override
+	public long getIdleIntervalNanos() {
+		if (mBatch == null) {
+			return 0;
+		}
+		return mMinIntervalMicros * 1000;
+	}
+
+	@Override
+	public void onIdle() {
+		if (mBatch == null) {
+			return;
+		}
+		synchronized (mBatch) {
+			if (mPendingCount > 0) {
+				sendPending(TimeSource.getTimeOfDay(), false);
+			}
+		}
+	}
+
 	@Override
 	public void registerListener(int listenerId, int type, String listenerName) {
 		Log.d(TAG, "reg3");
@@ -102,12 +429,30 @@ public class IntentDataTarget extends DefaultDataTarget {
 
 	@Override
 	public void open() {
-		return;
+		if (mMaxBatchSize <= 0) {
+			return;
+		}
+		mBatch = new IntentBatch();
+		if (mBatchIntervalMs > 0) {
+			mTimer = new Timer("IntentDataTarget-batch", true);
+			mTimer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					sendBatch(false);
+				}
+			}, mBatchIntervalMs, mBatchIntervalMs);
+		}
 	}
 
 	@Override
 	public void close() {
-		return;
+		if (mBatch == null) {
+			return;
+		}
+		if (mTimer != null) {
+			mTimer.cancel();
+		}
+		sendBatch(true);
 	}
 
 	@Override
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with power of two buckets in microseconds. Bucket 0
+ * counts latencies below 1 us, bucket i counts latencies from 2^(i-1) up to
+ * 2^i us. The last bucket also counts all the longer latencies.
+ * <p>
+ * Written by a single thread, the lane consumer, and read by any thread.
+ *
+ * @author kacz
+ *
+ */
+public class LatencyHistogram {
+
+	/** Number of buckets, the last one starts at about 18 minutes. */
+	public static final int BUCKETS = 32;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+	private volatile long mMaxMicros = 0;
+
+	/**
+	 * Counts a latency. Must be called from the writing thread only.
+	 *
+	 * @param nanos
+	 *            Latency in nanoseconds.
+	 */
+	void record(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+		if (bucket >= BUCKETS) {
+			bucket = BUCKETS - 1;
+		}
+		// single writer, an ordered store is enough
+		mCounts.lazySet(bucket, mCounts.get(bucket) + 1);
+		if (micros > mMaxMicros) {
+			mMaxMicros = micros;
+		}
+	}
+
+	/**
+	 * Returns the number of latencies in the bucket.
+	 */
+	public long getCount(int bucket) {
+		return mCounts.get(bucket);
+	}
+
+	/**
+	 * Returns the number of all the counted latencies.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += mCounts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the longest counted latency in microseconds.
+	 */
+	public long getMaxMicros() {
+		return mMaxMicros;
+	}
+
+	/**
+	 * Copies the counts of the buckets.
+	 *
+	 * @param counts
+	 *            Array of at least BUCKETS elements.
+	 */
+	public void getCounts(long[] counts) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = mCounts.get(i);
+		}
+	}
+
+	/**
+	 * Returns the upper bound of the bucket in microseconds.
+	 */
+	public static long getUpperBoundMicros(int bucket) {
+		return 1L << bucket;
+	}
+
+	/**
+	 * Returns the upper bound in microseconds of the bucket containing the
+	 * given percentile of the latencies.
+	 *
+	 * @param percentile
+	 *            Percentile between 0 and 100.
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] counts = new long[BUCKETS];
+		getCounts(counts);
+		return getPercentileMicros(counts, percentile);
+	}
+
+	/**
+	 * Returns the upper bound in microseconds of the bucket containing the
+	 * given percentile of the latencies counted in the buckets, 0 if there are
+	 * none.
+	 *
+	 * @param counts
+	 *            Counts of the buckets, e.g. the difference of two copies.
+	 * @param percentile
+	 *            Percentile between 0 and 100.
+	 */
+	public static long getPercentileMicros(long[] counts, double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return getUpperBoundMicros(i);
+			}
+		}
+		return getUpperBoundMicros(BUCKETS - 1);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogQueue backed by a LinkedBlockingQueue of LogEntry objects. Allocates a
+ * record and a queue node for every record, kept for comparison with the
+ * LogRingBuffer.
+ *
+ * @author kacz
+ *
+ */
+class LinkedLogQueue implements LogQueue {
+
+	/** Time put() waits for a free slot before it checks mClosed again. */
+	private static final long PUT_POLL_MS = 10;
+
+	/** Entry put into the queue by close() to wake the consumer up. */
+	private static final LogEntry CLOSE_MARK = new LogEntry(-1, 0, 0, 0, null,
+			0);
+
+	private final LinkedBlockingQueue<LogEntry> mLogs;
+
+	/** Records taken from mLogs by drainTo(), reused by the consumer. */
+	private final List<LogEntry> mDrained = new ArrayList<LogEntry>();
+
+	private volatile boolean mClosed = false;
+
+	/**
+	 * Creates a queue.
+	 *
+	 * @param capacity
+	 *            Maximal number of records in the queue.
+	 */
+	LinkedLogQueue(int capacity) {
+		mLogs = new LinkedBlockingQueue<LogEntry>(capacity);
+	}
+
+	@Override
+	public boolean offer(int id, long time, long bits, long bits2,
+			String string, long enqueueNanos) {
+		return mLogs.offer(new LogEntry(id, time, bits, bits2, string,
+				enqueueNanos));
+	}
+
+	@Override
+	public boolean put(int id, long time, long bits, long bits2,
+			String string, long enqueueNanos) {
+		LogEntry entry = new LogEntry(id, time, bits, bits2, string,
+				enqueueNanos);
+		try {
+			while (!mClosed) {
+				if (mLogs.offer(entry, PUT_POLL_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	@Override
+	public int evictOldest() {
+		if (mLogs.remainingCapacity() > 0) {
+			return -1;
+		}
+		LogEntry entry = mLogs.poll();
+		if (entry == null || entry == CLOSE_MARK) {
+			return -1;
+		}
+		return entry.id;
+	}
+
+	@Override
+	public int drainTo(LogBatch batch, int max, long maxWaitNanos,
+			long idleNanos) throws InterruptedException {
+		batch.clear();
+		if (mClosed) {
+			add(batch, mLogs.poll());
+		} else if (idleNanos > 0) {
+			LogEntry entry = mLogs.poll(idleNanos, TimeUnit.NANOSECONDS);
+			if (entry == null && !mClosed) {
+				return 0;
+			}
+			add(batch, entry);
+		} else {
+			add(batch, mLogs.take());
+		}
+
+		long deadline = System.nanoTime() + maxWaitNanos;
+		while (batch.size() < max) {
+			mLogs.drainTo(mDrained, max - batch.size());
+			for (LogEntry e : mDrained) {
+				add(batch, e);
+			}
+			mDrained.clear();
+			if (batch.size() >= max || mClosed) {
+				break;
+			}
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				break;
+			}
+			LogEntry entry = mLogs.poll(left, TimeUnit.NANOSECONDS);
+			if (entry == null) {
+				break;
+			}
+			add(batch, entry);
+		}
+		return batch.size() == 0 && mClosed ? -1 : batch.size();
+	}
+
+	private void add(LogBatch batch, LogEntry e) {
+		if (e != null && e != CLOSE_MARK) {
+			batch.add(e.id, e.time, e.value, e.value2, e.stringValue,
+					e.enqueueNanos);
+		}
+	}
+
+	@Override
+	public int size() {
+		return mLogs.size();
+	}
+
+	@Override
+	public int capacity() {
+		return mLogs.size() + mLogs.remainingCapacity();
+	}
+
+	@Override
+	public void close() {
+		mClosed = true;
+		// wake up a consumer blocked in take(), the mark is skipped
+		mLogs.offer(CLOSE_MARK);
+	}
+}
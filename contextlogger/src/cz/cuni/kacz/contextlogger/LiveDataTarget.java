@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * DataTarget publishing the records to subscribers in the same process,
+ * without intents. The records are copied into a ring shared by all the
+ * subscribers; each subscriber reads the ring from its own position on its
+ * own executor and gets the records of the pieces of context it selected in
+ * batches, downsampled to its maximal rate.
+ * <p>
+ * The thread calling the insert methods only copies the records into the
+ * ring and schedules the subscribers that are not scheduled yet. A
+ * subscriber that falls more than the capacity of the ring behind skips the
+ * oldest records, see Subscription.getDropped().
+ * <p>
+ * The application adds the target by ContextLogger.addDataTarget() in the
+ * embedded mode and keeps its subscriptions over the logging sessions.
+ *
+ * @author kacz
+ *
+ */
+public class LiveDataTarget extends DefaultDataTarget {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** Default number of records in the ring. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** Largest number of records passed to a single callback. */
+	private static final int CALLBACK_BATCH = 256;
+
+	/**
+	 * Receives the records of a subscription.
+	 */
+	public interface Subscriber {
+		/**
+		 * Called on the executor of the subscription with the next records,
+		 * in the order they were logged. The batch is reused, the subscriber
+		 * must not keep a reference to it.
+		 *
+		 * @param records
+		 *            Records of the selected pieces of context.
+		 */
+		public void onRecords(LogBatch records);
+	}
+
+	/**
+	 * Subscription returned by subscribe().
+	 */
+	public final class Subscription {
+		private final Set<String> mNames;
+		private final long mMinIntervalMicros;
+		private final Executor mExecutor;
+		private final Subscriber mSubscriber;
+
+		/** Set while the subscription is scheduled on its executor. */
+		private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+		private volatile boolean mCancelled = false;
+
+		/** Sequence number of the next record to read. */
+		private long mPosition;
+		private volatile long mDropped = 0;
+
+		/** Accepted pieces of context by ID: 0 unknown, 1 yes, 2 no. */
+		private byte[] mAccepted = new byte[32];
+		/** Value of mNamesVersion mAccepted was filled with. */
+		private int mAcceptedVersion = 0;
+
+		/** Time of the last record passed of each piece of context. */
+		private long[] mLastTimes = new long[32];
+		private boolean[] mPassed = new boolean[32];
+
+		/** Records copied from the ring, filtered outside of the ring lock. */
+		private final int[] mIds = new int[CALLBACK_BATCH];
+		private final long[] mTimes = new long[CALLBACK_BATCH];
+		private final long[] mValues = new long[CALLBACK_BATCH];
+		private final long[] mValues2 = new long[CALLBACK_BATCH];
+		private final String[] mStrings = new String[CALLBACK_BATCH];
+
+		private final LogBatch mBatch = new LogBatch(CALLBACK_BATCH);
+
+		private final Runnable mDrain = new Runnable() {
+			@Override
+			public void run() {
+				drain(Subscription.this);
+			}
+		};
+
+		Subscription(Set<String> names, int maxRateHz, Executor executor,
+				Subscriber subscriber, long position) {
+			mNames = names;
+			mMinIntervalMicros = maxRateHz > 0 ? 1000 * 1000 / maxRateHz : 0;
+			mExecutor = executor;
+			mSubscriber = subscriber;
+			mPosition = position;
+		}
+
+		/**
+		 * Returns the number of records skipped because the subscriber fell
+		 * behind by more than the capacity of the ring.
+		 */
+		public long getDropped() {
+			return mDropped;
+		}
+
+		/**
+		 * Schedules the subscription unless it is scheduled already.
+		 */
+		void schedule() {
+			if (!mCancelled && mScheduled.compareAndSet(false, true)) {
+				mExecutor.execute(mDrain);
+			}
+		}
+
+		/**
+		 * Returns true if the subscriber selected the piece of context.
+		 */
+		boolean accepts(int listenerId) {
+			int version = mNamesVersion;
+			if (version != mAcceptedVersion) {
+				// IDs were given to other pieces of context, e.g. in the next
+				// session
+				Arrays.fill(mAccepted, (byte) 0);
+				Arrays.fill(mPassed, false);
+				mAcceptedVersion = version;
+			}
+			if (listenerId >= mAccepted.length) {
+				mAccepted = Arrays.copyOf(mAccepted, Math.max(listenerId + 1,
+						mAccepted.length * 2));
+			}
+			if (mAccepted[listenerId] == 0) {
+				String[] names = mChannelNames;
+				if (listenerId >= names.length || names[listenerId] == null) {
+					return false;
+				}
+				mAccepted[listenerId] = (byte) (mNames == null
+						|| matches(names[listenerId]) ? 1 : 2);
+			}
+			return mAccepted[listenerId] == 1;
+		}
+
+		/**
+		 * Returns true if the name or, for a vector, the name of one of its
+		 * components was selected.
+		 */
+		private boolean matches(String name) {
+			if (mNames.contains(name)) {
+				return true;
+			}
+			for (String component : name.split(Pattern
+					.quote(LogType.VECTOR_LABEL_SEPARATOR))) {
+				if (mNames.contains(component)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns true if the record passes the rate limit of its piece of
+		 * context.
+		 */
+		boolean isDue(int listenerId, long time) {
+			if (mMinIntervalMicros <= 0) {
+				return true;
+			}
+			if (listenerId >= mLastTimes.length) {
+				int length = Math.max(listenerId + 1, mLastTimes.length * 2);
+				mLastTimes = Arrays.copyOf(mLastTimes, length);
+				mPassed = Arrays.copyOf(mPassed, length);
+			}
+			if (mPassed[listenerId]
+					&& time - mLastTimes[listenerId] < mMinIntervalMicros) {
+				return false;
+			}
+			mPassed[listenerId] = true;
+			mLastTimes[listenerId] = time;
+			return true;
+		}
+	}
+
+	private final int mCapacity;
+	private final int mMask;
+
+	/** Records of the ring, guarded by the ring lock. */
+	private final int[] mIds;
+	private final long[] mTimes;
+	private final long[] mValues;
+	private final long[] mValues2;
+	private final String[] mStrings;
+
+	/**
+	 * Number of records published so far, written with the ring lock and read
+	 * without it to check for new records.
+	 */
+	private volatile long mPublished = 0;
+	private final Object mRingLock = new Object();
+
+	/** Names and types of the pieces of context by ID, copied on write. */
+	private volatile String[] mChannelNames = new String[0];
+	private volatile int[] mTypes = new int[0];
+	/** Incremented when an ID gets the name of another piece of context. */
+	private volatile int mNamesVersion = 0;
+
+	private volatile Subscription[] mSubscriptions = new Subscription[0];
+
+	public LiveDataTarget() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            Number of records in the ring, rounded up to the next power
+	 *            of two.
+	 */
+	public LiveDataTarget(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mCapacity = size;
+		mMask = size - 1;
+		mIds = new int[size];
+		mTimes = new long[size];
+		mValues = new long[size];
+		mValues2 = new long[size];
+		mStrings = new String[size];
+	}
+
+	/**
+	 * Subscribes to the records logged from now on.
+	 *
+	 * @param names
+	 *            Names of the pieces of context or of components of vectors
+	 *            to receive, null for all of them.
+	 * @param maxRateHz
+	 *            Largest number of records per second passed of each piece of
+	 *            context, the others are skipped, 0 for no limit.
+	 * @param executor
+	 *            Executor running the callbacks, one at a time.
+	 * @param subscriber
+	 *            Receives the records.
+	 * @return The subscription, for unsubscribe().
+	 */
+	public Subscription subscribe(Collection<String> names, int maxRateHz,
+			Executor executor, Subscriber subscriber) {
+		long position;
+		synchronized (mRingLock) {
+			position = mPublished;
+		}
+		Subscription subscription = new Subscription(names == null ? null
+				: new HashSet<String>(names), maxRateHz, executor, subscriber,
+				position);
+		synchronized (this) {
+			Subscription[] subscriptions = Arrays.copyOf(mSubscriptions,
+					mSubscriptions.length + 1);
+			subscriptions[subscriptions.length - 1] = subscription;
+			mSubscriptions = subscriptions;
+		}
+		return subscription;
+	}
+
+	/**
+	 * Stops passing records to the subscriber. A callback that is running
+	 * finishes.
+	 */
+	public synchronized void unsubscribe(Subscription subscription) {
+		subscription.mCancelled = true;
+		Subscription[] subscriptions = mSubscriptions;
+		for (int i = 0; i < subscriptions.length; ++i) {
+			if (subscriptions[i] == subscription) {
+				Subscription[] remaining = new Subscription[subscriptions.length
+						- 1];
+				System.arraycopy(subscriptions, 0, remaining, 0, i);
+				System.arraycopy(subscriptions, i + 1, remaining, i,
+						remaining.length - i);
+				mSubscriptions = remaining;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies a record into the ring. Must be called with the ring lock, the
+	 * record is visible to the subscribers after the lock is released.
+	 */
+	private void publish(long sequence, int listenerId, long time, long bits,
+			long bits2, String value) {
+		int slot = (int) (sequence & mMask);
+		mIds[slot] = listenerId;
+		mTimes[slot] = time;
+		mValues[slot] = bits;
+		mValues2[slot] = bits2;
+		mStrings[slot] = value;
+	}
+
+	private void scheduleSubscribers() {
+		for (Subscription subscription : mSubscriptions) {
+			subscription.schedule();
+		}
+	}
+
+	/**
+	 * Passes the records published since the last call to the subscriber, in
+	 * batches of up to CALLBACK_BATCH records. Runs on the executor of the
+	 * subscription.
+	 */
+	private void drain(Subscription subscription) {
+		LogBatch batch = subscription.mBatch;
+		while (!subscription.mCancelled) {
+			// copy a chunk of the ring, so the lock is held shortly
+			int count;
+			synchronized (mRingLock) {
+				long position = subscription.mPosition;
+				long published = mPublished;
+				if (published - position > mCapacity) {
+					subscription.mDropped += published - mCapacity - position;
+					position = published - mCapacity;
+				}
+				count = (int) Math.min(published - position, CALLBACK_BATCH);
+				int slot = (int) (position & mMask);
+				int first = Math.min(count, mCapacity - slot);
+				copyFromRing(subscription, slot, 0, first);
+				copyFromRing(subscription, 0, first, count - first);
+				subscription.mPosition = position + count;
+			}
+
+			batch.clear();
+			for (int i = 0; i < count; ++i) {
+				int id = subscription.mIds[i];
+				long time = subscription.mTimes[i];
+				if (subscription.accepts(id) && subscription.isDue(id, time)) {
+					batch.add(id, time, subscription.mValues[i],
+							subscription.mValues2[i], subscription.mStrings[i],
+							0);
+				}
+			}
+			Arrays.fill(subscription.mStrings, 0, count, null);
+			if (batch.size() > 0) {
+				int[] types = mTypes;
+				batch.resolveTypes(types, types.length);
+				try {
+					subscription.mSubscriber.onRecords(batch);
+				} catch (RuntimeException e) {
+					// a failing callback does not stop the subscription
+					e.printStackTrace();
+				}
+				batch.clear();
+			}
+
+			if (subscription.mPosition >= mPublished) {
+				subscription.mScheduled.set(false);
+				// records published after the check schedule it again
+				if (subscription.mPosition >= mPublished
+						|| !subscription.mScheduled
+								.compareAndSet(false, true)) {
+					break;
+				}
+			}
+		}
+	}
+
+	private void copyFromRing(Subscription subscription, int slot, int to,
+			int count) {
+		System.arraycopy(mIds, slot, subscription.mIds, to, count);
+		System.arraycopy(mTimes, slot, subscription.mTimes, to, count);
+		System.arraycopy(mValues, slot, subscription.mValues, to, count);
+		System.arraycopy(mValues2, slot, subscription.mValues2, to, count);
+		System.arraycopy(mStrings, slot, subscription.mStrings, to, count);
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, int value) {
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time, value, 0, null);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, long value) {
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time, value, 0, null);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, float value) {
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time,
+					Float.floatToRawIntBits(value), 0, null);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, String value) {
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time, 0, 0, value);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, double value) {
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time,
+					Double.doubleToRawLongBits(value), 0, null);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertLog(int listenerId, long time, float[] values) {
+		int n = values.length;
+		synchronized (mRingLock) {
+			publish(mPublished++, listenerId, time,
+					DataManager.packFloats(n > 0 ? values[0] : Float.NaN,
+							n > 1 ? values[1] : Float.NaN),
+					DataManager.packFloats(n > 2 ? values[2] : Float.NaN,
+							n > 3 ? values[3] : Float.NaN), null);
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		synchronized (mRingLock) {
+			long sequence = mPublished;
+			for (int i = 0; i < size; ++i) {
+				publish(sequence + i, batch.getId(i), batch.getTime(i),
+						batch.getBits(i), batch.getBits2(i),
+						batch.getType(i) == DataManager.STRING ? batch
+								.getStringValue(i) : null);
+			}
+			mPublished = sequence + size;
+		}
+		scheduleSubscribers();
+	}
+
+	@Override
+	public synchronized void registerListener(int listenerId, int type,
+			String listenerName) {
+		int length = Math.max(mTypes.length, listenerId + 1);
+		String[] names = Arrays.copyOf(mChannelNames, length);
+		int[] types = Arrays.copyOf(mTypes, length);
+		String previous = names[listenerId];
+		names[listenerId] = listenerName;
+		types[listenerId] = type;
+		// the types first, a subscriber accepts the IDs with a name
+		mTypes = types;
+		mChannelNames = names;
+		if (previous != null && !previous.equals(listenerName)) {
+			mNamesVersion++;
+		}
+	}
+
+	@Override
+	public void open() {
+		return;
+	}
+
+	@Override
+	public void close() {
+		return;
+	}
+
+	@Override
+	public boolean checkPermissions() {
+		return true;
+	}
+}
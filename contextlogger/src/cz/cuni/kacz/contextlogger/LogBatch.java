@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+/**
+ * Batch of context log records passed to the data targets at once. The
+ * records are stored in parallel primitive arrays; numeric values are kept as
+ * raw bits and decoded by the typed getters. A batch is reused by the
+ * DataManager, so data targets must not keep a reference to it after
+ * BatchDataTarget.insertBatch() returns.
+ *
+ * @author kacz
+ *
+ */
+public class LogBatch {
+
+	private final int[] mIds;
+	private final int[] mTypes;
+	private final long[] mTimes;
+	private final long[] mValues;
+	private final long[] mValues2;
+	private final String[] mStrings;
+	private final long[] mEnqueueTimes;
+	private int mSize;
+
+	/**
+	 * Creates an empty batch.
+	 *
+	 * @param capacity
+	 *            Maximal number of records in the batch.
+	 */
+	LogBatch(int capacity) {
+		mIds = new int[capacity];
+		mTypes = new int[capacity];
+		mTimes = new long[capacity];
+		mValues = new long[capacity];
+		mValues2 = new long[capacity];
+		mStrings = new String[capacity];
+		mEnqueueTimes = new long[capacity];
+	}
+
+	/**
+	 * Returns the number of records in the batch.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Returns the maximal number of records in the batch.
+	 */
+	public int capacity() {
+		return mIds.length;
+	}
+
+	/**
+	 * Returns the ID of the piece of context of the i-th record.
+	 */
+	public int getId(int i) {
+		return mIds[i];
+	}
+
+	/**
+	 * Returns the type of the i-th record.
+	 */
+	public int getType(int i) {
+		return mTypes[i];
+	}
+
+	/**
+	 * Returns the timestamp of the i-th record.
+	 */
+	public long getTime(int i) {
+		return mTimes[i];
+	}
+
+	/**
+	 * Returns the value of the i-th record of INT type.
+	 */
+	public int getIntValue(int i) {
+		return (int) mValues[i];
+	}
+
+	/**
+	 * Returns the value of the i-th record of LONG type.
+	 */
+	public long getLongValue(int i) {
+		return mValues[i];
+	}
+
+	/**
+	 * Returns the value of the i-th record of FLOAT type.
+	 */
+	public float getFloatValue(int i) {
+		return Float.intBitsToFloat((int) mValues[i]);
+	}
+
+	/**
+	 * Returns the value of the i-th record of DOUBLE type.
+	 */
+	public double getDoubleValue(int i) {
+		return Double.longBitsToDouble(mValues[i]);
+	}
+
+	/**
+	 * Returns the number of components of the value of the i-th record, 1 for
+	 * scalar types.
+	 */
+	public int getArity(int i) {
+		switch (mTypes[i]) {
+		case DataManager.FLOAT3:
+			return 3;
+		case DataManager.FLOAT4:
+			return 4;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Returns a component of the value of the i-th record of FLOAT3 or FLOAT4
+	 * type.
+	 *
+	 * @param component
+	 *            Index of the component, smaller than getArity(i).
+	 */
+	public float getVectorValue(int i, int component) {
+		long bits = component < 2 ? mValues[i] : mValues2[i];
+		if ((component & 1) == 0) {
+			bits >>>= 32;
+		}
+		return Float.intBitsToFloat((int) bits);
+	}
+
+	/**
+	 * Copies the components of the value of the i-th record of FLOAT3 or
+	 * FLOAT4 type.
+	 *
+	 * @param values
+	 *            Array of at least getArity(i) elements.
+	 */
+	public void getVectorValue(int i, float[] values) {
+		int arity = getArity(i);
+		for (int c = 0; c < arity; ++c) {
+			values[c] = getVectorValue(i, c);
+		}
+	}
+
+	/**
+	 * Returns the value of the i-th record of STRING type.
+	 */
+	public String getStringValue(int i) {
+		return mStrings[i];
+	}
+
+	/**
+	 * Returns the raw bits of the numeric value of the i-th record.
+	 */
+	long getBits(int i) {
+		return mValues[i];
+	}
+
+	/**
+	 * Returns the raw bits of the last two components of the vector value of
+	 * the i-th record.
+	 */
+	long getBits2(int i) {
+		return mValues2[i];
+	}
+
+	/**
+	 * Returns System.nanoTime() at the moment the i-th record was logged.
+	 */
+	long getEnqueueTime(int i) {
+		return mEnqueueTimes[i];
+	}
+
+	/**
+	 * Appends a record to the batch.
+	 *
+	 * @param id
+	 *            ID of the piece of context.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param bits
+	 *            Raw bits of a numeric value.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector value.
+	 * @param string
+	 *            Value of a STRING record, null otherwise.
+	 * @param enqueueNanos
+	 *            System.nanoTime() at the moment the record was logged.
+	 */
+	void add(int id, long time, long bits, long bits2, String string,
+			long enqueueNanos) {
+		mIds[mSize] = id;
+		mTimes[mSize] = time;
+		mValues[mSize] = bits;
+		mValues2[mSize] = bits2;
+		mStrings[mSize] = string;
+		mEnqueueTimes[mSize] = enqueueNanos;
+		++mSize;
+	}
+
+	/**
+	 * Resolves the types of the records and removes the records of unknown
+	 * pieces of context. STRING records with null value get the "null" value.
+	 *
+	 * @param types
+	 *            Types indexed by the ID of the piece of context.
+	 * @param count
+	 *            Number of valid entries in types.
+	 */
+	void resolveTypes(int[] types, int count) {
+		int n = 0;
+		for (int i = 0; i < mSize; ++i) {
+			int id = mIds[i];
+			if (id < 0 || id >= count) {
+				continue;
+			}
+			int type = types[id];
+			if (n != i) {
+				mIds[n] = id;
+				mTimes[n] = mTimes[i];
+				mValues[n] = mValues[i];
+				mValues2[n] = mValues2[i];
+				mStrings[n] = mStrings[i];
+				mEnqueueTimes[n] = mEnqueueTimes[i];
+			}
+			if (type == DataManager.STRING && mStrings[n] == null) {
+				mStrings[n] = "null";
+			}
+			mTypes[n] = type;
+			++n;
+		}
+		for (int i = n; i < mSize; ++i) {
+			mStrings[i] = null;
+		}
+		mSize = n;
+	}
+
+	/**
+	 * Removes the records from the given position to the end of the batch.
+	 *
+	 * @param size
+	 *            New number of records in the batch.
+	 */
+	void truncate(int size) {
+		for (int i = size; i < mSize; ++i) {
+			mStrings[i] = null;
+		}
+		mSize = size;
+	}
+
+	/**
+	 * Removes all the records from the batch.
+	 */
+	void clear() {
+		truncate(0);
+	}
+}
@@ -21,7 +21,8 @@
 package cz.cuni.kacz.contextlogger;
 
 /**
- * POJO class representing a context change event.
+ * POJO class representing a context change event. Used by the
+ * LinkedLogQueue.
  * 
  * @author kacz
  * 
@@ -29,103 +30,50 @@ package cz.cuni.kacz.contextlogger;
 public class LogEntry {
 
 	/**
-	 * Constructor of a INT type record.
+	 * Constructor of a record.
 	 * 
+	 * @param id
+	 *            ID of the piece of context.
 	 * @param time
 	 *            Timestamp of the record.
-	 * @param label
-	 *            Name of the piece of context.
 	 * @param value
-	 *            Value of the record.
+	 *            Raw bits of a numeric value.
+	 * @param value2
+	 *            Raw bits of the last two components of a vector value.
+	 * @param stringValue
+	 *            Value of a STRING record, null otherwise.
+	 * @param enqueueNanos
+	 *            System.nanoTime() at the moment the record was logged.
 	 */
-	LogEntry(long time, String label, int value) {
+	LogEntry(int id, long time, long value, long value2, String stringValue,
+			long enqueueNanos) {
+		this.id = id;
 		this.time = time;
-		this.label = label;
-		this.intValue = value;
-	}
-
-	/**
-	 * Constructor of a LONG type record.
-	 * 
-	 * @param time
-	 *            Timestamp of the record.
-	 * @param label
-	 *            Name of the piece of context.
-	 * @param value
-	 *            Value of the record.
-	 */
-	LogEntry(long time, String label, long value) {
-		this.time = time;
-		this.label = label;
-		this.longValue = value;
-	}
-
-	/**
-	 * Constructor of a FLOAT type record.
-	 * 
-	 * @param time
-	 *            Timestamp of the record.
-	 * @param label
-	 *            Name of the piece of context.
-	 * @param value
-	 *            Value of the record.
-	 */
-	LogEntry(long time, String label, float value) {
-		this.time = time;
-		this.label = label;
-		this.floatValue = value;
-	}
-
-	/**
-	 * Constructor of a DOUBLE type record.
-	 * 
-	 * @param time
-	 *            Timestamp of the record.
-	 * @param label
-	 *            Name of the piece of context.
-	 * @param value
-	 *            Value of the record.
-	 */
-	LogEntry(long time, String label, double value) {
-		this.time = time;
-		this.label = label;
-		this.doubleValue = value;
-	}
-
-	/**
-	 * Constructor of a STRING type record.
-	 * 
-	 * @param time
-	 *            Timestamp of the record.
-	 * @param label
-	 *            Name of the piece of context.
-	 * @param value
-	 *            Value of the record.
-	 */
-	LogEntry(long time, String label, String value) {
-		this.time = time;
-		this.label = label;
-		this.stringValue = value;
+		this.value = value;
+		this.value2 = value2;
+		this.stringValue = stringValue;
+		this.enqueueNanos = enqueueNanos;
 	}
 
 	/** Timestamp of the event. */
 	long time;
 
-	/** Name of the piece of context. */
-	String label;
+	/** ID of the piece of context. */
+	int id;
 
-	/** Value of a INT type record. */
-	int intValue;
-
-	/** Value of a LONG type record. */
-	long longValue;
-
-	/** Value of a FLOAT type record. */
-	float floatValue;
+	/**
+	 * Raw bits of a numeric value, see
+	 * {@link Float#floatToRawIntBits(float)} and
+	 * {@link Double#doubleToRawLongBits(double)}.
+	 */
+	long value;
 
-	/** Value of a DOUBLE type record. */
-	double doubleValue;
+	/** Raw bits of the last two components of a FLOAT3 or FLOAT4 value. */
+	long value2;
 
 	/** Value of a STRING type record. */
 	String stringValue;
+
+	/** System.nanoTime() at the moment the record was logged. */
+	long enqueueNanos;
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+/**
+ * Bounded queue of context log records between the producers (listeners) and
+ * the consumer of a single data target lane. Any number of threads can put
+ * records into the queue, exactly one thread takes them.
+ *
+ * @author kacz
+ *
+ */
+interface LogQueue {
+
+	/**
+	 * Puts a record into the queue if there is a free slot.
+	 *
+	 * @param id
+	 *            ID of the piece of context.
+	 * @param time
+	 *            Timestamp of the record.
+	 * @param bits
+	 *            Raw bits of a numeric value.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector value.
+	 * @param string
+	 *            Value of a STRING record, null otherwise.
+	 * @param enqueueNanos
+	 *            System.nanoTime() at the moment the record was logged.
+	 * @return true if the record was stored, false if the queue was full.
+	 */
+	boolean offer(int id, long time, long bits, long bits2, String string,
+			long enqueueNanos);
+
+	/**
+	 * Puts a record into the queue, waiting for a free slot if the queue is
+	 * full.
+	 *
+	 * @return true if the record was stored, false if the queue was closed
+	 *         before a slot became free.
+	 * @see #offer(int, long, long, long, String, long)
+	 */
+	boolean put(int id, long time, long bits, long bits2, String string,
+			long enqueueNanos);
+
+	/**
+	 * Removes the oldest record if the queue is full. Called by the producers
+	 * to make room for a new record.
+	 *
+	 * @return ID of the piece of context of the removed record, -1 if no
+	 *         record was removed.
+	 */
+	int evictOldest();
+
+	/**
+	 * Moves records from the queue to the batch. Waits until at least one
+	 * record is available, the queue is closed or idleNanos elapsed, then
+	 * collects records until the batch holds max records or maxWaitNanos
+	 * elapsed.
+	 *
+	 * @param batch
+	 *            Batch to fill, it is cleared first.
+	 * @param max
+	 *            Maximal number of records to move.
+	 * @param maxWaitNanos
+	 *            Maximal time to wait for more records after the first one.
+	 * @param idleNanos
+	 *            Maximal time to wait for the first record, 0 for no limit.
+	 * @return Number of records moved, 0 if no record came in idleNanos, -1
+	 *         if the queue was closed and is empty.
+	 * @throws InterruptedException
+	 *             if the consumer was interrupted while waiting.
+	 */
+	int drainTo(LogBatch batch, int max, long maxWaitNanos, long idleNanos)
+			throws InterruptedException;
+
+	/**
+	 * Returns the number of records waiting for the consumer.
+	 */
+	int size();
+
+	/**
+	 * Returns the maximal number of records in the queue.
+	 */
+	int capacity();
+
+	/**
+	 * Closes the queue. A consumer waiting for records is woken up; it drains
+	 * the remaining records and drainTo() returns -1 from then on.
+	 */
+	void close();
+}
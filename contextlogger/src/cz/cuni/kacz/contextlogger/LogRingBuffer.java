@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, preallocated ring of context log records. Any number of threads
+ * can publish records, exactly one thread consumes them. Producers may also
+ * skip the oldest published record to make room for a new one.
+ * <p>
+ * The record slots are kept in parallel primitive arrays, so publishing a
+ * record does not allocate. The value of a record is stored as raw bits (see
+ * {@link Float#floatToRawIntBits(float)} and
+ * {@link Double#doubleToRawLongBits(double)}); only STRING records use the
+ * separate reference array.
+ *
+ * @author kacz
+ *
+ */
+class LogRingBuffer implements LogQueue {
+
+	/** Number of busy spins of a waiting thread before it starts to park. */
+	private static final int SPIN_TRIES = 100;
+
+	/** Park time of a producer waiting for a free slot. */
+	private static final long PRODUCER_PARK_NANOS = 50 * 1000;
+
+	/** Maximal number of records the consumer copies before moving the head. */
+	private static final int COMMIT_CHUNK = 32;
+
+	private final int mCapacity;
+	private final int mMask;
+
+	/** IDs of the pieces of context of the records. */
+	private final int[] mIds;
+
+	/** Timestamps of the records. */
+	private final long[] mTimes;
+
+	/** Raw bits of the numeric values. */
+	private final long[] mValues;
+
+	/** Raw bits of the last two components of the vector values. */
+	private final long[] mValues2;
+
+	/** Values of STRING records. */
+	private final String[] mStrings;
+
+	/** System.nanoTime() at the moment the records were logged. */
+	private final long[] mEnqueueTimes;
+
+	/**
+	 * Sequence number of the record published into each slot, -1 for a slot
+	 * that was never used.
+	 */
+	private final AtomicLongArray mPublished;
+
+	/** Next sequence number to be claimed by a producer. */
+	private final AtomicLong mTail = new AtomicLong(0);
+
+	/**
+	 * Next sequence number to be read by the consumer. Moved by the consumer
+	 * and by producers evicting the oldest record.
+	 */
+	private final AtomicLong mHead = new AtomicLong(0);
+
+	/** Consumer thread, set while it is parked waiting for records. */
+	private volatile Thread mWaitingConsumer = null;
+
+	/**
+	 * Number of waiting records at which a producer wakes the parked consumer
+	 * up.
+	 */
+	private volatile int mWakeBacklog = 1;
+
+	/** Set by close(), the consumer stops waiting for records. */
+	private volatile boolean mClosed = false;
+
+	/**
+	 * Creates a ring buffer.
+	 *
+	 * @param capacity
+	 *            Number of slots, rounded up to the next power of two.
+	 */
+	LogRingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mCapacity = size;
+		mMask = size - 1;
+		mIds = new int[size];
+		mTimes = new long[size];
+		mValues = new long[size];
+		mValues2 = new long[size];
+		mStrings = new String[size];
+		mEnqueueTimes = new long[size];
+		mPublished = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) {
+			mPublished.set(i, -1);
+		}
+	}
+
+	/**
+	 * Returns the number of slots of the ring.
+	 */
+	@Override
+	public int capacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Returns the number of records waiting for the consumer.
+	 */
+	@Override
+	public int size() {
+		return (int) (mTail.get() - mHead.get());
+	}
+
+	@Override
+	public boolean put(int id, long time, long bits, long bits2,
+			String string, long enqueueNanos) {
+		long seq;
+		int tries = 0;
+		while (true) {
+			seq = mTail.get();
+			if (seq - mHead.get() >= mCapacity) {
+				if (mClosed) {
+					// nobody will free a slot any more
+					return false;
+				}
+				// full, wait for the consumer
+				if (++tries > SPIN_TRIES) {
+					LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+				}
+				continue;
+			}
+			if (mTail.compareAndSet(seq, seq + 1)) {
+				break;
+			}
+		}
+		store(seq, id, time, bits, bits2, string, enqueueNanos);
+		return true;
+	}
+
+	@Override
+	public boolean offer(int id, long time, long bits, long bits2,
+			String string, long enqueueNanos) {
+		long seq;
+		do {
+			seq = mTail.get();
+			if (seq - mHead.get() >= mCapacity) {
+				return false;
+			}
+		} while (!mTail.compareAndSet(seq, seq + 1));
+		store(seq, id, time, bits, bits2, string, enqueueNanos);
+		return true;
+	}
+
+	/**
+	 * Fills a claimed slot, publishes it and wakes the consumer up if enough
+	 * records are waiting.
+	 */
+	private void store(long seq, int id, long time, long bits, long bits2,
+			String string, long enqueueNanos) {
+		int index = (int) seq & mMask;
+		mIds[index] = id;
+		mTimes[index] = time;
+		mValues[index] = bits;
+		mValues2[index] = bits2;
+		mStrings[index] = string;
+		mEnqueueTimes[index] = enqueueNanos;
+		// volatile write, makes the slot contents visible to the consumer
+		mPublished.set(index, seq);
+
+		Thread consumer = mWaitingConsumer;
+		if (consumer != null && seq + 1 - mHead.get() >= mWakeBacklog) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Removes the oldest record if the ring is full. The record is skipped by
+	 * moving the head, so it must already be published: its slot is the one
+	 * the caller is going to claim next.
+	 */
+	@Override
+	public int evictOldest() {
+		long head = mHead.get();
+		if (mTail.get() - head < mCapacity) {
+			return -1;
+		}
+		int index = (int) head & mMask;
+		if (mPublished.get(index) != head) {
+			return -1;
+		}
+		int id = mIds[index];
+		if (!mHead.compareAndSet(head, head + 1)) {
+			// the consumer or another producer was faster
+			return -1;
+		}
+		return id;
+	}
+
+	@Override
+	public void close() {
+		mClosed = true;
+		Thread consumer = mWaitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Moves records from the ring to the batch. Must be called from the
+	 * consumer thread only.
+	 * <p>
+	 * The records are copied first and the head is moved by a CAS after every
+	 * COMMIT_CHUNK records. If the CAS fails, a producer evicted the oldest
+	 * records in the meantime and the copied slots may have been reused, so
+	 * the copies are discarded and read again from the new head.
+	 *
+	 * @see LogQueue#drainTo(LogBatch, int, long, long)
+	 */
+	@Override
+	public int drainTo(LogBatch batch, int max, long maxWaitNanos,
+			long idleNanos) throws InterruptedException {
+		batch.clear();
+		long idleDeadline = System.nanoTime() + idleNanos;
+		long deadline = 0;
+		boolean started = false;
+		while (true) {
+			long head = mHead.get();
+			long seq = head;
+			int count = batch.size();
+			int end = Math.min(max, count + COMMIT_CHUNK);
+			int index = (int) seq & mMask;
+			while (count < end && mPublished.get(index) == seq) {
+				// the slot keeps its string until it is reused
+				batch.add(mIds[index], mTimes[index], mValues[index],
+						mValues2[index], mStrings[index], mEnqueueTimes[index]);
+				++count;
+				++seq;
+				index = (int) seq & mMask;
+			}
+			if (seq != head) {
+				// free the slots for the producers
+				if (!mHead.compareAndSet(head, seq)) {
+					batch.truncate(count - (int) (seq - head));
+					continue;
+				}
+				if (!started) {
+					deadline = System.nanoTime() + maxWaitNanos;
+					started = true;
+				}
+				if (count < max && mPublished.get(index) == seq) {
+					continue;
+				}
+			}
+			if (count >= max || mClosed) {
+				break;
+			}
+			if (count == 0) {
+				if (idleNanos == 0) {
+					awaitRecords(seq, 1, 0);
+					continue;
+				}
+				long idleLeft = idleDeadline - System.nanoTime();
+				if (idleLeft <= 0) {
+					return 0;
+				}
+				awaitRecords(seq, 1, idleLeft);
+				continue;
+			}
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				break;
+			}
+			awaitRecords(seq, max - count, left);
+		}
+		return batch.size() == 0 && mClosed ? -1 : batch.size();
+	}
+
+	/**
+	 * Parks the consumer until the record with the given sequence number is
+	 * published, the ring is closed or a producer moved the head. Producers
+	 * wake the consumer up once the number of waiting records reaches the
+	 * given backlog.
+	 *
+	 * @param seq
+	 *            Sequence number of the next record to read.
+	 * @param backlog
+	 *            Number of waiting records worth waking up for.
+	 * @param timeoutNanos
+	 *            Maximal time to wait, 0 for no limit.
+	 * @throws InterruptedException
+	 *             if the consumer was interrupted while waiting.
+	 */
+	private void awaitRecords(long seq, int backlog, long timeoutNanos)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		int tries = 0;
+		while (!isReady(seq, backlog)) {
+			if (timeoutNanos == 0 && ++tries <= SPIN_TRIES) {
+				continue;
+			}
+			long left = deadline - System.nanoTime();
+			if (timeoutNanos != 0 && left <= 0) {
+				return;
+			}
+			mWakeBacklog = backlog;
+			mWaitingConsumer = Thread.currentThread();
+			// re-check after announcing ourselves, a producer that published
+			// in the meantime might have missed the announcement
+			if (!isReady(seq, backlog)) {
+				if (timeoutNanos == 0) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, left);
+				}
+			}
+			mWaitingConsumer = null;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the consumer waiting at seq for the given backlog does
+	 * not need to wait any more.
+	 */
+	private boolean isReady(long seq, int backlog) {
+		return mClosed || mHead.get() != seq
+				|| (mTail.get() - seq >= backlog && mPublished
+						.get((int) seq & mMask) == seq);
+	}
+}
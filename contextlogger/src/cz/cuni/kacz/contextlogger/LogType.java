@@ -10,12 +10,30 @@ import java.util.Map;
  * 
  */
 public enum LogType {
-	INT(1), LONG(2), FLOAT(3), DOUBLE(4), STRING(5);
+	INT(1), LONG(2), FLOAT(3), DOUBLE(4), STRING(5), FLOAT3(6, 3), FLOAT4(7, 4);
+
+	/**
+	 * Separator of the component names in the label of a FLOAT3 or FLOAT4
+	 * log.
+	 */
+	public static final String VECTOR_LABEL_SEPARATOR = "|";
 
 	int type;
 
+	/** Number of float components of a vector type, 1 for scalar types. */
+	int arity;
+
 	LogType(int type) {
+		this(type, 1);
+	}
+
+	LogType(int type, int arity) {
 		this.type = type;
+		this.arity = arity;
+	}
+
+	public int getArity() {
+		return arity;
 	}
 
 	private static Map<Integer, LogType> types = new HashMap<Integer, LogType>();
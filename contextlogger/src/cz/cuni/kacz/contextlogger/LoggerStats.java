@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import android.os.Bundle;
+
+/**
+ * Keys of the statistics Bundle passed to ContextLogger.StatsCallback. The
+ * per-target values are arrays with one element for each data target, in the
+ * order of the TARGETS array.
+ *
+ * @author kacz
+ *
+ */
+public final class LoggerStats {
+
+	/** long, records put into the lanes in this session. */
+	public static final String ENQUEUED = "enqueued";
+	/** long, records suppressed by the change-only mode. */
+	public static final String SUPPRESSED = "suppressed";
+	/** long, nanoseconds since the start of the session. */
+	public static final String SESSION_NANOS = "sessionNanos";
+	/** double, average number of records put into the lanes per second. */
+	public static final String ENQUEUE_RATE = "enqueueRate";
+
+	/** long, wake-ups of the TickScheduler of the polling listeners. */
+	public static final String SCHEDULER_WAKEUPS = "schedulerWakeups";
+	/** long, CPU time of the TickScheduler outside of its tasks in ns. */
+	public static final String SCHEDULER_CPU_NANOS = "schedulerCpuNanos";
+	/** long, ticks skipped by the scheduled tasks running late. */
+	public static final String SCHEDULER_OVERRUNS = "schedulerOverruns";
+	/** int, running threads of the LooperPool of the callback listeners. */
+	public static final String LOOPER_THREADS = "looperThreads";
+	/** long[], callbacks run by each thread of the LooperPool. */
+	public static final String LOOPER_CALLBACKS = "looperCallbacks";
+	/** long[], 99th percentile of the callback times of the threads in us. */
+	public static final String LOOPER_CALLBACK_P99_MICROS = "looperCallbackP99Micros";
+	/** long[], maximum of the callback times of the threads in us. */
+	public static final String LOOPER_CALLBACK_MAX_MICROS = "looperCallbackMaxMicros";
+
+	/** String[], class names of the data targets. */
+	public static final String TARGETS = "targets";
+	/** int[], records waiting in the queues. */
+	public static final String BACKLOG = "backlog";
+	/** int[], capacities of the queues. */
+	public static final String CAPACITY = "capacity";
+	/** long[], records written by the targets. */
+	public static final String DELIVERED = "delivered";
+	/** long[], records dropped because the queues were full. */
+	public static final String DROPPED = "dropped";
+	/** long[], nanoseconds the targets spent writing. */
+	public static final String WRITE_NANOS = "writeNanos";
+	/** long[], bytes written by the targets. */
+	public static final String BYTES_WRITTEN = "bytesWritten";
+	/** long[], CPU time of the lane threads in nanoseconds, -1 if unknown. */
+	public static final String CPU_NANOS = "cpuNanos";
+	/** long[], median time from inserting to writing a record in us. */
+	public static final String LATENCY_P50_MICROS = "latencyP50Micros";
+	/** long[], 99th percentile of the same time in us. */
+	public static final String LATENCY_P99_MICROS = "latencyP99Micros";
+	/** long[], maximum of the same time in us. */
+	public static final String LATENCY_MAX_MICROS = "latencyMaxMicros";
+	/**
+	 * long[], prefix of the keys of the latency histograms. The key of the
+	 * i-th target is the prefix followed by i, the buckets are described in
+	 * LatencyHistogram.
+	 */
+	public static final String LATENCY_HISTOGRAM = "latencyHistogram";
+
+	private LoggerStats() {
+	}
+
+	/**
+	 * Collects the current statistics of the DataManager and its lanes.
+	 */
+	static Bundle collect(DataManager manager) {
+		Bundle stats = new Bundle();
+		long enqueued = manager.getEnqueued();
+		long sessionNanos = manager.getSessionNanos();
+		stats.putLong(ENQUEUED, enqueued);
+		stats.putLong(SUPPRESSED, manager.getSuppressed());
+		stats.putLong(SESSION_NANOS, sessionNanos);
+		stats.putDouble(ENQUEUE_RATE, sessionNanos > 0 ? enqueued * 1e9
+				/ sessionNanos : 0);
+
+		TickScheduler scheduler = TickScheduler.getInstance();
+		stats.putLong(SCHEDULER_WAKEUPS, scheduler.getWakeups());
+		stats.putLong(SCHEDULER_CPU_NANOS, scheduler.getOverheadCpuNanos());
+		stats.putLong(SCHEDULER_OVERRUNS, scheduler.getOverruns());
+
+		LooperPool pool = LooperPool.getInstance();
+		LatencyHistogram[] callbacks = pool.getCallbackLatencies();
+		long[] callbackCounts = new long[callbacks.length];
+		long[] callbackP99 = new long[callbacks.length];
+		long[] callbackMax = new long[callbacks.length];
+		for (int i = 0; i < callbacks.length; ++i) {
+			callbackCounts[i] = callbacks[i].getCount();
+			callbackP99[i] = callbacks[i].getPercentileMicros(99);
+			callbackMax[i] = callbacks[i].getMaxMicros();
+		}
+		stats.putInt(LOOPER_THREADS, pool.getThreadCount());
+		stats.putLongArray(LOOPER_CALLBACKS, callbackCounts);
+		stats.putLongArray(LOOPER_CALLBACK_P99_MICROS, callbackP99);
+		stats.putLongArray(LOOPER_CALLBACK_MAX_MICROS, callbackMax);
+
+		TargetLane[] lanes = manager.getLanes();
+		int n = lanes.length;
+		String[] targets = new String[n];
+		int[] backlog = new int[n];
+		int[] capacity = new int[n];
+		long[] delivered = new long[n];
+		long[] dropped = new long[n];
+		long[] writeNanos = new long[n];
+		long[] bytesWritten = new long[n];
+		long[] cpuNanos = new long[n];
+		long[] p50 = new long[n];
+		long[] p99 = new long[n];
+		long[] max = new long[n];
+		for (int i = 0; i < n; ++i) {
+			TargetLane lane = lanes[i];
+			LatencyHistogram latency = lane.getLatency();
+			long[] histogram = new long[LatencyHistogram.BUCKETS];
+			latency.getCounts(histogram);
+			targets[i] = lane.getName();
+			backlog[i] = lane.getBacklog();
+			capacity[i] = lane.getCapacity();
+			delivered[i] = lane.getDelivered();
+			dropped[i] = lane.getDropped();
+			writeNanos[i] = lane.getBusyNanos();
+			bytesWritten[i] = lane.getBytesWritten();
+			cpuNanos[i] = lane.getCpuNanos();
+			p50[i] = LatencyHistogram.getPercentileMicros(histogram, 50);
+			p99[i] = LatencyHistogram.getPercentileMicros(histogram, 99);
+			max[i] = latency.getMaxMicros();
+			stats.putLongArray(LATENCY_HISTOGRAM + i, histogram);
+		}
+		stats.putStringArray(TARGETS, targets);
+		stats.putIntArray(BACKLOG, backlog);
+		stats.putIntArray(CAPACITY, capacity);
+		stats.putLongArray(DELIVERED, delivered);
+		stats.putLongArray(DROPPED, dropped);
+		stats.putLongArray(WRITE_NANOS, writeNanos);
+		stats.putLongArray(BYTES_WRITTEN, bytesWritten);
+		stats.putLongArray(CPU_NANOS, cpuNanos);
+		stats.putLongArray(LATENCY_P50_MICROS, p50);
+		stats.putLongArray(LATENCY_P99_MICROS, p99);
+		stats.putLongArray(LATENCY_MAX_MICROS, max);
+		return stats;
+	}
+}
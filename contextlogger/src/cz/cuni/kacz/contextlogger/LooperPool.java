@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Printer;
+
+/**
+ * Small pool of looper threads shared by the listeners driven by broadcasts
+ * and system callbacks, instead of a HandlerThread of each listener. A
+ * listener borrows a looper in startListening() and returns it in
+ * stopListening(); the threads are started with the first borrowed looper
+ * and quit when all the loopers are returned.
+ * <p>
+ * The time each callback spends on a pool thread is counted in a
+ * LatencyHistogram of the thread, using the message logging of its looper.
+ *
+ * @author kacz
+ *
+ */
+public class LooperPool {
+
+	private static final String TAG = "LooperPool";
+
+	/** Number of threads of the shared pool. */
+	public static final int DEFAULT_SIZE = 2;
+
+	/** Time runAndWait() waits for the task. */
+	private static final long RUN_TIMEOUT_MS = 5000;
+
+	private static final LooperPool sInstance = new LooperPool(DEFAULT_SIZE);
+
+	/**
+	 * Counts the time from the start to the end of the dispatch of each
+	 * message of a looper. Called on the looper thread only.
+	 */
+	private static class CallbackMeter implements Printer {
+		private final LatencyHistogram mLatency;
+		private long mStart = 0;
+
+		CallbackMeter(LatencyHistogram latency) {
+			mLatency = latency;
+		}
+
+		@Override
+		public void println(String x) {
+			if (x.startsWith(">")) {
+				mStart = System.nanoTime();
+			} else if (mStart != 0) {
+				mLatency.record(System.nanoTime() - mStart);
+				mStart = 0;
+			}
+		}
+	}
+
+	private final int mSize;
+
+	/** Threads of the pool, null if not running. Guarded by this. */
+	private HandlerThread[] mThreads = null;
+	private Looper[] mLoopers = null;
+	/** Number of loopers borrowed from each thread. Guarded by this. */
+	private int[] mBorrowed = null;
+	private int mBorrowedTotal = 0;
+
+	/** Callback times of the threads of the last start of the pool. */
+	private volatile LatencyHistogram[] mLatencies = new LatencyHistogram[0];
+
+	/**
+	 * Returns the pool shared by all the listeners.
+	 */
+	public static LooperPool getInstance() {
+		return sInstance;
+	}
+
+	LooperPool(int size) {
+		mSize = size;
+	}
+
+	/**
+	 * Borrows the looper of the least used thread of the pool, starting the
+	 * pool if needed.
+	 *
+	 * @return Looper to run the callbacks of the listener on.
+	 */
+	public synchronized Looper acquire() {
+		if (mThreads == null) {
+			start();
+		}
+		int best = 0;
+		for (int i = 1; i < mSize; ++i) {
+			if (mBorrowed[i] < mBorrowed[best]) {
+				best = i;
+			}
+		}
+		++mBorrowed[best];
+		++mBorrowedTotal;
+		return mLoopers[best];
+	}
+
+	/**
+	 * Returns a looper borrowed by acquire(). The pool quits its threads when
+	 * the last looper is returned, the pending callbacks are dropped.
+	 *
+	 * @param looper
+	 *            The borrowed looper.
+	 */
+	public synchronized void release(Looper looper) {
+		if (mThreads == null) {
+			return;
+		}
+		for (int i = 0; i < mSize; ++i) {
+			if (mLoopers[i] == looper && mBorrowed[i] > 0) {
+				--mBorrowed[i];
+				--mBorrowedTotal;
+				break;
+			}
+		}
+		if (mBorrowedTotal == 0) {
+			for (HandlerThread thread : mThreads) {
+				thread.quit();
+			}
+			mThreads = null;
+			mLoopers = null;
+			mBorrowed = null;
+		}
+	}
+
+	/**
+	 * Runs the task on the thread of a borrowed looper and waits until it is
+	 * done, e.g. to unregister a callback bound to the looper, so no callback
+	 * comes after the listener stopped.
+	 *
+	 * @param looper
+	 *            The borrowed looper.
+	 * @param task
+	 *            Task to run.
+	 */
+	public void runAndWait(Looper looper, final Runnable task) {
+		if (Looper.myLooper() == looper) {
+			task.run();
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		new Handler(looper).post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		try {
+			if (!done.await(RUN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				Log.w(TAG, "task on " + looper.getThread().getName()
+						+ " not done");
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void start() {
+		mThreads = new HandlerThread[mSize];
+		mLoopers = new Looper[mSize];
+		mBorrowed = new int[mSize];
+		LatencyHistogram[] latencies = new LatencyHistogram[mSize];
+		for (int i = 0; i < mSize; ++i) {
+			latencies[i] = new LatencyHistogram();
+			mThreads[i] = new HandlerThread("ContextLogger-looper-" + i);
+			mThreads[i].start();
+			mLoopers[i] = mThreads[i].getLooper();
+			mLoopers[i].setMessageLogging(new CallbackMeter(latencies[i]));
+		}
+		mLatencies = latencies;
+	}
+
+	/**
+	 * Returns the number of running threads of the pool.
+	 */
+	public synchronized int getThreadCount() {
+		return mThreads == null ? 0 : mSize;
+	}
+
+	/**
+	 * Returns the times spent in the callbacks by each thread of the pool
+	 * since it was last started.
+	 */
+	public LatencyHistogram[] getCallbackLatencies() {
+		return mLatencies.clone();
+	}
+}
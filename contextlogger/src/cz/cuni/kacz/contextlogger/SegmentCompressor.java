@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Compresses closed log segments on a background thread into .clog.z
+ * containers:
+ * <ul>
+ * <li>int Z_MAGIC,
+ * <li>long offset of the tail in the segment: the index section of a
+ * columnar segment or the key section,
+ * <li>long offset of the key section in the segment,
+ * <li>int length of the tail and the tail, uncompressed, without the footer,
+ * <li>the data section of the segment compressed by DEFLATE.
+ * </ul>
+ * A reader gets the keys without inflating anything and then decodes the
+ * records while inflating the data section.
+ *
+ * @author kacz
+ *
+ */
+class SegmentCompressor {
+
+	private static final String TAG = "SegmentCompressor";
+
+	static final int Z_MAGIC = 0x434c5a31;
+
+	/**
+	 * Called on the compressing thread when a segment was compressed.
+	 */
+	interface Callback {
+		/**
+		 * @param segment
+		 *            Index of the segment.
+		 * @param compressed
+		 *            The container, the segment file was deleted.
+		 */
+		void onCompressed(int segment, File compressed);
+	}
+
+	private final int mLevel;
+	private final Callback mCallback;
+	private final ExecutorService mExecutor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SegmentCompressor");
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
+	/** Totals, written by the compressing thread. */
+	private volatile long mBytesIn = 0;
+	private volatile long mBytesOut = 0;
+	private volatile long mCpuNanos = 0;
+
+	/**
+	 * @param level
+	 *            Compression level of java.util.zip.Deflater, 1 to 9.
+	 */
+	SegmentCompressor(int level, Callback callback) {
+		mLevel = level;
+		mCallback = callback;
+	}
+
+	/**
+	 * Compresses a closed segment in the background.
+	 *
+	 * @param tailOffset
+	 *            Offset of the index section of a columnar segment, or of the
+	 *            key section.
+	 * @param keysOffset
+	 *            Offset of the key section.
+	 */
+	void submit(final int segment, final File file, final long tailOffset,
+			final long keysOffset) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long cpu = Debug.threadCpuTimeNanos();
+				File compressed = new File(file.getPath() + ".z");
+				try {
+					long length = compress(file, compressed, tailOffset,
+							keysOffset, mLevel);
+					mBytesIn += file.length();
+					mBytesOut += length;
+					if (!file.delete()) {
+						Log.w(TAG, "cannot delete " + file);
+					}
+					mCpuNanos += Debug.threadCpuTimeNanos() - cpu;
+					mCallback.onCompressed(segment, compressed);
+				} catch (IOException e) {
+					// the segment stays uncompressed
+					Log.e(TAG, "cannot compress " + file, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compresses the already submitted segments and stops the thread.
+	 */
+	void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Writes the container of a segment.
+	 *
+	 * @return Length of the container.
+	 */
+	static long compress(File file, File compressed, long tailOffset,
+			long keysOffset, int level) throws IOException {
+		File temp = new File(compressed.getPath() + ".tmp");
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] tail = new byte[(int) (in.length() - FileDataTarget.FOOTER_SIZE - tailOffset)];
+			in.seek(tailOffset);
+			in.readFully(tail);
+
+			Deflater deflater = new Deflater(level);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp),
+							64 * 1024));
+			try {
+				out.writeInt(Z_MAGIC);
+				out.writeLong(tailOffset);
+				out.writeLong(keysOffset);
+				out.writeInt(tail.length);
+				out.write(tail);
+				DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+						deflater, 64 * 1024);
+				byte[] buffer = new byte[64 * 1024];
+				in.seek(0);
+				long left = tailOffset;
+				while (left > 0) {
+					int n = in.read(buffer, 0,
+							(int) Math.min(buffer.length, left));
+					if (n < 0) {
+						throw new IOException("Segment is truncated");
+					}
+					deflate.write(buffer, 0, n);
+					left -= n;
+				}
+				deflate.finish();
+				out.flush();
+			} finally {
+				deflater.end();
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		if (!temp.renameTo(compressed)) {
+			throw new IOException("Cannot rename " + temp);
+		}
+		return compressed.length();
+	}
+
+	long getBytesIn() {
+		return mBytesIn;
+	}
+
+	long getBytesOut() {
+		return mBytesOut;
+	}
+
+	long getCpuNanos() {
+		return mCpuNanos;
+	}
+}
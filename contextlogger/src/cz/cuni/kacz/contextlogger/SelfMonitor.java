@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Logs the metrics of the DataManager and its lanes as ordinary pieces of
+ * context, so the overhead of the logger shows up in the same context log as
+ * the logged data. The labels start with DataManager.SELF_MONITOR_PREFIX.
+ * <p>
+ * Rates, write and CPU times and latency percentiles are computed over the
+ * sampling period; backlog and bytes written are the current values.
+ *
+ * @author kacz
+ *
+ */
+class SelfMonitor {
+
+	private final DataManager mManager;
+	private final TargetLane[] mLanes;
+	private final Timer mTimer = new Timer("DataManager-monitor", true);
+
+	private final int mEnqueueRateId;
+	private final int mSchedulerCpuTimeId;
+	private final int mSchedulerOverrunsId;
+	private final int[] mBacklogIds;
+	private final int[] mLatencyIds;
+	private final int[] mWriteTimeIds;
+	private final int[] mBytesIds;
+	private final int[] mCpuTimeIds;
+
+	/** Values of the previous sample. */
+	private long mLastNanos;
+	private long mLastEnqueued;
+	private long mLastSchedulerCpuNanos;
+	private final long[] mLastBusyNanos;
+	private final long[] mLastCpuNanos;
+	private final long[][] mLastLatency;
+
+	/** Latency counts of the current sample, reused. */
+	private final long[] mLatency = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Registers the pieces of context of the monitor. Must be called after the
+	 * data targets were added.
+	 */
+	SelfMonitor(DataManager manager) {
+		mManager = manager;
+		mLanes = manager.getLanes();
+		int n = mLanes.length;
+		mBacklogIds = new int[n];
+		mLatencyIds = new int[n];
+		mWriteTimeIds = new int[n];
+		mBytesIds = new int[n];
+		mCpuTimeIds = new int[n];
+		mLastBusyNanos = new long[n];
+		mLastCpuNanos = new long[n];
+		mLastLatency = new long[n][LatencyHistogram.BUCKETS];
+
+		String prefix = DataManager.SELF_MONITOR_PREFIX;
+		mEnqueueRateId = manager.registerListener(prefix
+				+ "enqueued records per s", DataManager.DOUBLE);
+		mSchedulerCpuTimeId = manager.registerListener(prefix
+				+ "tick scheduler cpu time us", DataManager.LONG);
+		mSchedulerOverrunsId = manager.registerListener(prefix
+				+ "tick scheduler overruns", DataManager.LONG);
+		for (int i = 0; i < n; ++i) {
+			String target = prefix + mLanes[i].getName() + " ";
+			mBacklogIds[i] = manager.registerListener(target + "backlog",
+					DataManager.INT);
+			mLatencyIds[i] = manager.registerListener(target
+					+ "p99 latency us", DataManager.LONG);
+			mWriteTimeIds[i] = manager.registerListener(target
+					+ "write time us", DataManager.LONG);
+			mBytesIds[i] = manager.registerListener(target + "bytes written",
+					DataManager.LONG);
+			mCpuTimeIds[i] = manager.registerListener(target + "cpu time us",
+					DataManager.LONG);
+		}
+	}
+
+	/**
+	 * Starts sampling the metrics.
+	 *
+	 * @param periodMs
+	 *            Sampling period in milliseconds.
+	 */
+	void start(long periodMs) {
+		mLastNanos = System.nanoTime();
+		mLastEnqueued = mManager.getEnqueued();
+		mLastSchedulerCpuNanos = TickScheduler.getInstance()
+				.getOverheadCpuNanos();
+		for (int i = 0; i < mLanes.length; ++i) {
+			mLastBusyNanos[i] = mLanes[i].getBusyNanos();
+			mLastCpuNanos[i] = mLanes[i].getCpuNanos();
+			mLanes[i].getLatency().getCounts(mLastLatency[i]);
+		}
+		mTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, periodMs, periodMs);
+	}
+
+	/**
+	 * Stops sampling and logs the last sample.
+	 */
+	void stop() {
+		mTimer.cancel();
+		sample();
+	}
+
+	private synchronized void sample() {
+		long time = TimeSource.getTimeOfDay();
+		long now = System.nanoTime();
+		long enqueued = mManager.getEnqueued();
+		long elapsed = now - mLastNanos;
+		if (elapsed > 0) {
+			mManager.insertLog(mEnqueueRateId, time, (enqueued - mLastEnqueued)
+					* 1e9 / elapsed);
+		}
+		mLastNanos = now;
+		mLastEnqueued = enqueued;
+
+		TickScheduler scheduler = TickScheduler.getInstance();
+		long schedulerCpu = scheduler.getOverheadCpuNanos();
+		mManager.insertLog(mSchedulerCpuTimeId, time,
+				(schedulerCpu - mLastSchedulerCpuNanos) / 1000);
+		mLastSchedulerCpuNanos = schedulerCpu;
+		mManager.insertLog(mSchedulerOverrunsId, time, scheduler.getOverruns());
+
+		for (int i = 0; i < mLanes.length; ++i) {
+			TargetLane lane = mLanes[i];
+			mManager.insertLog(mBacklogIds[i], time, lane.getBacklog());
+
+			long[] last = mLastLatency[i];
+			lane.getLatency().getCounts(mLatency);
+			for (int b = 0; b < LatencyHistogram.BUCKETS; ++b) {
+				long count = mLatency[b];
+				mLatency[b] -= last[b];
+				last[b] = count;
+			}
+			mManager.insertLog(mLatencyIds[i], time,
+					LatencyHistogram.getPercentileMicros(mLatency, 99));
+
+			long busy = lane.getBusyNanos();
+			mManager.insertLog(mWriteTimeIds[i], time,
+					(busy - mLastBusyNanos[i]) / 1000);
+			mLastBusyNanos[i] = busy;
+
+			mManager.insertLog(mBytesIds[i], time, lane.getBytesWritten());
+
+			long cpu = lane.getCpuNanos();
+			mManager.insertLog(mCpuTimeIds[i], time,
+					(cpu - mLastCpuNanos[i]) / 1000);
+			mLastCpuNanos[i] = cpu;
+		}
+	}
+}
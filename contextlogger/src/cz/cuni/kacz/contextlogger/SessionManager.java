@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+import cz.cuni.kacz.contextlogger.listeners.ContextListener;
+
+/**
+ * Runs the logging sessions: creates the data targets from the settings sent
+ * by ContextLogger, initializes, starts and stops the listeners. Used by
+ * ContextLoggerService in the background process and by ContextLogger itself
+ * in the embedded mode, where all of it runs in the process of the
+ * application.
+ * <p>
+ * The methods must be called from a single thread.
+ *
+ * @author kacz
+ *
+ */
+class SessionManager {
+
+	private static final String TAG = "SessionManager";
+
+	/** Number of threads starting the listeners in parallel. */
+	private static final int STARTUP_THREADS = 4;
+
+	/** Time stopLogging() waits for the listeners still starting. */
+	private static final long STARTUP_TIMEOUT_MS = 10000;
+
+	static {
+		System.loadLibrary("timesource");
+	}
+
+	private final Context mContext;
+
+	/** DataManager instance responsible for storing the context logs. */
+	private final DataManager mDataManager = new DataManager();
+
+	/** List of ContextListeners used in the current logging session. */
+	private List<ContextListener> mListeners = new ArrayList<ContextListener>();
+
+	/** Sampling period of the self monitor in ms, 0 if disabled. */
+	private long mSelfMonitorPeriod = 0;
+
+	/**
+	 * IDs of the pieces of context of each listener, from mFirstIds[i] to
+	 * mEndIds[i] exclusive.
+	 */
+	private int[] mFirstIds = new int[0];
+	private int[] mEndIds = new int[0];
+
+	/**
+	 * Threads starting the listeners. Each one quits when there are no more
+	 * listeners to start; the listeners get their callbacks on the threads of
+	 * the LooperPool or of the TickScheduler.
+	 */
+	private HandlerThread[] mStartupThreads = new HandlerThread[0];
+
+	/** Counts down the listeners still starting. */
+	private CountDownLatch mStarting = new CountDownLatch(0);
+
+	/** Time of the start of the session, see TimeSource.getTimeOfDay(). */
+	private long mStartTime = 0;
+
+	/** ID of the DataManager.LISTENER_START_LABEL piece of context. */
+	private int mStartLatencyId = -1;
+
+	/**
+	 * @param context
+	 *            Application context, also published as
+	 *            ContextLoggerService.mAppContext for the listeners and the
+	 *            data targets.
+	 */
+	SessionManager(Context context) {
+		mContext = context;
+		ContextLoggerService.mAppContext = context;
+	}
+
+	DataManager getDataManager() {
+		return mDataManager;
+	}
+
+	/**
+	 * Initializes the data targets used in the next session. FileDataTarget
+	 * is always initialized. Other data targets are created if the
+	 * foreground application requested them. Filename for the data target
+	 * comes from the settings.
+	 *
+	 * @param settings
+	 *            Bundle containing filename, flags for additional data
+	 *            targets and the queue settings, see ContextLogger.
+	 */
+	void initTargets(Bundle settings) {
+		Log.d(TAG, "initTargets");
+
+		String fileName = settings.getString("fileName");
+		if (fileName == null) {
+			fileName = "default-"
+					+ new SimpleDateFormat("-yyMMdd-hhmmss").format(new Date());
+		}
+		mDataManager.setQueueCapacity(settings.getInt("queueCapacity",
+				DataManager.DEFAULT_RING_CAPACITY));
+		mDataManager.setOverflowPolicy(settings.getInt("overflowPolicy",
+				DataManager.OVERFLOW_DROP_NEWEST), settings.getInt(
+				"overflowSampleRate", DataManager.DEFAULT_OVERFLOW_SAMPLE_RATE));
+		mSelfMonitorPeriod = settings.getLong("selfMonitorPeriod", 0);
+		mDataManager.setListenerChangeOnly(settings
+				.getBoolean("changeOnlyLogging"));
+
+		// add the file target
+		FileDataTarget fileTarget = new FileDataTarget(fileName);
+		fileTarget.setXorCompression(settings.getBoolean("xorCompression"));
+		fileTarget.setColumnar(settings.getBoolean("columnarFormat"));
+		fileTarget.setRotation(settings.getLong("segmentBytes", 0), settings
+				.getLong("segmentMs", 0));
+		fileTarget.setSegmentCompression(settings.getInt(
+				"segmentCompression", 0));
+		fileTarget.setCheckpointInterval(settings.getLong(
+				"checkpointInterval",
+				FileDataTarget.DEFAULT_CHECKPOINT_INTERVAL_MS));
+		DataTarget dt = fileTarget;
+		dt.initCtx(mContext);
+		mDataManager.addDataTarget(dt);
+
+		if (settings.getBoolean("useTextFileDataTarget")) {
+			dt = new TextFileDataTarget(fileName);
+			dt.initCtx(mContext);
+			mDataManager.addDataTarget(dt);
+		}
+		if (settings.getBoolean("useCsvDataTarget")) {
+			dt = new CsvDataTarget(fileName, settings.getLong("csvBucketMs", 0));
+			dt.initCtx(mContext);
+			mDataManager.addDataTarget(dt);
+		}
+		if (settings.getBoolean("useIntentDataTarget")) {
+			Log.d(TAG, "intent setting received");
+			IntentDataTarget intentTarget = new IntentDataTarget();
+			intentTarget.setBatching(settings.getInt("intentBatchSize", 0),
+					settings.getLong("intentBatchInterval", 0), settings
+							.getInt("intentMaxRate", 0));
+			dt = intentTarget;
+			dt.initCtx(mContext);
+			mDataManager.addDataTarget(dt);
+		}
+	}
+
+	/**
+	 * Adds data targets created by the application, used in the embedded
+	 * mode, see ContextLogger.addDataTarget(). Must be called after
+	 * initTargets().
+	 *
+	 * @param targets
+	 *            Data targets to add to the next session.
+	 */
+	void addDataTargets(List<DataTarget> targets) {
+		for (DataTarget dt : targets) {
+			dt.initCtx(mContext);
+			mDataManager.addDataTarget(dt);
+		}
+	}
+
+	/**
+	 * Initializes the ContextListeners. Each listener from the list is
+	 * checked for permissions. If the permissions are satisfied, listener is
+	 * added to the list of initialized listeners.
+	 *
+	 * @param listeners
+	 *            List of listeners coming from the foreground application.
+	 */
+	void initListeners(List<ContextListener> listeners) {
+		Log.d(TAG, "initListeners");
+
+		// register the listeners
+		mListeners = new ArrayList<ContextListener>(listeners.size());
+		mFirstIds = new int[listeners.size()];
+		mEndIds = new int[listeners.size()];
+
+		for (ContextListener l : listeners) {
+			if (l.checkPermissions()) {
+				int first = mDataManager.getListenerCount();
+				l.init(mDataManager);
+				mFirstIds[mListeners.size()] = first;
+				mEndIds[mListeners.size()] = mDataManager.getListenerCount();
+				mListeners.add(l);
+			} else {
+				String toastMessage = "Permission error in listener: "
+						+ l.getTag();
+				Toast toast = Toast.makeText(mContext, toastMessage,
+						Toast.LENGTH_SHORT);
+				toast.show();
+			}
+		}
+	}
+
+	/**
+	 * Starts the logging session. The listeners are started in parallel by
+	 * up to STARTUP_THREADS threads, so a listener slow to start does not
+	 * delay the first records of the others; the method returns without
+	 * waiting for them.
+	 */
+	void startLogging() {
+		Log.d(TAG, "startlogging");
+
+		mStartTime = TimeSource.getTimeOfDay();
+		mStartLatencyId = mDataManager.registerListener(
+				DataManager.LISTENER_START_LABEL, DataManager.STRING);
+		final int count = mListeners.size();
+		mStarting = new CountDownLatch(count);
+
+		// start the listeners
+		final AtomicInteger next = new AtomicInteger(0);
+		Runnable starter = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < count) {
+					startListener(mListeners.get(i));
+				}
+				Looper.myLooper().quit();
+			}
+		};
+		mStartupThreads = new HandlerThread[Math.min(STARTUP_THREADS, count)];
+		for (int t = 0; t < mStartupThreads.length; ++t) {
+			mStartupThreads[t] = new HandlerThread("ContextListener-" + t);
+			mStartupThreads[t].start();
+			new Handler(mStartupThreads[t].getLooper()).post(starter);
+		}
+		if (mSelfMonitorPeriod > 0) {
+			mDataManager.startSelfMonitor(mSelfMonitorPeriod);
+		}
+	}
+
+	/**
+	 * Starts a listener and logs its start-up latency.
+	 */
+	private void startListener(ContextListener l) {
+		long start = System.nanoTime();
+		try {
+			l.startListening();
+		} finally {
+			long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+					- start);
+			mDataManager.insertLog(mStartLatencyId, TimeSource.getTimeOfDay(),
+					l.getTag() + " " + latency + "us");
+			mStarting.countDown();
+		}
+	}
+
+	/**
+	 * Stops the logging session. Waits for the listeners still starting,
+	 * stops the listeners and logs the time of the first record of each
+	 * listener. The listeners are stopped before DataManager.finish(), which
+	 * gives their IDs to the next session.
+	 */
+	void stopLogging() {
+		try {
+			if (!mStarting.await(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				Log.w(TAG, mStarting.getCount() + " listeners still starting");
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		Log.d(TAG, "stoplogging");
+		for (ContextListener l : mListeners) {
+			l.stopListening();
+		}
+		logFirstRecords();
+		mDataManager.finish();
+		for (HandlerThread thread : mStartupThreads) {
+			thread.quit();
+		}
+		mStartupThreads = new HandlerThread[0];
+	}
+
+	/**
+	 * Logs the time from the start of the session to the first record of
+	 * each listener under DataManager.LISTENER_FIRST_RECORD_LABEL.
+	 */
+	private void logFirstRecords() {
+		int id = mDataManager.registerListener(
+				DataManager.LISTENER_FIRST_RECORD_LABEL, DataManager.STRING);
+		long now = TimeSource.getTimeOfDay();
+		for (int i = 0; i < mListeners.size(); ++i) {
+			long first = 0;
+			for (int log = mFirstIds[i]; log < mEndIds[i]; ++log) {
+				long time = mDataManager.getFirstRecordTime(log);
+				if (time != 0 && (first == 0 || time < first)) {
+					first = time;
+				}
+			}
+			String tag = mListeners.get(i).getTag();
+			mDataManager.insertLog(id, now, first == 0 ? tag + " none" : tag
+					+ " " + (first - mStartTime) + "us");
+		}
+	}
+
+	/**
+	 * Returns the statistics of the DataManager, see LoggerStats.
+	 */
+	Bundle collectStats() {
+		return LoggerStats.collect(mDataManager);
+	}
+}
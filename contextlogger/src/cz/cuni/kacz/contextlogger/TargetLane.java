@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Debug;
+import android.os.Process;
+
+/**
+ * Delivery lane of a single data target. Owns a bounded queue of records and
+ * a consumer thread passing the records to the target in batches, so a slow
+ * target only delays its own lane. Keeps the metrics of the lane, they can be
+ * read from any thread.
+ *
+ * @author kacz
+ *
+ */
+public class TargetLane {
+
+	/**
+	 * Passes the records to a target implementing only DataTarget, one by
+	 * one.
+	 */
+	private static class PlainTarget extends DefaultDataTarget {
+		private static final long serialVersionUID = 1L;
+
+		private final DataTarget mTarget;
+
+		PlainTarget(DataTarget target) {
+			mTarget = target;
+		}
+
+		@Override
+		public void open() {
+			mTarget.open();
+		}
+
+		@Override
+		public void close() {
+			mTarget.close();
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, int value) {
+			mTarget.insertLog(listenerId, time, value);
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, long value) {
+			mTarget.insertLog(listenerId, time, value);
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, float value) {
+			mTarget.insertLog(listenerId, time, value);
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, double value) {
+			mTarget.insertLog(listenerId, time, value);
+		}
+
+		@Override
+		public void insertLog(int listenerId, long time, String value) {
+			mTarget.insertLog(listenerId, time, value);
+		}
+
+		@Override
+		public void registerListener(int listenerId, int type,
+				String listenerName) {
+			mTarget.registerListener(listenerId, type, listenerName);
+		}
+
+		@Override
+		public boolean checkPermissions() {
+			return mTarget.checkPermissions();
+		}
+	}
+
+	private final DataManager mManager;
+	private final DataTarget mTarget;
+	/** The target, wrapped if it implements only DataTarget. */
+	private final BatchDataTarget mBatchTarget;
+	private final LogQueue mQueue;
+	private final int mBatchSize;
+	private final long mBatchLatencyNanos;
+	private final int mOverflowPolicy;
+	private final int mSampleRate;
+	private final Thread mConsumer;
+
+	/** Number of records dropped because the queue was full. */
+	private final AtomicLong mDropped = new AtomicLong(0);
+
+	/** Dropped records per piece of context. */
+	private final ChannelCounters mChannelDrops = new ChannelCounters();
+
+	/** Records per piece of context that found the queue full. */
+	private final ChannelCounters mOverflows = new ChannelCounters();
+
+	/** ID of the dropped records summary, -1 if it should not be written. */
+	private volatile int mSummaryId = -1;
+
+	/** Labels of the pieces of context indexed by ID, used by the summary. */
+	private volatile String[] mLabels = null;
+
+	/** Timestamp of the last record passed to the target. */
+	private volatile long mLastTime = 0;
+
+	private volatile long mDelivered = 0;
+	private volatile long mBatches = 0;
+	private volatile long mBusyNanos = 0;
+	private volatile long mLastLagNanos = 0;
+	private volatile long mMaxLagNanos = 0;
+	private volatile long mBytesWritten = 0;
+	private volatile long mCpuNanos = 0;
+
+	/** Times from inserting the records until the target wrote them. */
+	private final LatencyHistogram mLatency = new LatencyHistogram();
+
+	/**
+	 * Creates a lane. The consumer thread is started by start().
+	 *
+	 * @param manager
+	 *            DataManager resolving the types of the records.
+	 * @param target
+	 *            Opened data target.
+	 * @param queue
+	 *            Queue of the lane.
+	 * @param batchSize
+	 *            Maximal number of records passed to the target at once.
+	 * @param batchLatencyNanos
+	 *            Maximal time the consumer waits to fill a batch.
+	 * @param overflowPolicy
+	 *            What to do with a record when the queue is full, one of the
+	 *            DataManager.OVERFLOW_ constants.
+	 * @param sampleRate
+	 *            N of the OVERFLOW_SAMPLE policy.
+	 * @param threadPriority
+	 *            Android priority of the consumer thread.
+	 */
+	TargetLane(DataManager manager, DataTarget target, LogQueue queue,
+			int batchSize, long batchLatencyNanos, int overflowPolicy,
+			int sampleRate, final int threadPriority) {
+		mManager = manager;
+		mTarget = target;
+		if (target instanceof BatchDataTarget) {
+			mBatchTarget = (BatchDataTarget) target;
+		} else {
+			mBatchTarget = new PlainTarget(target);
+		}
+		mQueue = queue;
+		mBatchSize = batchSize;
+		mBatchLatencyNanos = batchLatencyNanos;
+		mOverflowPolicy = overflowPolicy;
+		mSampleRate = sampleRate;
+		mConsumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (threadPriority != Process.THREAD_PRIORITY_DEFAULT) {
+					Process.setThreadPriority(threadPriority);
+				}
+				consume();
+			}
+		}, "DataManager-" + getName());
+	}
+
+	void start() {
+		mConsumer.start();
+	}
+
+	/**
+	 * Puts a record into the lane. If the queue of the lane is full, the
+	 * overflow policy of the lane decides which record is dropped, if any.
+	 */
+	void offer(int id, long time, long bits, long bits2, String string,
+			long enqueueNanos) {
+		if (mQueue.offer(id, time, bits, bits2, string, enqueueNanos)) {
+			return;
+		}
+		switch (mOverflowPolicy) {
+		case DataManager.OVERFLOW_BLOCK:
+			if (!mQueue.put(id, time, bits, bits2, string, enqueueNanos)) {
+				countDrop(id);
+			}
+			break;
+		case DataManager.OVERFLOW_DROP_OLDEST:
+			do {
+				int evicted = mQueue.evictOldest();
+				if (evicted >= 0) {
+					countDrop(evicted);
+				} else {
+					// the oldest record is still being written
+					Thread.yield();
+				}
+			} while (!mQueue
+					.offer(id, time, bits, bits2, string, enqueueNanos));
+			break;
+		case DataManager.OVERFLOW_SAMPLE:
+			// keep every N-th record of each piece of context, wait for it
+			if ((mOverflows.incrementAndGet(id) - 1) % mSampleRate == 0) {
+				if (!mQueue.put(id, time, bits, bits2, string, enqueueNanos)) {
+					countDrop(id);
+				}
+			} else {
+				countDrop(id);
+			}
+			break;
+		default:
+			countDrop(id);
+		}
+	}
+
+	private void countDrop(int id) {
+		mDropped.incrementAndGet();
+		if (id >= 0) {
+			mChannelDrops.incrementAndGet(id);
+		}
+	}
+
+	/**
+	 * Closes the queue of the lane. The consumer delivers the remaining
+	 * records, writes the dropped records summary, closes the target and
+	 * exits.
+	 *
+	 * @param summaryId
+	 *            ID of the dropped records summary, -1 for no summary.
+	 * @param labels
+	 *            Labels of the pieces of context indexed by ID.
+	 */
+	void finish(int summaryId, String[] labels) {
+		mLabels = labels;
+		mSummaryId = summaryId;
+		mQueue.close();
+	}
+
+	/**
+	 * Waits for the consumer thread to exit.
+	 *
+	 * @param millis
+	 *            Maximal time to wait.
+	 */
+	void join(long millis) throws InterruptedException {
+		mConsumer.join(millis);
+	}
+
+	private void consume() {
+		LogBatch batch = new LogBatch(mBatchSize);
+		// time to wait for records before calling onIdle(), 0 once called
+		long idleNanos = 0;
+		int count;
+		try {
+			while ((count = mQueue.drainTo(batch, mBatchSize,
+					mBatchLatencyNanos, idleNanos)) >= 0) {
+				if (count == 0) {
+					// no records since the last batch, e.g. to sync the file
+					mBatchTarget.onIdle();
+					mBytesWritten = mBatchTarget.getBytesWritten();
+					idleNanos = 0;
+					continue;
+				}
+				mManager.resolveTypes(batch);
+				int size = batch.size();
+				if (size == 0) {
+					continue;
+				}
+				long start = System.nanoTime();
+				long lag = start - batch.getEnqueueTime(0);
+				mBatchTarget.insertBatch(batch);
+				long end = System.nanoTime();
+				mBusyNanos += end - start;
+				for (int i = 0; i < size; ++i) {
+					mLatency.record(end - batch.getEnqueueTime(i));
+				}
+				// sampled here, so the targets need not be thread safe
+				mBytesWritten = mBatchTarget.getBytesWritten();
+				mCpuNanos = Debug.threadCpuTimeNanos();
+				mDelivered += size;
+				++mBatches;
+				mLastTime = batch.getTime(size - 1);
+				idleNanos = mBatchTarget.getIdleIntervalNanos();
+				mLastLagNanos = lag;
+				if (lag > mMaxLagNanos) {
+					mMaxLagNanos = lag;
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			batch.clear();
+			writeSummary();
+			mTarget.close();
+		}
+	}
+
+	/**
+	 * Passes the numbers of dropped records to the target as a single STRING
+	 * record of the form "label=count; label=count". The record gets the
+	 * timestamp of the last delivered record.
+	 */
+	private void writeSummary() {
+		int summaryId = mSummaryId;
+		String[] labels = mLabels;
+		if (summaryId < 0 || mDropped.get() == 0) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		int length = mChannelDrops.length();
+		for (int id = 0; id < length; ++id) {
+			long dropped = mChannelDrops.get(id);
+			if (dropped == 0) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append("; ");
+			}
+			if (labels != null && id < labels.length && labels[id] != null) {
+				sb.append(labels[id]);
+			} else {
+				sb.append(id);
+			}
+			sb.append('=').append(dropped);
+		}
+		mTarget.insertLog(summaryId, mLastTime, sb.toString());
+	}
+
+	/**
+	 * Returns the class name of the data target, used in thread names and
+	 * statistics. Anonymous targets get the name of their superclass.
+	 */
+	public String getName() {
+		Class<?> c = mTarget.getClass();
+		while (c.getSimpleName().length() == 0) {
+			c = c.getSuperclass();
+		}
+		return c.getSimpleName();
+	}
+
+	/**
+	 * Returns the data target of the lane.
+	 */
+	public DataTarget getTarget() {
+		return mTarget;
+	}
+
+	/**
+	 * Returns the number of records waiting in the queue of the lane.
+	 */
+	public int getBacklog() {
+		return mQueue.size();
+	}
+
+	/**
+	 * Returns the maximal number of records waiting in the queue of the lane.
+	 */
+	public int getCapacity() {
+		return mQueue.capacity();
+	}
+
+	/**
+	 * Returns the number of records passed to the target.
+	 */
+	public long getDelivered() {
+		return mDelivered;
+	}
+
+	/**
+	 * Returns the number of records dropped because the queue was full.
+	 */
+	public long getDropped() {
+		return mDropped.get();
+	}
+
+	/**
+	 * Returns the number of dropped records of the piece of context.
+	 *
+	 * @param listenerId
+	 *            Handle of the piece of context returned by
+	 *            DataManager.registerListener.
+	 */
+	public long getDropped(int listenerId) {
+		return mChannelDrops.get(listenerId);
+	}
+
+	/**
+	 * Returns the number of batches passed to the target.
+	 */
+	public long getBatches() {
+		return mBatches;
+	}
+
+	/**
+	 * Returns the total time in nanoseconds the target spent in insertBatch().
+	 */
+	public long getBusyNanos() {
+		return mBusyNanos;
+	}
+
+	/**
+	 * Returns the number of bytes the target wrote, as of the last batch.
+	 */
+	public long getBytesWritten() {
+		return mBytesWritten;
+	}
+
+	/**
+	 * Returns the CPU time in nanoseconds the consumer thread of the lane used
+	 * so far, as of the last batch. -1 if not supported.
+	 */
+	public long getCpuNanos() {
+		return mCpuNanos;
+	}
+
+	/**
+	 * Returns the histogram of the times from inserting the records into
+	 * DataManager until the target wrote them.
+	 */
+	public LatencyHistogram getLatency() {
+		return mLatency;
+	}
+
+	/**
+	 * Returns the time in nanoseconds the oldest record of the last batch
+	 * waited before it was passed to the target.
+	 */
+	public long getLastLagNanos() {
+		return mLastLagNanos;
+	}
+
+	/**
+	 * Returns the maximal value of getLastLagNanos() seen so far.
+	 */
+	public long getMaxLagNanos() {
+		return mMaxLagNanos;
+	}
+}
@@ -22,7 +22,6 @@ package cz.cuni.kacz.contextlogger;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -34,6 +33,9 @@ import android.util.Log;
 /**
  * DataTarget for saving context logs into a text file. The structure of the
  * file is similar to the output of the cz.cuni.kacz.contextlogger.DataTarget.
+ * Since version 2 the file is written in a single pass, the pieces of context
+ * are listed among the records as they are registered. ContextLogReader of
+ * traceview reads both versions.
  * 
  * @author kacz
  * 
@@ -47,11 +49,15 @@ public class TextFileDataTarget extends DefaultDataTarget {
 	private long mStartTime;
 
 	private static final int DATA_MAGIC = 0x574f4c53;
-	private static final byte VERSION = 1;
+	private static final byte VERSION = 2;
 
-	// private DataOutputStream mHeaderStream;
 	private BufferedWriter mDataStream;
-	private BufferedWriter mHeaderWriter;
+
+	/** Byte count of the file. */
+	private CountingOutputStream mDataCounter;
+
+	/** Text of a batch of records, reused between batches. */
+	private final StringBuilder mBatchText = new StringBuilder(16 * 1024);
 
 	/**
 	 * DataTarget saving the logs into a text file.
@@ -134,103 +140,127 @@ public class TextFileDataTarget extends DefaultDataTarget {
 	}
 
 	@Override
-	public void registerListener(int listenerId, int type, String listenerName) {
+	public void insertLog(int listenerId, long time, float[] values) {
+		Log.d(TAG, "id: " + listenerId + " values: " + values.length
+				+ " type: vector");
 		try {
-			mHeaderWriter.write(String.valueOf(listenerId) + " "
-					+ String.valueOf(type) + " " + listenerName);
-			mHeaderWriter.newLine();
+			mDataStream.write("Id: " + listenerId + "\n");
+			mDataStream.write("time: " + (time - mStartTime) + "\n");
+			StringBuilder sb = new StringBuilder("value");
+			for (float value : values) {
+				sb.append(' ').append(value);
+			}
+			mDataStream.write(sb.append('\n').toString());
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	@Override
+	public void insertBatch(LogBatch batch) {
+		int size = batch.size();
+		StringBuilder sb = mBatchText;
+		sb.setLength(0);
+		for (int i = 0; i < size; ++i) {
+			sb.append("Id: ").append(batch.getId(i)).append('\n');
+			sb.append("time: ").append(batch.getTime(i) - mStartTime)
+					.append('\n');
+			sb.append("value ");
+			int type = batch.getType(i);
+			switch (type) {
+			case DataManager.INT:
+				sb.append(batch.getIntValue(i));
+				break;
+			case DataManager.LONG:
+				sb.append(batch.getLongValue(i));
+				break;
+			case DataManager.FLOAT:
+				sb.append(batch.getFloatValue(i));
+				break;
+			case DataManager.DOUBLE:
+				sb.append(batch.getDoubleValue(i));
+				break;
+			case DataManager.STRING:
+				sb.append(batch.getStringValue(i));
+				break;
+			case DataManager.FLOAT3:
+			case DataManager.FLOAT4:
+				int arity = batch.getArity(i);
+				for (int c = 0; c < arity; ++c) {
+					if (c > 0) {
+						sb.append(' ');
+					}
+					sb.append(batch.getVectorValue(i, c));
+				}
+				break;
+			}
+			sb.append('\n');
+		}
+		try {
+			mDataStream.append(sb);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the piece of context into the data in place, as a "*log id type
+	 * name" line.
+	 */
+	@Override
+	public void registerListener(int listenerId, int type, String listenerName) {
+		try {
+			// a single write, the writer keeps it apart from the batches
+			mDataStream.write("*log " + listenerId + " " + type + " "
+					+ listenerName + "\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	@Override
 	public void open() {
 		try {
 			Log.d(TAG, "opening...");
-			// File path = Environment
-			// .getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-
-			mHeaderWriter = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(new File(mFileName
-							+ ".text.clog"))));
+			mDataCounter = new CountingOutputStream(new FileOutputStream(
+					new File(mFileName + ".text.clog")));
 			mDataStream = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(new File(mFileName
-							+ ".text.cdata"))));
-			Log.d(TAG, "streams open");
+					mDataCounter));
+			Log.d(TAG, "stream open");
 			mStartTime = TimeSource.getTimeOfDay();
 
-			// write the beggining of head and data files
-			// header
-			mHeaderWriter.write("*version");
-			mHeaderWriter.newLine();
-			mHeaderWriter.write("1");
-			mHeaderWriter.newLine();
-			// options come here
-
-			// end of options, log types come
-			mHeaderWriter.write("*logs");
-			mHeaderWriter.newLine();
-
-			// data
+			mDataStream.write("*version\n" + VERSION + "\n");
 			mDataStream.write("magic: " + DATA_MAGIC + "\n");
-			mDataStream.write("version: " + VERSION + "\n");
 			mDataStream.write("starttime: " + mStartTime + "\n");
-			Log.d(TAG, "cucc writen.");
 		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
 			Log.d(TAG, "filenotfound");
 			e.printStackTrace();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			Log.d(TAG, "ioe");
 			e.printStackTrace();
 		}
-		;
-
 	}
 
 	@Override
 	public void close() {
 		try {
 			Log.d(TAG, "closing...");
-			// write the end of files
-			mHeaderWriter.write("*end");
-			mHeaderWriter.newLine();
-			mHeaderWriter.flush();
-			mDataStream.flush();
-
-			mHeaderWriter.close();
+			mDataStream.write("*end\n");
 			mDataStream.close();
-
-			// concat files
-			FileOutputStream out = new FileOutputStream(mFileName
-					+ ".text.clog", true /* append */);
-			FileInputStream in = new FileInputStream(mFileName + ".text.cdata");
-			byte[] fileBytes;
-			int bytesRead = 0;
-			int COPY_BUFFER_SIZE = 1000;
-			fileBytes = new byte[COPY_BUFFER_SIZE];
-			bytesRead = in.read(fileBytes, 0, COPY_BUFFER_SIZE);
-			while (bytesRead != -1) {
-				out.write(fileBytes, 0, bytesRead);
-				bytesRead = in.read(fileBytes, 0, COPY_BUFFER_SIZE);
-			}
-			out.flush();
-			fileBytes = null;
-
-			File file = new File(mFileName + ".text.cdata");
-			file.delete();
-
-			in.close();
-			out.close();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	@Override
+	public long getBytesWritten() {
+		if (mDataCounter == null) {
+			return 0;
+		}
+		return mDataCounter.getCount();
+	}
+
 	@Override
 	public boolean checkPermissions() {
 		if (ContextLoggerService.mAppContext
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.util.ArrayList;
+
+import android.os.Debug;
+
+/**
+ * Single thread running the periodic work of all the polling listeners. The
+ * ticks of a task fall on the multiples of its period, shifted by its phase,
+ * counted from a common origin, so tasks with commensurate periods are due
+ * at the same moments and run in one wake-up. The ticks are computed from the
+ * schedule, not from the end of the previous run, so they do not drift.
+ * <p>
+ * A task still running when its next tick is due skips the missed ticks; the
+ * skipped ticks are counted as overruns of the task. As all the tasks share
+ * the thread, a slow task delays the others due at the same moment.
+ * <p>
+ * The thread is started with the first task and ends when the last task is
+ * cancelled.
+ *
+ * @author kacz
+ *
+ */
+public class TickScheduler {
+
+	private static final String TAG = "TickScheduler";
+
+	private static final TickScheduler sInstance = new TickScheduler();
+
+	/**
+	 * Periodic task returned by schedule().
+	 */
+	public final class Task {
+		private final long mPeriodNanos;
+		private final long mPhaseNanos;
+		private final Runnable mCallback;
+
+		/** Time of the next run, guarded by the scheduler lock. */
+		private long mNextTick;
+		/** False until the first run, which is not on a tick. */
+		private boolean mOnTick = false;
+		private volatile boolean mCancelled = false;
+
+		private volatile long mRuns = 0;
+		private volatile long mOverruns = 0;
+		private volatile long mCpuNanos = 0;
+
+		Task(long periodNanos, long phaseNanos, Runnable callback) {
+			mPeriodNanos = periodNanos;
+			mPhaseNanos = phaseNanos;
+			mCallback = callback;
+		}
+
+		/**
+		 * Stops running the task. A run in progress is finished.
+		 */
+		public void cancel() {
+			TickScheduler.this.cancel(this);
+		}
+
+		/** Returns the number of runs of the task. */
+		public long getRuns() {
+			return mRuns;
+		}
+
+		/** Returns the number of ticks skipped because the task was late. */
+		public long getOverruns() {
+			return mOverruns;
+		}
+
+		/** Returns the CPU time spent in the task in nanoseconds. */
+		public long getCpuNanos() {
+			return mCpuNanos;
+		}
+	}
+
+	/** Common origin of the ticks of all the tasks. */
+	private final long mOrigin = System.nanoTime();
+
+	private final Object mLock = new Object();
+
+	/** Scheduled tasks, guarded by mLock. */
+	private final ArrayList<Task> mTasks = new ArrayList<Task>();
+
+	/** Thread running the tasks, null if there are none. */
+	private Thread mThread = null;
+
+	/** Totals, written by the scheduler thread. */
+	private volatile long mWakeups = 0;
+	private volatile long mOverheadCpuNanos = 0;
+	private volatile long mOverruns = 0;
+
+	/**
+	 * Returns the scheduler shared by all the listeners.
+	 */
+	public static TickScheduler getInstance() {
+		return sInstance;
+	}
+
+	TickScheduler() {
+	}
+
+	/**
+	 * Schedules a periodic task. The first run is right away, the next ones
+	 * at the ticks of the task.
+	 *
+	 * @param periodMs
+	 *            Period in milliseconds.
+	 * @param phaseMs
+	 *            Offset of the ticks from the multiples of the period, e.g. to
+	 *            spread tasks with the same period.
+	 * @param callback
+	 *            Work of the task, run on the scheduler thread.
+	 * @return The task, to be cancelled when no longer needed.
+	 */
+	public Task schedule(long periodMs, long phaseMs, Runnable callback) {
+		long period = Math.max(1, periodMs) * 1000 * 1000;
+		Task task = new Task(period, (phaseMs * 1000 * 1000) % period,
+				callback);
+		synchronized (mLock) {
+			task.mNextTick = System.nanoTime();
+			mTasks.add(task);
+			if (mThread == null) {
+				mThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						loop();
+					}
+				}, TAG);
+				mThread.setDaemon(true);
+				mThread.start();
+			} else {
+				mLock.notifyAll();
+			}
+		}
+		return task;
+	}
+
+	private void cancel(Task task) {
+		task.mCancelled = true;
+		synchronized (mLock) {
+			mTasks.remove(task);
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the first tick of the task at or after the time.
+	 */
+	private long nextTick(Task task, long now) {
+		long since = now - mOrigin - task.mPhaseNanos;
+		long ticks = since <= 0 ? 0 : (since + task.mPeriodNanos - 1)
+				/ task.mPeriodNanos;
+		return mOrigin + task.mPhaseNanos + ticks * task.mPeriodNanos;
+	}
+
+	private void loop() {
+		ArrayList<Task> due = new ArrayList<Task>();
+		while (true) {
+			long start = Debug.threadCpuTimeNanos();
+			synchronized (mLock) {
+				long now;
+				while (true) {
+					if (mTasks.isEmpty()) {
+						mThread = null;
+						return;
+					}
+					now = System.nanoTime();
+					long next = Long.MAX_VALUE;
+					for (Task task : mTasks) {
+						next = Math.min(next, task.mNextTick);
+					}
+					long delay = next - now;
+					if (delay <= 0) {
+						break;
+					}
+					try {
+						mLock.wait(delay / 1000000, (int) (delay % 1000000));
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+					start = Debug.threadCpuTimeNanos();
+				}
+				for (Task task : mTasks) {
+					if (task.mNextTick <= now) {
+						due.add(task);
+						long next = nextTick(task, now + 1);
+						if (task.mOnTick) {
+							// ticks skipped since the due one
+							long skipped = (next - task.mNextTick)
+									/ task.mPeriodNanos - 1;
+							task.mOverruns += skipped;
+							mOverruns += skipped;
+						}
+						task.mOnTick = true;
+						task.mNextTick = next;
+					}
+				}
+			}
+
+			long tasksCpu = 0;
+			for (Task task : due) {
+				if (task.mCancelled) {
+					continue;
+				}
+				long taskStart = Debug.threadCpuTimeNanos();
+				try {
+					task.mCallback.run();
+				} catch (RuntimeException e) {
+					// a failing task does not stop the others
+					e.printStackTrace();
+				}
+				long taskCpu = Debug.threadCpuTimeNanos() - taskStart;
+				task.mCpuNanos += taskCpu;
+				task.mRuns++;
+				tasksCpu += taskCpu;
+			}
+			due.clear();
+			mOverheadCpuNanos += Debug.threadCpuTimeNanos() - start - tasksCpu;
+			mWakeups++;
+		}
+	}
+
+	/**
+	 * Returns the number of times the scheduler thread woke up to run tasks.
+	 */
+	public long getWakeups() {
+		return mWakeups;
+	}
+
+	/**
+	 * Returns the CPU time of the scheduler thread outside of the tasks in
+	 * nanoseconds, i.e. the cost of the scheduler itself after the wake-up.
+	 */
+	public long getOverheadCpuNanos() {
+		return mOverheadCpuNanos;
+	}
+
+	/**
+	 * Returns the total number of overruns of the tasks, including the
+	 * cancelled ones.
+	 */
+	public long getOverruns() {
+		return mOverruns;
+	}
+}
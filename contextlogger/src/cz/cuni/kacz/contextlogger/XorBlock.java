@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Block of FLOAT, DOUBLE, FLOAT3 or FLOAT4 values of a single piece of
+ * context, compressed by XOR-ing each value with the previous value of the
+ * same component, as in Facebook's Gorilla. Consecutive sensor readings share
+ * their sign, exponent and high mantissa bits, so the XOR has long runs of
+ * zeros that are not stored.
+ * <p>
+ * Every component of each value is written as:
+ * <ul>
+ * <li>the raw bits, for the first value of the block,
+ * <li>'0' if it equals the previous value,
+ * <li>'10' and the meaningful bits, if the nonzero bits of the XOR fit into
+ * the window of the last '11' control,
+ * <li>'11', 5 bits of the number of leading zeros, the number of meaningful
+ * bits minus one (5 bits, 6 bits for DOUBLE) and the meaningful bits.
+ * </ul>
+ * A block is written as a record of FileDataTarget, see
+ * {@link #writeTo(ChannelWriter, int)}.
+ *
+ * @author kacz
+ *
+ */
+class XorBlock {
+
+	/** Maximal number of values in a block. */
+	static final int MAX_VALUES = 1024;
+
+	/** Maximal time span of a block in microseconds. */
+	static final long MAX_SPAN = 10 * 1000 * 1000;
+
+	private final int mArity;
+	private final int mWidth;
+
+	private int mCount = 0;
+	private long mFirstTime;
+
+	/** Time deltas of deltas of the values. */
+	private final long[] mTimes = new long[MAX_VALUES];
+
+	/** Previous value and XOR window of each component. */
+	private final long[] mPrevious;
+	private final int[] mLeading;
+	private final int[] mTrailing;
+
+	/** Bit stream of the values, most significant bit first. */
+	private byte[] mBits = new byte[4 * 1024];
+	private int mBitLength = 0;
+
+	/**
+	 * @param type
+	 *            DataManager.FLOAT, DOUBLE, FLOAT3 or FLOAT4.
+	 */
+	XorBlock(int type) {
+		switch (type) {
+		case DataManager.FLOAT3:
+			mArity = 3;
+			break;
+		case DataManager.FLOAT4:
+			mArity = 4;
+			break;
+		default:
+			mArity = 1;
+		}
+		mWidth = type == DataManager.DOUBLE ? 64 : 32;
+		mPrevious = new long[mArity];
+		mLeading = new int[mArity];
+		mTrailing = new int[mArity];
+	}
+
+	/**
+	 * Returns true for the types a block can hold.
+	 */
+	static boolean supports(int type) {
+		return type == DataManager.FLOAT || type == DataManager.DOUBLE
+				|| type == DataManager.FLOAT3 || type == DataManager.FLOAT4;
+	}
+
+	boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	/**
+	 * Returns true if the block should be written before a value with the
+	 * given time is added.
+	 */
+	boolean isFull(long time) {
+		return mCount == MAX_VALUES
+				|| (mCount > 0 && time - mFirstTime >= MAX_SPAN);
+	}
+
+	/**
+	 * Adds a value to the block.
+	 *
+	 * @param time
+	 *            Time of the value, used for the span of the block.
+	 * @param timeDelta
+	 *            Delta of deltas of the time, stored in the block.
+	 * @param bits
+	 *            Raw bits as stored by LogBatch.
+	 * @param bits2
+	 *            Raw bits of the last two components of a vector.
+	 */
+	void add(long time, long timeDelta, long bits, long bits2) {
+		if (mCount == 0) {
+			mFirstTime = time;
+		}
+		mTimes[mCount] = timeDelta;
+		if (mArity == 1) {
+			addComponent(0, mWidth == 64 ? bits : bits & 0xffffffffL);
+		} else {
+			addComponent(0, bits >>> 32);
+			addComponent(1, bits & 0xffffffffL);
+			addComponent(2, bits2 >>> 32);
+			if (mArity == 4) {
+				addComponent(3, bits2 & 0xffffffffL);
+			}
+		}
+		++mCount;
+	}
+
+	private void addComponent(int c, long value) {
+		if (mCount == 0) {
+			writeBits(value, mWidth);
+			mPrevious[c] = value;
+			mLeading[c] = -1;
+			return;
+		}
+		long xor = value ^ mPrevious[c];
+		mPrevious[c] = value;
+		if (xor == 0) {
+			writeBits(0, 1);
+			return;
+		}
+		int leading = Long.numberOfLeadingZeros(xor) - (64 - mWidth);
+		int trailing = Long.numberOfTrailingZeros(xor);
+		if (leading > 31) {
+			leading = 31;
+		}
+		if (mLeading[c] >= 0 && leading >= mLeading[c]
+				&& trailing >= mTrailing[c]) {
+			writeBits(2, 2);
+			writeBits(xor >>> mTrailing[c], mWidth - mLeading[c]
+					- mTrailing[c]);
+			return;
+		}
+		int length = mWidth - leading - trailing;
+		writeBits(3, 2);
+		writeBits(leading, 5);
+		writeBits(length - 1, mWidth == 64 ? 6 : 5);
+		writeBits(xor >>> trailing, length);
+		mLeading[c] = leading;
+		mTrailing[c] = trailing;
+	}
+
+	/**
+	 * Appends the lowest count bits of the value to the bit stream.
+	 */
+	private void writeBits(long value, int count) {
+		int needed = (mBitLength + count + 7) >>> 3;
+		if (needed > mBits.length) {
+			mBits = Arrays.copyOf(mBits, Math.max(needed, mBits.length * 2));
+		}
+		while (count > 0) {
+			int free = 8 - (mBitLength & 7);
+			int take = Math.min(free, count);
+			count -= take;
+			int chunk = (int) (value >>> count) & ((1 << take) - 1);
+			mBits[mBitLength >>> 3] |= chunk << (free - take);
+			mBitLength += take;
+		}
+	}
+
+	/**
+	 * Writes the block as a record and empties it: varint of (ID << 2) | 1,
+	 * varint number of values, zig-zag varint time deltas of deltas, varint
+	 * length of the bit stream in bytes and the bit stream.
+	 */
+	void writeTo(ChannelWriter writer, int listenerId) throws IOException {
+		writer.writeVarLong(((long) listenerId << 2) | 1);
+		writer.writeVarLong(mCount);
+		for (int i = 0; i < mCount; ++i) {
+			writer.writeZigZag(mTimes[i]);
+		}
+		int bytes = (mBitLength + 7) >>> 3;
+		writer.writeVarLong(bytes);
+		writer.write(mBits, 0, bytes);
+		Arrays.fill(mBits, 0, bytes, (byte) 0);
+		mBitLength = 0;
+		mCount = 0;
+	}
+}
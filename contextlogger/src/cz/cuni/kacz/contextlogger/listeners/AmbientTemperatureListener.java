@@ -46,6 +46,7 @@ public class AmbientTemperatureListener extends DefaultContextListener {
 
 	String labelTemperature = "Ambient temperature";
 	int typeTemperature = DataManager.FLOAT;
+	int idTemperature;
 
 	@Override
 	public void startListening() {
@@ -60,7 +61,7 @@ public class AmbientTemperatureListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelTemperature, time,
+					mDataManager.insertLog(idTemperature, time,
 							event.values[0]);
 				}
 
@@ -83,7 +84,7 @@ public class AmbientTemperatureListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelTemperature, typeTemperature);
+		idTemperature = addLogType(labelTemperature, typeTemperature);
 	}
 
 }
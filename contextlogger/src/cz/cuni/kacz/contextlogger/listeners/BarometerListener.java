@@ -46,6 +46,7 @@ public class BarometerListener extends DefaultContextListener {
 
 	String labelPressure = "Pressure";
 	int typePressure = DataManager.FLOAT;
+	int idPressure;
 
 	@Override
 	public void startListening() {
@@ -61,7 +62,7 @@ public class BarometerListener extends DefaultContextListener {
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
 					mDataManager
-							.insertLog(labelPressure, time,
+							.insertLog(idPressure, time,
 							event.values[0]);
 				}
 
@@ -84,7 +85,7 @@ public class BarometerListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelPressure, typePressure);
+		idPressure = addLogType(labelPressure, typePressure);
 	}
 
 }
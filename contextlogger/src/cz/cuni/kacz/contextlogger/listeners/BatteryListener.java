@@ -26,9 +26,9 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -47,29 +47,36 @@ public class BatteryListener extends DefaultContextListener {
 	private static final String TAG = "WifiRSSIListener";
 
 	private BroadcastReceiver mBatteryBCReceiver = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	// log names and types
 	private final String labelHealth = "Battery health";
 	private final int typeHealth = DataManager.INT;
+	private int idHealth;
 
 	private final String labelLevel = "Battery level";
 	private final int typeLevel = DataManager.INT;
+	private int idLevel;
 
 	private final String labelPlugged = "Battery plugged";
 	private final int typePlugged = DataManager.INT;
+	private int idPlugged;
 
 	private final String labelBatteryPresent = "Battery present";
 	private final int typeBatteryPresent = DataManager.INT;
+	private int idBatteryPresent;
 
 	private final String labelBatteryStatus = "Battery status";
 	private final int typeBatteryStatus = DataManager.INT;
+	private int idBatteryStatus;
 
 	private final String labelTemperature = "Battery temperature";
 	private final int typeTemperature = DataManager.INT;
+	private int idTemperature;
 
 	private final String labelVoltage = "Battery voltage";
 	private final int typeVoltage = DataManager.INT;
+	private int idVoltage;
 
 	@Override
 	public void startListening() {
@@ -78,28 +85,26 @@ public class BatteryListener extends DefaultContextListener {
 			public void onReceive(Context context, Intent intent) {
 				long time = TimeSource.getTimeOfDay();
 
-				mDataManager.insertLog(labelHealth, time,
+				mDataManager.insertLog(idHealth, time,
 						intent.getIntExtra(BatteryManager.EXTRA_HEALTH, 0));
-				mDataManager.insertLog(labelLevel, time,
+				mDataManager.insertLog(idLevel, time,
 						intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0));
-				mDataManager.insertLog(labelPlugged, time,
+				mDataManager.insertLog(idPlugged, time,
 						intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0));
-				mDataManager.insertLog(labelBatteryPresent, time,
+				mDataManager.insertLog(idBatteryPresent, time,
 						intent.getIntExtra(BatteryManager.EXTRA_PRESENT, 0));
-				mDataManager.insertLog(labelBatteryStatus, time,
+				mDataManager.insertLog(idBatteryStatus, time,
 						intent.getIntExtra(BatteryManager.EXTRA_STATUS, 0));
 				mDataManager
-						.insertLog(labelTemperature, time, intent.getIntExtra(
+						.insertLog(idTemperature, time, intent.getIntExtra(
 								BatteryManager.EXTRA_TEMPERATURE, 0));
-				mDataManager.insertLog(labelVoltage, time,
+				mDataManager.insertLog(idVoltage, time,
 						intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0));
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		getAppContext().registerReceiver(mBatteryBCReceiver,
 				new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null,
 				handler);
@@ -108,17 +113,25 @@ public class BatteryListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mBatteryBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelHealth, typeHealth);
-		addLogType(labelLevel, typeLevel);
-		addLogType(labelPlugged, typePlugged);
-		addLogType(labelBatteryPresent, typeBatteryPresent);
-		addLogType(labelBatteryStatus, typeBatteryStatus);
-		addLogType(labelTemperature, typeTemperature);
-		addLogType(labelVoltage, typeVoltage);
+		idHealth = addLogType(labelHealth, typeHealth);
+		idLevel = addLogType(labelLevel, typeLevel);
+		idPlugged = addLogType(labelPlugged, typePlugged);
+		idBatteryPresent = addLogType(labelBatteryPresent, typeBatteryPresent);
+		idBatteryStatus = addLogType(labelBatteryStatus, typeBatteryStatus);
+		idTemperature = addLogType(labelTemperature, typeTemperature);
+		idVoltage = addLogType(labelVoltage, typeVoltage);
+
+		// the broadcast repeats all the values whenever any of them changes,
+		// logged only on a change if the session enabled it
+		int[] ids = { idHealth, idLevel, idPlugged, idBatteryPresent,
+				idBatteryStatus, idTemperature, idVoltage };
+		for (int id : ids) {
+			setChangeOnly(id, 0, DEFAULT_HEARTBEAT_INTERVAL);
+		}
 	}
 }
@@ -23,10 +23,9 @@ package cz.cuni.kacz.contextlogger.listeners;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -43,7 +42,7 @@ public class CpuListener extends DefaultContextListener {
 	private static final long serialVersionUID = 1L;
 
 	private final boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int period = 1000;
 
 	RandomAccessFile mReader;
@@ -51,6 +50,7 @@ public class CpuListener extends DefaultContextListener {
 	// log names and types
 	private final String labelCpu = "CPU";
 	private final int typeCpu = DataManager.FLOAT;
+	private int idCpu;
 
 	long oldCpu = 0;
 	long oldIdle = 0;
@@ -65,8 +65,8 @@ public class CpuListener extends DefaultContextListener {
 			return;
 		}
 
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			@Override
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
@@ -84,7 +84,7 @@ public class CpuListener extends DefaultContextListener {
 							+ Long.parseLong(toks[8]);
 					float usage = (float) (cpu - oldCpu)
 							/ ((cpu + idle) - (oldCpu + oldIdle));
-					mDataManager.insertLog(labelCpu, time, usage);
+					mDataManager.insertLog(idCpu, time, usage);
 
 					oldCpu = cpu;
 					oldIdle = idle;
@@ -93,12 +93,12 @@ public class CpuListener extends DefaultContextListener {
 					ex.printStackTrace();
 				}
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
-		timer.cancel();
+		task.cancel();
 		try {
 			mReader.close();
 		} catch (IOException e) {
@@ -108,7 +108,7 @@ public class CpuListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelCpu, typeCpu);
+		idCpu = addLogType(labelCpu, typeCpu);
 	}
 
 }
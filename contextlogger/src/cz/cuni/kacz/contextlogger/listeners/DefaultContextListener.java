@@ -41,6 +41,12 @@ public abstract class DefaultContextListener implements ContextListener,
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Default heartbeat of the change-only pieces of context, one minute in
+	 * the microseconds of TimeSource.getTimeOfDay().
+	 */
+	protected static final long DEFAULT_HEARTBEAT_INTERVAL = 60 * 1000 * 1000;
+
 	protected DataManager mDataManager = null;
 	protected String TAG = this.getClass().getSimpleName();
 
@@ -68,8 +74,48 @@ public abstract class DefaultContextListener implements ContextListener,
 		initLogTypes();
 	}
 
-	protected void addLogType(String label, int type) {
-		mDataManager.registerListener(label, type);
+	/**
+	 * Registers a piece of context produced by this listener.
+	 * 
+	 * @param label
+	 *            Name of the piece of context.
+	 * @param type
+	 *            Type of the piece of context.
+	 * @return Handle to pass to the DataManager.insertLog methods.
+	 */
+	protected int addLogType(String label, int type) {
+		return mDataManager.registerListener(label, type);
+	}
+
+	/**
+	 * Registers a FLOAT3 or FLOAT4 piece of context produced by this listener.
+	 * All the components are logged in a single record.
+	 * 
+	 * @param labels
+	 *            Names of the three or four components.
+	 * @return Handle to pass to DataManager.insertLog(int, long, float[]).
+	 */
+	protected int addVectorLogType(String... labels) {
+		return mDataManager.registerVector(labels);
+	}
+
+	/**
+	 * Switches a piece of context produced by this listener to the
+	 * change-only mode, see DataManager.setChangeOnly. Does nothing unless
+	 * the session enabled it, see DataManager.setListenerChangeOnly.
+	 * 
+	 * @param id
+	 *            Handle returned by addLogType.
+	 * @param deadBand
+	 *            Smallest change of a floating point value worth logging.
+	 * @param heartbeatInterval
+	 *            Maximal time between two logged records in microseconds.
+	 */
+	protected void setChangeOnly(int id, double deadBand,
+			long heartbeatInterval) {
+		if (mDataManager.isListenerChangeOnly()) {
+			mDataManager.setChangeOnly(id, deadBand, heartbeatInterval);
+		}
 	}
 
 	protected Context getAppContext() {
@@ -20,10 +20,8 @@
 
 package cz.cuni.kacz.contextlogger.listeners;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 import android.util.Log;
@@ -37,13 +35,14 @@ public class DummyListener extends DefaultContextListener {
 
 	// private static final String TAG = "DummyListener";
 	private boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int n = 0;
 	int period = 100;
 
 	// log names and types
 	private String labelDummy = "Dummy";
 	private int typeDummy = DataManager.INT;
+	private int idDummy;
 
 	public DummyListener(int period) {
 		this.period = period;
@@ -52,23 +51,23 @@ public class DummyListener extends DefaultContextListener {
 	@Override
 	public void startListening() {
 		Log.d(TAG, "startlogging called");
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelDummy, time, n++);
+				mDataManager.insertLog(idDummy, time, n++);
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
 		Log.d(TAG, "stoplogging called");
-		timer.cancel();
+		task.cancel();
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelDummy, typeDummy);
+		idDummy = addLogType(labelDummy, typeDummy);
 	}
 }
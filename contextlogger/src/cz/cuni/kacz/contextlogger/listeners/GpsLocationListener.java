@@ -26,10 +26,10 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -42,29 +42,38 @@ public class GpsLocationListener extends DefaultContextListener {
 
 	private LocationManager mLocManager;
 	private LocationListener mLocListener;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	String labelGpsProviderStatus = "Gps status";
 	int typeGpsProviderStatus = DataManager.INT;
+	int idGpsProviderStatus;
 
 	String labelGpsLat = "Gps latitude";
 	int typeGpsLat = DataManager.DOUBLE;
+	int idGpsLat;
 	String labelGpsLong = "Gps longitude";
 	int typeGpsLong = DataManager.DOUBLE;
+	int idGpsLong;
 	String labelGpsAltitude = "Gps altitude";
 	int typeGpsAltitude = DataManager.DOUBLE;
+	int idGpsAltitude;
 
 	String labelGpsBearing = "Gps altitude";
 	int typeGpsBearing = DataManager.DOUBLE;
+	int idGpsBearing;
 	String labelGpsSpeed = "Gps speed (mps)";
 	int typeGpsSpeed = DataManager.FLOAT;
+	int idGpsSpeed;
 	String labelGpsSpeedKph = "Gps speed (kph)";
 	int typeGpsSpeedKph = DataManager.FLOAT;
+	int idGpsSpeedKph;
 	String labelGpsAccuracy = "Gps accuracy";
 	int typeGpsAccuracy = DataManager.FLOAT;
+	int idGpsAccuracy;
 
 	String labelGpsUsedSats = "Gps sats used";
 	int typeGpsUsedSats = DataManager.INT;
+	int idGpsUsedSats;
 
 	long minTime;
 	float minDistance;
@@ -88,38 +97,38 @@ public class GpsLocationListener extends DefaultContextListener {
 			@Override
 			public void onLocationChanged(Location location) {
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelGpsLat, time,
+				mDataManager.insertLog(idGpsLat, time,
 						location.getLatitude());
-				mDataManager.insertLog(labelGpsLong, time,
+				mDataManager.insertLog(idGpsLong, time,
 						location.getLongitude());
-				mDataManager.insertLog(labelGpsAltitude, time,
+				mDataManager.insertLog(idGpsAltitude, time,
 						location.getAltitude());
-				mDataManager.insertLog(labelGpsBearing, time,
-						location.getBearing());
+				mDataManager.insertLog(idGpsBearing, time,
+						(double) location.getBearing());
 				mDataManager
-						.insertLog(labelGpsSpeed, time, location.getSpeed());
-				mDataManager.insertLog(labelGpsSpeedKph, time,
+						.insertLog(idGpsSpeed, time, location.getSpeed());
+				mDataManager.insertLog(idGpsSpeedKph, time,
 						(float) (location.getSpeed() * 3.6));
-				mDataManager.insertLog(labelGpsAccuracy, time,
+				mDataManager.insertLog(idGpsAccuracy, time,
 						location.getAccuracy());
 				Bundle extras = location.getExtras();
 				for (String key : extras.keySet()) {
 					Log.d(TAG, "extrakey: " + key);
 				}
-				mDataManager.insertLog(labelGpsUsedSats, time,
+				mDataManager.insertLog(idGpsUsedSats, time,
 						extras.getInt("satellites", -1));
 			}
 
 			@Override
 			public void onProviderDisabled(String provider) {
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelGpsProviderStatus, time, 0);
+				mDataManager.insertLog(idGpsProviderStatus, time, 0);
 			}
 
 			@Override
 			public void onProviderEnabled(String provider) {
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelGpsProviderStatus, time, 1);
+				mDataManager.insertLog(idGpsProviderStatus, time, 1);
 			}
 
 			@Override
@@ -131,34 +140,33 @@ public class GpsLocationListener extends DefaultContextListener {
 
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
+		mLooper = LooperPool.getInstance().acquire();
 
 		mLocManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-				minTime, minDistance, mLocListener, looper);
+				minTime, minDistance, mLocListener, mLooper);
 
 	}
 
 	@Override
 	public void stopListening() {
 		mLocManager.removeUpdates(mLocListener);
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelGpsProviderStatus,
+		idGpsProviderStatus = addLogType(labelGpsProviderStatus,
 				typeGpsProviderStatus);
-		addLogType(labelGpsLat, typeGpsLat);
-		addLogType(labelGpsLong, typeGpsLong);
-		addLogType(labelGpsAltitude, typeGpsAltitude);
+		idGpsLat = addLogType(labelGpsLat, typeGpsLat);
+		idGpsLong = addLogType(labelGpsLong, typeGpsLong);
+		idGpsAltitude = addLogType(labelGpsAltitude, typeGpsAltitude);
 
-		addLogType(labelGpsBearing, typeGpsBearing);
-		addLogType(labelGpsSpeed, typeGpsSpeed);
-		addLogType(labelGpsSpeedKph, typeGpsSpeedKph);
-		addLogType(labelGpsAccuracy, typeGpsAccuracy);
+		idGpsBearing = addLogType(labelGpsBearing, typeGpsBearing);
+		idGpsSpeed = addLogType(labelGpsSpeed, typeGpsSpeed);
+		idGpsSpeedKph = addLogType(labelGpsSpeedKph, typeGpsSpeedKph);
+		idGpsAccuracy = addLogType(labelGpsAccuracy, typeGpsAccuracy);
 
-		addLogType(labelGpsUsedSats, typeGpsUsedSats);
+		idGpsUsedSats = addLogType(labelGpsUsedSats, typeGpsUsedSats);
 	}
 
 	@Override
@@ -25,8 +25,11 @@ import android.content.pm.PackageManager;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -41,11 +44,16 @@ public class GpsStatusListener extends DefaultContextListener {
 	LocationManager mLocManager;
 	GpsStatus mGpsStatus = null;
 	String oldPrns = null;
+	private Looper mLooper = null;
+	/** Set while registered, used on mLooper only. */
+	private boolean mListening = false;
 
 	String labelGpsStatus = "GPS status";
 	int typeGpsStatus = DataManager.INT;
+	int idGpsStatus;
 	String labelGpsPrns = "GPS prns";
 	int typeGpsPrns = DataManager.STRING;
+	int idGpsPrns;
 
 	@Override
 	public void startListening() {
@@ -55,16 +63,19 @@ public class GpsStatusListener extends DefaultContextListener {
 
 			@Override
 			public void onGpsStatusChanged(int event) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
 				Log.d(TAG, "" + event);
 				switch (event) {
 				case GpsStatus.GPS_EVENT_STARTED:
-					mDataManager.insertLog(labelGpsStatus, time, 1);
+					mDataManager.insertLog(idGpsStatus, time, 1);
 					break;
 				case GpsStatus.GPS_EVENT_STOPPED:
-					mDataManager.insertLog(labelGpsStatus, time, 0);
+					mDataManager.insertLog(idGpsStatus, time, 0);
 					oldPrns = null;
-					mDataManager.insertLog(labelGpsPrns, time, oldPrns);
+					mDataManager.insertLog(idGpsPrns, time, oldPrns);
 					break;
 				case GpsStatus.GPS_EVENT_SATELLITE_STATUS:
 					if (mGpsStatus == null) {
@@ -79,7 +90,7 @@ public class GpsStatusListener extends DefaultContextListener {
 					}
 					String prnsStr = prns.toString();
 					if (!prnsStr.equals(oldPrns)) {
-						mDataManager.insertLog(labelGpsPrns, time, prnsStr);
+						mDataManager.insertLog(idGpsPrns, time, prnsStr);
 						oldPrns = prnsStr;
 					}
 
@@ -89,19 +100,36 @@ public class GpsStatusListener extends DefaultContextListener {
 			}
 		};
 
-		mLocManager.addGpsStatusListener(mGpsStatusListener);
+		// the callbacks come on the looper of the thread adding the listener
+		mLooper = LooperPool.getInstance().acquire();
+		new Handler(mLooper).post(new Runnable() {
+			@Override
+			public void run() {
+				mListening = true;
+				mLocManager.addGpsStatusListener(mGpsStatusListener);
+			}
+		});
 
 	}
 
 	@Override
 	public void stopListening() {
-		mLocManager.removeGpsStatusListener(mGpsStatusListener);
+		LooperPool pool = LooperPool.getInstance();
+		pool.runAndWait(mLooper, new Runnable() {
+			@Override
+			public void run() {
+				// callbacks already queued on the looper are ignored
+				mListening = false;
+				mLocManager.removeGpsStatusListener(mGpsStatusListener);
+			}
+		});
+		pool.release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelGpsStatus, typeGpsStatus);
-		addLogType(labelGpsPrns, typeGpsPrns);
+		idGpsStatus = addLogType(labelGpsStatus, typeGpsStatus);
+		idGpsPrns = addLogType(labelGpsPrns, typeGpsPrns);
 	}
 
 	@Override
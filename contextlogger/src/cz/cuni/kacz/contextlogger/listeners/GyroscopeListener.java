@@ -45,13 +45,12 @@ public class GyroscopeListener extends DefaultContextListener {
 	SensorManager mSensorManager = null;
 
 	String labelX = "X gyro rotation";
-	int typeX = DataManager.FLOAT;
 	String labelY = "Y gyro rotation";
-	int typeY = DataManager.FLOAT;
 	String labelZ = "Z gyro rotation";
-	int typeZ = DataManager.FLOAT;
+	int idXYZ;
 	String labelSum = "Overall gyro rotation";
 	int typeSum = DataManager.DOUBLE;
+	int idSum;
 
 	@Override
 	public void startListening() {
@@ -66,11 +65,9 @@ public class GyroscopeListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelX, time, event.values[0]);
-					mDataManager.insertLog(labelY, time, event.values[1]);
-					mDataManager.insertLog(labelZ, time, event.values[2]);
+					mDataManager.insertLog(idXYZ, time, event.values);
 					mDataManager.insertLog(
-							labelSum,
+							idSum,
 							time,
 							Math.sqrt(Math.pow(event.values[0], 2)
 									+ Math.pow(event.values[1], 2)
@@ -96,10 +93,8 @@ public class GyroscopeListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelX, typeX);
-		addLogType(labelY, typeY);
-		addLogType(labelZ, typeZ);
-		addLogType(labelSum, typeSum);
+		idXYZ = addVectorLogType(labelX, labelY, labelZ);
+		idSum = addLogType(labelSum, typeSum);
 	}
 
 }
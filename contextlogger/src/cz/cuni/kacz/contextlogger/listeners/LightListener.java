@@ -46,6 +46,7 @@ public class LightListener extends DefaultContextListener {
 
 	String labelLight = "Light";
 	int typeLight = DataManager.FLOAT;
+	int idLight;
 
 	@Override
 	public void startListening() {
@@ -60,7 +61,7 @@ public class LightListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelLight, time,
+					mDataManager.insertLog(idLight, time,
 							event.values[0]);
 				}
 
@@ -83,7 +84,7 @@ public class LightListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelLight, typeLight);
+		idLight = addLogType(labelLight, typeLight);
 	}
 
 }
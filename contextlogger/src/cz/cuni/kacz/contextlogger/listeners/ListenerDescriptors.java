@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2012 Kristian Kacz
+ *
+ * This file is part of ContextLogger.
+ *
+ * ContextLogger is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ContextLogger is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ContextLogger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package cz.cuni.kacz.contextlogger.listeners;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of the listeners of the library, used to send the listeners to
+ * the background process as compact descriptors instead of serialized
+ * objects. A descriptor is the type ID of the listener and its parameters,
+ * e.g. the period or the minimal time between location updates; the
+ * background process creates a new listener from it.
+ * <p>
+ * The encoded list is the number of listeners followed by, for each listener,
+ * a byte with the type ID, a byte with the number of parameters and the
+ * parameters as longs. Listeners of other classes, e.g. of the application,
+ * have the type ID SERIALIZED and are passed in a separate list of objects.
+ *
+ * @author kacz
+ *
+ */
+public class ListenerDescriptors {
+
+	/** Type ID of a listener passed as a serialized object. */
+	static final int SERIALIZED = 0;
+
+	/** Classes of the listeners, the type ID is the index plus one. */
+	@SuppressWarnings("deprecation")
+	private static final Class<?>[] TYPES = { AcceleraionListener.class,
+			AmbientTemperatureListener.class, BarometerListener.class,
+			BatteryListener.class, CpuListener.class, DummyListener.class,
+			GpsLocationListener.class, GpsStatusListener.class,
+			GyroscopeListener.class, LightListener.class,
+			LinearAcceleraionListener.class, MagnetoListener.class,
+			PassiveLocationListener.class, ProximityListener.class,
+			RamListener.class, RotationListener.class,
+			ScreenBrightnessListener.class, ScreenOrientationListener.class,
+			ScreenStateListener.class, TelephonyListener.class,
+			TrafficListener.class, TrafficSpeedListener.class,
+			WifiConnectionStateListener.class, WifiListener.class,
+			WifiRSSIListener.class, WifiStateListener.class };
+
+	private static final long[] NO_PARAMS = new long[0];
+
+	private ListenerDescriptors() {
+	}
+
+	/**
+	 * Encodes the listeners.
+	 *
+	 * @param listeners
+	 *            Listeners of the session.
+	 * @param serialized
+	 *            Receives the listeners without a descriptor, in order.
+	 * @return The descriptors.
+	 */
+	public static byte[] encode(List<ContextListener> listeners,
+			List<ContextListener> serialized) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				16 + 4 * listeners.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(listeners.size());
+			for (ContextListener l : listeners) {
+				int type = typeOf(l);
+				out.writeByte(type);
+				if (type == SERIALIZED) {
+					serialized.add(l);
+					out.writeByte(0);
+					continue;
+				}
+				long[] params = params(l);
+				out.writeByte(params.length);
+				for (long param : params) {
+					out.writeLong(param);
+				}
+			}
+		} catch (IOException e) {
+			// not thrown by ByteArrayOutputStream
+			e.printStackTrace();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Creates the listeners of the descriptors.
+	 *
+	 * @param descriptors
+	 *            Descriptors returned by encode().
+	 * @param serialized
+	 *            Listeners without a descriptor, as filled by encode(), null
+	 *            if there are none.
+	 * @return The listeners in the original order.
+	 */
+	public static ArrayList<ContextListener> decode(byte[] descriptors,
+			List<ContextListener> serialized) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				descriptors));
+		ArrayList<ContextListener> listeners = new ArrayList<ContextListener>();
+		int nextSerialized = 0;
+		try {
+			int count = in.readUnsignedShort();
+			for (int i = 0; i < count; ++i) {
+				int type = in.readUnsignedByte();
+				long[] params = new long[in.readUnsignedByte()];
+				for (int p = 0; p < params.length; ++p) {
+					params[p] = in.readLong();
+				}
+				if (type == SERIALIZED) {
+					listeners.add(serialized.get(nextSerialized++));
+				} else {
+					listeners.add(create(type, params));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return listeners;
+	}
+
+	/**
+	 * Returns the type ID of the listener, SERIALIZED for a class unknown to
+	 * the registry or a subclass of a known one.
+	 */
+	private static int typeOf(ContextListener l) {
+		Class<?> cls = l.getClass();
+		for (int i = 0; i < TYPES.length; ++i) {
+			if (TYPES[i] == cls) {
+				return i + 1;
+			}
+		}
+		return SERIALIZED;
+	}
+
+	/**
+	 * Returns the parameters of a listener known to the registry.
+	 */
+	private static long[] params(ContextListener l) {
+		if (l instanceof CpuListener) {
+			return new long[] { ((CpuListener) l).period };
+		} else if (l instanceof DummyListener) {
+			return new long[] { ((DummyListener) l).period };
+		} else if (l instanceof GpsLocationListener) {
+			GpsLocationListener gps = (GpsLocationListener) l;
+			return new long[] { gps.minTime,
+					Float.floatToIntBits(gps.minDistance) };
+		} else if (l instanceof RamListener) {
+			RamListener ram = (RamListener) l;
+			return new long[] { ram.mAppPid, ram.mDebug ? 1 : 0, ram.period };
+		} else if (l instanceof ScreenBrightnessListener) {
+			return new long[] { ((ScreenBrightnessListener) l).period };
+		} else if (l instanceof ScreenOrientationListener) {
+			return new long[] { ((ScreenOrientationListener) l).period };
+		} else if (l instanceof TelephonyListener) {
+			TelephonyListener telephony = (TelephonyListener) l;
+			return new long[] { telephony.minTime,
+					Float.floatToIntBits(telephony.minDistance) };
+		} else if (l instanceof TrafficListener) {
+			return new long[] { ((TrafficListener) l).period };
+		} else if (l instanceof TrafficSpeedListener) {
+			return new long[] { ((TrafficSpeedListener) l).period };
+		}
+		return NO_PARAMS;
+	}
+
+	/**
+	 * Creates a listener of the type with the parameters returned by
+	 * params().
+	 */
+	@SuppressWarnings("deprecation")
+	private static ContextListener create(int type, long[] params) {
+		Class<?> cls = TYPES[type - 1];
+		if (cls == CpuListener.class) {
+			CpuListener cpu = new CpuListener();
+			cpu.period = (int) params[0];
+			return cpu;
+		} else if (cls == DummyListener.class) {
+			return new DummyListener((int) params[0]);
+		} else if (cls == GpsLocationListener.class) {
+			return new GpsLocationListener(params[0], Float
+					.intBitsToFloat((int) params[1]));
+		} else if (cls == RamListener.class) {
+			RamListener ram = new RamListener((int) params[0], params[1] != 0);
+			ram.period = (int) params[2];
+			return ram;
+		} else if (cls == ScreenBrightnessListener.class) {
+			ScreenBrightnessListener brightness = new ScreenBrightnessListener();
+			brightness.period = (int) params[0];
+			return brightness;
+		} else if (cls == ScreenOrientationListener.class) {
+			ScreenOrientationListener orientation = new ScreenOrientationListener();
+			orientation.period = (int) params[0];
+			return orientation;
+		} else if (cls == TelephonyListener.class) {
+			return new TelephonyListener(params[0], Float
+					.intBitsToFloat((int) params[1]));
+		} else if (cls == TrafficListener.class) {
+			TrafficListener traffic = new TrafficListener();
+			traffic.period = (int) params[0];
+			return traffic;
+		} else if (cls == TrafficSpeedListener.class) {
+			TrafficSpeedListener speed = new TrafficSpeedListener();
+			speed.period = (int) params[0];
+			return speed;
+		}
+		// listeners without parameters
+		if (cls == AcceleraionListener.class) {
+			return new AcceleraionListener();
+		} else if (cls == AmbientTemperatureListener.class) {
+			return new AmbientTemperatureListener();
+		} else if (cls == BarometerListener.class) {
+			return new BarometerListener();
+		} else if (cls == BatteryListener.class) {
+			return new BatteryListener();
+		} else if (cls == GpsStatusListener.class) {
+			return new GpsStatusListener();
+		} else if (cls == GyroscopeListener.class) {
+			return new GyroscopeListener();
+		} else if (cls == LightListener.class) {
+			return new LightListener();
+		} else if (cls == LinearAcceleraionListener.class) {
+			return new LinearAcceleraionListener();
+		} else if (cls == MagnetoListener.class) {
+			return new MagnetoListener();
+		} else if (cls == PassiveLocationListener.class) {
+			return new PassiveLocationListener();
+		} else if (cls == ProximityListener.class) {
+			return new ProximityListener();
+		} else if (cls == RotationListener.class) {
+			return new RotationListener();
+		} else if (cls == ScreenStateListener.class) {
+			return new ScreenStateListener();
+		} else if (cls == WifiConnectionStateListener.class) {
+			return new WifiConnectionStateListener();
+		} else if (cls == WifiListener.class) {
+			return new WifiListener();
+		} else if (cls == WifiRSSIListener.class) {
+			return new WifiRSSIListener();
+		} else if (cls == WifiStateListener.class) {
+			return new WifiStateListener();
+		}
+		throw new IllegalArgumentException("unknown listener type " + type);
+	}
+}
@@ -25,7 +25,6 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import cz.cuni.kacz.contextlogger.DataManager;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -45,11 +44,9 @@ public class MagnetoListener extends DefaultContextListener {
 	SensorManager mSensorManager = null;
 
 	String labelX = "X magnetic field";
-	int typeX = DataManager.FLOAT;
 	String labelY = "Y magnetic field";
-	int typeY = DataManager.FLOAT;
 	String labelZ = "Z magnetic field";
-	int typeZ = DataManager.FLOAT;
+	int idXYZ;
 
 	@Override
 	public void startListening() {
@@ -64,9 +61,7 @@ public class MagnetoListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelX, time, event.values[0]);
-					mDataManager.insertLog(labelY, time, event.values[1]);
-					mDataManager.insertLog(labelZ, time, event.values[2]);
+					mDataManager.insertLog(idXYZ, time, event.values);
 
 				}
 
@@ -89,9 +84,7 @@ public class MagnetoListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelX, typeX);
-		addLogType(labelY, typeY);
-		addLogType(labelZ, typeZ);
+		idXYZ = addVectorLogType(labelX, labelY, labelZ);
 	}
 
 }
@@ -26,10 +26,10 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -42,14 +42,17 @@ public class PassiveLocationListener extends DefaultContextListener {
 
 	private LocationManager mLocManager;
 	private LocationListener mLocListener;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	String labelPassiveLat = "Passive latitude";
 	int typePassiveLat = DataManager.DOUBLE;
+	int idPassiveLat;
 	String labelPassiveLong = "Passive longitude";
 	int typePassiveLong = DataManager.DOUBLE;
+	int idPassiveLong;
 	String labelPassiveSource = "Passive location source";
 	int typePassiveSource = DataManager.STRING;
+	int idPassiveSource;
 
 	@Override
 	public void startListening() {
@@ -61,11 +64,11 @@ public class PassiveLocationListener extends DefaultContextListener {
 			public void onLocationChanged(Location location) {
 				long time = TimeSource.getTimeOfDay();
 				Log.d(TAG, "ts:" + time + " fix:" + location.getTime());
-				mDataManager.insertLog(labelPassiveLat, time,
+				mDataManager.insertLog(idPassiveLat, time,
 						location.getLatitude());
-				mDataManager.insertLog(labelPassiveLong, time,
+				mDataManager.insertLog(idPassiveLong, time,
 						location.getLongitude());
-				mDataManager.insertLog(labelPassiveSource, time,
+				mDataManager.insertLog(idPassiveSource, time,
 						location.getProvider());
 
 			}
@@ -91,25 +94,24 @@ public class PassiveLocationListener extends DefaultContextListener {
 
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
+		mLooper = LooperPool.getInstance().acquire();
 
 		mLocManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0,
-				0, mLocListener, looper);
+				0, mLocListener, mLooper);
 
 	}
 
 	@Override
 	public void stopListening() {
 		mLocManager.removeUpdates(mLocListener);
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelPassiveLat, typePassiveLat);
-		addLogType(labelPassiveLong, typePassiveLong);
-		addLogType(labelPassiveSource, typePassiveSource);
+		idPassiveLat = addLogType(labelPassiveLat, typePassiveLat);
+		idPassiveLong = addLogType(labelPassiveLong, typePassiveLong);
+		idPassiveSource = addLogType(labelPassiveSource, typePassiveSource);
 
 	}
 
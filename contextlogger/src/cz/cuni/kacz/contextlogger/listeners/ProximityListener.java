@@ -46,6 +46,7 @@ public class ProximityListener extends DefaultContextListener {
 
 	String labelProximity = "Proximity";
 	int typeProximity = DataManager.FLOAT;
+	int idProximity;
 
 	@Override
 	public void startListening() {
@@ -60,7 +61,7 @@ public class ProximityListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelProximity, time,
+					mDataManager.insertLog(idProximity, time,
 							event.values[0]);
 				}
 
@@ -83,7 +84,7 @@ public class ProximityListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelProximity, typeProximity);
+		idProximity = addLogType(labelProximity, typeProximity);
 	}
 
 }
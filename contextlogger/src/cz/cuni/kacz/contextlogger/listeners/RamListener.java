@@ -26,13 +26,11 @@ package cz.cuni.kacz.contextlogger.listeners;
  * @author kacz
  * 
  */
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 public class RamListener extends DefaultContextListener {
@@ -53,7 +51,7 @@ public class RamListener extends DefaultContextListener {
 	private static final long serialVersionUID = 1L;
 
 	private final boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int period = 1000;
 
 	int mAppPid;
@@ -63,38 +61,53 @@ public class RamListener extends DefaultContextListener {
 	// log names and types
 	private final String labelAvailMem = "System RAM available";
 	private final int typeAvailMem = DataManager.LONG;
+	private int idAvailMem;
 	private final String labelLowMem = "System RAM low";
 	private final int typeLowMem = DataManager.INT;
+	private int idLowMem;
 	private final String labelRamThreshold = "System RAM threshold	";
 	private final int typeRamThreshold = DataManager.INT;
+	private int idRamThreshold;
 
 	private final String labelAppDalvikPss = "App dalvik ram PSS";
 	private final int typeAppDalvikPss = DataManager.INT;
+	private int idAppDalvikPss;
 	private final String labelAppNativePss = "App native ram PSS";
 	private final int typeAppNativePss = DataManager.INT;
+	private int idAppNativePss;
 	private final String labelAppOtherPss = "App other ram PSS";
 	private final int typeAppOtherPss = DataManager.INT;
+	private int idAppOtherPss;
 
 	private final String labelAppDalvikPrivateDirty = "App dalvik ram private dirty";
 	private final int typeAppDalvikPrivateDirty = DataManager.INT;
+	private int idAppDalvikPrivateDirty;
 	private final String labelAppNativePrivateDirty = "App native ram private dirty";
 	private final int typeAppNativePrivateDirty = DataManager.INT;
+	private int idAppNativePrivateDirty;
 	private final String labelAppOtherPrivateDirty = "App other ram private dirty";
 	private final int typeAppOtherPrivateDirty = DataManager.INT;
+	private int idAppOtherPrivateDirty;
 
 	private final String labelCLDalvikPss = "CL dalvik ram used";
 	private final int typeCLDalvikPss = DataManager.INT;
+	private int idCLDalvikPss;
 	private final String labelCLNativePss = "CL native ram used";
 	private final int typeCLNativePss = DataManager.INT;
+	private int idCLNativePss;
 	private final String labelCLOtherPss = "CL other ram used";
 	private final int typeCLOtherPss = DataManager.INT;
+	private int idCLOtherPss;
 
 	private final String labelCLDalvikPrivateDirty = "CL dalvik ram private dirty";
 	private final int typeCLDalvikPrivateDirty = DataManager.INT;
+	private int idCLDalvikPrivateDirty;
 	private final String labelCLNativePrivateDirty = "CL native ram private dirty";
 	private final int typeCLNativePrivateDirty = DataManager.INT;
+	private int idCLNativePrivateDirty;
 	private final String labelCLOtherPrivateDirty = "CL other ram private dirty";
 	private final int typeCLOtherPrivateDirty = DataManager.INT;
+	private int idCLOtherPrivateDirty;
 
 	long oldCpu = 0;
 	long oldIdle = 0;
@@ -108,30 +121,30 @@ public class RamListener extends DefaultContextListener {
 		final MemoryInfo mi = new MemoryInfo();
 
 		mMyPid = android.os.Process.myPid();
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			@Override
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
 				activityManager.getMemoryInfo(mi);
-				mDataManager.insertLog(labelAvailMem, time, mi.availMem);
-				mDataManager.insertLog(labelLowMem, time, mi.lowMemory ? 1 : 0);
-				mDataManager.insertLog(labelRamThreshold, time, mi.threshold);
+				mDataManager.insertLog(idAvailMem, time, mi.availMem);
+				mDataManager.insertLog(idLowMem, time, mi.lowMemory ? 1 : 0);
+				mDataManager.insertLog(idRamThreshold, time, mi.threshold);
 
 				android.os.Debug.MemoryInfo[] mis = activityManager
 						.getProcessMemoryInfo(new int[] { mAppPid });
 				if (mis.length > 0) {
-					mDataManager.insertLog(labelAppDalvikPss, time,
+					mDataManager.insertLog(idAppDalvikPss, time,
 							mis[0].dalvikPss);
-					mDataManager.insertLog(labelAppNativePss, time,
+					mDataManager.insertLog(idAppNativePss, time,
 							mis[0].nativePss);
-					mDataManager.insertLog(labelAppOtherPss, time,
+					mDataManager.insertLog(idAppOtherPss, time,
 							mis[0].otherPss);
-					mDataManager.insertLog(labelAppDalvikPrivateDirty, time,
+					mDataManager.insertLog(idAppDalvikPrivateDirty, time,
 							mis[0].dalvikPrivateDirty);
-					mDataManager.insertLog(labelAppNativePrivateDirty, time,
+					mDataManager.insertLog(idAppNativePrivateDirty, time,
 							mis[0].nativePrivateDirty);
-					mDataManager.insertLog(labelAppOtherPrivateDirty, time,
+					mDataManager.insertLog(idAppOtherPrivateDirty, time,
 							mis[0].otherPrivateDirty);
 				}
 
@@ -140,50 +153,52 @@ public class RamListener extends DefaultContextListener {
 				mis = activityManager
 						.getProcessMemoryInfo(new int[] { mMyPid });
 				if (mis.length > 0) {
-					mDataManager.insertLog(labelCLDalvikPss, time,
+					mDataManager.insertLog(idCLDalvikPss, time,
 							mis[0].dalvikPss);
-					mDataManager.insertLog(labelCLNativePss, time,
+					mDataManager.insertLog(idCLNativePss, time,
 							mis[0].nativePss);
-					mDataManager.insertLog(labelCLOtherPss, time,
+					mDataManager.insertLog(idCLOtherPss, time,
 							mis[0].otherPss);
-					mDataManager.insertLog(labelCLDalvikPrivateDirty, time,
+					mDataManager.insertLog(idCLDalvikPrivateDirty, time,
 							mis[0].dalvikPrivateDirty);
-					mDataManager.insertLog(labelCLNativePrivateDirty, time,
+					mDataManager.insertLog(idCLNativePrivateDirty, time,
 							mis[0].nativePrivateDirty);
-					mDataManager.insertLog(labelCLOtherPrivateDirty, time,
+					mDataManager.insertLog(idCLOtherPrivateDirty, time,
 							mis[0].otherPrivateDirty);
 				}
 				}
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
-		timer.cancel();
+		task.cancel();
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelAvailMem, typeAvailMem);
-		addLogType(labelLowMem, typeLowMem);
-		addLogType(labelRamThreshold, typeRamThreshold);
+		idAvailMem = addLogType(labelAvailMem, typeAvailMem);
+		idLowMem = addLogType(labelLowMem, typeLowMem);
+		idRamThreshold = addLogType(labelRamThreshold, typeRamThreshold);
+		setChangeOnly(idLowMem, 0, DEFAULT_HEARTBEAT_INTERVAL);
+		setChangeOnly(idRamThreshold, 0, DEFAULT_HEARTBEAT_INTERVAL);
 
-		addLogType(labelAppDalvikPss, typeAppDalvikPss);
-		addLogType(labelAppNativePss, typeAppNativePss);
-		addLogType(labelAppOtherPss, typeAppOtherPss);
+		idAppDalvikPss = addLogType(labelAppDalvikPss, typeAppDalvikPss);
+		idAppNativePss = addLogType(labelAppNativePss, typeAppNativePss);
+		idAppOtherPss = addLogType(labelAppOtherPss, typeAppOtherPss);
 
-		addLogType(labelAppDalvikPrivateDirty, typeAppDalvikPrivateDirty);
-		addLogType(labelAppNativePrivateDirty, typeAppNativePrivateDirty);
-		addLogType(labelAppOtherPrivateDirty, typeAppOtherPrivateDirty);
+		idAppDalvikPrivateDirty = addLogType(labelAppDalvikPrivateDirty, typeAppDalvikPrivateDirty);
+		idAppNativePrivateDirty = addLogType(labelAppNativePrivateDirty, typeAppNativePrivateDirty);
+		idAppOtherPrivateDirty = addLogType(labelAppOtherPrivateDirty, typeAppOtherPrivateDirty);
 
 		if (mDebug) {
-			addLogType(labelCLDalvikPss, typeCLDalvikPss);
-			addLogType(labelCLNativePss, typeCLNativePss);
-			addLogType(labelCLOtherPss, typeCLOtherPss);
-			addLogType(labelCLDalvikPrivateDirty, typeCLDalvikPrivateDirty);
-			addLogType(labelCLNativePrivateDirty, typeCLNativePrivateDirty);
-			addLogType(labelCLOtherPrivateDirty, typeCLOtherPrivateDirty);
+			idCLDalvikPss = addLogType(labelCLDalvikPss, typeCLDalvikPss);
+			idCLNativePss = addLogType(labelCLNativePss, typeCLNativePss);
+			idCLOtherPss = addLogType(labelCLOtherPss, typeCLOtherPss);
+			idCLDalvikPrivateDirty = addLogType(labelCLDalvikPrivateDirty, typeCLDalvikPrivateDirty);
+			idCLNativePrivateDirty = addLogType(labelCLNativePrivateDirty, typeCLNativePrivateDirty);
+			idCLOtherPrivateDirty = addLogType(labelCLOtherPrivateDirty, typeCLOtherPrivateDirty);
 		}
 	}
 
@@ -25,7 +25,6 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import cz.cuni.kacz.contextlogger.DataManager;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -45,13 +44,10 @@ public class RotationListener extends DefaultContextListener {
 	SensorManager mSensorManager = null;
 
 	String labelX = "X rotation";
-	int typeX = DataManager.FLOAT;
 	String labelY = "Y rotation";
-	int typeY = DataManager.FLOAT;
 	String labelZ = "Z rotation";
-	int typeZ = DataManager.FLOAT;
 	String labelCos = "Cos rotation";
-	int typeCos = DataManager.FLOAT;
+	int idXYZCos;
 
 	@Override
 	public void startListening() {
@@ -66,12 +62,8 @@ public class RotationListener extends DefaultContextListener {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					long time = TimeSource.getTimeOfDay();
-					mDataManager.insertLog(labelX, time, event.values[0]);
-					mDataManager.insertLog(labelY, time, event.values[1]);
-					mDataManager.insertLog(labelZ, time, event.values[2]);
-					if (event.values.length == 4) {
-						mDataManager.insertLog(labelCos, time, event.values[3]);
-					}
+					// a missing Cos component is logged as NaN
+					mDataManager.insertLog(idXYZCos, time, event.values);
 				}
 
 				@Override
@@ -93,10 +85,7 @@ public class RotationListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelX, typeX);
-		addLogType(labelY, typeY);
-		addLogType(labelZ, typeZ);
-		addLogType(labelCos, typeCos);
+		idXYZCos = addVectorLogType(labelX, labelY, labelZ, labelCos);
 	}
 
 }
@@ -24,10 +24,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -44,7 +43,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 	private static final long serialVersionUID = 1L;
 
 	private final boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int period = 100;
 	int oldBrightness = -1;
 	int oldButtonBrightness = -1;
@@ -64,9 +63,11 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 	// log names and types
 	private final String labelBrightness = "Screen brightness";
 	private final int typeBrightness = DataManager.INT;
+	private int idBrightness;
 
 	private final String labelButtonBrightness = "Button brightness";
 	private final int typeButtonBrightness = DataManager.INT;
+	private int idButtonBrightness;
 
 	@Override
 	public void startListening() {
@@ -74,8 +75,8 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 			return;
 		}
 
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			@Override
 			/*
 			 * public void run() { long time = TimeSource.getTimeOfDay(); int
@@ -86,7 +87,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 			 * (SettingNotFoundException e) { // TODO Auto-generated catch block
 			 * e.printStackTrace(); } Log.d(TAG, "bright: " + brightness); if
 			 * (brightness != oldBrightness) { oldBrightness = brightness;
-			 * mDataManager.insertLog(labelBrightness, time, brightness); } }
+			 * mDataManager.insertLog(idBrightness, time, brightness); } }
 			 */
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
@@ -98,7 +99,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 
 					int iBrightness = Integer.parseInt(brightness);
 					if (iBrightness != oldBrightness) {
-						mDataManager.insertLog(labelBrightness, time,
+						mDataManager.insertLog(idBrightness, time,
 								iBrightness);
 						oldBrightness = iBrightness;
 					}
@@ -114,7 +115,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 
 					int iButtonBrightness = Integer.parseInt(buttonBrightness);
 					if (iButtonBrightness != oldButtonBrightness) {
-						mDataManager.insertLog(labelButtonBrightness, time,
+						mDataManager.insertLog(idButtonBrightness, time,
 								iButtonBrightness);
 						oldButtonBrightness = iButtonBrightness;
 					}
@@ -124,12 +125,12 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 				}
 
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
-		timer.cancel();
+		task.cancel();
 	}
 
 	@Override
@@ -146,7 +147,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 		} catch (FileNotFoundException e) {
 		}
 
-		addLogType(labelBrightness, typeBrightness);
+		idBrightness = addLogType(labelBrightness, typeBrightness);
 
 		// buttons
 		try {
@@ -157,7 +158,7 @@ public class ScreenBrightnessListener extends DefaultContextListener {
 		} catch (FileNotFoundException e) {
 		}
 
-		addLogType(labelButtonBrightness, typeButtonBrightness);
+		idButtonBrightness = addLogType(labelButtonBrightness, typeButtonBrightness);
 	}
 
 }
@@ -20,13 +20,11 @@
 
 package cz.cuni.kacz.contextlogger.listeners;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.content.Context;
 import android.view.Display;
 import android.view.WindowManager;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -43,7 +41,7 @@ public class ScreenOrientationListener extends DefaultContextListener {
 	private static final long serialVersionUID = 1L;
 
 	private final boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int period = 100;
 	int oldRotation = 0;
 	int oldOrientation = 0;
@@ -55,14 +53,19 @@ public class ScreenOrientationListener extends DefaultContextListener {
 	// log names and types
 	private final String labelRotation = "Screen rotation";
 	private final int typeRotation = DataManager.INT;
+	private int idRotation;
 	private final String labelLastRotation = "Last screen rotation";
 	private final int typeLastRotation = DataManager.INT;
+	private int idLastRotation;
 	private final String labelOrientation = "Screen orientation";
 	private final int typeOrientation = DataManager.INT;
+	private int idOrientation;
 	private final String labelLastOrientation = "Last screen orientation";
 	private final int typeLastOrientation = DataManager.INT;
+	private int idLastOrientation;
 	private final String labelTimeSinceOrientationChange = "Time since orientation change";
 	private final int typeTimeSinceOrientationChange = DataManager.DOUBLE;
+	private int idTimeSinceOrientationChange;
 
 	@Override
 	public void startListening() {
@@ -70,8 +73,8 @@ public class ScreenOrientationListener extends DefaultContextListener {
 				Context.WINDOW_SERVICE);
 		mDisplay = mWindowManager.getDefaultDisplay();
 
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			@Override
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
@@ -81,40 +84,40 @@ public class ScreenOrientationListener extends DefaultContextListener {
 
 				if (rotation != oldRotation) {
 					lastChangeTime = time;
-					mDataManager.insertLog(labelRotation, time, rotation);
+					mDataManager.insertLog(idRotation, time, rotation);
 					mDataManager
-							.insertLog(labelLastRotation, time, oldRotation);
+							.insertLog(idLastRotation, time, oldRotation);
 					oldRotation = rotation;
 				}
 				int orientation = -1;
 				orientation = getAppContext().getResources().getConfiguration().orientation;
 				if (orientation != oldOrientation) {
-					mDataManager.insertLog(labelOrientation, time, orientation);
-					mDataManager.insertLog(labelLastOrientation, time,
+					mDataManager.insertLog(idOrientation, time, orientation);
+					mDataManager.insertLog(idLastOrientation, time,
 							oldOrientation);
 					oldOrientation = orientation;
 				}
 
 				if (lastChangeTime != 0) {
-					mDataManager.insertLog(labelTimeSinceOrientationChange, time,
+					mDataManager.insertLog(idTimeSinceOrientationChange, time,
 							(double) (time - lastChangeTime) / 1000000);
 				}
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
-		timer.cancel();
+		task.cancel();
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelRotation, typeRotation);
-		addLogType(labelLastRotation, typeLastRotation);
-		addLogType(labelOrientation, typeOrientation);
-		addLogType(labelLastOrientation, typeLastOrientation);
-		addLogType(labelTimeSinceOrientationChange,
+		idRotation = addLogType(labelRotation, typeRotation);
+		idLastRotation = addLogType(labelLastRotation, typeLastRotation);
+		idOrientation = addLogType(labelOrientation, typeOrientation);
+		idLastOrientation = addLogType(labelLastOrientation, typeLastOrientation);
+		idTimeSinceOrientationChange = addLogType(labelTimeSinceOrientationChange,
 				typeTimeSinceOrientationChange);
 	}
 
@@ -25,10 +25,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -47,11 +47,12 @@ public class ScreenStateListener extends DefaultContextListener {
 	private static final String TAG = "WifiRSSIListener";
 
 	private BroadcastReceiver mScreenBCReceiver = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	// log names and types
 	String labelScreenState = "Screen state";
 	int typeScreenState = DataManager.INT;
+	int idScreenState;
 
 	@Override
 	public void startListening() {
@@ -61,18 +62,16 @@ public class ScreenStateListener extends DefaultContextListener {
 				long time = TimeSource.getTimeOfDay();
 				Log.i(TAG, "state change action rcvd");
 				if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
-					mDataManager.insertLog(labelScreenState, time, 1);
+					mDataManager.insertLog(idScreenState, time, 1);
 				}
 				if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-					mDataManager.insertLog(labelScreenState, time, 0);
+					mDataManager.insertLog(idScreenState, time, 0);
 				}
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
 		filter.addAction(Intent.ACTION_SCREEN_OFF);
 		getAppContext().registerReceiver(mScreenBCReceiver,
@@ -82,12 +81,12 @@ public class ScreenStateListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mScreenBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelScreenState, typeScreenState);
+		idScreenState = addLogType(labelScreenState, typeScreenState);
 	}
 
 }
@@ -22,13 +22,14 @@ package cz.cuni.kacz.contextlogger.listeners;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.os.HandlerThread;
+import android.os.Handler;
 import android.os.Looper;
 import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -41,45 +42,63 @@ public class TelephonyListener extends DefaultContextListener {
 
 	private TelephonyManager mTelephonyManager;
 	private PhoneStateListener mPhoneStateListener;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
+	/** Set while registered, used on mLooper only. */
+	private boolean mListening = false;
 
 	String labelDataActivity = "Cell data activity";
 	int typeDataActivity = DataManager.INT;
+	int idDataActivity;
 	String labelDataConnectivityState = "Cell data connection state";
 	int typeDataConnectivityState = DataManager.INT;
+	int idDataConnectivityState;
 	String labelDataNetworkType = "Cell data connection type";
 	int typeDataNetworkType = DataManager.INT;
+	int idDataNetworkType;
 	String labelCallState = "Cell call state";
 	int typeCallState = DataManager.INT;
+	int idCallState;
 
 	String labelOperatorName = "Cell operator name";
 	int typeOperatorName = DataManager.STRING;
+	int idOperatorName;
 	String labelOperatorId = "Cell operator ID";
 	int typeOperatorId = DataManager.STRING;
+	int idOperatorId;
 	String labelCellRoaming = "Cell roaming";
 	int typeCellRoaming = DataManager.INT;
+	int idCellRoaming;
 	String labelCellServiceState = "Cell service state";
 	int typeCellServiceState = DataManager.INT;
+	int idCellServiceState;
 
 	String labelCdmaSignalDbm = "CDMA signal dbm";
 	int typeCdmaSignalDbm = DataManager.INT;
+	int idCdmaSignalDbm;
 	String labelCdmaSignalEcio = "CDMA signal ECIO";
 	int typeCdmaSignalEcio = DataManager.INT;
+	int idCdmaSignalEcio;
 
 	String labelEvdoSignalDbm = "Evdo signal dbm";
 	int typeEvdoSignalDbm = DataManager.INT;
+	int idEvdoSignalDbm;
 	String labelEvdoSignalEcio = "Evdo signal ECIO";
 	int typeEvdoSignalEcio = DataManager.INT;
+	int idEvdoSignalEcio;
 	String labelEvdoSignalSnr = "Evdo signal snr";
 	int typeEvdoSignalSnr = DataManager.INT;
+	int idEvdoSignalSnr;
 
 	String labelGsmBitErrorRate = "GSM signal error rate";
 	int typeGsmBitErrorRate = DataManager.INT;
+	int idGsmBitErrorRate;
 	String labelGsmSignalStrength = "GSM signal strngth";
 	int typeGsmSignalStrength = DataManager.INT;
+	int idGsmSignalStrength;
 
 	String labelPhoneType = "Radio type";
 	int typePhoneType = DataManager.INT;
+	int idPhoneType;
 
 	long minTime;
 	float minDistance;
@@ -100,83 +119,107 @@ public class TelephonyListener extends DefaultContextListener {
 				.getSystemService(Context.TELEPHONY_SERVICE);
 
 		long time = TimeSource.getTimeOfDay();
-		mDataManager.insertLog(labelDataActivity, time,
+		mDataManager.insertLog(idDataActivity, time,
 				mTelephonyManager.getDataActivity());
-		mDataManager.insertLog(labelDataConnectivityState, time,
+		mDataManager.insertLog(idDataConnectivityState, time,
 				mTelephonyManager.getDataState());
-		mDataManager.insertLog(labelDataNetworkType, time,
+		mDataManager.insertLog(idDataNetworkType, time,
 				mTelephonyManager.getNetworkType());
-		mDataManager.insertLog(labelCallState, time,
+		mDataManager.insertLog(idCallState, time,
 				mTelephonyManager.getCallState());
 
-		mDataManager.insertLog(labelPhoneType, time,
+		mDataManager.insertLog(idPhoneType, time,
 				mTelephonyManager.getPhoneType());
 
+		// PhoneStateListener gets the callbacks on the looper of the thread
+		// that creates it
+		mLooper = LooperPool.getInstance().acquire();
+		new Handler(mLooper).post(new Runnable() {
+			@Override
+			public void run() {
+				registerPhoneStateListener();
+			}
+		});
+	}
+
+	private void registerPhoneStateListener() {
 		mPhoneStateListener = new PhoneStateListener() {
 
 
 			@Override
 			public void onDataActivity(int direction) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelDataActivity, time, direction);
+				mDataManager.insertLog(idDataActivity, time, direction);
 			}
 
 			@Override
 			public void onDataConnectionStateChanged(int state, int networkType) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelDataConnectivityState, time, state);
-				mDataManager.insertLog(labelDataNetworkType, time, networkType);
+				mDataManager.insertLog(idDataConnectivityState, time, state);
+				mDataManager.insertLog(idDataNetworkType, time, networkType);
 			}
 
 			@Override
 			public void onCallStateChanged(int state, String incomingNumber) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelCallState, time, state);
+				mDataManager.insertLog(idCallState, time, state);
 			}
 
 			@Override
 			public void onServiceStateChanged(ServiceState serviceState) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelOperatorName, time,
+				mDataManager.insertLog(idOperatorName, time,
 						serviceState.getOperatorAlphaShort());
-				mDataManager.insertLog(labelOperatorId, time,
+				mDataManager.insertLog(idOperatorId, time,
 						serviceState.getOperatorNumeric());
-				mDataManager.insertLog(labelCellRoaming, time,
+				mDataManager.insertLog(idCellRoaming, time,
 						serviceState.getRoaming() ? 1 : 0);
-				mDataManager.insertLog(labelCellServiceState, time,
+				mDataManager.insertLog(idCellServiceState, time,
 						serviceState.getState());
 			}
 
 			@Override
 			public void onSignalStrengthsChanged(SignalStrength signalStrength) {
+				if (!mListening) {
+					return;
+				}
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelCdmaSignalDbm, time,
+				mDataManager.insertLog(idCdmaSignalDbm, time,
 						signalStrength.getCdmaDbm());
-				mDataManager.insertLog(labelCdmaSignalEcio, time,
+				mDataManager.insertLog(idCdmaSignalEcio, time,
 						signalStrength.getCdmaEcio());
 
-				mDataManager.insertLog(labelEvdoSignalDbm, time,
+				mDataManager.insertLog(idEvdoSignalDbm, time,
 						signalStrength.getEvdoDbm());
-				mDataManager.insertLog(labelEvdoSignalEcio, time,
+				mDataManager.insertLog(idEvdoSignalEcio, time,
 						signalStrength.getEvdoEcio());
-				mDataManager.insertLog(labelEvdoSignalSnr, time,
+				mDataManager.insertLog(idEvdoSignalSnr, time,
 						signalStrength.getEvdoSnr());
 
-				mDataManager.insertLog(labelGsmBitErrorRate, time,
+				mDataManager.insertLog(idGsmBitErrorRate, time,
 						signalStrength.getGsmBitErrorRate());
-				mDataManager.insertLog(labelGsmSignalStrength, time,
+				mDataManager.insertLog(idGsmSignalStrength, time,
 						signalStrength.getGsmSignalStrength());
 
-				mDataManager.insertLog(labelPhoneType, time,
+				mDataManager.insertLog(idPhoneType, time,
 						mTelephonyManager.getPhoneType());
 			}
 
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-
+		mListening = true;
 		mTelephonyManager.listen(mPhoneStateListener,
 				PhoneStateListener.LISTEN_DATA_ACTIVITY
 						| PhoneStateListener.LISTEN_DATA_CONNECTION_STATE
@@ -187,33 +230,52 @@ public class TelephonyListener extends DefaultContextListener {
 
 	@Override
 	public void stopListening() {
-		mTelephonyManager.listen(mPhoneStateListener,
-				PhoneStateListener.LISTEN_NONE);
+		// after the registration posted by startListening(); callbacks
+		// already queued on the looper are ignored
+		LooperPool pool = LooperPool.getInstance();
+		pool.runAndWait(mLooper, new Runnable() {
+			@Override
+			public void run() {
+				mListening = false;
+				mTelephonyManager.listen(mPhoneStateListener,
+						PhoneStateListener.LISTEN_NONE);
+			}
+		});
+		pool.release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelDataActivity, typeDataActivity);
-		addLogType(labelDataConnectivityState, typeDataConnectivityState);
-		addLogType(labelDataNetworkType, typeDataNetworkType);
-		addLogType(labelCallState, typeCallState);
-
-		addLogType(labelOperatorName, typeOperatorName);
-		addLogType(labelOperatorId, typeOperatorId);
-		addLogType(labelCellRoaming, typeCellRoaming);
-		addLogType(labelCellServiceState, typeCellServiceState);
-
-		addLogType(labelCdmaSignalDbm, typeCdmaSignalDbm);
-		addLogType(labelCdmaSignalEcio, typeCdmaSignalEcio);
-
-		addLogType(labelEvdoSignalDbm, typeEvdoSignalDbm);
-		addLogType(labelEvdoSignalEcio, typeEvdoSignalEcio);
-		addLogType(labelEvdoSignalSnr, typeEvdoSignalSnr);
-
-		addLogType(labelGsmBitErrorRate, typeGsmBitErrorRate);
-		addLogType(labelGsmSignalStrength, typeGsmSignalStrength);
-
-		addLogType(labelPhoneType, typePhoneType);
+		idDataActivity = addLogType(labelDataActivity, typeDataActivity);
+		idDataConnectivityState = addLogType(labelDataConnectivityState, typeDataConnectivityState);
+		idDataNetworkType = addLogType(labelDataNetworkType, typeDataNetworkType);
+		idCallState = addLogType(labelCallState, typeCallState);
+
+		idOperatorName = addLogType(labelOperatorName, typeOperatorName);
+		idOperatorId = addLogType(labelOperatorId, typeOperatorId);
+		idCellRoaming = addLogType(labelCellRoaming, typeCellRoaming);
+		idCellServiceState = addLogType(labelCellServiceState, typeCellServiceState);
+
+		idCdmaSignalDbm = addLogType(labelCdmaSignalDbm, typeCdmaSignalDbm);
+		idCdmaSignalEcio = addLogType(labelCdmaSignalEcio, typeCdmaSignalEcio);
+
+		idEvdoSignalDbm = addLogType(labelEvdoSignalDbm, typeEvdoSignalDbm);
+		idEvdoSignalEcio = addLogType(labelEvdoSignalEcio, typeEvdoSignalEcio);
+		idEvdoSignalSnr = addLogType(labelEvdoSignalSnr, typeEvdoSignalSnr);
+
+		idGsmBitErrorRate = addLogType(labelGsmBitErrorRate, typeGsmBitErrorRate);
+		idGsmSignalStrength = addLogType(labelGsmSignalStrength, typeGsmSignalStrength);
+
+		idPhoneType = addLogType(labelPhoneType, typePhoneType);
+
+		// all the signal values are logged whenever any of them changes,
+		// only the changes are kept if the session enabled it
+		int[] signalIds = { idCdmaSignalDbm, idCdmaSignalEcio,
+				idEvdoSignalDbm, idEvdoSignalEcio, idEvdoSignalSnr,
+				idGsmBitErrorRate, idGsmSignalStrength, idPhoneType };
+		for (int id : signalIds) {
+			setChangeOnly(id, 0, DEFAULT_HEARTBEAT_INTERVAL);
+		}
 	}
 
 	@Override
@@ -20,13 +20,11 @@
 
 package cz.cuni.kacz.contextlogger.listeners;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.annotation.SuppressLint;
 import android.net.TrafficStats;
 import android.os.Process;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.TickScheduler;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -44,7 +42,7 @@ public class TrafficSpeedListener extends DefaultContextListener {
 
 	private final int API_VERSION = android.os.Build.VERSION.SDK_INT;
 	private final boolean running = false;
-	private Timer timer;
+	private TickScheduler.Task task;
 	int period = 100;
 
 	long oldTotalTxBytes;
@@ -59,27 +57,34 @@ public class TrafficSpeedListener extends DefaultContextListener {
 	// log names and types
 	private final String labelTotalSent = "Total sent traffic speed";
 	private final int typeTotalSent = DataManager.LONG;
+	private int idTotalSent;
 	private final String labelTotalRcvd = "Total received traffic speed";
 	private final int typeTotalRcvd = DataManager.LONG;
+	private int idTotalRcvd;
 	private final String labelMySent = "My sent traffic speed";
 	private final int typeMySent = DataManager.LONG;
+	private int idMySent;
 	private final String labelMyRcvd = "My received traffic speed";
 	private final int typeMyRcvd = DataManager.LONG;
+	private int idMyRcvd;
 
 	private final String labelTotalSentPackets = "Total sent packets speed";
 	private final int typeTotalSentPackets = DataManager.LONG;
+	private int idTotalSentPackets;
 	private final String labelTotalRcvdPackets = "Total received packets speed";
 	private final int typeTotalRcvdPackets = DataManager.LONG;
+	private int idTotalRcvdPackets;
 	private final String labelMySentPackets = "My sent packets speed";
 	private final int typeMySentPackets = DataManager.LONG;
+	private int idMySentPackets;
 	private final String labelMyRcvdPackets = "My received packets speed";
 	private final int typeMyRcvdPackets = DataManager.LONG;
+	private int idMyRcvdPackets;
 
 	@SuppressLint("NewApi")
 	@Override
 	public void startListening() {
 		final int myUid = Process.myUid();
-		timer = new Timer();
 		
 		oldTotalTxBytes = TrafficStats.getTotalTxBytes();
 		oldTotalRxBytes = TrafficStats.getTotalRxBytes();
@@ -92,75 +97,76 @@ public class TrafficSpeedListener extends DefaultContextListener {
 			oldUidRxPackets = TrafficStats.getUidRxPackets(myUid);
 		}
 		
-		timer.scheduleAtFixedRate(new TimerTask() {
+		TickScheduler scheduler = TickScheduler.getInstance();
+		task = scheduler.schedule(period, 0, new Runnable() {
 			@SuppressLint("NewApi")
 			@Override
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
 				
 				long tmp = TrafficStats.getTotalTxBytes();
-				mDataManager.insertLog(labelTotalSent, time,
+				mDataManager.insertLog(idTotalSent, time,
 						tmp - oldTotalTxBytes);
 				oldTotalTxBytes = tmp;
 				
 				tmp = TrafficStats.getTotalRxBytes();
-				mDataManager.insertLog(labelTotalRcvd, time,
+				mDataManager.insertLog(idTotalRcvd, time,
 						tmp - oldTotalRxBytes);
 				oldTotalRxBytes = tmp;
 				
 				tmp = TrafficStats.getUidTxBytes(myUid);
-				mDataManager.insertLog(labelMySent, time,
+				mDataManager.insertLog(idMySent, time,
 						tmp - oldUidTxBytes);
 				oldUidTxBytes = tmp;
 				
 				tmp = TrafficStats.getUidRxBytes(myUid);
-				mDataManager.insertLog(labelMyRcvd, time,
+				mDataManager.insertLog(idMyRcvd, time,
 						tmp - oldUidRxBytes);
 				oldUidRxBytes = tmp;
 				
 				tmp = TrafficStats.getTotalTxPackets();
-				mDataManager.insertLog(labelTotalSentPackets, time,
+				mDataManager.insertLog(idTotalSentPackets, time,
 						tmp - oldTotalTxPackets);
 				oldTotalTxPackets = tmp;
 				
 				tmp = TrafficStats.getTotalRxPackets();
-				mDataManager.insertLog(labelTotalRcvdPackets, time,
+				mDataManager.insertLog(idTotalRcvdPackets, time,
 						tmp - oldTotalRxPackets);
 				oldTotalRxPackets = tmp;
 				
 				if (API_VERSION >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1) {
 					tmp = TrafficStats.getUidTxPackets(myUid);
-					mDataManager.insertLog(labelMySentPackets, time,
+					mDataManager.insertLog(idMySentPackets, time,
 							tmp - oldUidTxPackets);
 					oldUidTxPackets = tmp;
 					
 					tmp = TrafficStats.getUidRxPackets(myUid);
-					mDataManager.insertLog(labelMyRcvdPackets, time,
+					mDataManager.insertLog(idMyRcvdPackets, time,
 							tmp - oldUidRxPackets);
 					oldUidRxPackets = tmp;
 				}
 
 			}
-		}, 0, period);
+		});
 	}
 
 	@Override
 	public void stopListening() {
-		timer.cancel();
+		task.cancel();
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelTotalSent, typeTotalSent);
-		addLogType(labelTotalRcvd, typeTotalRcvd);
-		addLogType(labelMySent, typeMySent);
-		addLogType(labelMyRcvd, typeMyRcvd);
+		idTotalSent = addLogType(labelTotalSent, typeTotalSent);
+		idTotalRcvd = addLogType(labelTotalRcvd, typeTotalRcvd);
+		idMySent = addLogType(labelMySent, typeMySent);
+		idMyRcvd = addLogType(labelMyRcvd, typeMyRcvd);
 
-		addLogType(labelTotalSentPackets, typeTotalSentPackets);
-		addLogType(labelTotalRcvdPackets, typeTotalRcvdPackets);
+		idTotalSentPackets = addLogType(labelTotalSentPackets, typeTotalSentPackets);
+		idTotalRcvdPackets = addLogType(labelTotalRcvdPackets, typeTotalRcvdPackets);
 		if (API_VERSION >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1) {
-			addLogType(labelMySentPackets, typeMySentPackets);
-			addLogType(labelMyRcvdPackets, typeMyRcvdPackets);
+			idMySentPackets = addLogType(labelMySentPackets, typeMySentPackets);
+			idMyRcvdPackets = addLogType(labelMyRcvdPackets, typeMyRcvdPackets);
 		}
 	}
 
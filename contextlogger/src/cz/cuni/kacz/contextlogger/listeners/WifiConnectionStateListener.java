@@ -28,10 +28,10 @@ import android.net.NetworkInfo;
 import android.net.NetworkInfo.State;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 @Deprecated
@@ -45,11 +45,12 @@ public class WifiConnectionStateListener extends DefaultContextListener {
 	private static final String TAG = "WifiConnectionStateListener";
 
 	private BroadcastReceiver mWifiBCReceiver = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	// log names and types
 	private final String labelWifiConnectionState = "Wifi connection state";
 	private final int typeWifiConnectionState = DataManager.STRING;
+	private int idWifiConnectionState;
 
 	@Override
 	public void startListening() {
@@ -61,15 +62,13 @@ public class WifiConnectionStateListener extends DefaultContextListener {
 				NetworkInfo netInfo = intent
 						.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
 				State state = netInfo.getState();
-				mDataManager.insertLog(labelWifiConnectionState, time,
+				mDataManager.insertLog(idWifiConnectionState, time,
 						state.name());
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		getAppContext().registerReceiver(mWifiBCReceiver,
 				new IntentFilter(WifiManager.NETWORK_STATE_CHANGED_ACTION),
 				null, handler);
@@ -79,11 +78,11 @@ public class WifiConnectionStateListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mWifiBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelWifiConnectionState, typeWifiConnectionState);
+		idWifiConnectionState = addLogType(labelWifiConnectionState, typeWifiConnectionState);
 	}
 }
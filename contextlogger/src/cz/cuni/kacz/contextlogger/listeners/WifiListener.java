@@ -30,10 +30,10 @@ import android.net.NetworkInfo.State;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -53,7 +53,7 @@ public class WifiListener extends DefaultContextListener {
 
 	private BroadcastReceiver mWifiBCReceiver = null;
 	private WifiManager mWifiManager = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 	private String lastBSSID = null;
 	private String lastSSID = null;
 	private int oldIp = 0;
@@ -61,15 +61,20 @@ public class WifiListener extends DefaultContextListener {
 	// log names and types
 	private final String labelBSSID = "BSSID";
 	private final int typeBSSID = DataManager.STRING;
+	private int idBSSID;
 	private final String labelSSID = "SSID";
 	private final int typeSSID = DataManager.STRING;
+	private int idSSID;
 	private final String labelIP = "IP address";
 	private final int typeIP = DataManager.STRING;
+	private int idIP;
 	private final String labelSpeed = "Link speed";
 	private final int typeSpeed = DataManager.INT;
+	private int idSpeed;
 
 	private final String labelWifiConnectionState = "Wifi connection state";
 	private final int typeWifiConnectionState = DataManager.STRING;
+	private int idWifiConnectionState;
 
 	@Override
 	public void startListening() {
@@ -84,7 +89,7 @@ public class WifiListener extends DefaultContextListener {
 						.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
 				State state = netInfo.getState();
 
-				mDataManager.insertLog(labelWifiConnectionState, time,
+				mDataManager.insertLog(idWifiConnectionState, time,
 						state.name());
 
 				String bssid = "";
@@ -103,7 +108,7 @@ public class WifiListener extends DefaultContextListener {
 					bssid = "";
 				}
 				if (!bssid.equals(lastBSSID)) {
-					mDataManager.insertLog(labelBSSID, time, bssid);
+					mDataManager.insertLog(idBSSID, time, bssid);
 					lastBSSID = bssid;
 				}
 
@@ -111,26 +116,24 @@ public class WifiListener extends DefaultContextListener {
 					ssid = "";
 				}
 				if (!ssid.equals(lastSSID)) {
-					mDataManager.insertLog(labelSSID, time, ssid);
+					mDataManager.insertLog(idSSID, time, ssid);
 					lastSSID = ssid;
 				}
 
 				if (ip != oldIp) {
 					String ipString = String.format("%d.%d.%d.%d", (ip & 0xff),
 						(ip >> 8 & 0xff), (ip >> 16 & 0xff), (ip >> 24 & 0xff));
-					mDataManager.insertLog(labelIP, time, ipString);
+					mDataManager.insertLog(idIP, time, ipString);
 					oldIp = ip;
 				}
-				mDataManager.insertLog(labelSpeed, time, speed);
+				mDataManager.insertLog(idSpeed, time, speed);
 
 
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		getAppContext().registerReceiver(mWifiBCReceiver,
 				new IntentFilter(WifiManager.NETWORK_STATE_CHANGED_ACTION),
 				null, handler);
@@ -140,17 +143,17 @@ public class WifiListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mWifiBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelBSSID, typeBSSID);
-		addLogType(labelSSID, typeSSID);
-		addLogType(labelIP, typeIP);
-		addLogType(labelSpeed, typeSpeed);
+		idBSSID = addLogType(labelBSSID, typeBSSID);
+		idSSID = addLogType(labelSSID, typeSSID);
+		idIP = addLogType(labelIP, typeIP);
+		idSpeed = addLogType(labelSpeed, typeSpeed);
 
-		addLogType(labelWifiConnectionState, typeWifiConnectionState);
+		idWifiConnectionState = addLogType(labelWifiConnectionState, typeWifiConnectionState);
 	}
 
 	@Override
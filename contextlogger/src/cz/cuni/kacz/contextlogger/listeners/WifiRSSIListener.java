@@ -26,10 +26,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -48,12 +48,13 @@ public class WifiRSSIListener extends DefaultContextListener {
 	private static final String TAG = "WifiRSSIListener";
 
 	private BroadcastReceiver mWifiBCReceiver = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 	private int lastRSSI = 0;
 
 	// log names and types
 	private final String labelRSSI = "Wifi strength";
 	private final int typeRSSI = DataManager.INT;
+	private int idRSSI;
 
 	@Override
 	public void startListening() {
@@ -64,16 +65,14 @@ public class WifiRSSIListener extends DefaultContextListener {
 				Log.i(TAG, "rssi action rcvd");
 				int rssi = intent.getIntExtra(WifiManager.EXTRA_NEW_RSSI, 0);
 				if (rssi != 0 && rssi != lastRSSI) {
-					mDataManager.insertLog(labelRSSI, time, rssi);
+					mDataManager.insertLog(idRSSI, time, rssi);
 					lastRSSI = rssi;
 				}
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		getAppContext().registerReceiver(mWifiBCReceiver,
 				new IntentFilter(WifiManager.RSSI_CHANGED_ACTION), null,
 				handler);
@@ -85,11 +84,11 @@ public class WifiRSSIListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mWifiBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelRSSI, typeRSSI);
+		idRSSI = addLogType(labelRSSI, typeRSSI);
 	}
 }
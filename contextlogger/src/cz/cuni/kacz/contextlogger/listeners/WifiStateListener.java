@@ -26,10 +26,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import cz.cuni.kacz.contextlogger.DataManager;
+import cz.cuni.kacz.contextlogger.LooperPool;
 import cz.cuni.kacz.contextlogger.TimeSource;
 
 /**
@@ -48,11 +48,12 @@ public class WifiStateListener extends DefaultContextListener {
 	// private static final String TAG = "WifiStateListener";
 
 	private BroadcastReceiver mWifiBCReceiver = null;
-	private HandlerThread mThread = null;
+	private Looper mLooper = null;
 
 	// log names and types
 	private final String labelWifiState = "Wifi state";
 	private final int typeWifiState = DataManager.INT;
+	private int idWifiState;
 
 	@Override
 	public void startListening() {
@@ -64,15 +65,13 @@ public class WifiStateListener extends DefaultContextListener {
 				int state = intent
 						.getIntExtra(WifiManager.EXTRA_WIFI_STATE, -1);
 				if (state != -1) {
-					mDataManager.insertLog(labelWifiState, time, state);
+					mDataManager.insertLog(idWifiState, time, state);
 				}
 			};
 		};
 
-		mThread = new HandlerThread(TAG);
-		mThread.start();
-		Looper looper = mThread.getLooper();
-		Handler handler = new Handler(looper);
+		mLooper = LooperPool.getInstance().acquire();
+		Handler handler = new Handler(mLooper);
 		getAppContext().registerReceiver(mWifiBCReceiver,
 				new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION), null,
 				handler);
@@ -82,12 +81,12 @@ public class WifiStateListener extends DefaultContextListener {
 	@Override
 	public void stopListening() {
 		getAppContext().unregisterReceiver(mWifiBCReceiver);
-		mThread.quit();
+		LooperPool.getInstance().release(mLooper);
 	}
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelWifiState, typeWifiState);
+		idWifiState = addLogType(labelWifiState, typeWifiState);
 	}
 
 }
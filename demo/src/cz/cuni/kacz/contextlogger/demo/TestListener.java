@@ -49,6 +49,7 @@ public class TestListener extends DefaultContextListener {
 	// log names and types
 	private final String labelDummy = "CLDemo listener";
 	private final int typeDummy = DataManager.INT;
+	private int idDummy;
 
 	public TestListener(int period) {
 		this.period = period;
@@ -62,7 +63,7 @@ public class TestListener extends DefaultContextListener {
 			@Override
 			public void run() {
 				long time = TimeSource.getTimeOfDay();
-				mDataManager.insertLog(labelDummy, time, n++);
+				mDataManager.insertLog(idDummy, time, n++);
 			}
 		}, 0, period);
 	}
@@ -75,7 +76,7 @@ public class TestListener extends DefaultContextListener {
 
 	@Override
 	public void initLogTypes() {
-		addLogType(labelDummy, typeDummy);
+		idDummy = addLogType(labelDummy, typeDummy);
 	}
 
 }
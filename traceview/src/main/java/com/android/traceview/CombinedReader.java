@@ -69,7 +69,7 @@ public class CombinedReader {
             }
 			if (new File(contextLogName).exists()) {
 				try {
-					mLogReader = new ContextLogReader(contextLogName);
+					mLogReader = openLogForTrace(contextLogName, mTraceReader);
 				} catch (IOException e) {
 					throw new IllegalArgumentException();
 				}
@@ -81,6 +81,35 @@ public class CombinedReader {
         mLogReaderAvailable = true;
 	}
 	
+	/**
+	 * Opens a context log, reading only the parts of a segmented or columnar
+	 * log overlapping the trace.
+	 * @param contextLogName Name of the context log or of its manifest.
+	 * @param traceReader Reader of the trace.
+	 */
+	public static ContextLogReader openLogForTrace(String contextLogName,
+			TraceReader traceReader) throws IOException {
+		if (traceReader.getStartTime() <= 0) {
+			// trace without a start time
+			return new ContextLogReader(contextLogName);
+		}
+		long from;
+		try {
+			from = traceReader.getStartTime()
+					- ContextLogReader.readStartTime(contextLogName);
+		} catch (IOException e) {
+			// version 1 log, the start time is at the end of the key section
+			return new ContextLogReader(contextLogName);
+		}
+		if (!traceReader.haveRealTime()) {
+			// the times of a thread CPU time trace are not wall clock times
+			return new ContextLogReader(contextLogName);
+		}
+		return new ContextLogReader(contextLogName, from
+				+ traceReader.getFirstRealTime(), from
+				+ traceReader.getLastRealTime());
+	}
+
 	/**
 	 * Checks whether log reader is available.
 	 * @return true, if available.
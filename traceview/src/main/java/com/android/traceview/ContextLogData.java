@@ -15,7 +15,11 @@ public class ContextLogData implements TimeLineView.LogRow {
 	private NavigableMap<Long, Long> mLongDataMap = null;
 	private NavigableMap<Long, Float> mFloatDataMap = null;
 	private NavigableMap<Long, Double> mDoubleDataMap = null;
-	private NavigableMap<Long, String> mStringDataMap = null;
+	// codes of the strings in the dictionary shared by the rows of the log
+	private NavigableMap<Long, Integer> mStringCodeMap = null;
+	private final StringDictionary mDictionary;
+	// reads the values on the first access, set for logs with a block index
+	private Runnable mLoader = null;
 
 	private double minValue;
 	private double maxValue;
@@ -63,10 +67,12 @@ public class ContextLogData implements TimeLineView.LogRow {
 		this.maxTime = maxTime;
 	}
 
-	ContextLogData(int id, LogType type, String name) {
+	ContextLogData(int id, LogType type, String name,
+			StringDictionary dictionary) {
 		mId = id;
 		mName = name;
 		mType = type;
+		mDictionary = dictionary;
 		switch (mType) {
 		case LONG:
 			mLongDataMap = new TreeMap<Long, Long>();
@@ -81,32 +87,65 @@ public class ContextLogData implements TimeLineView.LogRow {
 			mFloatDataMap = new TreeMap<Long, Float>();
 			break;
 		default: // String
-			mStringDataMap = new TreeMap<Long, String>();
+			mStringCodeMap = new TreeMap<Long, Integer>();
 			break;
 		}
 	}
 
 	NavigableMap<Long, Integer> getIntDataMap() {
+		load();
 		return mIntDataMap;
 	}
 
 	NavigableMap<Long, Long> getLongDataMap() {
+		load();
 		return mLongDataMap;
 	}
 
 	NavigableMap<Long, Float> getFloatDataMap() {
+		load();
 		return mFloatDataMap;
 	}
 
 	NavigableMap<Long, Double> getDoubleDataMap() {
+		load();
 		return mDoubleDataMap;
 	}
 
-	NavigableMap<Long, String> getStringDataMap() {
-		return mStringDataMap;
+	NavigableMap<Long, Integer> getStringCodeMap() {
+		load();
+		return mStringCodeMap;
+	}
+
+	/**
+	 * Sets the task reading the values of the row, run on the first access to
+	 * the values.
+	 */
+	void setLoader(Runnable loader) {
+		mLoader = loader;
+	}
+
+	/**
+	 * Returns true if the values of the row were read.
+	 */
+	boolean isLoaded() {
+		return mLoader == null;
+	}
+
+	private void load() {
+		Runnable loader = mLoader;
+		if (loader != null) {
+			mLoader = null;
+			loader.run();
+		}
+	}
+
+	StringDictionary getStringDictionary() {
+		return mDictionary;
 	}
 
 	Integer getIntValueAt(long timestamp) {
+		load();
 		if (mIntDataMap == null) {
 			return null;
 		}
@@ -118,6 +157,7 @@ public class ContextLogData implements TimeLineView.LogRow {
 	}
 
 	Long getLongValueAt(long timestamp) {
+		load();
 		if (mLongDataMap == null) {
 			return null;
 		}
@@ -129,6 +169,7 @@ public class ContextLogData implements TimeLineView.LogRow {
 	}
 
 	Float getFloatValueAt(long timestamp) {
+		load();
 		if (mFloatDataMap == null) {
 			return null;
 		}
@@ -149,6 +190,7 @@ public class ContextLogData implements TimeLineView.LogRow {
 	}
 
 	Double getDoubleValueAt(long timestamp) {
+		load();
 		if (mDoubleDataMap == null) {
 			return null;
 		}
@@ -169,12 +211,13 @@ public class ContextLogData implements TimeLineView.LogRow {
 	}
 
 	String getStringValueAt(long timestamp) {
-		if (mStringDataMap == null) {
+		load();
+		if (mStringCodeMap == null) {
 			return null;
 		}
-		Entry<Long, String> stringEntry = mStringDataMap.floorEntry(timestamp);
+		Entry<Long, Integer> stringEntry = mStringCodeMap.floorEntry(timestamp);
 		if (stringEntry != null) {
-			return stringEntry.getValue();
+			return mDictionary.get(stringEntry.getValue());
 		}
 		return null;
 	}
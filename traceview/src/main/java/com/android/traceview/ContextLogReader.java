@@ -1,28 +1,63 @@
 package com.android.traceview;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
 
 import cz.cuni.kacz.contextlogger.LogType;
 
 public class ContextLogReader {
 	
 	private final String mTraceFileName;
+	// file being read, a segment of a segmented log
+	private String mFileName;
+	// segments of the log have their own start times
+	private boolean mSegmented = false;
+	// added to the times of the file being read
+	private long mTimeOffset = 0;
 	private Map<Integer, ContextLogData> mLogMap = null;
 	private Map<String, ContextLogData> mLogMapByName = null;
+	// rows of each log ID in the data section, FLOAT3 and FLOAT4 logs are
+	// split into one FLOAT row per component
+	private Map<Integer, ContextLogData[]> mRowsByLogId = null;
+	// strings of all the STRING logs
+	private final StringDictionary mStringDictionary = new StringDictionary();
+	// offset of the block index of a columnar file, -1 if there is none
+	private long mIndexOffset = -1;
+	// blocks of each log ID of a columnar file in the loaded time range
+	private final Map<Integer, List<ColumnIndexEntry>> mColumnIndex = new TreeMap<Integer, List<ColumnIndexEntry>>();
+	// last block of each log ID ending before the loaded time range, holds
+	// the value in effect at its start
+	private final Map<Integer, ColumnIndexEntry> mColumnBefore = new TreeMap<Integer, ColumnIndexEntry>();
+	// dictionary codes of the strings of the index of a columnar file
+	private ArrayList<Integer> mColumnStrings = new ArrayList<Integer>();
+	// the file being read has no footer, it is read up to a damaged record
+	private boolean mRecovering = false;
+	// size of the data section being read, bounds the lengths in its records
+	private long mDataSize = 0;
+	// time range of the blocks read from a columnar file
+	private final long mFromTime;
+	private final long mToTime;
 	ContextLogData[] mSortedLogs;
 	int mVersionNumber;
 	long mStartTime;
@@ -37,46 +72,519 @@ public class ContextLogReader {
     static final int PARSE_OPTIONS = 4;
 
 	private static final int DATA_MAGIC = 0x574f4c53;
+	private static final int FOOTER_MAGIC = 0x434c4f47;
+	// ends a state record
+	private static final int STATE_MAGIC = 0x53544154;
+	// long offset of the key section, int FOOTER_MAGIC
+	private static final int FOOTER_SIZE = 12;
+	// container of a segment compressed in the background
+	private static final int Z_MAGIC = 0x434c5a31;
+	// int Z_MAGIC, long offset of the tail, long offset of the key section,
+	// int length of the tail
+	private static final int Z_HEADER_SIZE = 24;
+	// first line of the manifest of a segmented log
+	private static final String MANIFEST_MARKER = "*manifest";
 
     private enum ClockSource {
         THREAD_CPU, WALL, DUAL,
     };
 	    
 	public ContextLogReader(String traceFileName) throws IOException {
+		this(traceFileName, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a context log. For a file with a block index only the blocks
+	 * overlapping the time range are read, and the values of each log are
+	 * read on the first access; other files are read whole.
+	 * 
+	 * @param fromTime
+	 *            Start of the time range, relative to the start of the log.
+	 * @param toTime
+	 *            End of the time range, relative to the start of the log.
+	 */
+	public ContextLogReader(String traceFileName, long fromTime, long toTime)
+			throws IOException {
         mTraceFileName = traceFileName;
+		mFromTime = fromTime;
+		mToTime = toTime;
 		mLogMap = new TreeMap<Integer, ContextLogData>();
 		mLogMapByName = new TreeMap<String, ContextLogData>();
+		mRowsByLogId = new TreeMap<Integer, ContextLogData[]>();
         
         
         generateTrees();
     }
 	
 	void generateTrees() throws IOException {
-        long offset = parseKeys();
-		parseData(offset);
+		List<String[]> segments = readManifest();
+		if (segments == null) {
+			parseLogFile(mTraceFileName);
+		} else {
+			parseSegments(segments);
+		}
 		analyzeData();
     }
-	
-	void parseData(long offset) throws IOException {
+
+	/**
+	 * Reads a log file or a segment of a segmented log.
+	 */
+	private void parseLogFile(String fileName) throws IOException {
+		mFileName = fileName;
+		mIndexOffset = -1;
+		mColumnStrings = new ArrayList<Integer>();
+		mRecovering = false;
+		if (isText()) {
+			parseTextFile();
+		} else if (isCompressed()) {
+			parseCompressedFile();
+		} else if (isSinglePass()) {
+			// data first, key section at the offset stored in the footer
+			long keysOffset = readFooter();
+			if (keysOffset < 0) {
+				// the session did not end, the keys are in the state records
+				System.err.println("Recovering " + fileName
+						+ ", it has no valid footer");
+				mRecovering = true;
+				parseData(0, -1);
+				return;
+			}
+			parseKeys(keysOffset);
+			if (mIndexOffset >= 0) {
+				readColumnIndex();
+			} else {
+				parseData(0, keysOffset);
+			}
+		} else {
+			// version 1, key section followed by the data
+			long offset = parseKeys(0);
+			parseData(offset, -1);
+		}
+	}
+
+	/**
+	 * Reads a segment compressed into a .clog.z container: the uncompressed
+	 * tail of the segment, i.e. the block index of a columnar segment and the
+	 * key section, followed by the data section compressed by DEFLATE. The
+	 * data section is inflated while its records are decoded, the blocks of a
+	 * columnar segment are read whole rather than on the first access.
+	 */
+	private void parseCompressedFile() throws IOException {
+		long tailOffset;
+		long keysOffset;
+		int tailLength;
+		DataInputStream header = new DataInputStream(new FileInputStream(
+				mFileName));
+		try {
+			header.readInt();
+			tailOffset = header.readLong();
+			keysOffset = header.readLong();
+			tailLength = header.readInt();
+		} finally {
+			header.close();
+		}
+		// offsets in the segment to offsets in the container
+		long shift = Z_HEADER_SIZE - tailOffset;
+		// the compressed part is the data section up to the tail
+		mDataSize = tailOffset;
+		parseKeys(keysOffset + shift);
+		if (mIndexOffset >= 0) {
+			FileInputStream file = new FileInputStream(mFileName);
+			try {
+				file.getChannel().position(mIndexOffset + shift);
+				readColumnStrings(new DataInputStream(new BufferedInputStream(
+						file)));
+			} finally {
+				file.close();
+			}
+		}
+		FileInputStream file = new FileInputStream(mFileName);
+		try {
+			file.getChannel().position(Z_HEADER_SIZE + tailLength);
+			parseData(new InflaterInputStream(file));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the file of a segment, or its compressed container if the
+	 * segment was compressed after the manifest was read.
+	 */
+	private static File getSegmentFile(File dir, String name) {
+		File file = new File(dir, name);
+		File compressed = new File(dir, name + ".z");
+		if (!file.exists() && compressed.exists()) {
+			return compressed;
+		}
+		return file;
+	}
+
+	/**
+	 * Reads the manifest of a segmented log.
+	 * 
+	 * @return Name, time of the first and time of the last record of each
+	 *         segment, null if the file is not a manifest.
+	 */
+	private List<String[]> readManifest() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(mTraceFileName), "UTF-8"));
+		try {
+			String line = in.readLine();
+			if (!MANIFEST_MARKER.equals(line)) {
+				return null;
+			}
+			in.readLine(); // version
+			List<String[]> segments = new ArrayList<String[]>();
+			while ((line = in.readLine()) != null && !line.equals("*end")) {
+				String[] segment = line.split(" ");
+				if (segment.length == 3) {
+					segments.add(segment);
+				}
+			}
+			return segments;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the segments of a segmented log overlapping the time range as
+	 * one log starting at the start of the first segment. The last segment
+	 * starting before the range is read too, for the values in effect at
+	 * the start of the range. Segments that cannot be read, e.g. the last
+	 * one of a session that did not end, are skipped.
+	 */
+	private void parseSegments(List<String[]> segments) throws IOException {
+		if (segments.isEmpty()) {
+			return;
+		}
+		File dir = new File(mTraceFileName).getAbsoluteFile().getParentFile();
+		mSegmented = true;
+		mStartTime = readStartTime(getSegmentFile(dir, segments.get(0)[0])
+				.getPath());
+		// the segment with the values in effect at the start of the range
+		int before = -1;
+		for (int i = 0; i < segments.size(); ++i) {
+			if (Long.parseLong(segments.get(i)[1]) - mStartTime <= mFromTime) {
+				before = i;
+			}
+		}
+		for (int i = 0; i < segments.size(); ++i) {
+			String[] segment = segments.get(i);
+			long first = Long.parseLong(segment[1]) - mStartTime;
+			long last = Long.parseLong(segment[2]);
+			if (i != before
+					&& (first > mToTime || (last >= 0 && last - mStartTime < mFromTime))) {
+				continue;
+			}
+			String fileName = getSegmentFile(dir, segment[0]).getPath();
+			try {
+				parseLogFile(fileName);
+			} catch (IOException e) {
+				System.err.println("Skipping log segment " + fileName + ": "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Sets the offset of the times of the file being read.
+	 */
+	private void setFileStartTime(long startTime) {
+		if (!mSegmented) {
+			mStartTime = startTime;
+		}
+		mTimeOffset = startTime - mStartTime;
+	}
+
+	/**
+	 * Returns the start time of a single pass log file or of the first segment
+	 * of a segmented log, without reading the log.
+	 */
+	public static long readStartTime(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		try {
+			int magic = in.readInt();
+			if (magic == Z_MAGIC) {
+				in.skipBytes(Z_HEADER_SIZE - 8);
+				in.skipBytes(in.readInt());
+				in = new DataInputStream(new InflaterInputStream(in));
+				magic = in.readInt();
+			}
+			if (magic == DATA_MAGIC) {
+				in.readByte(); // version
+				return in.readLong();
+			}
+		} finally {
+			in.close();
+		}
+		BufferedReader manifest = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName), "UTF-8"));
+		try {
+			String line = manifest.readLine();
+			if (MANIFEST_MARKER.equals(line)) {
+				manifest.readLine(); // version
+				line = manifest.readLine();
+				if (line != null && !line.equals("*end")) {
+					File dir = new File(fileName).getAbsoluteFile()
+							.getParentFile();
+					return readStartTime(getSegmentFile(dir,
+							line.split(" ")[0]).getPath());
+				}
+			}
+		} finally {
+			manifest.close();
+		}
+		throw new IOException("Start time of " + fileName + " is unknown");
+	}
+
+	/**
+	 * Returns true if the file is a compressed segment.
+	 */
+	boolean isCompressed() throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(
+				mFileName));
+		try {
+			return in.readInt() == Z_MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns true if the file was written by TextFileDataTarget: a key
+	 * section followed by a text data section starting with a "magic:" line,
+	 * or since version 2 the version followed by the text data section.
+	 */
+	boolean isText() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(mFileName), "UTF-8"));
+		try {
+			String line = in.readLine();
+			if (!"*version".equals(line)) {
+				return false;
+			}
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("magic: ")) {
+					return true;
+				}
+				if (line.equals("*end")) {
+					line = in.readLine();
+					return line != null && line.startsWith("magic: ");
+				}
+			}
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a file written by TextFileDataTarget. Each record is an "Id:", a
+	 * "time:" and a "value" line, the components of a vector record are
+	 * separated by spaces. Version 1 lists the logs in the key section,
+	 * version 2 has no key section and lists each log among the records as a
+	 * "*log id type name" line when it is registered.
+	 */
+	private void parseTextFile() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(mFileName), "UTF-8"));
+		try {
+			int mode = PARSE_VERSION;
+			boolean data = false;
+			ContextLogData[] rows = null;
+			long timeStamp = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("*log ")) {
+					parseLogTypes(line.substring("*log ".length()));
+				} else if (line.startsWith("Id: ")) {
+					int logId = Integer.parseInt(line.substring("Id: "
+							.length()));
+					rows = mRowsByLogId.get(logId);
+					if (rows == null) {
+						throw new IOException("Unknown log ID " + logId);
+					}
+				} else if (line.startsWith("time: ")) {
+					timeStamp = Long.parseLong(line.substring("time: "
+							.length())) + mTimeOffset;
+				} else if (line.startsWith("value ") && rows != null) {
+					putTextValue(rows, timeStamp, line.substring("value "
+							.length()));
+				} else if (line.startsWith("starttime: ")) {
+					setFileStartTime(Long.parseLong(line.substring(
+							"starttime: ".length())));
+				} else if (line.startsWith("magic: ")) {
+					data = true;
+				} else if (data) {
+					// "version:", "*end" or a line of a multi-line string
+					continue;
+				} else if (line.equals("*version")) {
+					mode = PARSE_VERSION;
+				} else if (line.equals("*logs")) {
+					mode = PARSE_LOGTYPES;
+				} else if (line.equals("*end")) {
+					continue;
+				} else if (mode == PARSE_VERSION) {
+					mVersionNumber = Integer.decode(line);
+					mode = PARSE_OPTIONS;
+				} else if (mode == PARSE_LOGTYPES) {
+					parseLogTypes(line);
+				} else {
+					parseOption(line);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad record in " + mFileName + ": "
+					+ e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Adds the value of a "value" line of a text file to the rows of its log.
+	 */
+	private void putTextValue(ContextLogData[] rows, long timeStamp,
+			String value) {
+		if (rows.length > 1) {
+			String[] components = value.split(" ");
+			for (int c = 0; c < rows.length && c < components.length; ++c) {
+				float val = Float.parseFloat(components[c]);
+				// missing components are logged as NaN
+				if (!Float.isNaN(val)) {
+					rows[c].getFloatDataMap().put(timeStamp, val);
+				}
+			}
+			return;
+		}
+		ContextLogData ld = rows[0];
+		switch (ld.getType()) {
+		case INT:
+			ld.getIntDataMap().put(timeStamp, Integer.parseInt(value));
+			break;
+		case LONG:
+			ld.getLongDataMap().put(timeStamp, Long.parseLong(value));
+			break;
+		case FLOAT:
+			ld.getFloatDataMap().put(timeStamp, Float.parseFloat(value));
+			break;
+		case DOUBLE:
+			ld.getDoubleDataMap().put(timeStamp, Double.parseDouble(value));
+			break;
+		default: // String
+			ld.getStringCodeMap().put(timeStamp, mStringDictionary.add(value));
+			break;
+		}
+	}
+
+	/**
+	 * Returns true if the file starts with the data section, i.e. it was
+	 * written in a single pass with the key section after the data.
+	 */
+	boolean isSinglePass() throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(
+				mFileName));
+		try {
+			return in.readInt() == DATA_MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the footer of a single pass file.
+	 * 
+	 * @return Offset of the key section, -1 if the file has no valid footer.
+	 */
+	long readFooter() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFileName, "r");
+		try {
+			long length = file.length();
+			if (length < FOOTER_SIZE) {
+				return -1;
+			}
+			file.seek(length - FOOTER_SIZE);
+			long keysOffset = file.readLong();
+			if (file.readInt() != FOOTER_MAGIC || keysOffset < 0
+					|| keysOffset > length - FOOTER_SIZE) {
+				return -1;
+			}
+			return keysOffset;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the records of the data section.
+	 * 
+	 * @param offset
+	 *            Offset of the data section.
+	 * @param end
+	 *            Offset of the end of the data section, -1 for the end of
+	 *            the file.
+	 */
+	void parseData(long offset, long end) throws IOException {
+		FileInputStream file = new FileInputStream(mFileName);
+		try {
+			file.getChannel().position(offset);
+			InputStream data = file;
+			mDataSize = file.getChannel().size() - offset;
+			if (end >= 0) {
+				data = new LimitedInputStream(file, end - offset);
+				mDataSize = end - offset;
+			}
+			parseData(data);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the records of a data section from the stream.
+	 */
+	private void parseData(InputStream data) throws IOException {
 		DataInputStream in = null;
 		try {
-			in = new DataInputStream(new FileInputStream(mTraceFileName));
-			in.skip(offset);
+			in = new DataInputStream(new BufferedInputStream(data));
 			int magic = in.readInt();
 			if (magic != DATA_MAGIC) {
-				// TODO
+				throw new IOException("Bad data section magic 0x"
+						+ Integer.toHexString(magic) + " in " + mFileName);
 			}
 			byte version = in.readByte();
-			mStartTime = in.readLong();
+			setFileStartTime(in.readLong());
 
+			if (version >= 3) {
+				parseCompactRecords(in, version);
+				return;
+			}
 			try {
 				while (true) {
 					int logId = in.readInt();
-					ContextLogData ld = mLogMap.get(logId);
-					if (ld == null) {
-						// TODO: return with error
+					ContextLogData[] rows = mRowsByLogId.get(logId);
+					if (rows == null) {
+						throw new IOException("Unknown log ID " + logId);
 					}
-					long timeStamp = in.readLong();
+					long timeStamp = in.readLong() + mTimeOffset;
+					if (rows.length > 1) {
+						// vector record, one float per component
+						for (ContextLogData row : rows) {
+							float val = in.readFloat();
+							// missing components are logged as NaN
+							if (!Float.isNaN(val)) {
+								row.getFloatDataMap().put(timeStamp, val);
+							}
+						}
+						continue;
+					}
+					ContextLogData ld = rows[0];
 					switch (ld.getType()) {
 					case INT:{
 						int val = in.readInt();
@@ -100,7 +608,8 @@ public class ContextLogReader {
 					}
 					default: {// String
 						String val = in.readUTF();
-						ld.getStringDataMap().put(timeStamp, val);
+						ld.getStringCodeMap().put(timeStamp,
+								mStringDictionary.add(val));
 						break;
 					}
 
@@ -109,6 +618,12 @@ public class ContextLogReader {
 				}
 			} catch (EOFException e) {
 				// TODO EOF reached
+			} catch (IOException e) {
+				if (!mRecovering) {
+					throw e;
+				}
+				System.err.println("Recovered " + mFileName
+						+ " up to a damaged record: " + e.getMessage());
 			}
 		} finally {
 			if (in != null) {
@@ -160,13 +675,582 @@ public class ContextLogReader {
 		*/
 	}
 
-	long parseKeys() throws IOException {
-        long offset = 0;
+	/**
+	 * Reads the records of a version 3 or later data section: varint IDs,
+	 * delta of delta times per log and zig-zag varint INT and LONG values.
+	 * Since version 4 the lowest bit of the ID marks a block of XOR
+	 * compressed values, since version 5 strings are dictionary codes. Since
+	 * version 6 the lowest two bits of the ID give the kind of the record,
+	 * since version 7 state records may add logs and column strings. When
+	 * recovering a file without a footer, the records are read up to the
+	 * first one that is incomplete or damaged.
+	 */
+	private void parseCompactRecords(DataInputStream in, int version)
+			throws IOException {
+		int maxId = 0;
+		for (Integer id : mRowsByLogId.keySet()) {
+			maxId = Math.max(maxId, id);
+		}
+		long[] lastTimes = new long[maxId + 1];
+		long[] lastDeltas = new long[maxId + 1];
+		Arrays.fill(lastTimes, mTimeOffset);
+		// dictionary codes of the strings in the order of the file
+		ArrayList<Integer> fileStrings = new ArrayList<Integer>();
+		try {
+			while (true) {
+				long tag = readVarLong(in);
+				int kind = 0;
+				if (version >= 6) {
+					kind = (int) (tag & 3);
+					tag >>>= 2;
+				} else if (version >= 4) {
+					kind = (int) (tag & 1);
+					tag >>>= 1;
+				}
+				int logId = (int) tag;
+				if (kind == 3) {
+					parseStateRecord(in);
+					continue;
+				}
+				ContextLogData[] rows = mRowsByLogId.get(logId);
+				if (rows == null) {
+					throw new IOException("Unknown log ID " + logId);
+				}
+				if (logId >= lastTimes.length) {
+					// added by a state record
+					int length = Math.max(logId + 1, lastTimes.length * 2);
+					int oldLength = lastTimes.length;
+					lastTimes = Arrays.copyOf(lastTimes, length);
+					lastDeltas = Arrays.copyOf(lastDeltas, length);
+					Arrays.fill(lastTimes, oldLength, length, mTimeOffset);
+				}
+				if (kind == 1) {
+					parseXorBlock(in, rows, logId, lastTimes, lastDeltas);
+					continue;
+				}
+				if (kind == 2) {
+					parseColumnBlock(in, rows);
+					continue;
+				}
+				long delta = lastDeltas[logId] + readZigZag(in);
+				long timeStamp = lastTimes[logId] + delta;
+				lastDeltas[logId] = delta;
+				lastTimes[logId] = timeStamp;
+				if (rows.length > 1) {
+					for (ContextLogData row : rows) {
+						float val = in.readFloat();
+						if (!Float.isNaN(val)) {
+							row.getFloatDataMap().put(timeStamp, val);
+						}
+					}
+					continue;
+				}
+				ContextLogData ld = rows[0];
+				switch (ld.getType()) {
+				case INT:
+					ld.getIntDataMap().put(timeStamp, (int) readZigZag(in));
+					break;
+				case LONG:
+					ld.getLongDataMap().put(timeStamp, readZigZag(in));
+					break;
+				case FLOAT:
+					ld.getFloatDataMap().put(timeStamp, in.readFloat());
+					break;
+				case DOUBLE:
+					ld.getDoubleDataMap().put(timeStamp, in.readDouble());
+					break;
+				default:
+					int code;
+					if (version < 5) {
+						code = mStringDictionary.add(in.readUTF());
+					} else {
+						code = (int) readVarLong(in);
+						if (code == 0) {
+							code = mStringDictionary.add(in.readUTF());
+							fileStrings.add(code);
+						} else if (code == 1) {
+							code = mStringDictionary.add(in.readUTF());
+						} else if (code >= 2 && code - 2 < fileStrings.size()) {
+							code = fileStrings.get(code - 2);
+						} else {
+							throw new IOException("Unknown string code "
+									+ code);
+						}
+					}
+					ld.getStringCodeMap().put(timeStamp, code);
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			// end of the data section
+		} catch (IOException e) {
+			if (!mRecovering) {
+				throw e;
+			}
+			System.err.println("Recovered " + mFileName
+					+ " up to a damaged record: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a state record: the key lines of the logs registered since the
+	 * previous state record and the strings added to the dictionary of a
+	 * columnar file, numbered from the given index.
+	 */
+	private void parseStateRecord(DataInputStream in) throws IOException {
+		byte[] keys = new byte[readLength(in)];
+		in.readFully(keys);
+		for (String line : new String(keys, "UTF-8").split("\n")) {
+			if (line.length() > 0) {
+				parseLogTypes(line);
+			}
+		}
+		int first = (int) readVarLong(in);
+		int count = (int) readVarLong(in);
+		for (int i = 0; i < count; ++i) {
+			int code = mStringDictionary.add(in.readUTF());
+			// the strings are in the block index of a complete file too
+			if (first + i == mColumnStrings.size()) {
+				mColumnStrings.add(code);
+			}
+		}
+		if (in.readInt() != STATE_MAGIC) {
+			throw new IOException("Damaged state record");
+		}
+	}
+
+	/**
+	 * Reads a block of XOR compressed FLOAT, DOUBLE or vector values: the
+	 * number of values, their delta of delta times, the length of the bit
+	 * stream and the bit stream, decoded as it is read.
+	 */
+	private void parseXorBlock(DataInputStream in, ContextLogData[] rows,
+			int logId, long[] lastTimes, long[] lastDeltas) throws IOException {
+		LogType type = rows[0].getType();
+		if (type != LogType.FLOAT && type != LogType.DOUBLE) {
+			throw new IOException("XOR block of a " + type + " log");
+		}
+		int count = readLength(in);
+		long[] times = new long[count];
+		for (int i = 0; i < count; ++i) {
+			long delta = lastDeltas[logId] + readZigZag(in);
+			times[i] = lastTimes[logId] + delta;
+			lastDeltas[logId] = delta;
+			lastTimes[logId] = times[i];
+		}
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+
+		boolean isDouble = rows.length == 1
+				&& rows[0].getType() == LogType.DOUBLE;
+		int width = isDouble ? 64 : 32;
+		int lengthBits = isDouble ? 6 : 5;
+		long[] previous = new long[rows.length];
+		int[] leading = new int[rows.length];
+		int[] trailing = new int[rows.length];
+		BitReader bits = new BitReader(bytes);
+		for (int i = 0; i < count; ++i) {
+			for (int c = 0; c < rows.length; ++c) {
+				long value;
+				if (i == 0) {
+					value = bits.read(width);
+				} else if (bits.read(1) == 0) {
+					value = previous[c];
+				} else {
+					if (bits.read(1) != 0) {
+						leading[c] = (int) bits.read(5);
+						int length = (int) bits.read(lengthBits) + 1;
+						trailing[c] = width - leading[c] - length;
+					}
+					int length = width - leading[c] - trailing[c];
+					value = previous[c] ^ (bits.read(length) << trailing[c]);
+				}
+				previous[c] = value;
+				if (isDouble) {
+					rows[c].getDoubleDataMap().put(times[i],
+							Double.longBitsToDouble(value));
+				} else {
+					float val = Float.intBitsToFloat((int) value);
+					if (rows.length == 1 || !Float.isNaN(val)) {
+						rows[c].getFloatDataMap().put(times[i], val);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a column block found in the data section.
+	 */
+	private void parseColumnBlock(DataInputStream in, ContextLogData[] rows)
+			throws IOException {
+		int count = (int) readVarLong(in);
+		long firstTime = readZigZag(in);
+		readVarLong(in); // time span
+		int arity = getColumnArity(rows);
+		for (int c = 0; c < 2 * arity; ++c) {
+			in.readDouble(); // summary
+		}
+		byte[] values = new byte[readLength(in)];
+		in.readFully(values);
+		decodeColumn(values, rows, count, firstTime + mTimeOffset,
+				mColumnStrings);
+	}
+
+	/**
+	 * Returns the number of value summaries of a column block.
+	 */
+	private static int getColumnArity(ContextLogData[] rows) {
+		return rows[0].getType() == LogType.STRING ? 0 : rows.length;
+	}
+
+	/**
+	 * Decodes the values of a column block into the rows.
+	 * 
+	 * @param strings
+	 *            Dictionary codes of the strings of the file of the block.
+	 */
+	private void decodeColumn(byte[] values, ContextLogData[] rows,
+			int count, long firstTime, List<Integer> strings)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				values));
+		ContextLogData ld = rows[0];
+		long timeStamp = firstTime;
+		long delta = 0;
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) {
+				delta += readZigZag(in);
+				timeStamp += delta;
+			}
+			if (rows.length > 1) {
+				for (ContextLogData row : rows) {
+					float val = in.readFloat();
+					if (!Float.isNaN(val)) {
+						row.getFloatDataMap().put(timeStamp, val);
+					}
+				}
+				continue;
+			}
+			switch (ld.getType()) {
+			case INT:
+				ld.getIntDataMap().put(timeStamp, (int) readZigZag(in));
+				break;
+			case LONG:
+				ld.getLongDataMap().put(timeStamp, readZigZag(in));
+				break;
+			case FLOAT:
+				ld.getFloatDataMap().put(timeStamp, in.readFloat());
+				break;
+			case DOUBLE:
+				ld.getDoubleDataMap().put(timeStamp, in.readDouble());
+				break;
+			default:
+				int code = (int) readVarLong(in);
+				if (code == 1) {
+					code = mStringDictionary.add(in.readUTF());
+				} else if (code >= 2 && code - 2 < strings.size()) {
+					code = strings.get(code - 2);
+				} else {
+					throw new IOException("Unknown string code " + code);
+				}
+				ld.getStringCodeMap().put(timeStamp, code);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the start time and the block index of a columnar file and
+	 * summarizes the logs from it. The values are read by loadColumns() when
+	 * a row is first accessed.
+	 */
+	private void readColumnIndex() throws IOException {
+		FileInputStream file = new FileInputStream(mFileName);
+		try {
+			DataInputStream header = new DataInputStream(file);
+			header.readInt();
+			header.readByte();
+			setFileStartTime(header.readLong());
+			file.getChannel().position(mIndexOffset);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					file));
+			readColumnStrings(in);
+			int blocks = in.readInt();
+			for (int i = 0; i < blocks; ++i) {
+				ColumnIndexEntry entry = new ColumnIndexEntry();
+				int logId = in.readInt();
+				entry.mOffset = in.readLong();
+				entry.mValuesOffset = in.readLong();
+				entry.mValuesLength = in.readInt();
+				if (entry.mValuesOffset < 0 || entry.mValuesLength < 0
+						|| entry.mValuesOffset + entry.mValuesLength > mIndexOffset) {
+					throw new IOException("Damaged block index in " + mFileName);
+				}
+				entry.mCount = in.readInt();
+				entry.mFileName = mFileName;
+				entry.mStrings = mColumnStrings;
+				entry.mFirstTime = in.readLong() + mTimeOffset;
+				entry.mLastTime = in.readLong() + mTimeOffset;
+				ContextLogData[] rows = mRowsByLogId.get(logId);
+				if (rows == null) {
+					throw new IOException("Unknown log ID " + logId);
+				}
+				int arity = getColumnArity(rows);
+				entry.mMin = new double[arity];
+				entry.mMax = new double[arity];
+				for (int c = 0; c < arity; ++c) {
+					entry.mMin[c] = in.readDouble();
+					entry.mMax[c] = in.readDouble();
+				}
+				if (entry.mLastTime < mFromTime) {
+					ColumnIndexEntry before = mColumnBefore.get(logId);
+					if (before == null || before.mLastTime <= entry.mLastTime) {
+						mColumnBefore.put(logId, entry);
+					}
+					continue;
+				}
+				if (entry.mFirstTime > mToTime) {
+					continue;
+				}
+				List<ColumnIndexEntry> entries = mColumnIndex.get(logId);
+				if (entries == null) {
+					entries = new ArrayList<ColumnIndexEntry>();
+					mColumnIndex.put(logId, entries);
+				}
+				entries.add(entry);
+			}
+		} finally {
+			file.close();
+		}
+
+		for (Map.Entry<Integer, ContextLogData[]> e : mRowsByLogId.entrySet()) {
+			final int logId = e.getKey();
+			ContextLogData[] rows = e.getValue();
+			summarizeColumns(rows, getColumnEntries(logId));
+			Runnable loader = new Runnable() {
+				@Override
+				public void run() {
+					loadColumns(logId);
+				}
+			};
+			for (ContextLogData row : rows) {
+				row.setLoader(loader);
+			}
+		}
+	}
+
+	/**
+	 * Returns the blocks of a log to read, the last one before the time
+	 * range and the ones in it, or null if there are none.
+	 */
+	private List<ColumnIndexEntry> getColumnEntries(int logId) {
+		List<ColumnIndexEntry> entries = mColumnIndex.get(logId);
+		ColumnIndexEntry before = mColumnBefore.get(logId);
+		if (before == null) {
+			return entries;
+		}
+		List<ColumnIndexEntry> all = new ArrayList<ColumnIndexEntry>();
+		all.add(before);
+		if (entries != null) {
+			all.addAll(entries);
+		}
+		return all;
+	}
+
+	/**
+	 * Reads the strings at the start of the block index into mColumnStrings.
+	 */
+	private void readColumnStrings(DataInputStream in) throws IOException {
+		int strings = in.readInt();
+		for (int i = 0; i < strings; ++i) {
+			mColumnStrings.add(mStringDictionary.add(in.readUTF()));
+		}
+	}
+
+	/**
+	 * Sets the time and value ranges of the rows from the block summaries.
+	 */
+	private static void summarizeColumns(ContextLogData[] rows,
+			List<ColumnIndexEntry> entries) {
+		for (int c = 0; c < rows.length; ++c) {
+			double minTime = Double.POSITIVE_INFINITY;
+			double maxTime = Double.NEGATIVE_INFINITY;
+			double minVal = Double.POSITIVE_INFINITY;
+			double maxVal = Double.NEGATIVE_INFINITY;
+			if (entries != null) {
+				for (ColumnIndexEntry entry : entries) {
+					// components that are all NaN have an empty range
+					if (entry.mMin.length > 0 && entry.mMin[c] > entry.mMax[c]) {
+						continue;
+					}
+					minTime = Math.min(minTime, entry.mFirstTime);
+					maxTime = Math.max(maxTime, entry.mLastTime);
+					if (entry.mMin.length > 0) {
+						minVal = Math.min(minVal, entry.mMin[c]);
+						maxVal = Math.max(maxVal, entry.mMax[c]);
+					}
+				}
+			}
+			ContextLogData ld = rows[c];
+			if (minTime > maxTime) {
+				minTime = 0;
+				maxTime = 0;
+			}
+			if (minVal > maxVal) {
+				minVal = 0;
+				maxVal = 0;
+			}
+			ld.setMinTime(minTime);
+			ld.setMaxTime(maxTime);
+			ld.setMinValue(minVal);
+			ld.setMaxValue(maxVal);
+			ld.setMaxDiff(maxVal - minVal);
+		}
+	}
+
+	/**
+	 * Reads the blocks of a log in the time range of the reader and the last
+	 * one before it.
+	 */
+	private void loadColumns(int logId) {
+		ContextLogData[] rows = mRowsByLogId.get(logId);
+		for (ContextLogData row : rows) {
+			row.setLoader(null);
+		}
+		List<ColumnIndexEntry> entries = getColumnEntries(logId);
+		if (entries == null) {
+			return;
+		}
+		RandomAccessFile file = null;
+		try {
+			for (ColumnIndexEntry entry : entries) {
+				if (file == null || !entry.mFileName.equals(mFileName)) {
+					// the blocks of a segment are next to each other
+					if (file != null) {
+						file.close();
+					}
+					file = new RandomAccessFile(entry.mFileName, "r");
+					mFileName = entry.mFileName;
+				}
+				byte[] values = new byte[entry.mValuesLength];
+				file.seek(entry.mValuesOffset);
+				file.readFully(values);
+				decodeColumn(values, rows, entry.mCount, entry.mFirstTime,
+						entry.mStrings);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entry of the block index of a columnar file.
+	 */
+	private static class ColumnIndexEntry {
+		String mFileName;
+		List<Integer> mStrings;
+		long mOffset;
+		long mValuesOffset;
+		int mValuesLength;
+		int mCount;
+		long mFirstTime;
+		long mLastTime;
+		double[] mMin;
+		double[] mMax;
+	}
+
+	/**
+	 * Reads a bit stream, most significant bit first.
+	 */
+	private static class BitReader {
+		private final byte[] mBytes;
+		private int mPosition = 0;
+
+		BitReader(byte[] bytes) {
+			mBytes = bytes;
+		}
+
+		long read(int count) throws IOException {
+			if (mPosition + count > mBytes.length * 8) {
+				throw new IOException("Truncated XOR block");
+			}
+			long value = 0;
+			while (count > 0) {
+				int available = 8 - (mPosition & 7);
+				int take = Math.min(available, count);
+				int chunk = (mBytes[mPosition >>> 3] >>> (available - take))
+						& ((1 << take) - 1);
+				value = (value << take) | chunk;
+				mPosition += take;
+				count -= take;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Reads the length of an array of a record. A length that is negative or
+	 * larger than the data section comes from a damaged record.
+	 */
+	private int readLength(DataInputStream in) throws IOException {
+		long length = readVarLong(in);
+		if (length < 0 || length > mDataSize) {
+			throw new IOException("Bad length " + length + " in "
+					+ mFileName);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Reads an unsigned varint, 7 bits per byte, least significant first.
+	 */
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+			if (shift > 63) {
+				throw new IOException("Malformed varint");
+			}
+		}
+	}
+
+	/**
+	 * Reads a zig-zag encoded signed varint.
+	 */
+	static long readZigZag(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads the key section.
+	 * 
+	 * @param start
+	 *            Offset of the key section.
+	 * @return Offset of the end of the key section.
+	 */
+	long parseKeys(long start) throws IOException {
+        long offset = start;
         BufferedReader in = null;
         try {
-            in = new BufferedReader(new InputStreamReader(
-new FileInputStream(
-					mTraceFileName), "US-ASCII"));
+			FileInputStream file = new FileInputStream(mFileName);
+			file.getChannel().position(start);
+            in = new BufferedReader(new InputStreamReader(file, "US-ASCII"));
 
             int mode = PARSE_VERSION;
             String line = null;
@@ -221,7 +1305,9 @@ new FileInputStream(
     }
 	
 	void parseOption(String line) {
-		// no options available in current version
+		if (line.startsWith("index=")) {
+			mIndexOffset = Long.parseLong(line.substring("index=".length()));
+		}
 	}
 	
 	void parseLogTypes(String line) {
@@ -242,12 +1328,41 @@ new FileInputStream(
 		}
 
         int id = Integer.decode(idStr);
+		if (mRowsByLogId.containsKey(id)) {
+			// registered in an earlier segment
+			return;
+		}
 		int typeInt = Integer.decode(typeStr);
 		LogType type = LogType.byType(typeInt);
-		
-		ContextLogData cld = new ContextLogData(id, type, name);
-		mLogMap.put(id, cld);
+
+		if (type.getArity() > 1) {
+			// vector log, the name lists the names of the components
+			String[] names = name.split(Pattern
+					.quote(LogType.VECTOR_LABEL_SEPARATOR));
+			ContextLogData[] rows = new ContextLogData[type.getArity()];
+			for (int c = 0; c < rows.length; ++c) {
+				String rowName = c < names.length ? names[c] : names[0] + " "
+						+ c;
+				rows[c] = addRow(LogType.FLOAT, rowName);
+			}
+			mRowsByLogId.put(id, rows);
+		} else {
+			mRowsByLogId.put(id, new ContextLogData[] { addRow(type, name) });
+		}
+	}
+
+	/**
+	 * Creates a row of the log view. The rows are numbered in the order of the
+	 * key section; for files without vector logs the row IDs match the log
+	 * IDs.
+	 */
+	private ContextLogData addRow(LogType type, String name) {
+		int rowId = mLogMap.size();
+		ContextLogData cld = new ContextLogData(rowId, type, name,
+				mStringDictionary);
+		mLogMap.put(rowId, cld);
 		mLogMapByName.put(name, cld);
+		return cld;
 	}
 	
 	private void analyzeData() {
@@ -255,6 +1370,10 @@ new FileInputStream(
 		Collection<ContextLogData> lv = mLogMap.values();
 
 		for (ContextLogData ld : lv) {
+			if (!ld.isLoaded()) {
+				// summarized from the block index
+				continue;
+			}
 			switch (ld.getType()) {
 			case INT: {
 				if(ld.getIntDataMap().isEmpty()) {
@@ -362,15 +1481,15 @@ new FileInputStream(
 				break;
 			}
 			case STRING:
-				if (ld.getStringDataMap().isEmpty()) {
+				if (ld.getStringCodeMap().isEmpty()) {
 					ld.setMinTime(0);
 					ld.setMaxTime(0);
 					ld.setMinValue(0);
 					ld.setMaxValue(0);
 					ld.setMaxDiff(0);
 				} else {
-					ld.setMinTime(ld.getStringDataMap().firstKey());
-					ld.setMaxTime(ld.getStringDataMap().lastKey());
+					ld.setMinTime(ld.getStringCodeMap().firstKey());
+					ld.setMaxTime(ld.getStringCodeMap().lastKey());
 					ld.setMinValue(0);
 					ld.setMaxValue(0);
 					ld.setMaxDiff(0);
@@ -422,4 +1541,53 @@ new FileInputStream(
 	public long getStartTime() {
 		return mStartTime;
 	}
+
+	/**
+	 * Stream ending after the given number of bytes, used to stop reading the
+	 * data section at the key section.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private long mLeft;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			mLeft = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (mLeft <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b >= 0) {
+				--mLeft;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (mLeft <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, mLeft));
+			if (n > 0) {
+				mLeft -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, mLeft));
+			mLeft -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), mLeft);
+		}
+	}
 }
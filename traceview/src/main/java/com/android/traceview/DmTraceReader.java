@@ -64,6 +64,8 @@ public class DmTraceReader extends TraceReader {
     private MethodData[] mSortedMethods;
     private long mTotalCpuTime;
     private long mTotalRealTime;
+    private long mFirstRealTime;
+    private long mLastRealTime;
     private MethodData mContextSwitch;
     private int mRecordSize;
     private ClockSource mClockSource;
@@ -386,12 +388,23 @@ public class DmTraceReader extends TraceReader {
         }
         mTotalCpuTime = 0;
         mTotalRealTime = 0;
+        mFirstRealTime = Long.MAX_VALUE;
+        mLastRealTime = Long.MIN_VALUE;
         for (ThreadData threadData : mThreadMap.values()) {
             Call rootCall = threadData.getRootCall();
             threadData.updateRootCallTimeBounds();
             rootCall.finish();
             mTotalCpuTime += rootCall.mInclusiveCpuTime;
             mTotalRealTime += rootCall.mInclusiveRealTime;
+            if (threadData.mHaveGlobalTime) {
+                mFirstRealTime = Math.min(mFirstRealTime, threadData.mGlobalStartTime);
+                mLastRealTime = Math.max(mLastRealTime, threadData.mGlobalEndTime);
+            }
+        }
+        if (mFirstRealTime > mLastRealTime) {
+            // no records
+            mFirstRealTime = 0;
+            mLastRealTime = 0;
         }
 
         if (mRegression) {
@@ -730,6 +743,16 @@ public class DmTraceReader extends TraceReader {
         return mTotalRealTime;
     }
 
+    @Override
+    public long getFirstRealTime() {
+        return mFirstRealTime;
+    }
+
+    @Override
+    public long getLastRealTime() {
+        return mLastRealTime;
+    }
+
     @Override
     public boolean haveCpuTime() {
         return mClockSource != ClockSource.WALL;
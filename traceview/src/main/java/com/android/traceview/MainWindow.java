@@ -339,7 +339,8 @@ public class MainWindow extends ApplicationWindow {
             }
 			if (new File(contextLogName).exists()) {
 				try {
-					logReader = new ContextLogReader(contextLogName);
+					logReader = CombinedReader.openLogForTrace(contextLogName,
+							reader);
 				} catch (IOException e) {
 					System.err.printf("Failed to read the log file");
 					e.printStackTrace();
@@ -276,17 +276,19 @@ public class Problem {
 		long end;
 		boolean equals = (rel == Relation.EQUALS);
 
-		NavigableMap<Long, String> logMap = mProblemLog.getStringDataMap();
-		for (Entry<Long, String> e : logMap.entrySet()) {
-			if (inside == false && e.getValue().equals(constraint) == equals) {
+		NavigableMap<Long, Integer> logMap = mProblemLog.getStringCodeMap();
+		StringDictionary dictionary = mProblemLog.getStringDictionary();
+		for (Entry<Long, Integer> e : logMap.entrySet()) {
+			String value = dictionary.get(e.getValue());
+			if (inside == false && value.equals(constraint) == equals) {
 				begining = e.getKey();
 				inside = true;
 				continue;
 			}
-			if (inside == true && e.getValue().equals(constraint) == equals) {
+			if (inside == true && value.equals(constraint) == equals) {
 				continue;
 			}
-			if (inside == true && e.getValue().equals(constraint) != equals) {
+			if (inside == true && value.equals(constraint) != equals) {
 				end = e.getKey();
 				inside = false;
 				intervals.add(new IntervalSelection(Action.Highlight, begining,
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.eclipse.jface.fieldassist.ContentProposalAdapter;
 import org.eclipse.jface.fieldassist.SimpleContentProposalProvider;
@@ -321,8 +322,11 @@ public class ProblemView extends Composite {
 				case STRING:
 					System.out.println("s");
 					stringValueCombo.removeAll();
-					for (String s : mSelectedLog1.getStringDataMap().values()) {
-						stringValueCombo.add(s);
+					StringDictionary dictionary = mSelectedLog1
+							.getStringDictionary();
+					for (Integer code : new TreeSet<Integer>(mSelectedLog1
+							.getStringCodeMap().values())) {
+						stringValueCombo.add(dictionary.get(code));
 					}
 					mIntComposite.setLayoutData(hide);
 					mFloatComposite.setLayoutData(hide);
@@ -0,0 +1,47 @@
+package com.android.traceview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Strings of the STRING logs of a context log, shared by all its rows. The
+ * rows store the codes of their values, so each distinct string is kept in
+ * memory once.
+ * 
+ * @author kacz
+ * 
+ */
+public class StringDictionary {
+
+	private final ArrayList<String> mStrings = new ArrayList<String>();
+	private final HashMap<String, Integer> mCodes = new HashMap<String, Integer>();
+
+	/**
+	 * Returns the code of the string, adding it if it is new.
+	 */
+	int add(String value) {
+		Integer code = mCodes.get(value);
+		if (code == null) {
+			code = mStrings.size();
+			mStrings.add(value);
+			mCodes.put(value, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code of the string, or -1 if it is not in the dictionary.
+	 */
+	public int getCode(String value) {
+		Integer code = mCodes.get(value);
+		return code == null ? -1 : code;
+	}
+
+	public String get(int code) {
+		return mStrings.get(code);
+	}
+
+	public int size() {
+		return mStrings.size();
+	}
+}
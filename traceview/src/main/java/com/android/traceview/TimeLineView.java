@@ -1731,11 +1731,11 @@ public class TimeLineView extends Composite implements Observer {
 					case STRING:
 					{
 						rd.mGraphData.clear();
-						Long startKey = rd.mRow.getStringDataMap()
+						Long startKey = rd.mRow.getStringCodeMap()
 								.floorKey(
 										Math.round(mScaleInfo.getMinVal())
 												+ mStartDiff);
-						Long endKey = rd.mRow.getStringDataMap()
+						Long endKey = rd.mRow.getStringCodeMap()
 								.ceilingKey(
 										Math.round(mScaleInfo.getMaxVal())
 												+ mStartDiff);
@@ -1748,8 +1748,8 @@ public class TimeLineView extends Composite implements Observer {
 									+ mStartDiff;
 						}
 
-						for (Map.Entry<Long, String> e : rd.mRow
-								.getStringDataMap()
+						for (Map.Entry<Long, Integer> e : rd.mRow
+								.getStringCodeMap()
 								.subMap(startKey, endKey + 1)
 								.entrySet()) {
 							int x = mScaleInfo.valueToPixel(e.getKey()
@@ -54,6 +54,22 @@ public abstract class TraceReader {
         return 0;
     }
 
+    /**
+     * Returns the real time of the first record of the trace, relative to
+     * the start time.
+     */
+    public long getFirstRealTime() {
+        return 0;
+    }
+
+    /**
+     * Returns the real time of the last record of the trace, relative to
+     * the start time.
+     */
+    public long getLastRealTime() {
+        return 0;
+    }
+
     public boolean haveCpuTime() {
         return false;
     }